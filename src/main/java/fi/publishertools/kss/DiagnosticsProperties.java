@@ -0,0 +1,21 @@
+package fi.publishertools.kss;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "kss.diagnostics")
+public class DiagnosticsProperties {
+
+    /**
+     * When true, A4_ResolveContentHierarchy records style transition counts per file,
+     * available from the diagnostics endpoint. Off by default.
+     */
+    private boolean styleTransitionsEnabled = false;
+
+    public boolean isStyleTransitionsEnabled() {
+        return styleTransitionsEnabled;
+    }
+
+    public void setStyleTransitionsEnabled(boolean styleTransitionsEnabled) {
+        this.styleTransitionsEnabled = styleTransitionsEnabled;
+    }
+}
@@ -5,9 +5,11 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 import fi.publishertools.kss.integration.ollama.OllamaCacheProperties;
+import fi.publishertools.kss.integration.ollama.OllamaClientProperties;
 
 @SpringBootApplication
-@EnableConfigurationProperties({ UploadProperties.class, OllamaCacheProperties.class })
+@EnableConfigurationProperties({ UploadProperties.class, OllamaCacheProperties.class, OllamaClientProperties.class,
+		DiagnosticsProperties.class, LangDetectionProperties.class })
 public class KssApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,78 @@
+package fi.publishertools.kss;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import fi.publishertools.kss.langid.LanguagePrefilter;
+
+@ConfigurationProperties(prefix = "kss.lang-detection")
+public class LangDetectionProperties {
+
+    /**
+     * When true, B3_ProposeLangMarkup packs many text nodes into one Ollama request instead of
+     * sending one request per node. Off by default.
+     */
+    private boolean batchingEnabled = false;
+
+    /**
+     * Approximate token budget for the texts of one batched request (about four characters per token).
+     */
+    private int batchTokenBudget = 1500;
+
+    /**
+     * In batching mode, text nodes longer than this are split at sentence boundaries into pieces of at
+     * most this many characters.
+     */
+    private int maxSegmentChars = 1000;
+
+    /**
+     * When true, B3_ProposeLangMarkup first checks each text run with a local character n-gram language
+     * identifier and sends only runs with signs of another language to Ollama. Off by default.
+     */
+    private boolean prefilterEnabled = false;
+
+    /**
+     * How much better (mean log-likelihood per character trigram) another language must score a word than
+     * the main language for the run to be sent to Ollama. Lower sends more runs, higher skips more.
+     */
+    private double prefilterThreshold = LanguagePrefilter.DEFAULT_THRESHOLD;
+
+    public boolean isBatchingEnabled() {
+        return batchingEnabled;
+    }
+
+    public void setBatchingEnabled(boolean batchingEnabled) {
+        this.batchingEnabled = batchingEnabled;
+    }
+
+    public int getBatchTokenBudget() {
+        return batchTokenBudget;
+    }
+
+    public void setBatchTokenBudget(int batchTokenBudget) {
+        this.batchTokenBudget = batchTokenBudget;
+    }
+
+    public int getMaxSegmentChars() {
+        return maxSegmentChars;
+    }
+
+    public void setMaxSegmentChars(int maxSegmentChars) {
+        this.maxSegmentChars = maxSegmentChars;
+    }
+
+    public boolean isPrefilterEnabled() {
+        return prefilterEnabled;
+    }
+
+    public void setPrefilterEnabled(boolean prefilterEnabled) {
+        this.prefilterEnabled = prefilterEnabled;
+    }
+
+    public double getPrefilterThreshold() {
+        return prefilterThreshold;
+    }
+
+    public void setPrefilterThreshold(double prefilterThreshold) {
+        this.prefilterThreshold = prefilterThreshold;
+    }
+}
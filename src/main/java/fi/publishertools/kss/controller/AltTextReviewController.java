@@ -14,6 +14,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import fi.publishertools.kss.dto.AltTextBatchUpdateItem;
 import fi.publishertools.kss.dto.AltTextOccurrenceDetail;
 import fi.publishertools.kss.dto.AltTextOccurrenceSummary;
 import fi.publishertools.kss.dto.AltTextReviewSummary;
@@ -66,7 +67,7 @@ public class AltTextReviewController {
         return ResponseEntity.ok(summaries);
     }
 
-    @Operation(summary = "List image occurrences", description = "List image occurrences in document order for a file awaiting alt text review. Each item has index, fileName, proposedAltText, and alternateText (current value).")
+    @Operation(summary = "List image occurrences", description = "List image occurrences in document order for a file awaiting alt text review. Each item has index, fileName, proposedAltText, alternateText (current value) and similarImageMatch (proposal reused from a near-identical image).")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "List of image occurrences (index 0-based, in document order)"),
             @ApiResponse(responseCode = "404", description = "Alt text review not found for file", content = @Content(schema = @Schema(implementation = ErrorResponse.class)))
@@ -88,7 +89,8 @@ public class AltTextReviewController {
                             i,
                             node.fileName() != null ? node.fileName() : "",
                             node.alternateText() != null ? node.alternateText() : "",
-                            node.alternateText() != null ? node.alternateText() : ""
+                            node.alternateText() != null ? node.alternateText() : "",
+                            node.altTextFromSimilarImage()
                     );
                 })
                 .toList();
@@ -111,12 +113,13 @@ public class AltTextReviewController {
         List<ImageNode> imageList = context.getImageList();
         ImageNode node = imageList.get(index);
         String proposed = node.alternateText() != null ? node.alternateText() : "";
-        AltTextReviewService.SurroundingText surrounding = altTextReviewService.getSurroundingText(context.getChapters(), index);
+        AltTextReviewService.SurroundingText surrounding = altTextReviewService.getSurroundingText(context, index);
         AltTextOccurrenceDetail detail = new AltTextOccurrenceDetail(
                 index,
                 node.fileName() != null ? node.fileName() : "",
                 proposed,
                 proposed,
+                node.altTextFromSimilarImage(),
                 surrounding.textBefore(),
                 surrounding.textAfter()
         );
@@ -164,20 +167,31 @@ public class AltTextReviewController {
                                                                              @RequestBody AltTextUpdateRequest request) {
         ProcessingContext context = getContextOrThrow(fileId);
         requireValidIndex(context, index);
-        String text = request.getAlternateText() != null ? request.getAlternateText() : "";
-        List<ImageNode> imageList = context.getImageList();
-        imageList.get(index).setAlternateText(text);
-        altTextReviewService.syncAltTextToTreeAt(context, index);
-        ImageNode node = imageList.get(index);
-        AltTextOccurrenceSummary summary = new AltTextOccurrenceSummary(
-                index,
-                node.fileName() != null ? node.fileName() : "",
-                node.alternateText() != null ? node.alternateText() : "",
-                node.alternateText() != null ? node.alternateText() : ""
-        );
+        AltTextBatchUpdateItem item = new AltTextBatchUpdateItem();
+        item.setIndex(index);
+        item.setAlternateText(request.getAlternateText());
+        AltTextOccurrenceSummary summary = altTextReviewService.applyAltTextUpdates(context, List.of(item)).get(0);
         return ResponseEntity.ok(summary);
     }
 
+    @Operation(summary = "Update several occurrence alt texts", description = "Save edited alt texts for several image occurrences in one request. Request body: [{ \"index\": 0, \"alternateText\": \"...\" }, ...]. All indices are validated before anything is saved.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Updated occurrence summaries in request order"),
+            @ApiResponse(responseCode = "400", description = "Missing or invalid occurrence index", content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
+            @ApiResponse(responseCode = "404", description = "Alt text review not found for file", content = @Content(schema = @Schema(implementation = ErrorResponse.class)))
+    })
+    @PatchMapping(
+            path = "/alt-text-review/{fileId}/occurrences",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<List<AltTextOccurrenceSummary>> updateOccurrenceAltTexts(@PathVariable String fileId,
+                                                                                    @RequestBody List<AltTextBatchUpdateItem> request) {
+        ProcessingContext context = getContextOrThrow(fileId);
+        List<AltTextBatchUpdateItem> updates = request != null ? request : List.of();
+        return ResponseEntity.ok(altTextReviewService.applyAltTextUpdates(context, updates));
+    }
+
     @Operation(summary = "Approve alt text review", description = "Signal that no more editing is needed. Context is removed from the store and processing continues from XHTML generation (C1) to EPUB assembly.")
     @ApiResponses({
             @ApiResponse(responseCode = "202", description = "Approval accepted, processing resumed"),
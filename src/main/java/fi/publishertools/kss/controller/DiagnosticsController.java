@@ -0,0 +1,101 @@
+package fi.publishertools.kss.controller;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import fi.publishertools.kss.dto.ErrorResponse;
+import fi.publishertools.kss.dto.LangPrefilterStatsResponse;
+import fi.publishertools.kss.dto.OllamaCacheStatsResponse;
+import fi.publishertools.kss.dto.StyleTransitionEntry;
+import fi.publishertools.kss.exception.LangPrefilterStatsNotFoundException;
+import fi.publishertools.kss.exception.OllamaCacheStatsNotFoundException;
+import fi.publishertools.kss.exception.StyleTransitionsNotFoundException;
+import fi.publishertools.kss.integration.ollama.OllamaCacheStats;
+import fi.publishertools.kss.langid.PrefilterStats;
+import fi.publishertools.kss.service.LangPrefilterStatsStore;
+import fi.publishertools.kss.service.ProcessingPipelineService;
+import fi.publishertools.kss.service.StyleTransitionStore;
+import fi.publishertools.kss.style.StyleTransitions;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+/**
+ * REST controller exposing per-file processing diagnostics and Ollama cache statistics.
+ */
+@RestController
+@RequestMapping("/api/v1")
+@Tag(name = "Diagnostics", description = "Optional per-file processing statistics (enabled via kss.diagnostics.* and kss.lang-detection.prefilter-enabled) and Ollama cache statistics.")
+public class DiagnosticsController {
+
+    private final StyleTransitionStore styleTransitionStore;
+    private final LangPrefilterStatsStore langPrefilterStatsStore;
+    private final ProcessingPipelineService processingPipelineService;
+
+    public DiagnosticsController(StyleTransitionStore styleTransitionStore, LangPrefilterStatsStore langPrefilterStatsStore,
+            ProcessingPipelineService processingPipelineService) {
+        this.styleTransitionStore = styleTransitionStore;
+        this.langPrefilterStatsStore = langPrefilterStatsStore;
+        this.processingPipelineService = processingPipelineService;
+    }
+
+    @Operation(summary = "Get style transitions", description = "Observed style-to-style transition counts for a file. Recorded only when kss.diagnostics.style-transitions-enabled is true.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Transitions sorted by source and target style"),
+            @ApiResponse(responseCode = "404", description = "No statistics recorded for file", content = @Content(schema = @Schema(implementation = ErrorResponse.class)))
+    })
+    @GetMapping(
+            path = "/diagnostics/{fileId}/style-transitions",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<List<StyleTransitionEntry>> getStyleTransitions(@PathVariable String fileId) {
+        StyleTransitions transitions = styleTransitionStore.get(fileId)
+                .orElseThrow(() -> new StyleTransitionsNotFoundException("Style transitions not found for file: " + fileId));
+        List<StyleTransitionEntry> entries = transitions.transitions().stream()
+                .map(t -> new StyleTransitionEntry(t.from(), t.to(), t.count()))
+                .collect(Collectors.toList());
+        return ResponseEntity.ok(entries);
+    }
+
+    @Operation(summary = "Get language prefilter statistics", description = "How many text runs B3 checked with the local language prefilter and how many it skipped without asking Ollama. Recorded only when kss.lang-detection.prefilter-enabled is true.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Prefilter counts and skip rate"),
+            @ApiResponse(responseCode = "404", description = "No statistics recorded for file", content = @Content(schema = @Schema(implementation = ErrorResponse.class)))
+    })
+    @GetMapping(
+            path = "/diagnostics/{fileId}/lang-prefilter",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<LangPrefilterStatsResponse> getLangPrefilterStats(@PathVariable String fileId) {
+        PrefilterStats stats = langPrefilterStatsStore.get(fileId)
+                .orElseThrow(() -> new LangPrefilterStatsNotFoundException("Language prefilter statistics not found for file: " + fileId));
+        return ResponseEntity.ok(new LangPrefilterStatsResponse(stats.textRuns(), stats.skipped(), stats.skipRate()));
+    }
+
+    @Operation(summary = "Get Ollama cache statistics", description = "Hits from memory, from the cache file and from near-identical images, misses, evictions and expirations of the Ollama result cache since startup. Available only when kss.ollama.cache-enabled is true.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Cache counters, hit rate and entry counts"),
+            @ApiResponse(responseCode = "404", description = "Ollama cache not enabled", content = @Content(schema = @Schema(implementation = ErrorResponse.class)))
+    })
+    @GetMapping(
+            path = "/diagnostics/ollama-cache",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<OllamaCacheStatsResponse> getOllamaCacheStats() {
+        OllamaCacheStats stats = processingPipelineService.ollamaCacheStats()
+                .orElseThrow(() -> new OllamaCacheStatsNotFoundException("Ollama cache is not enabled"));
+        return ResponseEntity.ok(new OllamaCacheStatsResponse(stats.memoryHits(), stats.diskHits(), stats.similarHits(), stats.misses(),
+                stats.hitRate(), stats.memoryEvictions(), stats.diskEvictions(), stats.expirations(),
+                stats.memoryEntries(), stats.memoryMaxEntries(), stats.diskEntries()));
+    }
+}
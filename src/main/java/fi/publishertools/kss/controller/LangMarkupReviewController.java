@@ -13,6 +13,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import fi.publishertools.kss.dto.ErrorResponse;
+import fi.publishertools.kss.dto.LangMarkupBatchUpdateItem;
 import fi.publishertools.kss.dto.LangMarkupOccurrenceDetail;
 import fi.publishertools.kss.dto.LangMarkupOccurrenceSummary;
 import fi.publishertools.kss.dto.LangMarkupReviewSummary;
@@ -73,7 +74,7 @@ public class LangMarkupReviewController {
     )
     public ResponseEntity<List<LangMarkupOccurrenceSummary>> listOccurrences(@PathVariable String fileId) {
         ProcessingContext context = getContextOrThrow(fileId);
-        List<LangMarkupOccurrenceSummary> list = langMarkupReviewService.getOccurrenceSummaries(context.getChapters());
+        List<LangMarkupOccurrenceSummary> list = langMarkupReviewService.getOccurrenceSummaries(context);
         return ResponseEntity.ok(list);
     }
 
@@ -90,7 +91,7 @@ public class LangMarkupReviewController {
     public ResponseEntity<LangMarkupOccurrenceDetail> getOccurrence(@PathVariable String fileId, @PathVariable int index) {
         ProcessingContext context = getContextOrThrow(fileId);
         requireValidIndex(context, index);
-        LangMarkupOccurrenceDetail detail = langMarkupReviewService.getOccurrenceDetail(context.getChapters(), index);
+        LangMarkupOccurrenceDetail detail = langMarkupReviewService.getOccurrenceDetail(context, index);
         if (detail == null) {
             throw new PendingLangMarkupNotFoundException("Occurrence not found for index: " + index);
         }
@@ -121,6 +122,24 @@ public class LangMarkupReviewController {
         return ResponseEntity.ok(summary);
     }
 
+    @Operation(summary = "Update several occurrences", description = "Apply several language markup updates in one request. Each item has index plus the fields of a single update. Indices refer to the numbering before the batch and must be distinct; two updates may not rewrite the same text run. Returns summaries (with indices after the batch) of updated occurrences that still carry markup; dismissed occurrences are omitted.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Updated occurrence summaries in ascending index order"),
+            @ApiResponse(responseCode = "400", description = "Missing, invalid or repeated occurrence index, or two updates rewriting the same text run", content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
+            @ApiResponse(responseCode = "404", description = "Lang markup review not found for file", content = @Content(schema = @Schema(implementation = ErrorResponse.class)))
+    })
+    @PatchMapping(
+            path = "/lang-markup-review/{fileId}/occurrences",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<List<LangMarkupOccurrenceSummary>> updateOccurrences(@PathVariable String fileId,
+                                                                               @RequestBody List<LangMarkupBatchUpdateItem> request) {
+        ProcessingContext context = getContextOrThrow(fileId);
+        List<LangMarkupBatchUpdateItem> updates = request != null ? request : List.of();
+        return ResponseEntity.ok(langMarkupReviewService.applyUpdates(context, updates));
+    }
+
     @Operation(summary = "Approve lang markup review", description = "Signal that no more editing is needed. Context is removed from the store and processing continues from XHTML generation (C1) to EPUB assembly.")
     @ApiResponses({
             @ApiResponse(responseCode = "202", description = "Approval accepted, processing resumed"),
@@ -12,10 +12,13 @@ import fi.publishertools.kss.dto.StatusResponse;
 import fi.publishertools.kss.exception.EpubNotFoundException;
 import fi.publishertools.kss.exception.FileTooLargeException;
 import fi.publishertools.kss.exception.InvalidContentTypeException;
+import fi.publishertools.kss.exception.LangPrefilterStatsNotFoundException;
+import fi.publishertools.kss.exception.OllamaCacheStatsNotFoundException;
 import fi.publishertools.kss.exception.PendingAltTextNotFoundException;
 import fi.publishertools.kss.exception.PendingLangMarkupNotFoundException;
 import fi.publishertools.kss.exception.PendingMetadataNotFoundException;
 import fi.publishertools.kss.exception.ProcessingNotCompletedException;
+import fi.publishertools.kss.exception.StyleTransitionsNotFoundException;
 import jakarta.servlet.http.HttpServletRequest;
 
 @ControllerAdvice
@@ -105,6 +108,42 @@ public class RestExceptionHandler {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
     }
 
+    @ExceptionHandler(StyleTransitionsNotFoundException.class)
+    public ResponseEntity<ErrorResponse> handleStyleTransitionsNotFound(StyleTransitionsNotFoundException ex, HttpServletRequest request) {
+        ErrorResponse body = new ErrorResponse(
+                Instant.now(),
+                HttpStatus.NOT_FOUND.value(),
+                HttpStatus.NOT_FOUND.getReasonPhrase(),
+                ex.getMessage(),
+                request.getRequestURI()
+        );
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+    }
+
+    @ExceptionHandler(LangPrefilterStatsNotFoundException.class)
+    public ResponseEntity<ErrorResponse> handleLangPrefilterStatsNotFound(LangPrefilterStatsNotFoundException ex, HttpServletRequest request) {
+        ErrorResponse body = new ErrorResponse(
+                Instant.now(),
+                HttpStatus.NOT_FOUND.value(),
+                HttpStatus.NOT_FOUND.getReasonPhrase(),
+                ex.getMessage(),
+                request.getRequestURI()
+        );
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+    }
+
+    @ExceptionHandler(OllamaCacheStatsNotFoundException.class)
+    public ResponseEntity<ErrorResponse> handleOllamaCacheStatsNotFound(OllamaCacheStatsNotFoundException ex, HttpServletRequest request) {
+        ErrorResponse body = new ErrorResponse(
+                Instant.now(),
+                HttpStatus.NOT_FOUND.value(),
+                HttpStatus.NOT_FOUND.getReasonPhrase(),
+                ex.getMessage(),
+                request.getRequestURI()
+        );
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+    }
+
     @ExceptionHandler(ProcessingNotCompletedException.class)
     public ResponseEntity<StatusResponse> handleProcessingNotCompleted(ProcessingNotCompletedException ex, HttpServletRequest request) {
         StatusResponse body = new StatusResponse("in-progress", null, ex.getMessage());
@@ -77,6 +77,9 @@ public class StatusController {
         if (currentStatus == ProcessingStatus.AWAITING_LANG_MARKUP_REVIEW) {
             return ResponseEntity.ok(new StatusResponse("awaiting-lang-markup-review", null, null));
         }
+        if (currentStatus == ProcessingStatus.AWAITING_OLLAMA) {
+            return ResponseEntity.ok(new StatusResponse("awaiting-ollama", null, null));
+        }
         if (currentStatus == ProcessingStatus.IN_PROGRESS) {
             return ResponseEntity.ok(new StatusResponse("in-progress", null, null));
         }
@@ -0,0 +1,21 @@
+package fi.publishertools.kss.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * One entry of a batch alt text update: occurrence index plus the alt text to save.
+ */
+@Schema(description = "Alt text update for one image occurrence in a batch")
+public class AltTextBatchUpdateItem extends AltTextUpdateRequest {
+
+    @Schema(description = "Occurrence index (0-based, document order)", requiredMode = Schema.RequiredMode.REQUIRED)
+    private Integer index;
+
+    public Integer getIndex() {
+        return index;
+    }
+
+    public void setIndex(Integer index) {
+        this.index = index;
+    }
+}
@@ -9,15 +9,25 @@ public class AltTextOccurrenceDetail {
     private final String fileName;
     private final String proposedAltText;
     private final String alternateText;
+    private final boolean similarImageMatch;
     private final String textBefore;
     private final String textAfter;
 
     public AltTextOccurrenceDetail(int index, String fileName, String proposedAltText, String alternateText,
                                    String textBefore, String textAfter) {
+        this(index, fileName, proposedAltText, alternateText, false, textBefore, textAfter);
+    }
+
+    /**
+     * @param similarImageMatch true if the proposal is the description of a near-identical image, reused
+     */
+    public AltTextOccurrenceDetail(int index, String fileName, String proposedAltText, String alternateText,
+                                   boolean similarImageMatch, String textBefore, String textAfter) {
         this.index = index;
         this.fileName = fileName;
         this.proposedAltText = proposedAltText;
         this.alternateText = alternateText;
+        this.similarImageMatch = similarImageMatch;
         this.textBefore = textBefore;
         this.textAfter = textAfter;
     }
@@ -38,6 +48,10 @@ public class AltTextOccurrenceDetail {
         return alternateText;
     }
 
+    public boolean isSimilarImageMatch() {
+        return similarImageMatch;
+    }
+
     public String getTextBefore() {
         return textBefore;
     }
@@ -9,12 +9,22 @@ public class AltTextOccurrenceSummary {
     private final String fileName;
     private final String proposedAltText;
     private final String alternateText;
+    private final boolean similarImageMatch;
 
     public AltTextOccurrenceSummary(int index, String fileName, String proposedAltText, String alternateText) {
+        this(index, fileName, proposedAltText, alternateText, false);
+    }
+
+    /**
+     * @param similarImageMatch true if the proposal is the description of a near-identical image, reused
+     */
+    public AltTextOccurrenceSummary(int index, String fileName, String proposedAltText, String alternateText,
+                                    boolean similarImageMatch) {
         this.index = index;
         this.fileName = fileName;
         this.proposedAltText = proposedAltText;
         this.alternateText = alternateText;
+        this.similarImageMatch = similarImageMatch;
     }
 
     public int getIndex() {
@@ -32,4 +42,8 @@ public class AltTextOccurrenceSummary {
     public String getAlternateText() {
         return alternateText;
     }
+
+    public boolean isSimilarImageMatch() {
+        return similarImageMatch;
+    }
 }
@@ -0,0 +1,21 @@
+package fi.publishertools.kss.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * One entry of a batch lang markup update: occurrence index plus the same fields as a single update.
+ */
+@Schema(description = "Update for one language markup occurrence in a batch. Index refers to the numbering before the batch is applied.")
+public class LangMarkupBatchUpdateItem extends LangMarkupUpdateRequest {
+
+    @Schema(description = "Occurrence index (0-based, document order, before the batch)", requiredMode = Schema.RequiredMode.REQUIRED)
+    private Integer index;
+
+    public Integer getIndex() {
+        return index;
+    }
+
+    public void setIndex(Integer index) {
+        this.index = index;
+    }
+}
@@ -0,0 +1,29 @@
+package fi.publishertools.kss.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "How many text runs the local language prefilter let skip Ollama language detection")
+public class LangPrefilterStatsResponse {
+
+    private final int textRuns;
+    private final int skipped;
+    private final double skipRate;
+
+    public LangPrefilterStatsResponse(int textRuns, int skipped, double skipRate) {
+        this.textRuns = textRuns;
+        this.skipped = skipped;
+        this.skipRate = skipRate;
+    }
+
+    public int getTextRuns() {
+        return textRuns;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public double getSkipRate() {
+        return skipRate;
+    }
+}
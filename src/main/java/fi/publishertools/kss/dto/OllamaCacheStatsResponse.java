@@ -0,0 +1,78 @@
+package fi.publishertools.kss.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Hits, misses and evictions of the Ollama result cache since startup")
+public class OllamaCacheStatsResponse {
+
+    private final long memoryHits;
+    private final long diskHits;
+    private final long similarHits;
+    private final long misses;
+    private final double hitRate;
+    private final long memoryEvictions;
+    private final long diskEvictions;
+    private final long expirations;
+    private final int memoryEntries;
+    private final int memoryMaxEntries;
+    private final int diskEntries;
+
+    public OllamaCacheStatsResponse(long memoryHits, long diskHits, long similarHits, long misses, double hitRate,
+            long memoryEvictions, long diskEvictions, long expirations, int memoryEntries, int memoryMaxEntries, int diskEntries) {
+        this.memoryHits = memoryHits;
+        this.diskHits = diskHits;
+        this.similarHits = similarHits;
+        this.misses = misses;
+        this.hitRate = hitRate;
+        this.memoryEvictions = memoryEvictions;
+        this.diskEvictions = diskEvictions;
+        this.expirations = expirations;
+        this.memoryEntries = memoryEntries;
+        this.memoryMaxEntries = memoryMaxEntries;
+        this.diskEntries = diskEntries;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits;
+    }
+
+    public long getDiskHits() {
+        return diskHits;
+    }
+
+    public long getSimilarHits() {
+        return similarHits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRate() {
+        return hitRate;
+    }
+
+    public long getMemoryEvictions() {
+        return memoryEvictions;
+    }
+
+    public long getDiskEvictions() {
+        return diskEvictions;
+    }
+
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public int getMemoryEntries() {
+        return memoryEntries;
+    }
+
+    public int getMemoryMaxEntries() {
+        return memoryMaxEntries;
+    }
+
+    public int getDiskEntries() {
+        return diskEntries;
+    }
+}
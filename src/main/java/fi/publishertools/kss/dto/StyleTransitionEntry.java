@@ -0,0 +1,29 @@
+package fi.publishertools.kss.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Number of times one style was directly followed by another")
+public class StyleTransitionEntry {
+
+    private final String from;
+    private final String to;
+    private final long count;
+
+    public StyleTransitionEntry(String from, String to, long count) {
+        this.from = from;
+        this.to = to;
+        this.count = count;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
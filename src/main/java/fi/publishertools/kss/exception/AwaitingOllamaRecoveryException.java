@@ -0,0 +1,30 @@
+package fi.publishertools.kss.exception;
+
+import java.time.Duration;
+
+import fi.publishertools.kss.model.ProcessingContext;
+
+/**
+ * Thrown when a phase could not get its Ollama proposals because the backend is unavailable and its policy
+ * is to park the book. The pipeline catches this and runs the phase again for the context after
+ * {@link #getRetryAfter()}.
+ */
+public class AwaitingOllamaRecoveryException extends Exception {
+
+    private final ProcessingContext context;
+    private final Duration retryAfter;
+
+    public AwaitingOllamaRecoveryException(ProcessingContext context, Duration retryAfter) {
+        super("Awaiting Ollama recovery for file " + context.getFileId());
+        this.context = context;
+        this.retryAfter = retryAfter;
+    }
+
+    public ProcessingContext getContext() {
+        return context;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
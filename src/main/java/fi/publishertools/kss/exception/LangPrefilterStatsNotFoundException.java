@@ -0,0 +1,11 @@
+package fi.publishertools.kss.exception;
+
+/**
+ * Thrown when no language prefilter statistics have been recorded for a requested file ID.
+ */
+public class LangPrefilterStatsNotFoundException extends RuntimeException {
+
+    public LangPrefilterStatsNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package fi.publishertools.kss.exception;
+
+/**
+ * Thrown when Ollama cache statistics are requested but the Ollama cache is not enabled.
+ */
+public class OllamaCacheStatsNotFoundException extends RuntimeException {
+
+    public OllamaCacheStatsNotFoundException(String message) {
+        super(message);
+    }
+}
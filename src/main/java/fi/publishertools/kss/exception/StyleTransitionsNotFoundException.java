@@ -0,0 +1,11 @@
+package fi.publishertools.kss.exception;
+
+/**
+ * Thrown when no style transition statistics have been recorded for a requested file ID.
+ */
+public class StyleTransitionsNotFoundException extends RuntimeException {
+
+    public StyleTransitionsNotFoundException(String message) {
+        super(message);
+    }
+}
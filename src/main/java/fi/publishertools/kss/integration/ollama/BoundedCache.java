@@ -0,0 +1,182 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded in-memory cache with W-TinyLFU eviction and expiry after write. New entries enter a small
+ * LRU window (1% of the capacity); an entry leaving the window is admitted to the main segmented LRU only
+ * if the {@link FrequencySketch} has seen it more often than the main segment's eviction victim, so a burst
+ * of one-off keys cannot flush frequently used ones. The main segment keeps entries hit at least twice in
+ * a protected part (80%) and the rest on probation. Expired entries are dropped when looked up and
+ * otherwise age out like any unused entry. All methods are synchronized.
+ */
+final class BoundedCache<K, V> {
+
+    private enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    private static final class Node<V> {
+        V value;
+        long writtenAt;
+        Segment segment;
+
+        Node(V value, long writtenAt) {
+            this.value = value;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    /**
+     * Counters since creation.
+     */
+    record Stats(long hits, long misses, long evictions, long expirations, int size, int maximumSize) {}
+
+    private final int maximumSize;
+    private final int windowMax;
+    private final int protectedMax;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final FrequencySketch sketch;
+    private final Map<K, Node<V>> data = new HashMap<>();
+    // Insertion-ordered; re-inserting moves a key to the most recently used end.
+    private final LinkedHashMap<K, Node<V>> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<V>> protectedSegment = new LinkedHashMap<>();
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * @param ttl time after writing an entry expires; null or zero for never
+     */
+    BoundedCache(int maximumSize, Duration ttl, Clock clock) {
+        this.maximumSize = Math.max(2, maximumSize);
+        this.windowMax = Math.max(1, this.maximumSize / 100);
+        this.protectedMax = (this.maximumSize - windowMax) * 8 / 10;
+        this.ttlMillis = ttl != null && !ttl.isNegative() ? ttl.toMillis() : 0;
+        this.clock = clock;
+        this.sketch = new FrequencySketch(this.maximumSize);
+    }
+
+    synchronized V get(K key) {
+        sketch.increment(key);
+        Node<V> node = data.get(key);
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        if (isExpired(node.writtenAt)) {
+            unlink(key, node);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        onAccess(key, node);
+        return node.value;
+    }
+
+    /**
+     * Adds or replaces an entry. {@code writtenAt} (clock millis) is when the value was produced, which may
+     * be earlier than now for values loaded from a slower tier; expiry counts from it.
+     */
+    synchronized void put(K key, V value, long writtenAt) {
+        if (isExpired(writtenAt)) {
+            return;
+        }
+        Node<V> existing = data.get(key);
+        if (existing != null) {
+            existing.value = value;
+            existing.writtenAt = writtenAt;
+            onAccess(key, existing);
+            return;
+        }
+        sketch.increment(key);
+        Node<V> node = new Node<>(value, writtenAt);
+        node.segment = Segment.WINDOW;
+        data.put(key, node);
+        window.put(key, node);
+        if (window.size() > windowMax) {
+            K candidate = eldest(window);
+            admitToMain(candidate, window.remove(candidate));
+        }
+    }
+
+    synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, expirations, data.size(), maximumSize);
+    }
+
+    synchronized int size() {
+        return data.size();
+    }
+
+    boolean isExpired(long writtenAt) {
+        return ttlMillis > 0 && clock.millis() - writtenAt >= ttlMillis;
+    }
+
+    private void onAccess(K key, Node<V> node) {
+        switch (node.segment) {
+            case WINDOW -> {
+                window.remove(key);
+                window.put(key, node);
+            }
+            case PROBATION -> {
+                probation.remove(key);
+                node.segment = Segment.PROTECTED;
+                protectedSegment.put(key, node);
+                if (protectedSegment.size() > protectedMax) {
+                    K demoted = eldest(protectedSegment);
+                    Node<V> demotedNode = protectedSegment.remove(demoted);
+                    demotedNode.segment = Segment.PROBATION;
+                    probation.put(demoted, demotedNode);
+                }
+            }
+            case PROTECTED -> {
+                protectedSegment.remove(key);
+                protectedSegment.put(key, node);
+            }
+        }
+    }
+
+    /**
+     * Moves an entry evicted from the window into probation, evicting either it or the main segment's
+     * least recently used entry, whichever the sketch has seen less often, when the cache is full.
+     */
+    private void admitToMain(K candidate, Node<V> node) {
+        if (data.size() > maximumSize) {
+            Map<K, Node<V>> victimSegment = !probation.isEmpty() ? probation : protectedSegment;
+            K victim = eldest(victimSegment);
+            if (victim != null && sketch.frequency(candidate) <= sketch.frequency(victim)) {
+                data.remove(candidate);
+                evictions++;
+                return;
+            }
+            if (victim != null) {
+                victimSegment.remove(victim);
+                data.remove(victim);
+                evictions++;
+            }
+        }
+        node.segment = Segment.PROBATION;
+        probation.put(candidate, node);
+    }
+
+    private void unlink(K key, Node<V> node) {
+        data.remove(key);
+        switch (node.segment) {
+            case WINDOW -> window.remove(key);
+            case PROBATION -> probation.remove(key);
+            case PROTECTED -> protectedSegment.remove(key);
+        }
+    }
+
+    private static <K> K eldest(Map<K, ?> segment) {
+        Iterator<K> it = segment.keySet().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+}
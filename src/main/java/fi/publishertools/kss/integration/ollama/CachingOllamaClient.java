@@ -1,96 +1,373 @@
 package fi.publishertools.kss.integration.ollama;
 
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import fi.publishertools.kss.util.HashUtils;
 
 /**
- * Decorator that caches Ollama image description results on disk keyed by SHA-256 of image content.
- * Intended for development to avoid repeated slow model calls for the same images.
+ * Decorator that caches Ollama results: image descriptions keyed by SHA-256 of the image content and the
+ * delegate's {@link OllamaClient#describeImageVersion() describe version}, and language detection results
+ * keyed by SHA-256 of detection version, main language and text (prefixed {@value #LANG_PREFIX}). Changing the
+ * model or prompt thus turns old entries into misses, which then age out. Avoids repeated slow model calls for
+ * the same images and for recurring texts such as running heads and captions. Batch detections are answered
+ * from the cache per text; only the misses are sent.
+ * <p>
+ * An image without an exact entry may reuse the description of a near-identical image, e.g. the same photo
+ * exported at another resolution or compression: a {@link PerceptualHash} is computed once per described image
+ * and kept (prefixed {@value #PHASH_PREFIX}, with the describe version), and a new image whose hash is within
+ * the configured Hamming distance gets that description, marked {@link ImageDescription#similarImage()}. The
+ * reused description is then also stored under the new image's own key, with a marker entry (prefixed
+ * {@value #REUSED_PREFIX}) so that later exact hits are still marked. The hashes of the most recently described
+ * images are kept, as many as the cache file holds entries.
+ * <p>
+ * Two tiers: a size-bounded {@link BoundedCache} in memory in front of an {@link OllamaCacheStore} file, both
+ * with the same time to live, so a long-running node keeps a stable footprint while repeated images still hit.
+ * Thread-safe; concurrent misses do not serialize. {@link #close()} writes what is pending.
  */
-public class CachingOllamaClient extends OllamaClient {
+public class CachingOllamaClient extends OllamaClient implements AutoCloseable {
 
-    private static final Logger logger = LoggerFactory.getLogger(CachingOllamaClient.class);
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-    private static final TypeReference<Map<String, String>> MAP_TYPE = new TypeReference<>() {};
+
+    /** Key prefix of the language detection namespace. */
+    static final String LANG_PREFIX = "lang:";
+    /** Key prefix of the perceptual hash entries: {@code phash:<version>:<hash>:<image key>}. */
+    static final String PHASH_PREFIX = "phash:";
+    /** Key prefix of the entries marking an image key whose description was reused from a similar image. */
+    static final String REUSED_PREFIX = "reused:";
+    /** Key under which a cached detection lists its words, as in a single-text reply. */
+    private static final String WORDS_KEY = "words";
+
+    public static final int DEFAULT_MEMORY_MAX_ENTRIES = 1000;
+    public static final int DEFAULT_DISK_MAX_ENTRIES = 50_000;
+    public static final Duration DEFAULT_TTL = Duration.ofDays(30);
+    /** Differing dHash bits up to which two images count as the same picture. */
+    public static final int DEFAULT_SIMILAR_IMAGE_MAX_DISTANCE = 4;
 
     private final OllamaClient delegate;
-    private final Map<String, String> cache;
-    private final Path cacheFile;
+    private final BoundedCache<String, String> memory;
+    private final OllamaCacheStore cache;
+    private final int similarImageMaxDistance;
+    private final int similarImageMaxEntries;
+    private final String phashPrefix;
+    /** Perceptual hash of each described image to its cache key, oldest first; guarded by itself. */
+    private final LinkedHashMap<Long, String> imageKeysByHash = new LinkedHashMap<>();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong similarHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
 
     public CachingOllamaClient(OllamaClient delegate, Path cacheFile) {
+        this(delegate, cacheFile, DEFAULT_MEMORY_MAX_ENTRIES, DEFAULT_DISK_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param memoryMaxEntries entries kept in memory
+     * @param diskMaxEntries   entries kept in the file, oldest dropped first; 0 for no limit
+     * @param ttl              age at which entries expire; null or zero for never
+     */
+    public CachingOllamaClient(OllamaClient delegate, Path cacheFile, int memoryMaxEntries, int diskMaxEntries,
+            Duration ttl) {
+        this(delegate, cacheFile, memoryMaxEntries, diskMaxEntries, ttl, DEFAULT_SIMILAR_IMAGE_MAX_DISTANCE);
+    }
+
+    /**
+     * @param similarImageMaxDistance differing perceptual hash bits up to which an image reuses the description
+     *                                of a similar one; negative to reuse only exact matches
+     */
+    public CachingOllamaClient(OllamaClient delegate, Path cacheFile, int memoryMaxEntries, int diskMaxEntries,
+            Duration ttl, int similarImageMaxDistance) {
+        this(delegate, cacheFile, memoryMaxEntries, diskMaxEntries, ttl, similarImageMaxDistance, Clock.systemUTC());
+    }
+
+    CachingOllamaClient(OllamaClient delegate, Path cacheFile, int memoryMaxEntries, int diskMaxEntries,
+            Duration ttl, int similarImageMaxDistance, Clock clock) {
         this.delegate = delegate != null ? delegate : new OllamaClient();
-        this.cacheFile = cacheFile;
-        this.cache = loadCache();
+        this.memory = new BoundedCache<>(memoryMaxEntries, ttl, clock);
+        this.cache = OllamaCacheStore.open(cacheFile, diskMaxEntries, ttl, clock);
+        this.similarImageMaxDistance = similarImageMaxDistance;
+        this.similarImageMaxEntries = diskMaxEntries > 0 ? diskMaxEntries : Integer.MAX_VALUE;
+        this.phashPrefix = PHASH_PREFIX + HashUtils.sha256Hex(
+                this.delegate.describeImageVersion().getBytes(StandardCharsets.UTF_8)).substring(0, 16) + ':';
+        if (similarImageMaxDistance >= 0) {
+            loadImageHashes();
+        }
     }
 
     @Override
-    public Optional<String> describeImage(byte[] imageContent) {
+    public CompletableFuture<Optional<String>> describeImageAsync(byte[] imageContent) {
+        return describeImageDetailedAsync(imageContent).thenApply(result -> result.map(ImageDescription::text));
+    }
+
+    /**
+     * Answers from the entry for the exact image, else from a near-identical image's entry, else asks the
+     * delegate and keeps the description and the image's perceptual hash.
+     */
+    @Override
+    public CompletableFuture<Optional<ImageDescription>> describeImageDetailedAsync(byte[] imageContent) {
         if (imageContent == null || imageContent.length == 0) {
-            return Optional.empty();
+            return CompletableFuture.completedFuture(Optional.empty());
         }
-        String hash = sha256Hex(imageContent);
-        String cached = cache.get(hash);
+        String key = imageKey(imageContent);
+        String cached = lookup(key);
         if (cached != null) {
-            return Optional.of(cached);
+            boolean reused = similarImageMaxDistance >= 0 && cache.get(REUSED_PREFIX + key) != null;
+            return CompletableFuture.completedFuture(Optional.of(new ImageDescription(cached, reused)));
         }
-        Optional<String> result = delegate.describeImage(imageContent);
-        if (result.isPresent()) {
-            cache.put(hash, result.get());
-            persistCache();
+        OptionalLong hash = similarImageMaxDistance >= 0 ? PerceptualHash.dHash(imageContent) : OptionalLong.empty();
+        String similar = hash.isPresent() ? similarImageDescription(hash.getAsLong()) : null;
+        if (similar != null) {
+            similarHits.incrementAndGet();
+            store(key, similar);
+            cache.put(REUSED_PREFIX + key, "");
+            return CompletableFuture.completedFuture(Optional.of(new ImageDescription(similar, true)));
         }
-        return result;
+        misses.incrementAndGet();
+        return delegate.describeImageAsync(imageContent).thenApply(result -> {
+            result.ifPresent(description -> {
+                store(key, description);
+                hash.ifPresent(h -> rememberImageHash(h, key));
+            });
+            return result.map(description -> new ImageDescription(description, false));
+        });
     }
 
-    private Map<String, String> loadCache() {
-        if (cacheFile == null || !Files.isRegularFile(cacheFile)) {
-            return new LinkedHashMap<>();
+    @Override
+    public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
+        String key = langKey(text, mainLanguage);
+        String cached = lookup(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(Optional.of(cached));
         }
-        try {
-            Map<String, String> loaded = OBJECT_MAPPER.readValue(cacheFile.toFile(), MAP_TYPE);
-            return loaded != null ? new LinkedHashMap<>(loaded) : new LinkedHashMap<>();
-        } catch (Exception e) {
-            logger.warn("Could not load Ollama image cache from {}: {}", cacheFile, e.getMessage());
-            return new LinkedHashMap<>();
+        misses.incrementAndGet();
+        return delegate.detectNonMainLanguageWordsAsync(text, mainLanguage).thenApply(result -> {
+            result.ifPresent(words -> store(key, words));
+            return result;
+        });
+    }
+
+    /**
+     * Answers the texts found in the cache directly and sends only the others. The reply is one JSON object
+     * with the cached and the newly detected words by id; ids the delegate did not answer are left out, as
+     * in a partial model reply.
+     */
+    @Override
+    public CompletableFuture<Optional<String>> detectNonMainLanguageWordsBatchAsync(Map<String, String> textsById,
+            String mainLanguage) {
+        if (textsById == null || textsById.isEmpty()) {
+            return delegate.detectNonMainLanguageWordsBatchAsync(textsById, mainLanguage);
+        }
+        ObjectNode answered = OBJECT_MAPPER.createObjectNode();
+        Map<String, String> uncached = new LinkedHashMap<>();
+        Map<String, String> keysById = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : textsById.entrySet()) {
+            String key = langKey(entry.getValue(), mainLanguage);
+            JsonNode words = cachedWords(lookup(key));
+            if (words != null) {
+                answered.set(entry.getKey(), words);
+            } else {
+                misses.incrementAndGet();
+                uncached.put(entry.getKey(), entry.getValue());
+                keysById.put(entry.getKey(), key);
+            }
+        }
+        if (uncached.isEmpty()) {
+            return CompletableFuture.completedFuture(Optional.of(answered.toString()));
+        }
+        return delegate.detectNonMainLanguageWordsBatchAsync(uncached, mainLanguage).thenApply(result -> {
+            JsonNode reply = result.map(CachingOllamaClient::readObject).orElse(null);
+            if (reply == null) {
+                return answered.isEmpty() ? result : Optional.of(answered.toString());
+            }
+            keysById.forEach((id, key) -> {
+                JsonNode words = reply.get(id);
+                if (words != null && words.isArray()) {
+                    answered.set(id, words);
+                    store(key, OBJECT_MAPPER.createObjectNode().set(WORDS_KEY, words).toString());
+                }
+            });
+            return Optional.of(answered.toString());
+        });
+    }
+
+    @Override
+    public String describeImageVersion() {
+        return delegate.describeImageVersion();
+    }
+
+    @Override
+    public String langDetectionVersion() {
+        return delegate.langDetectionVersion();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return delegate.isAvailable();
+    }
+
+    @Override
+    public boolean isAvailable(OllamaModelRole role) {
+        return delegate.isAvailable(role);
+    }
+
+    @Override
+    public Duration retryAfter() {
+        return delegate.retryAfter();
+    }
+
+    @Override
+    public Duration retryAfter(OllamaModelRole role) {
+        return delegate.retryAfter(role);
+    }
+
+    /**
+     * Hit, miss and eviction counts of both tiers since this client was created (disk counts are those of
+     * the shared store).
+     */
+    public OllamaCacheStats stats() {
+        BoundedCache.Stats memoryStats = memory.stats();
+        return new OllamaCacheStats(memoryStats.hits(), diskHits.get(), similarHits.get(), misses.get(),
+                memoryStats.evictions(), cache.evictions(), memoryStats.expirations() + cache.expirations(),
+                memoryStats.size(), memoryStats.maximumSize(), cache.size());
+    }
+
+    /**
+     * Writes all cached results not yet on disk.
+     */
+    public void flush() {
+        cache.flush();
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+    }
+
+    /**
+     * The cached value from memory, else from disk (then also kept in memory), or null.
+     */
+    private String lookup(String key) {
+        String value = memory.get(key);
+        if (value != null) {
+            return value;
         }
+        OllamaCacheStore.Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        diskHits.incrementAndGet();
+        memory.put(key, entry.value(), entry.writtenAt());
+        return entry.value();
     }
 
-    private void persistCache() {
-        if (cacheFile == null) {
-            return;
+    /**
+     * The description of the closest described image within the distance, or null. Entries whose description
+     * has expired or been evicted are forgotten.
+     */
+    private String similarImageDescription(long hash) {
+        Long bestHash = null;
+        String best = null;
+        int bestDistance = similarImageMaxDistance + 1;
+        synchronized (imageKeysByHash) {
+            for (Map.Entry<Long, String> entry : imageKeysByHash.entrySet()) {
+                int distance = PerceptualHash.distance(hash, entry.getKey());
+                if (distance < bestDistance) {
+                    bestHash = entry.getKey();
+                    best = entry.getValue();
+                    bestDistance = distance;
+                }
+            }
         }
-        try {
-            Path parent = cacheFile.getParent();
-            if (parent != null && !Files.exists(parent)) {
-                Files.createDirectories(parent);
+        if (best == null) {
+            return null;
+        }
+        OllamaCacheStore.Entry entry = cache.get(best);
+        if (entry == null) {
+            synchronized (imageKeysByHash) {
+                imageKeysByHash.remove(bestHash, best);
             }
-            OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(cacheFile.toFile(), cache);
-        } catch (Exception e) {
-            logger.warn("Could not write Ollama image cache to {}: {}", cacheFile, e.getMessage());
+            return null;
         }
+        return entry.value();
     }
 
-    private static String sha256Hex(byte[] input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] digest = md.digest(input);
-            StringBuilder sb = new StringBuilder(digest.length * 2);
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
+    /**
+     * Keeps the hash as the most recent one, dropping the hash remembered longest ago once the limit is reached.
+     */
+    private void rememberImageHash(long hash, String key) {
+        synchronized (imageKeysByHash) {
+            imageKeysByHash.remove(hash);
+            if (imageKeysByHash.size() >= similarImageMaxEntries) {
+                Iterator<Long> oldest = imageKeysByHash.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            imageKeysByHash.put(hash, key);
+        }
+        cache.put(phashPrefix + Long.toHexString(hash) + ':' + key, "");
+    }
+
+    /**
+     * Reads the perceptual hashes kept for this describe version. Called from the constructor only; the cache
+     * file does not keep their order, so those read first are the first dropped.
+     */
+    private void loadImageHashes() {
+        for (String key : cache.keys(phashPrefix)) {
+            String[] parts = key.substring(phashPrefix.length()).split(":", 2);
+            if (parts.length == 2) {
+                try {
+                    imageKeysByHash.put(Long.parseUnsignedLong(parts[0], 16), parts[1]);
+                } catch (NumberFormatException e) {
+                    // not a hash entry of this format; ignore
+                }
             }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private void store(String key, String value) {
+        memory.put(key, value, cache.put(key, value).writtenAt());
+    }
+
+    private String imageKey(byte[] imageContent) {
+        String material = delegate.describeImageVersion() + '\n' + HashUtils.sha256Hex(imageContent);
+        return HashUtils.sha256Hex(material.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String langKey(String text, String mainLanguage) {
+        String material = delegate.langDetectionVersion() + '\n'
+                + (mainLanguage != null ? mainLanguage : "") + '\n'
+                + (text != null ? text : "");
+        return LANG_PREFIX + HashUtils.sha256Hex(material.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The word list of a cached detection, or null if there is none or it is not in the {"words": [...]} form
+     * (single-text replies are cached as the model gave them).
+     */
+    private static JsonNode cachedWords(String cached) {
+        JsonNode root = cached != null ? readObject(cached) : null;
+        JsonNode words = root != null ? root.get(WORDS_KEY) : null;
+        return words != null && words.isArray() ? words : null;
+    }
+
+    private static JsonNode readObject(String json) {
+        try {
+            JsonNode node = OBJECT_MAPPER.readTree(json);
+            return node != null && node.isObject() ? node : null;
+        } catch (Exception e) {
+            return null;
         }
     }
 }
@@ -0,0 +1,206 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorator that stops sending requests to an Ollama backend that keeps failing. A call fails if it
+ * completes exceptionally or with empty, which is how the client reports connection errors, timeouts and
+ * error responses. When the share of failures among the last calls reaches the threshold the circuit opens:
+ * calls complete with empty at once, without reaching the server, for the open duration. Then a limited
+ * number of probes is let through (half-open); if they succeed the circuit closes, otherwise it opens again.
+ * Phases ask {@link #isAvailable(OllamaModelRole)} to decide, by their {@link OllamaUnavailablePolicy}, whether to skip the
+ * failed proposals or park the book.
+ */
+public class CircuitBreakerOllamaClient extends OllamaClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerOllamaClient.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final OllamaClient delegate;
+    private final CircuitBreakerSettings settings;
+    private final Clock clock;
+    /** Outcomes of the last calls while closed, as a ring buffer; true is a failure. */
+    private final boolean[] window;
+    private int recorded;
+    private int next;
+    private int failures;
+    private State state = State.CLOSED;
+    /** Incremented on every state change, so late outcomes of calls from an earlier state are ignored. */
+    private long epoch;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    public CircuitBreakerOllamaClient(OllamaClient delegate, CircuitBreakerSettings settings) {
+        this(delegate, settings, Clock.systemUTC());
+    }
+
+    CircuitBreakerOllamaClient(OllamaClient delegate, CircuitBreakerSettings settings, Clock clock) {
+        this.delegate = delegate != null ? delegate : new OllamaClient();
+        this.settings = settings != null ? settings : CircuitBreakerSettings.DEFAULT;
+        this.clock = clock;
+        this.window = new boolean[this.settings.windowSize()];
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> describeImageAsync(byte[] imageContent) {
+        return guarded(() -> delegate.describeImageAsync(imageContent));
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
+        return guarded(() -> delegate.detectNonMainLanguageWordsAsync(text, mainLanguage));
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectNonMainLanguageWordsBatchAsync(Map<String, String> textsById,
+            String mainLanguage) {
+        return guarded(() -> delegate.detectNonMainLanguageWordsBatchAsync(textsById, mainLanguage));
+    }
+
+    @Override
+    public String describeImageVersion() {
+        return delegate.describeImageVersion();
+    }
+
+    @Override
+    public String langDetectionVersion() {
+        return delegate.langDetectionVersion();
+    }
+
+    /**
+     * True only while the circuit is closed; an open or probing circuit has not seen the backend recover.
+     */
+    @Override
+    public synchronized boolean isAvailable() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Time left until probes are let through while the circuit is open, zero otherwise.
+     */
+    @Override
+    public synchronized Duration retryAfter() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        long left = settings.openDuration().toMillis() - (clock.millis() - openedAt);
+        return left > 0 ? Duration.ofMillis(left) : Duration.ZERO;
+    }
+
+    /**
+     * The circuit is shared by both roles, so a role is available only while it is closed and the client it
+     * wraps can serve the role.
+     */
+    @Override
+    public boolean isAvailable(OllamaModelRole role) {
+        return isAvailable() && delegate.isAvailable(role);
+    }
+
+    /**
+     * The longer of the time left open and the wait the client it wraps reports for the role.
+     */
+    @Override
+    public Duration retryAfter(OllamaModelRole role) {
+        Duration own = retryAfter();
+        Duration delegated = delegate.retryAfter(role);
+        return delegated.compareTo(own) > 0 ? delegated : own;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private CompletableFuture<Optional<String>> guarded(Supplier<CompletableFuture<Optional<String>>> call) {
+        long permit = acquire();
+        if (permit < 0) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        CompletableFuture<Optional<String>> response;
+        try {
+            response = call.get();
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        return response.whenComplete((value, error) -> record(permit, error != null || value == null || value.isEmpty()));
+    }
+
+    /**
+     * Returns the epoch the call runs in, or -1 if it is rejected.
+     */
+    private synchronized long acquire() {
+        if (state == State.OPEN) {
+            if (clock.millis() - openedAt < settings.openDuration().toMillis()) {
+                return -1;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= settings.halfOpenProbes()) {
+                return -1;
+            }
+            probesInFlight++;
+        }
+        return epoch;
+    }
+
+    private synchronized void record(long permit, boolean failed) {
+        if (permit != epoch) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            if (failed) {
+                transition(State.OPEN);
+            } else if (++probeSuccesses >= settings.halfOpenProbes()) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        if (recorded == window.length) {
+            failures -= window[next] ? 1 : 0;
+        } else {
+            recorded++;
+        }
+        window[next] = failed;
+        failures += failed ? 1 : 0;
+        next = (next + 1) % window.length;
+        if (recorded >= settings.minimumCalls() && failures >= settings.failureRateThreshold() * recorded) {
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State to) {
+        State from = state;
+        state = to;
+        epoch++;
+        switch (to) {
+            case OPEN -> {
+                openedAt = clock.millis();
+                if (from == State.HALF_OPEN) {
+                    logger.warn("Ollama probe failed, failing fast for another {}", settings.openDuration());
+                } else {
+                    logger.warn("Ollama circuit open after {} failures in {} calls, failing fast for {}",
+                            failures, recorded, settings.openDuration());
+                }
+            }
+            case HALF_OPEN -> {
+                probesInFlight = 0;
+                probeSuccesses = 0;
+            }
+            case CLOSED -> logger.info("Ollama circuit closed, backend is responding again");
+        }
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+}
@@ -0,0 +1,26 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.time.Duration;
+
+/**
+ * Thresholds of a {@link CircuitBreakerOllamaClient}.
+ *
+ * @param windowSize           number of most recent calls the failure rate is computed over
+ * @param minimumCalls         calls in the window before the failure rate can open the circuit
+ * @param failureRateThreshold share of failed calls (0-1) at which the circuit opens
+ * @param openDuration         how long calls fail fast before probes are let through
+ * @param halfOpenProbes       successful probes needed to close the circuit again
+ */
+public record CircuitBreakerSettings(int windowSize, int minimumCalls, double failureRateThreshold,
+        Duration openDuration, int halfOpenProbes) {
+
+    public static final CircuitBreakerSettings DEFAULT = new CircuitBreakerSettings(20, 5, 0.5, Duration.ofSeconds(30), 1);
+
+    public CircuitBreakerSettings {
+        windowSize = Math.max(1, windowSize);
+        minimumCalls = Math.min(windowSize, Math.max(1, minimumCalls));
+        failureRateThreshold = Math.min(1.0, Math.max(0.0, failureRateThreshold));
+        openDuration = openDuration != null && !openDuration.isNegative() ? openDuration : DEFAULT.openDuration();
+        halfOpenProbes = Math.max(1, halfOpenProbes);
+    }
+}
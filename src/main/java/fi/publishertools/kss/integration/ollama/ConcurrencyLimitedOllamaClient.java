@@ -0,0 +1,133 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Decorator that caps the number of Ollama requests in flight across all jobs and phases.
+ * Requests over the limit are queued in arrival order and started as earlier ones complete;
+ * no thread waits for a permit.
+ */
+public class ConcurrencyLimitedOllamaClient extends OllamaClient {
+
+    private final OllamaClient delegate;
+    private final int maxConcurrentRequests;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    public ConcurrencyLimitedOllamaClient(OllamaClient delegate, int maxConcurrentRequests) {
+        this.delegate = delegate != null ? delegate : new OllamaClient();
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> describeImageAsync(byte[] imageContent) {
+        return withPermit(() -> delegate.describeImageAsync(imageContent));
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
+        return withPermit(() -> delegate.detectNonMainLanguageWordsAsync(text, mainLanguage));
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectNonMainLanguageWordsBatchAsync(Map<String, String> textsById,
+            String mainLanguage) {
+        return withPermit(() -> delegate.detectNonMainLanguageWordsBatchAsync(textsById, mainLanguage));
+    }
+
+    @Override
+    public String describeImageVersion() {
+        return delegate.describeImageVersion();
+    }
+
+    @Override
+    public String langDetectionVersion() {
+        return delegate.langDetectionVersion();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return delegate.isAvailable();
+    }
+
+    @Override
+    public boolean isAvailable(OllamaModelRole role) {
+        return delegate.isAvailable(role);
+    }
+
+    @Override
+    public Duration retryAfter() {
+        return delegate.retryAfter();
+    }
+
+    @Override
+    public Duration retryAfter(OllamaModelRole role) {
+        return delegate.retryAfter(role);
+    }
+
+    public int maxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Number of requests currently in flight through this client.
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private CompletableFuture<Optional<String>> withPermit(Supplier<CompletableFuture<Optional<String>>> call) {
+        CompletableFuture<Optional<String>> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<Optional<String>> response;
+            try {
+                response = call.get();
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            response.whenComplete((value, error) -> {
+                release();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+        boolean startNow;
+        synchronized (this) {
+            startNow = inFlight < maxConcurrentRequests;
+            if (startNow) {
+                inFlight++;
+            } else {
+                waiting.add(start);
+            }
+        }
+        if (startNow) {
+            start.run();
+        }
+        return result;
+    }
+
+    /**
+     * Hands the freed permit to the next waiting request, or returns it.
+     */
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                inFlight--;
+            }
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Request bodies for Ollama /api/generate. Image requests are streamed: the JSON around the image is
+ * serialized once, and the image is Base64-encoded chunk by chunk while the body is sent, so no
+ * encoded copy of the whole image is ever held in memory. The exact Content-Length is still sent.
+ */
+final class GenerateRequestBodies {
+
+    /** Raw image bytes encoded per read; a multiple of 3 so only the last chunk is padded. */
+    static final int SOURCE_CHUNK = 3 * 4096;
+
+    private GenerateRequestBodies() {
+    }
+
+    /**
+     * Body for a request without binary content.
+     */
+    static HttpRequest.BodyPublisher json(ObjectMapper mapper, ObjectNode body) throws JsonProcessingException {
+        return HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(body));
+    }
+
+    /**
+     * Body with the given fields plus {@code "images": ["<base64 of image>"]} appended as the last field.
+     */
+    static HttpRequest.BodyPublisher withImage(ObjectMapper mapper, ObjectNode fields, byte[] image)
+            throws JsonProcessingException {
+        byte[] head = mapper.writeValueAsBytes(fields);
+        // Reopen the serialized object: drop its closing brace and start the images array.
+        String separator = fields.isEmpty() ? "" : ",";
+        byte[] prefix = concat(head, head.length - 1, (separator + "\"images\":[\"").getBytes(StandardCharsets.US_ASCII));
+        byte[] suffix = "\"]}".getBytes(StandardCharsets.US_ASCII);
+        long contentLength = prefix.length + encodedLength(image.length) + suffix.length;
+        return HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> new SequenceInputStream(
+                        Collections.enumeration(List.of(
+                                new ByteArrayInputStream(prefix),
+                                new Base64InputStream(image),
+                                new ByteArrayInputStream(suffix))))),
+                contentLength);
+    }
+
+    static long encodedLength(int sourceLength) {
+        return 4L * ((sourceLength + 2) / 3);
+    }
+
+    private static byte[] concat(byte[] first, int firstLength, byte[] second) {
+        byte[] result = new byte[firstLength + second.length];
+        System.arraycopy(first, 0, result, 0, firstLength);
+        System.arraycopy(second, 0, result, firstLength, second.length);
+        return result;
+    }
+
+    /**
+     * Base64 (RFC 4648, padded) encoding of a byte array, produced on demand in small chunks.
+     */
+    static final class Base64InputStream extends InputStream {
+
+        private static final Base64.Encoder ENCODER = Base64.getEncoder();
+
+        private final byte[] source;
+        private final byte[] chunk = new byte[SOURCE_CHUNK];
+        private final byte[] encoded = new byte[(SOURCE_CHUNK / 3) * 4];
+        private int sourcePos;
+        private int encodedPos;
+        private int encodedEnd;
+
+        Base64InputStream(byte[] source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return encoded[encodedPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, encodedEnd - encodedPos);
+            System.arraycopy(encoded, encodedPos, b, off, n);
+            encodedPos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return encodedEnd - encodedPos;
+        }
+
+        /**
+         * Encodes the next source chunk when the current one is used up. Returns false at end of data.
+         */
+        private boolean fill() {
+            if (encodedPos < encodedEnd) {
+                return true;
+            }
+            if (sourcePos >= source.length) {
+                return false;
+            }
+            int n = Math.min(SOURCE_CHUNK, source.length - sourcePos);
+            // The encoder takes whole arrays; only the final, shorter chunk needs its own array.
+            byte[] input = n == SOURCE_CHUNK ? chunk : new byte[n];
+            System.arraycopy(source, sourcePos, input, 0, n);
+            encodedEnd = ENCODER.encode(input, encoded);
+            encodedPos = 0;
+            sourcePos += n;
+            return true;
+        }
+    }
+}
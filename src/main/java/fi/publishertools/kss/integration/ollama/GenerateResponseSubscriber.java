@@ -0,0 +1,149 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+
+/**
+ * Reads the "response" text of an Ollama /api/generate reply as the body arrives, using Jackson's
+ * non-blocking parser. Handles both a single JSON object and a streamed reply (one object per line),
+ * whose "response" fragments are concatenated. Only the response text is kept; other fields (e.g. the
+ * "context" token array) are skipped without being buffered. When the {@link GenerationLimits} allow
+ * stopping early, the subscription is cancelled as soon as the text is long enough, which closes the
+ * connection and ends generation on the server. Completes with the trimmed text, or empty if there is none.
+ */
+final class GenerateResponseSubscriber implements HttpResponse.BodySubscriber<Optional<String>> {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String RESPONSE_FIELD = "response";
+
+    private final CompletableFuture<Optional<String>> result = new CompletableFuture<>();
+    private final StringBuilder text = new StringBuilder();
+    private final GenerationLimits limits;
+    private int scanned;
+    private JsonParser parser;
+    private Flow.Subscription subscription;
+    private int depth;
+    private boolean inResponseField;
+
+    GenerateResponseSubscriber() {
+        this(GenerationLimits.UNLIMITED);
+    }
+
+    GenerateResponseSubscriber(GenerationLimits limits) {
+        this.limits = limits != null ? limits : GenerationLimits.UNLIMITED;
+    }
+
+    /**
+     * Body handler that parses 200 responses and discards the body of any other status as empty.
+     */
+    static HttpResponse.BodyHandler<Optional<String>> handler(GenerationLimits limits) {
+        return info -> info.statusCode() == 200
+                ? new GenerateResponseSubscriber(limits)
+                : HttpResponse.BodySubscribers.replacing(Optional.empty());
+    }
+
+    @Override
+    public CompletionStage<Optional<String>> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        try {
+            parser = JSON_FACTORY.createNonBlockingByteBufferParser();
+        } catch (IOException e) {
+            subscription.cancel();
+            result.completeExceptionally(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            ByteBufferFeeder feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+            for (ByteBuffer buffer : buffers) {
+                feeder.feedInput(buffer);
+                drain();
+            }
+            if (limits.cutsEarly()) {
+                int cut = limits.cutoff(text, Math.max(0, scanned - 1));
+                scanned = text.length();
+                if (cut >= 0) {
+                    subscription.cancel();
+                    complete(text.substring(0, cut));
+                    return;
+                }
+            }
+            subscription.request(1);
+        } catch (IOException e) {
+            subscription.cancel();
+            result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            parser.getNonBlockingInputFeeder().endOfInput();
+            drain();
+            int cut = limits.cutsEarly() ? limits.cutoff(text, Math.max(0, scanned - 1)) : -1;
+            complete(cut >= 0 ? text.substring(0, cut) : text.toString());
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void complete(String value) {
+        String trimmed = value.trim();
+        result.complete(trimmed.isEmpty() ? Optional.empty() : Optional.of(trimmed));
+    }
+
+    /**
+     * Consumes all tokens available from the input fed so far, collecting top-level "response" strings.
+     */
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT, START_ARRAY -> depth++;
+                case END_OBJECT, END_ARRAY -> depth--;
+                case FIELD_NAME -> inResponseField = depth == 1 && RESPONSE_FIELD.equals(parser.currentName());
+                case VALUE_STRING -> {
+                    if (inResponseField && depth == 1) {
+                        text.append(parser.getText());
+                    }
+                }
+                default -> {
+                }
+            }
+            if (token != JsonToken.FIELD_NAME) {
+                inResponseField = false;
+            }
+        }
+    }
+}
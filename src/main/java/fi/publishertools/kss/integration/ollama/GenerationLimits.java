@@ -0,0 +1,63 @@
+package fi.publishertools.kss.integration.ollama;
+
+/**
+ * Bounds for one Ollama generation. {@code maxTokens} is sent as {@code options.num_predict};
+ * {@code maxChars} and {@code stopAtSentenceEnd} are applied by the client while the reply streams in,
+ * cancelling the request as soon as enough text has arrived. Zero disables a bound.
+ *
+ * @param maxTokens         model-side token budget (num_predict), 0 for the model default
+ * @param maxChars          character budget for the kept text, 0 for no budget
+ * @param stopAtSentenceEnd when true, generation stops after the first complete sentence
+ */
+public record GenerationLimits(int maxTokens, int maxChars, boolean stopAtSentenceEnd) {
+
+    public static final GenerationLimits UNLIMITED = new GenerationLimits(0, 0, false);
+
+    /** Alt texts: one sentence, well below the length screen readers handle comfortably. */
+    public static final GenerationLimits DEFAULT_ALT_TEXT = new GenerationLimits(120, 300, true);
+
+    /** A sentence end closer to the start than this is taken for an abbreviation or list marker. */
+    static final int MIN_SENTENCE_CHARS = 20;
+
+    public GenerationLimits {
+        maxTokens = Math.max(0, maxTokens);
+        maxChars = Math.max(0, maxChars);
+    }
+
+    /**
+     * True if the client may stop reading early, so the reply should be requested as a stream.
+     */
+    boolean cutsEarly() {
+        return maxChars > 0 || stopAtSentenceEnd;
+    }
+
+    /**
+     * Returns how many leading characters of {@code text} to keep if generation can stop now, or -1 to
+     * keep reading. Only sentence ends at or after {@code scanFrom} are considered, so callers can pass
+     * the previously checked length (minus one) to avoid rescanning.
+     */
+    int cutoff(CharSequence text, int scanFrom) {
+        int length = text.length();
+        if (stopAtSentenceEnd) {
+            int limit = maxChars > 0 ? Math.min(length - 1, maxChars) : length - 1;
+            for (int i = Math.max(scanFrom, MIN_SENTENCE_CHARS - 1); i < limit; i++) {
+                if (isSentenceEnd(text.charAt(i)) && Character.isWhitespace(text.charAt(i + 1))) {
+                    return i + 1;
+                }
+            }
+        }
+        if (maxChars > 0 && length >= maxChars) {
+            for (int i = maxChars; i > 0; i--) {
+                if (Character.isWhitespace(text.charAt(i - 1)) || (i < length && Character.isWhitespace(text.charAt(i)))) {
+                    return i;
+                }
+            }
+            return maxChars;
+        }
+        return -1;
+    }
+
+    private static boolean isSentenceEnd(char c) {
+        return c == '.' || c == '!' || c == '?';
+    }
+}
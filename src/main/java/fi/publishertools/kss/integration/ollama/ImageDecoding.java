@@ -0,0 +1,48 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * ImageIO decoding for image preprocessing that needs only a small version of the image.
+ */
+final class ImageDecoding {
+
+    private ImageDecoding() {
+    }
+
+    /**
+     * Decodes the first image, reading only every n-th pixel of sources more than twice {@code targetEdge}
+     * on their longer side, so large print-resolution images are never held in memory at full size.
+     *
+     * @return the image, or null if no ImageIO reader understands the bytes
+     */
+    static BufferedImage decode(byte[] image, int targetEdge) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = longEdge / (2 * Math.max(1, targetEdge));
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package fi.publishertools.kss.integration.ollama;
+
+/**
+ * An image description and where it came from.
+ *
+ * @param text         the description
+ * @param similarImage true if it was produced for a different but near-identical image (by perceptual
+ *                     hash) and reused, so a reviewer should check that it fits
+ */
+public record ImageDescription(String text, boolean similarImage) {
+}
@@ -0,0 +1,95 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Preprocessing of images before they are sent to the vision model, which resizes them anyway: the image is
+ * decoded, scaled so that its longer edge is at most {@code maxEdge} pixels and re-encoded as JPEG. Large
+ * print-resolution sources are decoded with subsampling (see {@link ImageDecoding}).
+ * Transparency is flattened onto white. Images ImageIO cannot decode (e.g. CMYK JPEG, EPS) are sent as they
+ * are, as are small ones the conversion would not make smaller. Zero {@code maxEdge} disables the step.
+ *
+ * @param maxEdge     longest edge in pixels of the image sent, 0 to send originals
+ * @param jpegQuality JPEG quality between 0 and 1
+ */
+public record ImageDownscale(int maxEdge, float jpegQuality) {
+
+    public static final ImageDownscale NONE = new ImageDownscale(0, 0.85f);
+
+    /** Well above the input resolution of the vision models in use. */
+    public static final ImageDownscale DEFAULT = new ImageDownscale(1024, 0.85f);
+
+    public ImageDownscale {
+        maxEdge = Math.max(0, maxEdge);
+        jpegQuality = Math.min(1f, Math.max(0.05f, jpegQuality));
+    }
+
+    /**
+     * The image to send for {@code image}: a downscaled JPEG, or the original if it cannot be decoded or
+     * would not get smaller.
+     */
+    public byte[] apply(byte[] image) {
+        if (maxEdge == 0 || image == null || image.length == 0) {
+            return image;
+        }
+        try {
+            BufferedImage decoded = ImageDecoding.decode(image, maxEdge);
+            if (decoded == null) {
+                return image;
+            }
+            byte[] jpeg = encodeJpeg(scale(decoded));
+            return jpeg.length < image.length ? jpeg : image;
+        } catch (IOException | RuntimeException e) {
+            return image;
+        }
+    }
+
+    /**
+     * Draws the image onto an opaque RGB canvas at most {@code maxEdge} on its longer side.
+     */
+    private BufferedImage scale(BufferedImage source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        double factor = Math.min(1.0, (double) maxEdge / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * factor));
+        int targetHeight = Math.max(1, (int) Math.round(height * factor));
+        BufferedImage target = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, targetWidth, targetHeight);
+            g.drawImage(source, 0, 0, targetWidth, targetHeight, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
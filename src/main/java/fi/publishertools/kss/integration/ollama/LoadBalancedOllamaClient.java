@@ -0,0 +1,372 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Spreads Ollama requests over several servers. Each request goes to the endpoint with the fewest requests
+ * outstanding among those that are healthy, take requests of its {@link OllamaModelRole} and have the model
+ * for it, and are under their own concurrency cap; ties rotate. Requests no endpoint has room for are queued
+ * in arrival order and started as earlier ones complete; no thread waits.
+ * <p>
+ * Health is checked two ways. Every health check interval each endpoint's /api/tags is fetched: an endpoint
+ * that answers is healthy and from then on only gets requests for the models it lists. An endpoint whose
+ * requests fail (exceptionally or with empty) the failure threshold times in a row is taken out of rotation
+ * until a health check succeeds. While no healthy endpoint can serve a role, its requests complete with empty
+ * at once, so a {@link CircuitBreakerOllamaClient} above this client sees the outage.
+ */
+public class LoadBalancedOllamaClient extends OllamaClient implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadBalancedOllamaClient.class);
+
+    public static final Duration DEFAULT_HEALTH_CHECK_INTERVAL = Duration.ofSeconds(10);
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final Duration HEALTH_CHECK_TIMEOUT = Duration.ofSeconds(5);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final class Member {
+        final OllamaEndpoint endpoint;
+        final OllamaClient client;
+        int outstanding;
+        int consecutiveFailures;
+        boolean healthy = true;
+        /** Model names from the last health check, or null if not known. */
+        Set<String> models;
+
+        Member(OllamaEndpoint endpoint, OllamaClient client) {
+            this.endpoint = endpoint;
+            this.client = client;
+        }
+
+        boolean canServe(OllamaModelRole role) {
+            return healthy && endpoint.serves(role)
+                    && (models == null || models.contains(role.model()) || models.contains(role.model() + ":latest"));
+        }
+    }
+
+    private record Pending(OllamaModelRole role, Function<OllamaClient, CompletableFuture<Optional<String>>> call,
+            CompletableFuture<Optional<String>> result) {}
+
+    private record Start(Member member, Pending pending) {}
+
+    private final List<Member> members = new ArrayList<>();
+    private final Queue<Pending> waiting = new ArrayDeque<>();
+    private final HttpClient httpClient;
+    private final Duration healthCheckInterval;
+    private final int failureThreshold;
+    private ScheduledExecutorService healthChecker;
+    private int rotation;
+
+    /**
+     * Health checks are not scheduled until {@link #start()}.
+     *
+     * @param endpoints           the servers, at least one
+     * @param clients             builds the client that sends to an endpoint
+     * @param httpClient          client for health checks
+     * @param healthCheckInterval time between health checks; zero or null disables them, and with them taking
+     *                            failing endpoints out of rotation, as nothing would bring them back
+     * @param failureThreshold    failed requests in a row that take an endpoint out of rotation
+     */
+    public LoadBalancedOllamaClient(List<OllamaEndpoint> endpoints, Function<OllamaEndpoint, OllamaClient> clients,
+            HttpClient httpClient, Duration healthCheckInterval, int failureThreshold) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one Ollama endpoint is required");
+        }
+        for (OllamaEndpoint endpoint : endpoints) {
+            members.add(new Member(endpoint, clients.apply(endpoint)));
+        }
+        this.httpClient = httpClient != null ? httpClient : HttpClient.newHttpClient();
+        this.healthCheckInterval = healthCheckInterval != null && !healthCheckInterval.isNegative()
+                ? healthCheckInterval
+                : Duration.ZERO;
+        this.failureThreshold = Math.max(1, failureThreshold);
+    }
+
+    /**
+     * Schedules the health checks every health check interval, the first at once. Does nothing if the
+     * interval is zero or they are already scheduled. Without it health is only checked by explicit
+     * {@link #checkHealth()} calls.
+     */
+    public synchronized LoadBalancedOllamaClient start() {
+        if (healthChecker == null && !healthCheckInterval.isZero()) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("ollama-health-check").daemon().factory());
+            healthChecker.scheduleWithFixedDelay(this::checkHealth, 0, healthCheckInterval.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> describeImageAsync(byte[] imageContent) {
+        return submit(OllamaModelRole.VISION, client -> client.describeImageAsync(imageContent));
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
+        return submit(OllamaModelRole.TEXT, client -> client.detectNonMainLanguageWordsAsync(text, mainLanguage));
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectNonMainLanguageWordsBatchAsync(Map<String, String> textsById,
+            String mainLanguage) {
+        return submit(OllamaModelRole.TEXT,
+                client -> client.detectNonMainLanguageWordsBatchAsync(textsById, mainLanguage));
+    }
+
+    @Override
+    public String describeImageVersion() {
+        return members.get(0).client.describeImageVersion();
+    }
+
+    @Override
+    public String langDetectionVersion() {
+        return members.get(0).client.langDetectionVersion();
+    }
+
+    /**
+     * True while every role has a healthy endpoint that can serve it.
+     */
+    @Override
+    public synchronized boolean isAvailable() {
+        for (OllamaModelRole role : OllamaModelRole.values()) {
+            if (!canServe(role)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True while some healthy endpoint can serve the role, whatever the other role's endpoints do.
+     */
+    @Override
+    public synchronized boolean isAvailable(OllamaModelRole role) {
+        return canServe(role);
+    }
+
+    /**
+     * The health check interval while some role has no endpoint, zero otherwise.
+     */
+    @Override
+    public Duration retryAfter() {
+        return isAvailable() ? Duration.ZERO : healthCheckInterval;
+    }
+
+    /**
+     * The health check interval while the role has no endpoint, zero otherwise.
+     */
+    @Override
+    public Duration retryAfter(OllamaModelRole role) {
+        return isAvailable(role) ? Duration.ZERO : healthCheckInterval;
+    }
+
+    /**
+     * Requests in flight to the endpoint with the given base URL.
+     */
+    public synchronized int outstanding(String baseUrl) {
+        return members.stream()
+                .filter(member -> member.endpoint.baseUrl().equals(baseUrl))
+                .mapToInt(member -> member.outstanding)
+                .sum();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetches /api/tags from every endpoint and updates their health and model lists. Completes when all
+     * endpoints have answered or failed.
+     */
+    CompletableFuture<Void> checkHealth() {
+        List<CompletableFuture<Void>> checks = new ArrayList<>();
+        for (Member member : members) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(member.endpoint.baseUrl() + "/api/tags"))
+                    .timeout(HEALTH_CHECK_TIMEOUT)
+                    .GET()
+                    .build();
+            checks.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                    .handle((response, error) -> {
+                        boolean up = error == null && response.statusCode() == 200;
+                        onHealthCheck(member, up, up ? modelNames(response.body()) : null);
+                        return null;
+                    }));
+        }
+        return CompletableFuture.allOf(checks.toArray(CompletableFuture[]::new)).thenRun(this::drain);
+    }
+
+    private synchronized void onHealthCheck(Member member, boolean up, Set<String> models) {
+        if (up && !member.healthy) {
+            logger.info("Ollama endpoint {} is healthy again", member.endpoint.baseUrl());
+        } else if (!up && member.healthy) {
+            logger.warn("Ollama endpoint {} failed its health check, taking it out of rotation",
+                    member.endpoint.baseUrl());
+        }
+        member.healthy = up;
+        if (up) {
+            member.consecutiveFailures = 0;
+            member.models = models;
+        }
+    }
+
+    /**
+     * Names of the models in a /api/tags reply, or null if the reply cannot be read.
+     */
+    private static Set<String> modelNames(byte[] body) {
+        try {
+            JsonNode models = OBJECT_MAPPER.readTree(body).path("models");
+            if (!models.isArray()) {
+                return null;
+            }
+            Set<String> names = new HashSet<>();
+            for (JsonNode model : models) {
+                names.add(model.path("name").asText());
+                names.add(model.path("model").asText());
+            }
+            return names;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private CompletableFuture<Optional<String>> submit(OllamaModelRole role,
+            Function<OllamaClient, CompletableFuture<Optional<String>>> call) {
+        Pending pending = new Pending(role, call, new CompletableFuture<>());
+        Member member = null;
+        boolean unserved = false;
+        synchronized (this) {
+            if (!canServe(role)) {
+                unserved = true;
+            } else {
+                member = pick(role);
+                if (member != null) {
+                    member.outstanding++;
+                } else {
+                    waiting.add(pending);
+                }
+            }
+        }
+        if (unserved) {
+            logger.debug("No healthy Ollama endpoint for {} requests", role);
+            pending.result.complete(Optional.empty());
+        } else if (member != null) {
+            start(new Start(member, pending));
+        }
+        return pending.result;
+    }
+
+    private void start(Start start) {
+        CompletableFuture<Optional<String>> response;
+        try {
+            response = start.pending.call.apply(start.member.client);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((value, error) -> {
+            onComplete(start.member, error != null || value == null || value.isEmpty());
+            if (error != null) {
+                start.pending.result.completeExceptionally(error);
+            } else {
+                start.pending.result.complete(value);
+            }
+            drain();
+        });
+    }
+
+    private synchronized void onComplete(Member member, boolean failed) {
+        member.outstanding--;
+        if (!failed) {
+            member.consecutiveFailures = 0;
+        } else if (++member.consecutiveFailures >= failureThreshold && member.healthy
+                && !healthCheckInterval.isZero()) {
+            member.healthy = false;
+            logger.warn("Ollama endpoint {} failed {} requests in a row, taking it out of rotation",
+                    member.endpoint.baseUrl(), member.consecutiveFailures);
+        }
+    }
+
+    /**
+     * Starts the waiting requests endpoints now have room for, and completes with empty those of roles no
+     * healthy endpoint can serve. A request that has to keep waiting does not hold up requests of other roles.
+     */
+    private void drain() {
+        List<Start> starts = new ArrayList<>();
+        List<Pending> unserved = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Pending> it = waiting.iterator(); it.hasNext();) {
+                Pending pending = it.next();
+                if (!canServe(pending.role)) {
+                    it.remove();
+                    unserved.add(pending);
+                    continue;
+                }
+                Member member = pick(pending.role);
+                if (member != null) {
+                    it.remove();
+                    member.outstanding++;
+                    starts.add(new Start(member, pending));
+                }
+            }
+        }
+        unserved.forEach(pending -> pending.result.complete(Optional.empty()));
+        starts.forEach(this::start);
+    }
+
+    private boolean canServe(OllamaModelRole role) {
+        for (Member member : members) {
+            if (member.canServe(role)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The endpoint with the fewest outstanding requests that can serve the role and is under its cap, or
+     * null if all are full. Ties go to the first candidate after the previous pick.
+     */
+    private Member pick(OllamaModelRole role) {
+        Member best = null;
+        int bestIndex = -1;
+        for (int i = 0; i < members.size(); i++) {
+            int index = (rotation + i) % members.size();
+            Member member = members.get(index);
+            if (member.canServe(role) && member.outstanding < member.endpoint.maxConcurrentRequests()
+                    && (best == null || member.outstanding < best.outstanding)) {
+                best = member;
+                bestIndex = index;
+            }
+        }
+        if (best != null) {
+            rotation = (bestIndex + 1) % members.size();
+        }
+        return best;
+    }
+}
@@ -1,15 +1,17 @@
 package fi.publishertools.kss.integration.ollama;
 
+import java.time.Duration;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 /**
- * Configuration for development-time caching of Ollama image description results.
+ * Configuration for development-time caching of Ollama image description and language detection results.
  */
 @ConfigurationProperties(prefix = "kss.ollama")
 public class OllamaCacheProperties {
 
     /**
-     * When true, image descriptions are read from and written to a file-based cache
+     * When true, image descriptions and language detections are read from and written to a file-based cache
      * so repeated runs reuse results without calling the model.
      */
     private boolean cacheEnabled = false;
@@ -20,6 +22,27 @@ public class OllamaCacheProperties {
      */
     private String cachePath = "~/.kss-ollama-cache/ollama-image-cache.json";
 
+    /**
+     * Entries kept in memory in front of the cache file; the least valuable are evicted beyond this.
+     */
+    private int cacheMemoryMaxEntries = CachingOllamaClient.DEFAULT_MEMORY_MAX_ENTRIES;
+
+    /**
+     * Entries kept in the cache file, oldest dropped first; 0 for no limit.
+     */
+    private int cacheDiskMaxEntries = CachingOllamaClient.DEFAULT_DISK_MAX_ENTRIES;
+
+    /**
+     * Age at which cached results expire in both tiers; zero for never.
+     */
+    private Duration cacheTtl = CachingOllamaClient.DEFAULT_TTL;
+
+    /**
+     * Differing perceptual hash bits (of 64) up to which an image reuses the cached description of a
+     * near-identical image; negative to reuse only exact matches.
+     */
+    private int cacheSimilarImageMaxDistance = CachingOllamaClient.DEFAULT_SIMILAR_IMAGE_MAX_DISTANCE;
+
     public boolean isCacheEnabled() {
         return cacheEnabled;
     }
@@ -35,4 +58,36 @@ public class OllamaCacheProperties {
     public void setCachePath(String cachePath) {
         this.cachePath = cachePath;
     }
+
+    public int getCacheMemoryMaxEntries() {
+        return cacheMemoryMaxEntries;
+    }
+
+    public void setCacheMemoryMaxEntries(int cacheMemoryMaxEntries) {
+        this.cacheMemoryMaxEntries = cacheMemoryMaxEntries;
+    }
+
+    public int getCacheDiskMaxEntries() {
+        return cacheDiskMaxEntries;
+    }
+
+    public void setCacheDiskMaxEntries(int cacheDiskMaxEntries) {
+        this.cacheDiskMaxEntries = cacheDiskMaxEntries;
+    }
+
+    public Duration getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(Duration cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public int getCacheSimilarImageMaxDistance() {
+        return cacheSimilarImageMaxDistance;
+    }
+
+    public void setCacheSimilarImageMaxDistance(int cacheSimilarImageMaxDistance) {
+        this.cacheSimilarImageMaxDistance = cacheSimilarImageMaxDistance;
+    }
 }
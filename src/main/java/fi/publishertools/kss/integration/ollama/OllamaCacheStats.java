@@ -0,0 +1,19 @@
+package fi.publishertools.kss.integration.ollama;
+
+/**
+ * Counters of a {@link CachingOllamaClient}: lookups answered from memory, from the cache file, with the
+ * description of a near-identical image, or not at all (sent to Ollama), entries evicted for size from either tier, entries expired by age, and the
+ * current entry counts.
+ */
+public record OllamaCacheStats(long memoryHits, long diskHits, long similarHits, long misses, long memoryEvictions,
+        long diskEvictions, long expirations, int memoryEntries, int memoryMaxEntries, int diskEntries) {
+
+    /**
+     * Share of lookups answered from either tier, 0 if there were none.
+     */
+    public double hitRate() {
+        long hits = memoryHits + diskHits + similarHits;
+        long lookups = hits + misses;
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+}
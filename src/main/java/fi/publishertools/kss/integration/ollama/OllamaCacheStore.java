@@ -0,0 +1,592 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Persistent tier behind {@link CachingOllamaClient}: an append-only log file of one JSON record per line,
+ * {"k": key, "v": value, "t": written-at millis}, after a format header line. Memory holds only an index
+ * of key to record position; values are read from the file on lookup. Writes are kept in memory until a
+ * background writer appends them to the log in batches. The writer also expires entries older than the
+ * TTL and drops the oldest entries beyond the entry limit. When the log holds many dead records it is
+ * compacted by copying the live records to a new file that is swapped in atomically. Startup scans the log
+ * line by line. A cache file in the old single-JSON-object format is migrated on open.
+ * <p>
+ * Stores are shared per file: every {@link #open} of the same path returns the same instance (with the
+ * limits of the first opener), so clients in one process never append to one log concurrently. The file
+ * is closed when the last user calls {@link #close()}.
+ */
+final class OllamaCacheStore implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OllamaCacheStore.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    static final String HEADER = "#kss-ollama-cache v1";
+    private static final byte[] HEADER_LINE = (HEADER + "\n").getBytes(StandardCharsets.UTF_8);
+    private static final String KEY_FIELD = "k";
+    private static final String VALUE_FIELD = "v";
+    private static final String WRITTEN_AT_FIELD = "t";
+
+    /** Pending records that trigger a write without waiting for the next tick. */
+    static final int WRITE_BATCH = 256;
+    static final long FLUSH_INTERVAL_MILLIS = 200;
+    /** How often the writer looks for expired entries. */
+    static final long SWEEP_INTERVAL_MILLIS = 60_000;
+    /** Compact when the log has at least this many records and over twice as many as live entries. */
+    static final int COMPACT_MIN_RECORDS = 1000;
+
+    private static final Map<Path, OllamaCacheStore> OPEN = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("ollama-cache-writer").daemon().factory());
+
+    /** A cached value and when it was produced (clock millis). */
+    record Entry(String value, long writtenAt) {}
+
+    /** Position of a record line in the log, without its newline. */
+    private record Location(long offset, int length, long writtenAt) {}
+
+    private record Pending(String key, Entry entry) {}
+
+    private final Path file;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final Map<String, Entry> unwritten = new ConcurrentHashMap<>();
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    /** Serializes appends, maintenance and compaction. */
+    private final Object writeLock = new Object();
+    /** Readers share the file; compaction swaps it exclusively. */
+    private final ReadWriteLock fileLock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private long appendPosition;
+    private long records;
+    private long lastSweep;
+    private ScheduledFuture<?> ticks;
+    private int users;
+    /** False until the log file exists; it is created on the first write. */
+    private volatile boolean created = true;
+
+    private OllamaCacheStore(Path file, int maxEntries, Duration ttl, Clock clock) {
+        this.file = file;
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlMillis = ttl != null && !ttl.isNegative() ? ttl.toMillis() : 0;
+        this.clock = clock != null ? clock : Clock.systemUTC();
+    }
+
+    /**
+     * Opens an unbounded store for the file.
+     */
+    static OllamaCacheStore open(Path file) {
+        return open(file, 0, null, Clock.systemUTC());
+    }
+
+    /**
+     * Opens the store for the file; a missing file is created on the first write. Never fails: if the file
+     * cannot be read or written the store still works in memory and the problem is logged.
+     *
+     * @param maxEntries entries kept on disk, oldest dropped first; 0 for no limit
+     * @param ttl        age at which entries expire; null or zero for never
+     */
+    static OllamaCacheStore open(Path file, int maxEntries, Duration ttl, Clock clock) {
+        Path key = file.toAbsolutePath().normalize();
+        return OPEN.compute(key, (path, existing) -> {
+            OllamaCacheStore store = existing != null ? existing : new OllamaCacheStore(path, maxEntries, ttl, clock);
+            if (existing == null) {
+                store.load();
+                store.scheduleTicks();
+            }
+            store.users++;
+            return store;
+        });
+    }
+
+    /**
+     * The live entry for the key, or null if there is none or it has expired.
+     */
+    Entry get(String key) {
+        Entry entry = unwritten.get(key);
+        if (entry != null) {
+            return isExpired(entry.writtenAt()) ? null : entry;
+        }
+        fileLock.readLock().lock();
+        try {
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            if (isExpired(location.writtenAt())) {
+                if (index.remove(key, location)) {
+                    expirations.incrementAndGet();
+                }
+                return null;
+            }
+            String value = readValue(location);
+            return value != null ? new Entry(value, location.writtenAt()) : null;
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the value, written now; returns the stored entry.
+     */
+    Entry put(String key, String value) {
+        Entry entry = new Entry(value, clock.millis());
+        unwritten.put(key, entry);
+        pending.add(new Pending(key, entry));
+        if (!created) {
+            createLog();
+        }
+        if (pending.size() >= WRITE_BATCH && writeScheduled.compareAndSet(false, true)) {
+            WRITER.execute(() -> {
+                writeScheduled.set(false);
+                writePending(false);
+            });
+        }
+        return entry;
+    }
+
+    /**
+     * Keys of the entries starting with the prefix, including expired ones not yet swept.
+     */
+    List<String> keys(String prefix) {
+        List<String> keys = new ArrayList<>();
+        for (String key : index.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        for (String key : unwritten.keySet()) {
+            if (key.startsWith(prefix) && !index.containsKey(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Number of live entries, including those not yet written.
+     */
+    int size() {
+        int size = index.size();
+        for (String key : unwritten.keySet()) {
+            if (!index.containsKey(key)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    long evictions() {
+        return evictions.get();
+    }
+
+    long expirations() {
+        return expirations.get();
+    }
+
+    /**
+     * Writes all pending records and forces them to disk.
+     */
+    void flush() {
+        writePending(true);
+    }
+
+    /**
+     * Releases this user's reference; the last one writes everything pending and closes the file.
+     */
+    @Override
+    public void close() {
+        boolean[] last = new boolean[1];
+        OPEN.computeIfPresent(file, (path, store) -> {
+            if (store != this) {
+                return store;
+            }
+            last[0] = --users == 0;
+            return last[0] ? null : store;
+        });
+        if (last[0]) {
+            ticks.cancel(false);
+            flush();
+            synchronized (writeLock) {
+                closeChannel();
+            }
+        }
+    }
+
+    private void scheduleTicks() {
+        ticks = WRITER.scheduleWithFixedDelay(this::tick, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Periodic writer task: appends what is pending, applies the TTL and entry limit, and compacts the log
+     * when most of it is dead.
+     */
+    void tick() {
+        writePending(false);
+        synchronized (writeLock) {
+            long now = clock.millis();
+            if (ttlMillis > 0 && now - lastSweep >= SWEEP_INTERVAL_MILLIS) {
+                lastSweep = now;
+                index.forEach((key, location) -> {
+                    if (isExpired(location.writtenAt()) && index.remove(key, location)) {
+                        expirations.incrementAndGet();
+                    }
+                });
+            }
+            if (maxEntries > 0 && index.size() > maxEntries) {
+                List<Map.Entry<String, Location>> oldestFirst = new ArrayList<>(index.entrySet());
+                oldestFirst.sort(Comparator.comparingLong(e -> e.getValue().writtenAt()));
+                for (int i = 0; i < oldestFirst.size() - maxEntries; i++) {
+                    Map.Entry<String, Location> oldest = oldestFirst.get(i);
+                    if (index.remove(oldest.getKey(), oldest.getValue())) {
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+            if (records >= COMPACT_MIN_RECORDS && records > 2L * index.size()) {
+                compact();
+            }
+        }
+    }
+
+    private boolean isExpired(long writtenAt) {
+        return ttlMillis > 0 && clock.millis() - writtenAt >= ttlMillis;
+    }
+
+    private void writePending(boolean force) {
+        synchronized (writeLock) {
+            if (channel == null) {
+                return;
+            }
+            List<Pending> batch = new ArrayList<>();
+            Pending next;
+            while ((next = pending.poll()) != null) {
+                batch.add(next);
+            }
+            if (batch.isEmpty() && !force) {
+                return;
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                List<Location> locations = new ArrayList<>(batch.size());
+                for (Pending record : batch) {
+                    byte[] line = recordLine(record.key(), record.entry());
+                    locations.add(new Location(appendPosition + bytes.size(), line.length, record.entry().writtenAt()));
+                    bytes.write(line);
+                    bytes.write('\n');
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    appendPosition += channel.write(buffer, appendPosition);
+                }
+                if (force) {
+                    channel.force(false);
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    Pending record = batch.get(i);
+                    index.put(record.key(), locations.get(i));
+                    unwritten.remove(record.key(), record.entry());
+                }
+                records += batch.size();
+            } catch (IOException e) {
+                logger.warn("Could not write Ollama cache to {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Copies the live records to a new log and swaps it in. Caller holds the write lock.
+     */
+    private void compact() {
+        fileLock.writeLock().lock();
+        try {
+            long before = records;
+            Map<String, byte[]> live = new LinkedHashMap<>();
+            Map<String, Long> writtenAt = new LinkedHashMap<>();
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                byte[] line = readLine(entry.getValue());
+                if (line != null) {
+                    live.put(entry.getKey(), line);
+                    writtenAt.put(entry.getKey(), entry.getValue().writtenAt());
+                }
+            }
+            writeLog(live, writtenAt);
+            logger.debug("Compacted Ollama cache {} from {} to {} records", file, before, records);
+        } catch (IOException e) {
+            logger.warn("Could not compact Ollama cache {}: {}", file, e.getMessage());
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the log with a fresh one holding the given record lines, swapped in atomically, indexes them
+     * and reopens the file. Caller holds the write lock.
+     */
+    private void writeLog(Map<String, byte[]> lines, Map<String, Long> writtenAt) throws IOException {
+        closeChannel();
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = Files.createTempFile(parent != null ? parent : Path.of("."), file.getFileName().toString(), ".tmp");
+        Map<String, Location> locations = new LinkedHashMap<>();
+        long position = HEADER_LINE.length;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            out.write(HEADER_LINE);
+            for (Map.Entry<String, byte[]> line : lines.entrySet()) {
+                out.write(line.getValue());
+                out.write('\n');
+                locations.put(line.getKey(), new Location(position, line.getValue().length, writtenAt.get(line.getKey())));
+                position += line.getValue().length + 1;
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index.clear();
+        index.putAll(locations);
+        records = locations.size();
+        openChannel();
+    }
+
+    private void load() {
+        synchronized (writeLock) {
+            try {
+                if (!Files.isRegularFile(file) || Files.size(file) == 0) {
+                    created = false;
+                    return;
+                }
+                if (hasHeader()) {
+                    readLog();
+                    openChannel();
+                    return;
+                }
+                migrateLegacyJson();
+            } catch (IOException e) {
+                logger.warn("Could not open Ollama cache {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private void createLog() {
+        synchronized (writeLock) {
+            if (created) {
+                return;
+            }
+            created = true;
+            try {
+                writeLog(Map.of(), Map.of());
+            } catch (IOException e) {
+                logger.warn("Could not create Ollama cache {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private boolean hasHeader() throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] start = in.readNBytes(HEADER_LINE.length);
+            return Arrays.equals(start, HEADER_LINE);
+        }
+    }
+
+    /**
+     * Indexes the records of the log by scanning it line by line; later records of a key win, expired
+     * ones are left out.
+     */
+    private void readLog() throws IOException {
+        int skipped = 0;
+        long loadedAt = clock.millis();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            in.skipNBytes(HEADER_LINE.length);
+            long offset = HEADER_LINE.length;
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            boolean more = true;
+            while (more) {
+                b = in.read();
+                if (b != '\n' && b != -1) {
+                    line.write(b);
+                    continue;
+                }
+                more = b != -1;
+                byte[] bytes = line.toByteArray();
+                line.reset();
+                long lineOffset = offset;
+                offset += bytes.length + (more ? 1 : 0);
+                if (bytes.length == 0) {
+                    continue;
+                }
+                JsonNode record = parseRecord(bytes);
+                if (record == null) {
+                    skipped++;
+                    continue;
+                }
+                records++;
+                String key = record.get(KEY_FIELD).asText();
+                JsonNode t = record.get(WRITTEN_AT_FIELD);
+                long writtenAt = t != null && t.canConvertToLong() ? t.asLong() : loadedAt;
+                if (isExpired(writtenAt)) {
+                    index.remove(key);
+                } else {
+                    index.put(key, new Location(lineOffset, bytes.length, writtenAt));
+                }
+            }
+        }
+        if (skipped > 0) {
+            logger.warn("Skipped {} unreadable records in Ollama cache {}", skipped, file);
+        }
+    }
+
+    /**
+     * Streams an old-format cache (one JSON object of key to value) and replaces the file with a log of
+     * the same entries. A file that cannot be parsed is replaced by an empty log, as the old cache did.
+     */
+    private void migrateLegacyJson() throws IOException {
+        Map<String, byte[]> lines = new LinkedHashMap<>();
+        Map<String, Long> writtenAt = new LinkedHashMap<>();
+        long now = clock.millis();
+        try (InputStream in = Files.newInputStream(file);
+                JsonParser parser = OBJECT_MAPPER.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.currentName();
+                if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                    lines.put(key, recordLine(key, new Entry(parser.getText(), now)));
+                    writtenAt.put(key, now);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            logger.info("Migrating Ollama cache {} ({} entries) to the append-only format", file, lines.size());
+        } catch (IOException e) {
+            logger.warn("Could not load Ollama cache from {}: {}", file, e.getMessage());
+            lines.clear();
+            writtenAt.clear();
+        }
+        writeLog(lines, writtenAt);
+    }
+
+    private String readValue(Location location) {
+        byte[] line = readLine(location);
+        JsonNode record = line != null ? parseRecord(line) : null;
+        return record != null ? record.get(VALUE_FIELD).asText() : null;
+    }
+
+    private byte[] readLine(Location location) {
+        FileChannel current = channel;
+        if (current == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(location.length());
+            long position = location.offset();
+            while (buffer.hasRemaining()) {
+                int read = current.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    return null;
+                }
+            }
+            return buffer.array();
+        } catch (IOException e) {
+            logger.warn("Could not read Ollama cache {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] recordLine(String key, Entry entry) {
+        ObjectNode record = OBJECT_MAPPER.createObjectNode();
+        record.put(KEY_FIELD, key);
+        record.put(VALUE_FIELD, entry.value());
+        record.put(WRITTEN_AT_FIELD, entry.writtenAt());
+        return record.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The record, or null if the line is torn or corrupt (e.g. after a crash mid-write).
+     */
+    private static JsonNode parseRecord(byte[] line) {
+        try {
+            JsonNode record = OBJECT_MAPPER.readTree(line);
+            JsonNode key = record != null ? record.get(KEY_FIELD) : null;
+            JsonNode value = record != null ? record.get(VALUE_FIELD) : null;
+            return key != null && key.isTextual() && value != null && value.isTextual() ? record : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the log for reading and appending, first ending a torn last record so the next one starts on
+     * its own line.
+     */
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        appendPosition = channel.size();
+        if (appendPosition > 0) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, appendPosition - 1);
+            if (last.get(0) != '\n') {
+                appendPosition += channel.write(ByteBuffer.wrap(new byte[] { '\n' }), appendPosition);
+            }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Could not close Ollama cache {}: {}", file, e.getMessage());
+        }
+        channel = null;
+    }
+}
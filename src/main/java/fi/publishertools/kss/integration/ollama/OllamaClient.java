@@ -4,91 +4,190 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Base64;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * Minimal HTTP client for Ollama /api/generate with vision (image) input and text-only generation.
  * Image: sends base64-encoded image and prompt, returns the generated text from the response.
+ * Images are downscaled to a compact JPEG first (see {@link ImageDownscale}).
  * Text: used for language detection (e.g. non-main-language words) with gemma3n:e2b.
+ * Image request bodies are encoded while they are sent and replies are parsed as they arrive
+ * (see {@link GenerateRequestBodies}, {@link GenerateResponseSubscriber}), so a request holds little
+ * more than the raw image in memory.
+ * <p>
+ * The {@code *Async} methods are the primitive: they send with {@link HttpClient#sendAsync} and never
+ * complete exceptionally, so callers can keep several requests in flight without a thread per request.
+ * The blocking methods wait for the async result. Decorators and test doubles override the async methods.
+ * Instances share one {@link HttpClient} (and its connection pool) unless one is passed in.
  */
 public class OllamaClient {
 
 	private static final String DEFAULT_BASE_URL = "http://localhost:11434";
-	private static final String MODEL = "qwen3-vl:4b";
+	static final String MODEL = "qwen3-vl:4b";
 	private static final String PROMPT = "Describe the image?";
-	private static final String LANG_DETECTION_MODEL = "gemma3n:e2b";
-	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(120);
+	static final String LANG_DETECTION_MODEL = "gemma3n:e2b";
+	/** Bumped when the image prompt changes meaning, so cached descriptions are produced again. */
+	private static final int DESCRIBE_PROMPT_VERSION = 1;
+	/** Bumped when the language detection prompts change meaning. */
+	private static final int LANG_PROMPT_VERSION = 1;
+	private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+	private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(120);
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
 	private final String baseUrl;
 	private final HttpClient httpClient;
-	private final ObjectMapper objectMapper;
+	private final Duration requestTimeout;
+	private final GenerationLimits describeLimits;
+	private final ImageDownscale imageDownscale;
 
 	public OllamaClient() {
 		this(DEFAULT_BASE_URL);
 	}
 
 	public OllamaClient(String baseUrl) {
+		this(baseUrl, null, null);
+	}
+
+	/**
+	 * @param httpClient     client to send with; null uses the process-wide default client
+	 * @param requestTimeout timeout per request; null uses the default of 120 s
+	 */
+	public OllamaClient(String baseUrl, HttpClient httpClient, Duration requestTimeout) {
+		this(baseUrl, httpClient, requestTimeout, null);
+	}
+
+	/**
+	 * @param describeLimits bounds for image descriptions; null uses {@link GenerationLimits#DEFAULT_ALT_TEXT}
+	 */
+	public OllamaClient(String baseUrl, HttpClient httpClient, Duration requestTimeout, GenerationLimits describeLimits) {
+		this(baseUrl, httpClient, requestTimeout, describeLimits, null);
+	}
+
+	/**
+	 * @param imageDownscale preprocessing of images before sending; null uses {@link ImageDownscale#DEFAULT}
+	 */
+	public OllamaClient(String baseUrl, HttpClient httpClient, Duration requestTimeout, GenerationLimits describeLimits,
+			ImageDownscale imageDownscale) {
 		this.baseUrl = baseUrl != null ? baseUrl.trim().replaceAll("/+$", "") : DEFAULT_BASE_URL;
-		this.httpClient = HttpClient.newBuilder()
-				.connectTimeout(Duration.ofSeconds(10))
-				.build();
-		this.objectMapper = new ObjectMapper();
+		this.httpClient = httpClient != null ? httpClient : DefaultHttpClientHolder.INSTANCE;
+		this.requestTimeout = requestTimeout != null ? requestTimeout : DEFAULT_REQUEST_TIMEOUT;
+		this.describeLimits = describeLimits != null ? describeLimits : GenerationLimits.DEFAULT_ALT_TEXT;
+		this.imageDownscale = imageDownscale != null ? imageDownscale : ImageDownscale.DEFAULT;
+	}
+
+	/**
+	 * Builds the HttpClient shared by all Ollama clients of the application from configuration:
+	 * protocol version, connect timeout and (optionally) a fixed-size executor for response handling.
+	 */
+	public static HttpClient newHttpClient(OllamaClientProperties properties) {
+		HttpClient.Builder builder = HttpClient.newBuilder()
+				.connectTimeout(properties.getConnectTimeout() != null ? properties.getConnectTimeout() : DEFAULT_CONNECT_TIMEOUT)
+				.version(properties.isHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1);
+		if (properties.getExecutorThreads() > 0) {
+			builder.executor(Executors.newFixedThreadPool(properties.getExecutorThreads(),
+					Thread.ofPlatform().name("ollama-http-", 0).daemon().factory()));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Identifies what produces image descriptions (model, prompt version, limits and downscaling), part of cache keys
+	 * for them so a changed model or prompt is not answered with old results.
+	 * Decorators report the version of the client they wrap.
+	 */
+	public String describeImageVersion() {
+		return MODEL + "/p" + DESCRIBE_PROMPT_VERSION + "/" + describeLimits + "/" + imageDownscale;
+	}
+
+	/**
+	 * Identifies what produces language detections (model and prompt version), part of cache keys for them.
+	 * Decorators report the version of the client they wrap.
+	 */
+	public String langDetectionVersion() {
+		return LANG_DETECTION_MODEL + "/p" + LANG_PROMPT_VERSION;
+	}
+
+	/**
+	 * False while the backend is considered down and requests are failed fast or only probing.
+	 * Only {@link CircuitBreakerOllamaClient} fails fast; other decorators report the client they wrap.
+	 */
+	public boolean isAvailable() {
+		return true;
+	}
+
+	/**
+	 * {@link #isAvailable()} for requests of one role only, so a phase is not held up by an outage of a model
+	 * it does not use. Unless a decorator knows better, a role is available when the whole client is.
+	 */
+	public boolean isAvailable(OllamaModelRole role) {
+		return isAvailable();
+	}
+
+	/**
+	 * How long requests will still be failed fast without reaching the server, zero while they are sent.
+	 */
+	public Duration retryAfter() {
+		return Duration.ZERO;
+	}
+
+	/**
+	 * {@link #retryAfter()} for requests of one role only.
+	 */
+	public Duration retryAfter(OllamaModelRole role) {
+		return retryAfter();
 	}
 
 	/**
 	 * Sends the image to Ollama and returns the model's description, or empty on any error.
+	 * The image is downscaled and re-encoded as JPEG before sending, as this client's {@link ImageDownscale} says.
+	 * The description is bounded by this client's {@link GenerationLimits}: the reply is streamed and
+	 * generation is stopped once the first complete sentence or the character budget has arrived.
 	 *
 	 * @param imageContent raw image bytes (e.g. PNG/JPEG)
 	 * @return the generated description text, or empty if the request failed or returned no text
 	 */
 	public Optional<String> describeImage(byte[] imageContent) {
+		return describeImageAsync(imageContent).join();
+	}
+
+	/**
+	 * Asynchronous {@link #describeImage(byte[])}. The future completes with empty on any error.
+	 */
+	public CompletableFuture<Optional<String>> describeImageAsync(byte[] imageContent) {
 		if (imageContent == null || imageContent.length == 0) {
-			return Optional.empty();
+			return CompletableFuture.completedFuture(Optional.empty());
+		}
+		ObjectNode fields = OBJECT_MAPPER.createObjectNode();
+		fields.put("model", MODEL);
+		fields.put("prompt", PROMPT);
+		fields.put("stream", describeLimits.cutsEarly());
+		if (describeLimits.maxTokens() > 0) {
+			fields.putObject("options").put("num_predict", describeLimits.maxTokens());
 		}
-		String base64Image = Base64.getEncoder().encodeToString(imageContent);
-		ObjectNode body = objectMapper.createObjectNode();
-		body.put("model", MODEL);
-		body.put("prompt", PROMPT);
-		body.put("stream", false);
-		ArrayNode images = body.putArray("images");
-		images.add(base64Image);
-
 		try {
-			String bodyJson = objectMapper.writeValueAsString(body);
-			URI uri = URI.create(baseUrl + "/api/generate");
-			HttpRequest request = HttpRequest.newBuilder(uri)
-					.header("Content-Type", "application/json")
-					.timeout(REQUEST_TIMEOUT)
-					.POST(HttpRequest.BodyPublishers.ofString(bodyJson, StandardCharsets.UTF_8))
-					.build();
-
-			HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
-			if (response.statusCode() != 200) {
-				return Optional.empty();
-			}
-			JsonNode root = objectMapper.readTree(response.body());
-			JsonNode responseText = root != null ? root.get("response") : null;
-			if (responseText == null || !responseText.isTextual()) {
-				return Optional.empty();
-			}
-			String text = responseText.asText();
-			if (text == null || text.isBlank()) {
-				return Optional.empty();
-			}
-			return Optional.of(text.trim());
+			byte[] image = imageDownscale.apply(imageContent);
+			return generate(GenerateRequestBodies.withImage(OBJECT_MAPPER, fields, image), describeLimits);
 		} catch (Exception e) {
-			return Optional.empty();
+			return CompletableFuture.completedFuture(Optional.empty());
 		}
 	}
 
+	/**
+	 * {@link #describeImageAsync(byte[])} with the origin of the description. The base client always
+	 * describes the image itself; {@link CachingOllamaClient} may reuse the description of a similar image.
+	 */
+	public CompletableFuture<Optional<ImageDescription>> describeImageDetailedAsync(byte[] imageContent) {
+		return describeImageAsync(imageContent).thenApply(result -> result.map(text -> new ImageDescription(text, false)));
+	}
+
 	/**
 	 * Calls Ollama /api/generate with text-only prompt to detect words not in the main language.
 	 * Prompt asks for JSON-formatted list of such words/phrases.
@@ -98,14 +197,13 @@ public class OllamaClient {
 	 * @return the raw response string for JSON parsing, or empty on failure
 	 */
 	public Optional<String> detectNonMainLanguageWords(String text, String mainLanguage) {
-		if(true) {
-			String [] split = text.split("\\W");
-			if(split.length > 100) {
-				return Optional.of("{\"words\": [\""+ split[50] + "\"]}");
-			} else {
-				return Optional.of("[]");
-			}
-		}
+		return detectNonMainLanguageWordsAsync(text, mainLanguage).join();
+	}
+
+	/**
+	 * Asynchronous {@link #detectNonMainLanguageWords(String, String)}. The future completes with empty on any error.
+	 */
+	public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
 		if (text == null) {
 			text = "";
 		}
@@ -113,36 +211,87 @@ public class OllamaClient {
 		String prompt = "pick up the words in following sentences that are not in " + lang
 				+ " language and give result as JSON-format. <context>" + text + "</context>";
 
-		ObjectNode body = objectMapper.createObjectNode();
+		ObjectNode body = OBJECT_MAPPER.createObjectNode();
 		body.put("model", LANG_DETECTION_MODEL);
 		body.put("prompt", prompt);
 		body.put("stream", false);
+		try {
+			return generate(GenerateRequestBodies.json(OBJECT_MAPPER, body), GenerationLimits.UNLIMITED);
+		} catch (Exception e) {
+			return CompletableFuture.completedFuture(Optional.empty());
+		}
+	}
+
+	/**
+	 * Detects words not in the main language for many texts in one request. Each text is sent with its id;
+	 * the model is asked for a JSON object mapping every id to its list of non-main-language words.
+	 *
+	 * @param textsById   texts to analyze keyed by a stable id, in prompt order
+	 * @param mainLanguage the main language name (e.g. "finnish") used in the prompt
+	 * @return the raw JSON response keyed by id, or empty on failure
+	 */
+	public Optional<String> detectNonMainLanguageWordsBatch(Map<String, String> textsById, String mainLanguage) {
+		return detectNonMainLanguageWordsBatchAsync(textsById, mainLanguage).join();
+	}
+
+	/**
+	 * Asynchronous {@link #detectNonMainLanguageWordsBatch(Map, String)}. The future completes with empty on any error.
+	 */
+	public CompletableFuture<Optional<String>> detectNonMainLanguageWordsBatchAsync(Map<String, String> textsById,
+			String mainLanguage) {
+		if (textsById == null || textsById.isEmpty()) {
+			return CompletableFuture.completedFuture(Optional.empty());
+		}
+		String lang = mainLanguage != null && !mainLanguage.isBlank() ? mainLanguage : "finnish";
+		StringBuilder prompt = new StringBuilder()
+				.append("For each text below, pick up the words that are not in ").append(lang)
+				.append(" language. Answer only with a JSON object that has the id of every text as a key and")
+				.append(" the list of such words as the value (an empty list if there are none),")
+				.append(" for example {\"t1\": [], \"t2\": [\"hello\"]}.\n");
+		for (Map.Entry<String, String> entry : textsById.entrySet()) {
+			prompt.append("<text id=\"").append(entry.getKey()).append("\">")
+					.append(entry.getValue())
+					.append("</text>\n");
+		}
 
+		ObjectNode body = OBJECT_MAPPER.createObjectNode();
+		body.put("model", LANG_DETECTION_MODEL);
+		body.put("prompt", prompt.toString());
+		body.put("format", "json");
+		body.put("stream", false);
 		try {
-			String bodyJson = objectMapper.writeValueAsString(body);
-			URI uri = URI.create(baseUrl + "/api/generate");
-			HttpRequest request = HttpRequest.newBuilder(uri)
-					.header("Content-Type", "application/json")
-					.timeout(REQUEST_TIMEOUT)
-					.POST(HttpRequest.BodyPublishers.ofString(bodyJson, StandardCharsets.UTF_8))
-					.build();
-
-			HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
-			if (response.statusCode() != 200) {
-				return Optional.empty();
-			}
-			JsonNode root = objectMapper.readTree(response.body());
-			JsonNode responseText = root != null ? root.get("response") : null;
-			if (responseText == null || !responseText.isTextual()) {
-				return Optional.empty();
-			}
-			String responseStr = responseText.asText();
-			if (responseStr == null || responseStr.isBlank()) {
-				return Optional.empty();
-			}
-			return Optional.of(responseStr.trim());
+			return generate(GenerateRequestBodies.json(OBJECT_MAPPER, body), GenerationLimits.UNLIMITED);
 		} catch (Exception e) {
-			return Optional.empty();
+			return CompletableFuture.completedFuture(Optional.empty());
 		}
 	}
+
+	/**
+	 * Posts a request body to /api/generate and extracts the trimmed "response" text while the reply streams in,
+	 * stopping early as the limits allow. The request timeout only bounds the wait for response headers, so the
+	 * whole exchange is also given the same deadline and cancelled when a streamed reply stalls past it.
+	 */
+	private CompletableFuture<Optional<String>> generate(HttpRequest.BodyPublisher body, GenerationLimits limits) {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/generate"))
+				.header("Content-Type", "application/json")
+				.timeout(requestTimeout)
+				.POST(body)
+				.build();
+		CompletableFuture<HttpResponse<Optional<String>>> exchange =
+				httpClient.sendAsync(request, GenerateResponseSubscriber.handler(limits));
+		return exchange
+				.thenApply(response -> response.body())
+				.orTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)
+				.exceptionally(e -> {
+					exchange.cancel(true);
+					return Optional.empty();
+				});
+	}
+
+	/** Lazily created client for instances built without an explicit HttpClient. */
+	private static final class DefaultHttpClientHolder {
+		static final HttpClient INSTANCE = HttpClient.newBuilder()
+				.connectTimeout(DEFAULT_CONNECT_TIMEOUT)
+				.build();
+	}
 }
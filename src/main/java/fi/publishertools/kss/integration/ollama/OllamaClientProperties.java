@@ -0,0 +1,399 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Connection settings, request concurrency limits and failure handling for calls to the Ollama server.
+ * One HttpClient is built from these settings and shared by all phases.
+ */
+@ConfigurationProperties(prefix = "kss.ollama.client")
+public class OllamaClientProperties {
+
+    /**
+     * Base URL of the Ollama server.
+     */
+    private String baseUrl = "http://localhost:11434";
+
+    /**
+     * Ollama servers to spread requests over instead of {@code baseUrl}; empty uses {@code baseUrl} alone.
+     */
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    /**
+     * Time between health checks of the endpoints; 0 disables them.
+     */
+    private Duration healthCheckInterval = LoadBalancedOllamaClient.DEFAULT_HEALTH_CHECK_INTERVAL;
+
+    /**
+     * Failed requests in a row that take an endpoint out of rotation until its next successful health check.
+     */
+    private int endpointFailureThreshold = LoadBalancedOllamaClient.DEFAULT_FAILURE_THRESHOLD;
+
+    /**
+     * When true, the client prefers HTTP/2 (falls back to HTTP/1.1 if the server does not upgrade).
+     */
+    private boolean http2 = false;
+
+    private Duration connectTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Timeout for a single generate request, including model time.
+     */
+    private Duration requestTimeout = Duration.ofSeconds(120);
+
+    /**
+     * Threads for the shared HttpClient's response handling; 0 uses the JDK default executor.
+     */
+    private int executorThreads = 0;
+
+    /**
+     * Maximum number of Ollama requests in flight across all jobs and phases. With HTTP/1.1 this
+     * is also the upper bound on open connections to the server. With {@code endpoints} it is the
+     * default cap per endpoint instead.
+     */
+    private int maxConcurrentRequests = 4;
+
+    /**
+     * Maximum number of requests one job keeps in flight in B2_ProposeImageAltTexts and B3_ProposeLangMarkup.
+     */
+    private int maxConcurrentPerJob = 2;
+
+    /**
+     * Token budget for an image description (sent as options.num_predict); 0 uses the model default.
+     */
+    private int altTextMaxTokens = 120;
+
+    /**
+     * Character budget for an image description; the reply is cut at a word boundary. 0 disables.
+     */
+    private int altTextMaxChars = 300;
+
+    /**
+     * When true, image description generation stops after the first complete sentence.
+     */
+    private boolean altTextStopAtSentenceEnd = true;
+
+    /**
+     * Longest edge in pixels of images sent for description; larger images are downscaled and re-encoded
+     * as JPEG first. 0 sends the original image.
+     */
+    private int imageMaxEdge = ImageDownscale.DEFAULT.maxEdge();
+
+    /**
+     * JPEG quality (0-1) of downscaled images.
+     */
+    private float imageJpegQuality = ImageDownscale.DEFAULT.jpegQuality();
+
+    /**
+     * When true, calls fail fast while a failure-rate circuit breaker considers the server unavailable.
+     */
+    private boolean circuitBreakerEnabled = true;
+
+    /**
+     * Number of most recent calls the failure rate is computed over.
+     */
+    private int circuitBreakerWindowSize = CircuitBreakerSettings.DEFAULT.windowSize();
+
+    /**
+     * Calls in the window needed before the breaker may open.
+     */
+    private int circuitBreakerMinimumCalls = CircuitBreakerSettings.DEFAULT.minimumCalls();
+
+    /**
+     * Failure rate (0-1) in the window at which the breaker opens.
+     */
+    private double circuitBreakerFailureRateThreshold = CircuitBreakerSettings.DEFAULT.failureRateThreshold();
+
+    /**
+     * How long the breaker stays open before letting probe calls through.
+     */
+    private Duration circuitBreakerOpenDuration = CircuitBreakerSettings.DEFAULT.openDuration();
+
+    /**
+     * Probe calls let through while half-open; all must succeed to close the breaker.
+     */
+    private int circuitBreakerHalfOpenProbes = CircuitBreakerSettings.DEFAULT.halfOpenProbes();
+
+    /**
+     * What B2_ProposeImageAltTexts does when descriptions fail while the server is unavailable.
+     */
+    private OllamaUnavailablePolicy altTextUnavailablePolicy = OllamaUnavailablePolicy.PARK;
+
+    /**
+     * What B3_ProposeLangMarkup does when detections fail while the server is unavailable.
+     */
+    private OllamaUnavailablePolicy langMarkupUnavailablePolicy = OllamaUnavailablePolicy.SKIP;
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(List<Endpoint> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    public Duration getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public void setHealthCheckInterval(Duration healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    public int getEndpointFailureThreshold() {
+        return endpointFailureThreshold;
+    }
+
+    public void setEndpointFailureThreshold(int endpointFailureThreshold) {
+        this.endpointFailureThreshold = endpointFailureThreshold;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public void setRequestTimeout(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    public int getMaxConcurrentPerJob() {
+        return maxConcurrentPerJob;
+    }
+
+    public void setMaxConcurrentPerJob(int maxConcurrentPerJob) {
+        this.maxConcurrentPerJob = maxConcurrentPerJob;
+    }
+
+    public int getAltTextMaxTokens() {
+        return altTextMaxTokens;
+    }
+
+    public void setAltTextMaxTokens(int altTextMaxTokens) {
+        this.altTextMaxTokens = altTextMaxTokens;
+    }
+
+    public int getAltTextMaxChars() {
+        return altTextMaxChars;
+    }
+
+    public void setAltTextMaxChars(int altTextMaxChars) {
+        this.altTextMaxChars = altTextMaxChars;
+    }
+
+    public boolean isAltTextStopAtSentenceEnd() {
+        return altTextStopAtSentenceEnd;
+    }
+
+    public void setAltTextStopAtSentenceEnd(boolean altTextStopAtSentenceEnd) {
+        this.altTextStopAtSentenceEnd = altTextStopAtSentenceEnd;
+    }
+
+    public int getImageMaxEdge() {
+        return imageMaxEdge;
+    }
+
+    public void setImageMaxEdge(int imageMaxEdge) {
+        this.imageMaxEdge = imageMaxEdge;
+    }
+
+    public float getImageJpegQuality() {
+        return imageJpegQuality;
+    }
+
+    public void setImageJpegQuality(float imageJpegQuality) {
+        this.imageJpegQuality = imageJpegQuality;
+    }
+
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+    }
+
+    public int getCircuitBreakerWindowSize() {
+        return circuitBreakerWindowSize;
+    }
+
+    public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+    }
+
+    public int getCircuitBreakerMinimumCalls() {
+        return circuitBreakerMinimumCalls;
+    }
+
+    public void setCircuitBreakerMinimumCalls(int circuitBreakerMinimumCalls) {
+        this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+    }
+
+    public double getCircuitBreakerFailureRateThreshold() {
+        return circuitBreakerFailureRateThreshold;
+    }
+
+    public void setCircuitBreakerFailureRateThreshold(double circuitBreakerFailureRateThreshold) {
+        this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+    }
+
+    public Duration getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    public void setCircuitBreakerOpenDuration(Duration circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    public int getCircuitBreakerHalfOpenProbes() {
+        return circuitBreakerHalfOpenProbes;
+    }
+
+    public void setCircuitBreakerHalfOpenProbes(int circuitBreakerHalfOpenProbes) {
+        this.circuitBreakerHalfOpenProbes = circuitBreakerHalfOpenProbes;
+    }
+
+    public OllamaUnavailablePolicy getAltTextUnavailablePolicy() {
+        return altTextUnavailablePolicy;
+    }
+
+    public void setAltTextUnavailablePolicy(OllamaUnavailablePolicy altTextUnavailablePolicy) {
+        this.altTextUnavailablePolicy = altTextUnavailablePolicy;
+    }
+
+    public OllamaUnavailablePolicy getLangMarkupUnavailablePolicy() {
+        return langMarkupUnavailablePolicy;
+    }
+
+    public void setLangMarkupUnavailablePolicy(OllamaUnavailablePolicy langMarkupUnavailablePolicy) {
+        this.langMarkupUnavailablePolicy = langMarkupUnavailablePolicy;
+    }
+
+    /**
+     * The configured endpoints; those without their own cap get {@code maxConcurrentRequests}.
+     */
+    public List<OllamaEndpoint> endpointList() {
+        List<OllamaEndpoint> list = new ArrayList<>();
+        if (endpoints == null) {
+            return list;
+        }
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.getUrl() == null || endpoint.getUrl().isBlank()) {
+                continue;
+            }
+            int cap = endpoint.getMaxConcurrentRequests() > 0 ? endpoint.getMaxConcurrentRequests() : maxConcurrentRequests;
+            list.add(new OllamaEndpoint(endpoint.getUrl().trim().replaceAll("/+$", ""), cap, endpoint.getModels()));
+        }
+        return list;
+    }
+
+    /**
+     * Circuit breaker settings built from the circuit-breaker values.
+     */
+    public CircuitBreakerSettings circuitBreaker() {
+        return new CircuitBreakerSettings(circuitBreakerWindowSize, circuitBreakerMinimumCalls,
+                circuitBreakerFailureRateThreshold, circuitBreakerOpenDuration, circuitBreakerHalfOpenProbes);
+    }
+
+    /**
+     * Image preprocessing built from the image settings.
+     */
+    public ImageDownscale imageDownscale() {
+        return new ImageDownscale(imageMaxEdge, imageJpegQuality);
+    }
+
+    /**
+     * Bounds for image description generation built from the alt-text settings.
+     */
+    public GenerationLimits altTextLimits() {
+        return new GenerationLimits(altTextMaxTokens, altTextMaxChars, altTextStopAtSentenceEnd);
+    }
+
+    /**
+     * One Ollama server of {@code endpoints}.
+     */
+    public static class Endpoint {
+
+        private String url;
+
+        /**
+         * Requests kept in flight to this server; 0 uses {@code max-concurrent-requests}.
+         */
+        private int maxConcurrentRequests = 0;
+
+        /**
+         * Kinds of requests this server takes (VISION for image descriptions, TEXT for language
+         * detection); empty for all.
+         */
+        private Set<OllamaModelRole> models = new LinkedHashSet<>();
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public int getMaxConcurrentRequests() {
+            return maxConcurrentRequests;
+        }
+
+        public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+        }
+
+        public Set<OllamaModelRole> getModels() {
+            return models;
+        }
+
+        public void setModels(Set<OllamaModelRole> models) {
+            this.models = models;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * One Ollama server behind a {@link LoadBalancedOllamaClient}.
+ *
+ * @param baseUrl               base URL of the server
+ * @param maxConcurrentRequests requests kept in flight to this server at most
+ * @param roles                 kinds of requests the server takes; empty for all
+ */
+public record OllamaEndpoint(String baseUrl, int maxConcurrentRequests, Set<OllamaModelRole> roles) {
+
+    public OllamaEndpoint {
+        maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        roles = Collections.unmodifiableSet(roles == null || roles.isEmpty()
+                ? EnumSet.allOf(OllamaModelRole.class)
+                : EnumSet.copyOf(roles));
+    }
+
+    public boolean serves(OllamaModelRole role) {
+        return roles.contains(role);
+    }
+}
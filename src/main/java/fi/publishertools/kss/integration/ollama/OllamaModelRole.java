@@ -0,0 +1,27 @@
+package fi.publishertools.kss.integration.ollama;
+
+/**
+ * The kinds of requests {@link OllamaClient} sends, by the model that serves them. An endpoint of a
+ * {@link LoadBalancedOllamaClient} can be limited to some of them, e.g. a GPU host to vision.
+ */
+public enum OllamaModelRole {
+
+    /** Image descriptions. */
+    VISION(OllamaClient.MODEL),
+
+    /** Language detection, single and batched. */
+    TEXT(OllamaClient.LANG_DETECTION_MODEL);
+
+    private final String model;
+
+    OllamaModelRole(String model) {
+        this.model = model;
+    }
+
+    /**
+     * Name of the Ollama model requests of this role use.
+     */
+    public String model() {
+        return model;
+    }
+}
@@ -0,0 +1,14 @@
+package fi.publishertools.kss.integration.ollama;
+
+/**
+ * What a phase does with a book when Ollama requests fail because the backend is unavailable
+ * (see {@link CircuitBreakerOllamaClient}).
+ */
+public enum OllamaUnavailablePolicy {
+
+    /** Continue without the proposals that could not be made. */
+    SKIP,
+
+    /** Put the book aside and run the phase again once the backend may have recovered. */
+    PARK
+}
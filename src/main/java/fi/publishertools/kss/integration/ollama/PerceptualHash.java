@@ -0,0 +1,98 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.OptionalLong;
+
+/**
+ * 64-bit difference hash (dHash) of an image: the image is reduced to a 9x8 grid of mean luminance and each
+ * bit says whether a cell is brighter than its right neighbour. The same picture exported at another size or
+ * compression gets the same or a nearly identical hash, so the {@link #distance Hamming distance} of two hashes
+ * tells near-identical images apart from different ones.
+ */
+public final class PerceptualHash {
+
+    private static final int WIDTH = 9;
+    private static final int HEIGHT = 8;
+    /** Decoded edge length to average from; enough pixels per cell to smooth out resampling noise. */
+    private static final int DECODE_EDGE = 144;
+    /**
+     * Hashes with fewer set or unset bits than this come from near-flat images (blank pages, solid fills)
+     * and match too much to be useful.
+     */
+    private static final int MIN_SIGNAL_BITS = 4;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * The dHash of the image, or empty if it cannot be decoded or is too flat to tell apart from others.
+     */
+    public static OptionalLong dHash(byte[] image) {
+        if (image == null || image.length == 0) {
+            return OptionalLong.empty();
+        }
+        try {
+            BufferedImage decoded = ImageDecoding.decode(image, DECODE_EDGE);
+            if (decoded == null) {
+                return OptionalLong.empty();
+            }
+            long hash = hash(luminanceGrid(decoded));
+            int bits = Long.bitCount(hash);
+            return bits < MIN_SIGNAL_BITS || bits > Long.SIZE - MIN_SIGNAL_BITS
+                    ? OptionalLong.empty()
+                    : OptionalLong.of(hash);
+        } catch (IOException | RuntimeException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Number of differing bits.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Mean luminance of each cell of a WIDTH x HEIGHT grid laid over the image; transparency counts as white.
+     */
+    private static double[][] luminanceGrid(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[][] sum = new double[HEIGHT][WIDTH];
+        int[][] count = new int[HEIGHT][WIDTH];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellY = y * HEIGHT / height;
+            for (int x = 0; x < width; x++) {
+                int cellX = x * WIDTH / width;
+                sum[cellY][cellX] += luminance(row[x]);
+                count[cellY][cellX]++;
+            }
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                sum[y][x] = count[y][x] > 0 ? sum[y][x] / count[y][x] : 255;
+            }
+        }
+        return sum;
+    }
+
+    private static long hash(double[][] grid) {
+        long hash = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH - 1; x++) {
+                hash = (hash << 1) | (grid[y][x] > grid[y][x + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    private static double luminance(int argb) {
+        double alpha = ((argb >>> 24) & 0xff) / 255.0;
+        double luma = 0.299 * ((argb >> 16) & 0xff) + 0.587 * ((argb >> 8) & 0xff) + 0.114 * (argb & 0xff);
+        return alpha * luma + (1 - alpha) * 255;
+    }
+}
@@ -0,0 +1,36 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Keeps at most a fixed number of asynchronous requests of one job in flight. {@link #submit} blocks the
+ * submitting (phase) thread only while the window is full; completions free a slot without a thread
+ * waiting on each request.
+ */
+public final class RequestWindow {
+
+    private final Semaphore slots;
+
+    public RequestWindow(int size) {
+        this.slots = new Semaphore(Math.max(1, size));
+    }
+
+    /**
+     * Waits for a free slot, then starts the request. The slot is freed when the returned future completes.
+     * A request that throws instead of returning a future yields a failed future.
+     *
+     * @throws InterruptedException if interrupted while waiting for a slot; the request is then not started
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) throws InterruptedException {
+        slots.acquire();
+        CompletableFuture<T> future;
+        try {
+            future = request.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((value, error) -> slots.release());
+    }
+}
@@ -0,0 +1,174 @@
+package fi.publishertools.kss.langid;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process check for whether a text run may contain words outside its main language, used to skip the
+ * Ollama language detection for runs that are plainly in the main language. Each word is scored against
+ * character trigram profiles built from the sample texts bundled under {@code langid/}. A run needs
+ * detection if any word uses a letter never seen in the main-language sample, or if some other language
+ * scores better than the main language by more than the threshold (mean natural-log likelihood per
+ * trigram). Errs towards detection: runs in a main language without a bundled profile always need it.
+ * Thread-safe.
+ */
+public final class LanguagePrefilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(LanguagePrefilter.class);
+
+    /** Likelihood advantage of another language, per trigram, above which a word counts as foreign. */
+    public static final double DEFAULT_THRESHOLD = 1.0;
+
+    /** Shorter words carry too few trigrams to tell languages apart and are only checked for their letters. */
+    static final int MIN_WORD_LENGTH = 3;
+
+    static final List<String> LANGUAGES = List.of("fi", "en", "sv", "de", "fr", "es", "it");
+
+    /** Main language names as they appear in the "language" metadata, mapped to profile codes. */
+    private static final Map<String, String> ALIASES = Map.ofEntries(
+            Map.entry("finnish", "fi"), Map.entry("suomi", "fi"), Map.entry("fin", "fi"),
+            Map.entry("english", "en"), Map.entry("englanti", "en"), Map.entry("eng", "en"),
+            Map.entry("swedish", "sv"), Map.entry("ruotsi", "sv"), Map.entry("svenska", "sv"), Map.entry("swe", "sv"),
+            Map.entry("german", "de"), Map.entry("saksa", "de"), Map.entry("deutsch", "de"), Map.entry("deu", "de"),
+            Map.entry("french", "fr"), Map.entry("ranska", "fr"), Map.entry("fra", "fr"),
+            Map.entry("spanish", "es"), Map.entry("espanja", "es"), Map.entry("spa", "es"),
+            Map.entry("italian", "it"), Map.entry("italia", "it"), Map.entry("ita", "it"));
+
+    private final Map<String, TrigramProfile> profiles;
+    private final int vocabulary;
+    private final double threshold;
+
+    /**
+     * Prefilter on the bundled profiles.
+     */
+    public LanguagePrefilter(double threshold) {
+        this(BundledProfiles.PROFILES, threshold);
+    }
+
+    LanguagePrefilter(Map<String, TrigramProfile> profiles, double threshold) {
+        this.profiles = profiles;
+        this.threshold = threshold;
+        Set<String> all = new HashSet<>();
+        profiles.values().forEach(p -> all.addAll(p.trigramSet()));
+        this.vocabulary = all.size();
+    }
+
+    /**
+     * True if there is a profile for the main language, i.e. runs in it can be skipped at all.
+     */
+    public boolean supports(String mainLanguage) {
+        String code = languageCode(mainLanguage);
+        return code != null && profiles.containsKey(code);
+    }
+
+    /**
+     * True if the run may contain words outside the main language and should be sent for detection.
+     * Runs without letters never need detection.
+     */
+    public boolean needsDetection(String text, String mainLanguage) {
+        String code = languageCode(mainLanguage);
+        TrigramProfile main = code != null ? profiles.get(code) : null;
+        List<String> words = words(text);
+        if (main == null) {
+            return !words.isEmpty();
+        }
+        for (String word : words) {
+            if (!main.coversAlphabet(word)) {
+                return true;
+            }
+            if (word.length() >= MIN_WORD_LENGTH && foreignMargin(word, main) > threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How much better, per trigram, the best other language scores the word than the main language.
+     */
+    double foreignMargin(String word, TrigramProfile main) {
+        String[] trigrams = TrigramProfile.trigrams(word);
+        double mainScore = main.score(trigrams, vocabulary);
+        double best = Double.NEGATIVE_INFINITY;
+        for (TrigramProfile profile : profiles.values()) {
+            if (profile != main) {
+                best = Math.max(best, profile.score(trigrams, vocabulary));
+            }
+        }
+        return best - mainScore;
+    }
+
+    /**
+     * Profile code for a language name or code ("finnish", "fi", "fi-FI"), or null if unknown.
+     */
+    static String languageCode(String language) {
+        if (language == null || language.isBlank()) {
+            return null;
+        }
+        String key = language.trim().toLowerCase(Locale.ROOT);
+        int region = key.indexOf('-') >= 0 ? key.indexOf('-') : key.indexOf('_');
+        if (region > 0) {
+            key = key.substring(0, region);
+        }
+        return LANGUAGES.contains(key) ? key : ALIASES.get(key);
+    }
+
+    /**
+     * Lower-cased runs of letters in the text.
+     */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            if (Character.isLetter(cp)) {
+                word.appendCodePoint(Character.toLowerCase(cp));
+            } else if (!word.isEmpty()) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+            i += Character.charCount(cp);
+        }
+        if (!word.isEmpty()) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /** Profiles are built once per class loader, on first use. */
+    private static final class BundledProfiles {
+
+        static final Map<String, TrigramProfile> PROFILES = load();
+
+        private static Map<String, TrigramProfile> load() {
+            Map<String, TrigramProfile> profiles = new LinkedHashMap<>();
+            for (String code : LANGUAGES) {
+                String resource = "langid/" + code + ".txt";
+                try (InputStream in = LanguagePrefilter.class.getClassLoader().getResourceAsStream(resource)) {
+                    if (in == null) {
+                        logger.warn("Language profile sample {} not found", resource);
+                        continue;
+                    }
+                    profiles.put(code, TrigramProfile.fromSample(new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+                } catch (IOException e) {
+                    logger.warn("Failed to read language profile sample {}: {}", resource, e.getMessage());
+                }
+            }
+            return Map.copyOf(profiles);
+        }
+    }
+}
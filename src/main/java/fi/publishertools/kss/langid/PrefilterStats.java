@@ -0,0 +1,17 @@
+package fi.publishertools.kss.langid;
+
+/**
+ * Outcome of the language prefilter for one file in B3_ProposeLangMarkup.
+ *
+ * @param textRuns non-blank text runs checked
+ * @param skipped  runs judged plainly main-language and not sent to Ollama
+ */
+public record PrefilterStats(int textRuns, int skipped) {
+
+    /**
+     * Share of checked runs that were skipped, 0 when nothing was checked.
+     */
+    public double skipRate() {
+        return textRuns > 0 ? (double) skipped / textRuns : 0;
+    }
+}
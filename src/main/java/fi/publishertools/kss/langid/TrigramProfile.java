@@ -0,0 +1,75 @@
+package fi.publishertools.kss.langid;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Character trigram counts of one language, built from sample text. Words are lower-cased and padded
+ * with a boundary marker, so "talo" yields "_ta", "tal", "alo", "lo_". Immutable once built.
+ */
+final class TrigramProfile {
+
+    static final char BOUNDARY = '_';
+
+    /** Additive smoothing for trigrams not seen in the sample. */
+    private static final double SMOOTHING = 0.5;
+
+    private final Map<String, Integer> counts;
+    private final Set<Integer> alphabet;
+    private final long total;
+
+    private TrigramProfile(Map<String, Integer> counts, Set<Integer> alphabet, long total) {
+        this.counts = counts;
+        this.alphabet = alphabet;
+        this.total = total;
+    }
+
+    static TrigramProfile fromSample(String sample) {
+        Map<String, Integer> counts = new HashMap<>();
+        Set<Integer> alphabet = new HashSet<>();
+        long total = 0;
+        for (String word : LanguagePrefilter.words(sample)) {
+            word.codePoints().forEach(alphabet::add);
+            for (String trigram : trigrams(word)) {
+                counts.merge(trigram, 1, Integer::sum);
+                total++;
+            }
+        }
+        return new TrigramProfile(Map.copyOf(counts), Set.copyOf(alphabet), total);
+    }
+
+    /**
+     * Trigrams of a lower-cased word, padded with the boundary marker.
+     */
+    static String[] trigrams(String word) {
+        String padded = BOUNDARY + word + BOUNDARY;
+        String[] result = new String[Math.max(0, padded.length() - 2)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = padded.substring(i, i + 3);
+        }
+        return result;
+    }
+
+    /**
+     * Mean log-probability of the trigrams under this profile; {@code vocabulary} is the number of distinct
+     * trigrams across all compared profiles, so unseen trigrams are penalised alike.
+     */
+    double score(String[] trigrams, int vocabulary) {
+        double denominator = Math.log(total + SMOOTHING * vocabulary);
+        double sum = 0;
+        for (String trigram : trigrams) {
+            sum += Math.log(counts.getOrDefault(trigram, 0) + SMOOTHING) - denominator;
+        }
+        return trigrams.length > 0 ? sum / trigrams.length : 0;
+    }
+
+    boolean coversAlphabet(String word) {
+        return word.codePoints().allMatch(alphabet::contains);
+    }
+
+    Set<String> trigramSet() {
+        return counts.keySet();
+    }
+}
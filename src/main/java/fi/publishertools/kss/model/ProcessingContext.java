@@ -8,7 +8,9 @@ import java.util.Map;
 import org.w3c.dom.Document;
 
 import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ContentArena;
 import fi.publishertools.kss.model.content.ImageNode;
+import fi.publishertools.kss.style.StyleSymbolTable;
 
 /**
  * Context object that carries file data and metadata through processing phases.
@@ -24,11 +26,14 @@ public class ProcessingContext {
     private byte[] packageOpf;
     private List<Document> storiesList;
     private List<ChapterNode> chapters;
+    /** The content tree while held compactly; at most one of this and chapters is set. */
+    private ContentArena compactChapters;
     private List<ImageNode> imageList;
     private final Map<String, byte[]> imageContent;
     private byte[] xhtmlContent;
     private byte[] tocContent;
     private final Map<String, Object> metadata;
+    private final StyleSymbolTable styleSymbols;
 
     public ProcessingContext(StoredFile storedFile) {
         this.fileId = storedFile.getId();
@@ -44,6 +49,7 @@ public class ProcessingContext {
         this.xhtmlContent = null;
         this.tocContent = null;
         this.metadata = new HashMap<>();
+        this.styleSymbols = new StyleSymbolTable();
     }
 
     public String getFileId() {
@@ -86,12 +92,41 @@ public class ProcessingContext {
         this.storiesList = storiesList;
     }
 
+    /**
+     * Returns the content tree as nodes. A tree held compactly is converted back first and kept as nodes
+     * from then on, as the caller may edit it.
+     */
     public List<ChapterNode> getChapters() {
+        if (compactChapters != null) {
+            chapters = compactChapters.toNodes();
+            compactChapters = null;
+        }
         return chapters;
     }
 
     public void setChapters(List<ChapterNode> chapters) {
         this.chapters = chapters;
+        this.compactChapters = null;
+    }
+
+    /**
+     * Returns the content tree for reading only, converting a node tree to a {@link ContentArena} first and
+     * holding it in that form until {@link #getChapters()} is called; null if there is no tree.
+     */
+    public ContentArena getContentArena() {
+        compactChapters();
+        return compactChapters;
+    }
+
+    /**
+     * Holds the content tree as a {@link ContentArena} until it is next asked for as nodes. For a book that
+     * waits for input while its tree is not read.
+     */
+    public void compactChapters() {
+        if (chapters != null) {
+            compactChapters = ContentArena.fromNodes(chapters);
+            chapters = null;
+        }
     }
 
     public List<ImageNode> getImageList() {
@@ -142,6 +177,13 @@ public class ProcessingContext {
         this.tocContent = tocContent;
     }
 
+    /**
+     * Returns the per-job table of canonical style names shared by all nodes of this file.
+     */
+    public StyleSymbolTable getStyleSymbols() {
+        return styleSymbols;
+    }
+
     public Map<String, Object> getMetadata() {
         return metadata;
     }
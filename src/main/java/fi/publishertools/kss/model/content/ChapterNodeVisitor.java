@@ -0,0 +1,31 @@
+package fi.publishertools.kss.model.content;
+
+/**
+ * Callback for {@link ChapterNodeWalker}. {@link #enter} is called in pre-order (before a node's
+ * children), {@link #leave} in post-order (after them). The {@link NodePath} passed to both describes
+ * the current node's position and is reused by the walker: copy it (e.g. {@link NodePath#toIndexList()})
+ * if it must outlive the callback.
+ */
+public interface ChapterNodeVisitor {
+
+    enum Action {
+        /** Continue the walk, descending into the node's children. */
+        CONTINUE,
+        /** Do not visit the node's children; {@link #leave} is still called for the node. */
+        SKIP_CHILDREN,
+        /** End the walk immediately; no further callbacks are made. */
+        STOP
+    }
+
+    default Action enter(ChapterNode node, NodePath path) {
+        return Action.CONTINUE;
+    }
+
+    /**
+     * Called after the node's children have been visited (or skipped). Returning {@link Action#STOP}
+     * ends the walk; any other value continues it.
+     */
+    default Action leave(ChapterNode node, NodePath path) {
+        return Action.CONTINUE;
+    }
+}
@@ -0,0 +1,54 @@
+package fi.publishertools.kss.model.content;
+
+import java.util.List;
+
+import fi.publishertools.kss.model.content.ChapterNodeVisitor.Action;
+
+/**
+ * Depth-first, document-order walk over a ChapterNode tree with pre-order and post-order
+ * callbacks and path tracking. Shared by the phases and review services so each of them walks
+ * the tree once instead of re-implementing the recursive instanceof descent.
+ */
+public final class ChapterNodeWalker {
+
+    private ChapterNodeWalker() {
+    }
+
+    /**
+     * Walks the given top-level nodes in document order.
+     *
+     * @return false if the visitor stopped the walk, true if every node was visited
+     */
+    public static boolean walk(List<ChapterNode> roots, ChapterNodeVisitor visitor) {
+        if (roots == null) {
+            return true;
+        }
+        return walkList(roots, visitor, new NodePath());
+    }
+
+    private static boolean walkList(List<ChapterNode> nodes, ChapterNodeVisitor visitor, NodePath path) {
+        for (int i = 0; i < nodes.size(); i++) {
+            ChapterNode node = nodes.get(i);
+            if (node == null) {
+                continue;
+            }
+            path.push(i, node);
+            try {
+                Action action = visitor.enter(node, path);
+                if (action == Action.STOP) {
+                    return false;
+                }
+                if (action == Action.CONTINUE && node.isContainer()
+                        && !walkList(node.children(), visitor, path)) {
+                    return false;
+                }
+                if (visitor.leave(node, path) == Action.STOP) {
+                    return false;
+                }
+            } finally {
+                path.pop();
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+package fi.publishertools.kss.model.content;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Persistent (path-copying) edits on an immutable ChapterNode tree. An edit rebuilds only the
+ * containers on the path from the top-level list to the edited node; every other subtree is
+ * shared with the previous version of the tree.
+ */
+public final class ChapterTrees {
+
+    private ChapterTrees() {
+    }
+
+    /**
+     * Result of an edit: the new top-level list and the container that was replaced at the edit path.
+     */
+    public record Edit(List<ChapterNode> roots, ChapterNode container) {}
+
+    /**
+     * Returns the node at the given index path, or null if the path does not exist.
+     */
+    public static ChapterNode nodeAt(List<ChapterNode> roots, int[] path) {
+        if (roots == null || path == null || path.length == 0) {
+            return null;
+        }
+        List<ChapterNode> current = roots;
+        ChapterNode node = null;
+        for (int i = 0; i < path.length; i++) {
+            int idx = path[i];
+            if (idx < 0 || idx >= current.size()) {
+                return null;
+            }
+            node = current.get(idx);
+            if (i < path.length - 1) {
+                if (!node.isContainer()) {
+                    return null;
+                }
+                current = node.children();
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Replaces the children of the container at {@code containerPath} and returns the new tree.
+     *
+     * @throws IllegalArgumentException if the path does not lead to a container
+     */
+    public static Edit replaceChildren(List<ChapterNode> roots, int[] containerPath, List<ChapterNode> newChildren) {
+        ChapterNode container = nodeAt(roots, containerPath);
+        if (container == null || !container.isContainer()) {
+            throw new IllegalArgumentException("No container at path " + Arrays.toString(containerPath));
+        }
+        ChapterNode replacement = withChildren(container, newChildren);
+        return new Edit(replaceAt(roots, containerPath, 0, replacement), replacement);
+    }
+
+    /**
+     * Replaces the node at {@code path} and returns the new top-level list.
+     */
+    public static List<ChapterNode> replaceNode(List<ChapterNode> roots, int[] path, ChapterNode newNode) {
+        if (nodeAt(roots, path) == null) {
+            throw new IllegalArgumentException("No node at path " + Arrays.toString(path));
+        }
+        return replaceAt(roots, path, 0, newNode);
+    }
+
+    /**
+     * Returns a container of the same type and style with the given children.
+     */
+    public static ChapterNode withChildren(ChapterNode container, List<ChapterNode> children) {
+        if (container instanceof StoryNode story) {
+            return new StoryNode(children, story.appliedStyle());
+        }
+        if (container instanceof ParagraphStyleRangeNode para) {
+            return new ParagraphStyleRangeNode(children, para.appliedStyle());
+        }
+        throw new IllegalArgumentException("Not a container: " + container);
+    }
+
+    /**
+     * Compares an index path with a prefix in document order; 0 means the path lies inside the
+     * prefix's subtree (or is the prefix itself).
+     */
+    public static int compareToPrefix(int[] path, int[] prefix) {
+        int n = Math.min(path.length, prefix.length);
+        for (int i = 0; i < n; i++) {
+            if (path[i] != prefix[i]) {
+                return Integer.compare(path[i], prefix[i]);
+            }
+        }
+        return path.length < prefix.length ? -1 : 0;
+    }
+
+    private static List<ChapterNode> replaceAt(List<ChapterNode> nodes, int[] path, int depth, ChapterNode newNode) {
+        int idx = path[depth];
+        ChapterNode replacement = depth == path.length - 1
+                ? newNode
+                : withChildren(nodes.get(idx), replaceAt(nodes.get(idx).children(), path, depth + 1, newNode));
+        ChapterNode[] copy = nodes.toArray(new ChapterNode[0]);
+        copy[idx] = replacement;
+        return List.of(copy);
+    }
+}
@@ -0,0 +1,388 @@
+package fi.publishertools.kss.model.content;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Compact, read-only representation of a ChapterNode content tree, the form in which
+ * {@link fi.publishertools.kss.model.ProcessingContext} holds a tree that is only read from then on
+ * (a book waiting for metadata or for Ollama, and a finished book's result).
+ * <p>
+ * Nodes are stored as parallel arrays in pre-order (document order): node {@code i}'s subtree
+ * occupies indices {@code [i, i + subtreeSize(i))}, its first child (if any) is {@code i + 1} and
+ * its next sibling is {@code i + subtreeSize(i)}. All text is kept in two shared buffers addressed by
+ * offset and length: text leaves whose characters all fit in Latin-1 take one byte per character, the others
+ * two, as a String would (one buffer would widen the whole book for a single dash or curly quote); style and language names are held once in a symbol table and
+ * referenced by index. Images keep their {@link ImageNode} instance so alt texts stay shared with
+ * the context's image list.
+ * <p>
+ * Use {@link #fromNodes(List)} and {@link #toNodes()} to convert from and to the sealed
+ * {@link ChapterNode} types; JSON serialization writes the node form.
+ */
+public final class ContentArena {
+
+    public static final byte KIND_STORY = 0;
+    public static final byte KIND_PARAGRAPH = 1;
+    public static final byte KIND_TEXT = 2;
+    public static final byte KIND_IMAGE = 3;
+
+    /** Returned by navigation methods when there is no such node. */
+    public static final int NONE = -1;
+
+    private final byte[] kinds;
+    private final int[] parents;
+    private final int[] subtreeSizes;
+    private final int[] styles;
+    private final int[] languages;
+    /** Offset of a text leaf in {@link #latin1}, or its offset {@code o} in {@link #utf16} stored as {@code ~o}. */
+    private final int[] textStarts;
+    private final int[] textLengths;
+    private final byte[] latin1;
+    private final char[] utf16;
+    private final String[] symbols;
+    private final ImageNode[] images;
+
+    private ContentArena(byte[] kinds, int[] parents, int[] subtreeSizes, int[] styles, int[] languages,
+                         int[] textStarts, int[] textLengths, byte[] latin1, char[] utf16, String[] symbols,
+                         ImageNode[] images) {
+        this.kinds = kinds;
+        this.parents = parents;
+        this.subtreeSizes = subtreeSizes;
+        this.styles = styles;
+        this.languages = languages;
+        this.textStarts = textStarts;
+        this.textLengths = textLengths;
+        this.latin1 = latin1;
+        this.utf16 = utf16;
+        this.symbols = symbols;
+        this.images = images;
+    }
+
+    /**
+     * Builds an arena from a ChapterNode tree (list of top-level nodes).
+     */
+    public static ContentArena fromNodes(List<ChapterNode> roots) {
+        Builder builder = new Builder();
+        if (roots != null) {
+            builder.measure(roots);
+            builder.allocate();
+            for (ChapterNode root : roots) {
+                builder.add(root, NONE);
+            }
+        } else {
+            builder.allocate();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Converts the arena back to ChapterNode instances. Text leaves get fresh Strings;
+     * image nodes are returned as the same {@link ImageNode} instances they were built from.
+     */
+    @JsonValue
+    public List<ChapterNode> toNodes() {
+        List<ChapterNode> roots = new ArrayList<>();
+        for (int i = firstRoot(); i != NONE; i = nextSibling(i)) {
+            roots.add(toNode(i));
+        }
+        return roots;
+    }
+
+    private ChapterNode toNode(int index) {
+        switch (kinds[index]) {
+            case KIND_STORY:
+                return new StoryNode(childNodes(index), appliedStyle(index));
+            case KIND_PARAGRAPH:
+                return new ParagraphStyleRangeNode(childNodes(index), appliedStyle(index));
+            case KIND_TEXT:
+                return new CharacterStyleRangeNode(text(index), appliedStyle(index), language(index));
+            default:
+                return images[index];
+        }
+    }
+
+    private List<ChapterNode> childNodes(int index) {
+        List<ChapterNode> children = new ArrayList<>(childCount(index));
+        for (int c = firstChild(index); c != NONE; c = nextSibling(c)) {
+            children.add(toNode(c));
+        }
+        return children;
+    }
+
+    // --- Read API ---
+
+    public int nodeCount() {
+        return kinds.length;
+    }
+
+    /**
+     * Index of the first top-level node, or {@link #NONE} for an empty arena.
+     */
+    public int firstRoot() {
+        return kinds.length > 0 ? 0 : NONE;
+    }
+
+    public byte kind(int index) {
+        return kinds[index];
+    }
+
+    public boolean isContainer(int index) {
+        return kinds[index] == KIND_STORY || kinds[index] == KIND_PARAGRAPH;
+    }
+
+    /**
+     * Parent index, or {@link #NONE} for top-level nodes.
+     */
+    public int parent(int index) {
+        return parents[index];
+    }
+
+    /**
+     * Number of nodes in the subtree rooted at {@code index}, including the node itself.
+     */
+    public int subtreeSize(int index) {
+        return subtreeSizes[index];
+    }
+
+    /**
+     * Exclusive end index of the subtree rooted at {@code index}.
+     */
+    public int subtreeEnd(int index) {
+        return index + subtreeSizes[index];
+    }
+
+    public int firstChild(int index) {
+        return subtreeSizes[index] > 1 ? index + 1 : NONE;
+    }
+
+    public int nextSibling(int index) {
+        int next = index + subtreeSizes[index];
+        int parent = parents[index];
+        int limit = parent == NONE ? kinds.length : subtreeEnd(parent);
+        return next < limit ? next : NONE;
+    }
+
+    public int childCount(int index) {
+        int count = 0;
+        for (int c = firstChild(index); c != NONE; c = nextSibling(c)) {
+            count++;
+        }
+        return count;
+    }
+
+    public String appliedStyle(int index) {
+        return symbol(styles[index]);
+    }
+
+    /**
+     * Language code of a text leaf, or null (main language / not a text leaf).
+     */
+    public String language(int index) {
+        return symbol(languages[index]);
+    }
+
+    /**
+     * Text length of a text leaf; 0 for other kinds.
+     */
+    public int textLength(int index) {
+        return textLengths[index];
+    }
+
+    /**
+     * Text of a text leaf as a new String, or null for other kinds.
+     */
+    public String text(int index) {
+        if (kinds[index] != KIND_TEXT) {
+            return null;
+        }
+        int start = textStarts[index];
+        return start >= 0
+                ? new String(latin1, start, textLengths[index], StandardCharsets.ISO_8859_1)
+                : new String(utf16, ~start, textLengths[index]);
+    }
+
+    /**
+     * Read-only view of a text leaf's characters without copying; empty for other kinds.
+     */
+    public CharSequence textView(int index) {
+        int start = textStarts[index];
+        return start >= 0
+                ? new Latin1View(latin1, start, textLengths[index])
+                : CharBuffer.wrap(utf16, ~start, textLengths[index]).asReadOnlyBuffer();
+    }
+
+    /**
+     * Appends the text of a text leaf to {@code out}; does nothing for other kinds.
+     */
+    public StringBuilder appendText(int index, StringBuilder out) {
+        int start = textStarts[index];
+        if (start < 0) {
+            return out.append(utf16, ~start, textLengths[index]);
+        }
+        for (int i = start, end = start + textLengths[index]; i < end; i++) {
+            out.append((char) (latin1[i] & 0xff));
+        }
+        return out;
+    }
+
+    /**
+     * Image node at {@code index}, or null for other kinds.
+     */
+    public ImageNode image(int index) {
+        return images[index];
+    }
+
+    /**
+     * Total number of text characters stored in the arena.
+     */
+    public int textCharCount() {
+        return latin1.length + utf16.length;
+    }
+
+    private String symbol(int id) {
+        return id == NONE ? null : symbols[id];
+    }
+
+    /**
+     * Two-pass builder: {@link #measure} sizes every array exactly, then {@link #add} fills them.
+     */
+    private static final class Builder {
+
+        private int nodeCount;
+        private int latin1Count;
+        private int utf16Count;
+
+        private byte[] kinds;
+        private int[] parents;
+        private int[] subtreeSizes;
+        private int[] styles;
+        private int[] languages;
+        private int[] textStarts;
+        private int[] textLengths;
+        private byte[] latin1;
+        private char[] utf16;
+        private ImageNode[] images;
+        private final Map<String, Integer> symbolIds = new HashMap<>();
+        private final List<String> symbols = new ArrayList<>();
+
+        private int nextNode;
+        private int nextLatin1;
+        private int nextUtf16;
+
+        void measure(List<ChapterNode> nodes) {
+            for (ChapterNode node : nodes) {
+                nodeCount++;
+                if (node instanceof CharacterStyleRangeNode text) {
+                    String value = text.text();
+                    if (isLatin1(value)) {
+                        latin1Count += value.length();
+                    } else {
+                        utf16Count += value.length();
+                    }
+                } else if (!(node instanceof ImageNode)) {
+                    measure(node.children());
+                }
+            }
+        }
+
+        void allocate() {
+            kinds = new byte[nodeCount];
+            parents = new int[nodeCount];
+            subtreeSizes = new int[nodeCount];
+            styles = new int[nodeCount];
+            languages = new int[nodeCount];
+            textStarts = new int[nodeCount];
+            textLengths = new int[nodeCount];
+            latin1 = new byte[latin1Count];
+            utf16 = new char[utf16Count];
+            images = new ImageNode[nodeCount];
+            Arrays.fill(languages, NONE);
+        }
+
+        void add(ChapterNode node, int parent) {
+            int index = nextNode++;
+            parents[index] = parent;
+            styles[index] = symbolId(node.appliedStyle());
+            if (node instanceof CharacterStyleRangeNode text) {
+                kinds[index] = KIND_TEXT;
+                String value = text.text();
+                if (isLatin1(value)) {
+                    textStarts[index] = nextLatin1;
+                    for (int i = 0; i < value.length(); i++) {
+                        latin1[nextLatin1++] = (byte) value.charAt(i);
+                    }
+                } else {
+                    textStarts[index] = ~nextUtf16;
+                    value.getChars(0, value.length(), utf16, nextUtf16);
+                    nextUtf16 += value.length();
+                }
+                textLengths[index] = value.length();
+                languages[index] = symbolId(text.language());
+            } else if (node instanceof ImageNode image) {
+                kinds[index] = KIND_IMAGE;
+                images[index] = image;
+            } else {
+                kinds[index] = node instanceof StoryNode ? KIND_STORY : KIND_PARAGRAPH;
+                for (ChapterNode child : node.children()) {
+                    add(child, index);
+                }
+            }
+            subtreeSizes[index] = nextNode - index;
+        }
+
+        private static boolean isLatin1(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) > 0xff) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int symbolId(String symbol) {
+            if (symbol == null) {
+                return NONE;
+            }
+            Integer id = symbolIds.get(symbol);
+            if (id == null) {
+                id = symbols.size();
+                symbols.add(symbol);
+                symbolIds.put(symbol, id);
+            }
+            return id;
+        }
+
+        ContentArena build() {
+            return new ContentArena(kinds, parents, subtreeSizes, styles, languages, textStarts, textLengths,
+                    latin1, utf16, symbols.toArray(new String[0]), images);
+        }
+    }
+
+    /**
+     * Characters of a Latin-1 text leaf, read from the shared buffer.
+     */
+    private record Latin1View(byte[] bytes, int start, int length) implements CharSequence {
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[start + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new Latin1View(bytes, start + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
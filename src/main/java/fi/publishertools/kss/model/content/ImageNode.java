@@ -1,5 +1,6 @@
 package fi.publishertools.kss.model.content;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -24,6 +25,10 @@ public final class ImageNode implements ChapterNode {
     @JsonProperty("alternateText")
     private String alternateText;
 
+    /** True while the alt text is a description reused from a near-identical image; review-only state. */
+    @JsonIgnore
+    private boolean altTextFromSimilarImage;
+
     public ImageNode(String resourceUri,
                      String fileName,
                      String resourceFormat,
@@ -61,6 +66,14 @@ public final class ImageNode implements ChapterNode {
         this.alternateText = alternateText;
     }
 
+    public boolean altTextFromSimilarImage() {
+        return altTextFromSimilarImage;
+    }
+
+    public void setAltTextFromSimilarImage(boolean altTextFromSimilarImage) {
+        this.altTextFromSimilarImage = altTextFromSimilarImage;
+    }
+
     @Override
     public String imageRef() {
         return fileName != null ? fileName : "";
@@ -0,0 +1,106 @@
+package fi.publishertools.kss.model.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Position of the node currently visited by {@link ChapterNodeWalker}: the index of the node
+ * within its parent's children at each level, from the top-level list down, and the ancestor
+ * containers along the way. Mutable and reused by the walker to avoid per-node allocation.
+ */
+public final class NodePath {
+
+    private int[] indices = new int[16];
+    private ChapterNode[] nodes = new ChapterNode[16];
+    private int length;
+
+    NodePath() {
+    }
+
+    /**
+     * Number of levels; 1 for top-level nodes.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Depth of the current node; 0 for top-level nodes.
+     */
+    public int depth() {
+        return length - 1;
+    }
+
+    /**
+     * Index within the parent's children at the given level (0 = top-level list).
+     */
+    public int index(int level) {
+        if (level < 0 || level >= length) {
+            throw new IndexOutOfBoundsException("level " + level + " of " + length);
+        }
+        return indices[level];
+    }
+
+    /**
+     * Index of the current node within its parent's children (or within the top-level list).
+     */
+    public int indexInParent() {
+        return indices[length - 1];
+    }
+
+    /**
+     * Node at the given level; {@code node(depth())} is the current node.
+     */
+    public ChapterNode node(int level) {
+        if (level < 0 || level >= length) {
+            throw new IndexOutOfBoundsException("level " + level + " of " + length);
+        }
+        return nodes[level];
+    }
+
+    /**
+     * Parent container of the current node, or null for top-level nodes.
+     */
+    public ChapterNode parent() {
+        return length > 1 ? nodes[length - 2] : null;
+    }
+
+    /**
+     * Immutable copy of the indices from the top-level list down to the current node.
+     */
+    public List<Integer> toIndexList() {
+        List<Integer> list = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            list.add(indices[i]);
+        }
+        return List.copyOf(list);
+    }
+
+    /**
+     * Copy of the indices from the top-level list down to the current node.
+     */
+    public int[] toIndexArray() {
+        return Arrays.copyOf(indices, length);
+    }
+
+    void push(int index, ChapterNode node) {
+        if (length == indices.length) {
+            indices = Arrays.copyOf(indices, length * 2);
+            nodes = Arrays.copyOf(nodes, length * 2);
+        }
+        indices[length] = index;
+        nodes[length] = node;
+        length++;
+    }
+
+    void pop() {
+        length--;
+        nodes[length] = null;
+    }
+
+    @Override
+    public String toString() {
+        return toIndexList().toString();
+    }
+}
@@ -6,11 +6,12 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
  * IDML Story element: container with AppliedTOCStyle.
+ * Children are stored as an immutable list once at construction, so {@link #children()}
+ * returns it without copying and unchanged subtrees can be shared between tree versions.
  */
 public record StoryNode(@JsonProperty("children") List<ChapterNode> children, @JsonProperty("appliedStyle") String appliedStyle) implements ChapterNode {
 
-    @Override
-    public List<ChapterNode> children() {
-        return children != null ? List.copyOf(children) : List.of();
+    public StoryNode {
+        children = children != null ? List.copyOf(children) : List.of();
     }
 }
@@ -3,6 +3,10 @@ package fi.publishertools.kss.phases;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,8 +23,12 @@ import fi.publishertools.kss.util.ZipUtils;
  * Phase 0: Extract container.xml from ZIP, read first rootfile's media-type and full-path;
  * if media-type is "text/xml", extract the file at full-path, parse it, collect Story src
  * attributes, extract and parse each story XML file, and pass the list of Documents to the next phase.
+ * <p>
+ * Story files are read from the ZIP in a single pass and then parsed concurrently on a bounded
+ * ForkJoinPool shared by all jobs of this phase; the resulting Documents keep the designmap order.
+ * The pool is shut down by {@link #close()} when the pipeline service stops.
  */
-public class A1_ExtractStories extends ProcessingPhase {
+public class A1_ExtractStories extends ProcessingPhase implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(A1_ExtractStories.class);
 
@@ -28,6 +36,20 @@ public class A1_ExtractStories extends ProcessingPhase {
     private static final String CONTAINER_NS = "urn:oasis:names:tc:opendocument:xmlns:container";
     private static final String REQUIRED_MEDIA_TYPE = "text/xml";
     private static final String IDML_PACKAGING_NS = "http://ns.adobe.com/AdobeInDesign/idml/1.0/packaging";
+    private static final int DEFAULT_MAX_PARALLELISM = 8;
+
+    private final ForkJoinPool storyPool;
+
+    public A1_ExtractStories() {
+        this(Math.min(DEFAULT_MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param parallelism maximum number of story files extracted and parsed at the same time
+     */
+    public A1_ExtractStories(int parallelism) {
+        this.storyPool = new ForkJoinPool(Math.max(1, parallelism));
+    }
 
     @Override
     public void process(ProcessingContext context) throws Exception, IOException {
@@ -75,6 +97,14 @@ public class A1_ExtractStories extends ProcessingPhase {
                 fullPath, mediaType, storyDocs.size(), context.getFileId());
     }
 
+    /**
+     * Shuts down the story pool; stories already submitted are still parsed.
+     */
+    @Override
+    public void close() {
+        storyPool.shutdown();
+    }
+
     private static Element findFirstRootfile(Document doc) {
         NodeList list = doc.getElementsByTagNameNS(CONTAINER_NS, "rootfile");
         if (list.getLength() == 0) {
@@ -94,26 +124,47 @@ public class A1_ExtractStories extends ProcessingPhase {
         return srcList;
     }
 
-    private static List<Document> extractAndParseStoryDocuments(byte[] zipBytes, List<String> storyPaths, String fileId) throws IOException {
-        List<Document> result = new ArrayList<>(storyPaths.size());
+    /**
+     * Reads all story entries in one pass over the ZIP, then parses them in parallel. Results are
+     * collected in the order of storyPaths; entries that are missing or fail to parse are logged and skipped.
+     */
+    private List<Document> extractAndParseStoryDocuments(byte[] zipBytes, List<String> storyPaths, String fileId) throws IOException {
+        Map<String, byte[]> storyEntries = ZipUtils.extractEntries(zipBytes, storyPaths);
+        List<ForkJoinTask<Document>> tasks = new ArrayList<>(storyPaths.size());
         for (String storyPath : storyPaths) {
-            String normalized = storyPath == null ? "" : storyPath.replace('\\', '/');
-            byte[] storyBytes = ZipUtils.extractEntry(zipBytes, normalized);
-            if (storyBytes == null && storyPath != null && !storyPath.isEmpty()) {
-                storyBytes = ZipUtils.extractEntry(zipBytes, storyPath);
-            }
-            if (storyBytes == null) {
-                logger.warn("Story entry not found in ZIP for file {}: {}", fileId, storyPath);
-                continue;
-            }
-            try {
-                Document doc = XmlUtils.parseXml(storyBytes);
-                result.add(doc);
-            } catch (Exception e) {
-                logger.warn("Failed to parse story XML for file {} entry {}: {}",
-                        fileId, storyPath, e.getMessage());
+            byte[] storyBytes = storyPath == null ? null : storyEntries.get(storyPath.replace('\\', '/'));
+            tasks.add(storyPool.submit(() -> parseStoryDocument(storyBytes, storyPath, fileId)));
+        }
+        List<Document> result = new ArrayList<>(storyPaths.size());
+        try {
+            for (ForkJoinTask<Document> task : tasks) {
+                Document doc = task.get();
+                if (doc != null) {
+                    result.add(doc);
+                }
             }
+        } catch (ExecutionException e) {
+            tasks.forEach(task -> task.cancel(true));
+            throw new IOException("Failed to parse stories for file " + fileId, e.getCause());
+        } catch (InterruptedException e) {
+            tasks.forEach(task -> task.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing stories for file " + fileId, e);
         }
         return result;
     }
+
+    private static Document parseStoryDocument(byte[] storyBytes, String storyPath, String fileId) {
+        if (storyBytes == null) {
+            logger.warn("Story entry not found in ZIP for file {}: {}", fileId, storyPath);
+            return null;
+        }
+        try {
+            return XmlUtils.parseXml(storyBytes);
+        } catch (Exception e) {
+            logger.warn("Failed to parse story XML for file {} entry {}: {}",
+                    fileId, storyPath, e.getMessage());
+            return null;
+        }
+    }
 }
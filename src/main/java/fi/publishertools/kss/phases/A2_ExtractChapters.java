@@ -17,6 +17,7 @@ import fi.publishertools.kss.model.content.ImageNode;
 import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
 import fi.publishertools.kss.model.content.StoryNode;
 import fi.publishertools.kss.processing.ProcessingPhase;
+import fi.publishertools.kss.style.StyleSymbolTable;
 import fi.publishertools.kss.util.XmlUtils;
 import fi.publishertools.kss.util.ZipUtils;
 
@@ -27,6 +28,7 @@ import fi.publishertools.kss.util.ZipUtils;
  *   <li>ParagraphStyleRange starts a new hierarchy level (section with AppliedParagraphStyle)</li>
  *   <li>CharacterStyleRange is same level as siblings; creates text/image leaves with AppliedCharacterStyle</li>
  * </ul>
+ * Applied style names are interned in the context's {@link StyleSymbolTable}.
  */
 public class A2_ExtractChapters extends ProcessingPhase {
 
@@ -51,7 +53,7 @@ public class A2_ExtractChapters extends ProcessingPhase {
 		}
 
 		for (Document doc : storyDocs) {
-			List<ChapterNode> nodes = collectContentInDocumentOrder(doc);
+			List<ChapterNode> nodes = collectContentInDocumentOrder(doc, context.getStyleSymbols());
 			contentList.addAll(nodes);
 		}
 
@@ -63,7 +65,7 @@ public class A2_ExtractChapters extends ProcessingPhase {
 	 * Traverses the document building a hierarchical ChapterNode tree from Story,
 	 * ParagraphStyleRange, and CharacterStyleRange elements.
 	 */
-	private static List<ChapterNode> collectContentInDocumentOrder(Document doc) {
+	private static List<ChapterNode> collectContentInDocumentOrder(Document doc, StyleSymbolTable symbols) {
 		List<ChapterNode> result = new ArrayList<>();
 		Element root = doc.getDocumentElement();
 		if (root == null) {
@@ -71,21 +73,21 @@ public class A2_ExtractChapters extends ProcessingPhase {
 		}
 		List<Element> stories = XmlUtils.findElementsByLocalName(root, "Story");
 		for (Element story : stories) {
-			String appliedStyle = getAttributeValue(story, ATTR_APPLIED_TOC_STYLE);
-			List<ChapterNode> recursed = recurseNodes(story);
+			String appliedStyle = symbols.intern(getAttributeValue(story, ATTR_APPLIED_TOC_STYLE));
+			List<ChapterNode> recursed = recurseNodes(story, symbols);
 			result.add(new StoryNode(recursed, appliedStyle));
 		}
 		return result;
 	}
 
 
-	private static List<ChapterNode> recurseNodes(Element node) {
+	private static List<ChapterNode> recurseNodes(Element node, StyleSymbolTable symbols) {
 		List<ChapterNode> recursed = new ArrayList<>();
 		NodeList list = node.getChildNodes();
 		for(int i = 0; i < list.getLength(); i++) {
 			Node child = list.item(i);
 			if(child instanceof Element) {
-				ChapterNode childNode =handleElement((Element)child);
+				ChapterNode childNode =handleElement((Element)child, symbols);
 				if(childNode != null) {
 					recursed.add(childNode);
 				}
@@ -94,7 +96,7 @@ public class A2_ExtractChapters extends ProcessingPhase {
 		return recursed;
 	}
 
-	private static ChapterNode handleElement(Element element) {
+	private static ChapterNode handleElement(Element element, StyleSymbolTable symbols) {
 		String localName = XmlUtils.getElementName(element);
 		if ("Content".equals(localName)) {
 			String text = element.getTextContent();
@@ -105,8 +107,8 @@ public class A2_ExtractChapters extends ProcessingPhase {
 			String fileName = ZipUtils.extractFileNameFromUri(decodedUri);
 			return new ImageNode(null, fileName, null, null, null);
 		} else if ("CharacterStyleRange".equals(localName)) {
-			String appliedStyle = getAttributeValue(element, ATTR_APPLIED_CHARACTER_STYLE);
-			List<ChapterNode> children = recurseNodes(element);
+			String appliedStyle = symbols.intern(getAttributeValue(element, ATTR_APPLIED_CHARACTER_STYLE));
+			List<ChapterNode> children = recurseNodes(element, symbols);
 			if (children.isEmpty()) {
 				return null;
 			}
@@ -121,10 +123,10 @@ public class A2_ExtractChapters extends ProcessingPhase {
 			}
 			return new ParagraphStyleRangeNode(children, appliedStyle);
 		} else if ("ParagraphStyleRange".equals(localName)) {
-			String appliedStyle = getAttributeValue(element, ATTR_APPLIED_PARAGRAPH_STYLE);
-			return new ParagraphStyleRangeNode(recurseNodes(element), appliedStyle);
+			String appliedStyle = symbols.intern(getAttributeValue(element, ATTR_APPLIED_PARAGRAPH_STYLE));
+			return new ParagraphStyleRangeNode(recurseNodes(element, symbols), appliedStyle);
 		} else {
-			List<ChapterNode> contents = recurseNodes(element);
+			List<ChapterNode> contents = recurseNodes(element, symbols);
 			if(contents.isEmpty()) {
 				return null;
 			} else if(contents.size() == 1) {
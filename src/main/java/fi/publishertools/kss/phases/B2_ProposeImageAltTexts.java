@@ -4,81 +4,115 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fi.publishertools.kss.exception.AwaitingAltTextReviewException;
+import fi.publishertools.kss.exception.AwaitingOllamaRecoveryException;
+import fi.publishertools.kss.integration.ollama.ImageDescription;
 import fi.publishertools.kss.integration.ollama.OllamaClient;
+import fi.publishertools.kss.integration.ollama.OllamaModelRole;
+import fi.publishertools.kss.integration.ollama.OllamaUnavailablePolicy;
+import fi.publishertools.kss.integration.ollama.RequestWindow;
 import fi.publishertools.kss.model.ProcessingContext;
 import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ChapterNodeVisitor;
+import fi.publishertools.kss.model.content.ChapterNodeWalker;
 import fi.publishertools.kss.model.content.ImageNode;
-import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
-import fi.publishertools.kss.model.content.StoryNode;
+import fi.publishertools.kss.model.content.NodePath;
 import fi.publishertools.kss.processing.ProcessingPhase;
 
 /**
  * Proposes alternate text for each image by sending image content to an Ollama
  * vision model (qwen3-vl:4b). Only fills alternateText when it is missing; does not overwrite.
  * On Ollama failure for an image, logs a warning and continues with the rest.
+ * Descriptions the client reused from a near-identical image are marked on the node for the reviewer.
+ * If descriptions failed while the client reports the backend unavailable, the book is parked instead
+ * when the {@link OllamaUnavailablePolicy} says so.
+ * Requests for the unique images of one job are pipelined through the asynchronous client API,
+ * at most {@code maxConcurrentPerJob} in flight at a time.
  */
 public class B2_ProposeImageAltTexts extends ProcessingPhase {
 
 	private static final Logger logger = LoggerFactory.getLogger(B2_ProposeImageAltTexts.class);
 
+	/** Concurrent describe requests per job when not configured. */
+	public static final int DEFAULT_MAX_CONCURRENT_PER_JOB = 2;
+
 	private final OllamaClient ollamaClient;
+	private final int maxConcurrentPerJob;
+	private final OllamaUnavailablePolicy unavailablePolicy;
 
 	public B2_ProposeImageAltTexts() {
 		this(new OllamaClient());
 	}
 
 	public B2_ProposeImageAltTexts(OllamaClient ollamaClient) {
+		this(ollamaClient, DEFAULT_MAX_CONCURRENT_PER_JOB);
+	}
+
+	/**
+	 * @param maxConcurrentPerJob maximum describe requests one job keeps in flight; 1 describes images one at a time.
+	 *                            A global limit across jobs is applied by wrapping the client in
+	 *                            {@link fi.publishertools.kss.integration.ollama.ConcurrencyLimitedOllamaClient}.
+	 */
+	public B2_ProposeImageAltTexts(OllamaClient ollamaClient, int maxConcurrentPerJob) {
+		this(ollamaClient, maxConcurrentPerJob, OllamaUnavailablePolicy.SKIP);
+	}
+
+	/**
+	 * @param unavailablePolicy whether to continue without failed descriptions or park the book while the
+	 *                          client reports the backend unavailable; null skips
+	 */
+	public B2_ProposeImageAltTexts(OllamaClient ollamaClient, int maxConcurrentPerJob,
+			OllamaUnavailablePolicy unavailablePolicy) {
 		this.ollamaClient = ollamaClient != null ? ollamaClient : new OllamaClient();
+		this.maxConcurrentPerJob = Math.max(1, maxConcurrentPerJob);
+		this.unavailablePolicy = unavailablePolicy != null ? unavailablePolicy : OllamaUnavailablePolicy.SKIP;
 	}
 
 	@Override
-	public void process(ProcessingContext context) throws AwaitingAltTextReviewException {
+	public void process(ProcessingContext context) throws AwaitingAltTextReviewException, AwaitingOllamaRecoveryException {
 		List<ImageNode> imageList = context.getImageList();
 		if (imageList == null || imageList.isEmpty()) {
 			return;
 		}
 
 		// First pass: call Ollama once per eligible filename and collect descriptions.
-		Map<String, String> altByFileName = buildAltTextMap(context, imageList);
+		AtomicInteger failures = new AtomicInteger();
+		Map<String, ImageDescription> altByFileName = buildAltTextMap(context, imageList, failures);
+		if (failures.get() > 0 && unavailablePolicy == OllamaUnavailablePolicy.PARK && !ollamaClient.isAvailable(OllamaModelRole.VISION)) {
+			logger.warn("{} alt text requests failed for file {} while Ollama is unavailable, parking", failures.get(),
+					context.getFileId());
+			throw new AwaitingOllamaRecoveryException(context, ollamaClient.retryAfter(OllamaModelRole.VISION));
+		}
 		if (altByFileName.isEmpty()) {
 			return;
 		}
 
 		// Second pass: mutate ImageNode instances in the flat image list.
 		for (ImageNode node : imageList) {
-			String fileName = node.fileName();
-			if (fileName == null || fileName.isBlank()) {
-				continue;
-			}
-			if (node.alternateText() != null && !node.alternateText().isBlank()) {
-				continue;
-			}
-			String alt = altByFileName.get(fileName);
-			if (alt != null && !alt.isBlank()) {
-				node.setAlternateText(alt);
-			}
+			applyAltText(node, altByFileName);
 		}
 
 		// Third pass: mutate ImageNode instances in the chapter content hierarchy.
 		List<ChapterNode> chapters = context.getChapters();
 		if (chapters != null && !chapters.isEmpty()) {
-			for (ChapterNode node : chapters) {
-				mutateChapterNode(node, altByFileName);
-			}
+			mutateChapterNodes(chapters, altByFileName);
 		}
 
 		// Pause for user to review and edit proposed alt texts.
 		throw new AwaitingAltTextReviewException(context);
 	}
 
-	private Map<String, String> buildAltTextMap(ProcessingContext context, List<ImageNode> imageList) {
-		Map<String, String> altByFileName = new LinkedHashMap<>();
-
+	private Map<String, ImageDescription> buildAltTextMap(ProcessingContext context, List<ImageNode> imageList,
+			AtomicInteger failures) {
+		// Unique eligible filenames in document order; each is described once.
+		Map<String, byte[]> contentByFileName = new LinkedHashMap<>();
 		for (ImageNode node : imageList) {
 			String fileName = node.fileName();
 			if (fileName == null || fileName.isBlank()) {
@@ -87,50 +121,96 @@ public class B2_ProposeImageAltTexts extends ProcessingPhase {
 			if (node.alternateText() != null && !node.alternateText().isBlank()) {
 				continue;
 			}
-			if (altByFileName.containsKey(fileName)) {
-				continue; // already generated for this filename
+			if (contentByFileName.containsKey(fileName)) {
+				continue; // already queued for this filename
 			}
 			byte[] content = context.getImageContent(fileName);
 			if (content == null || content.length == 0) {
 				continue;
 			}
+			contentByFileName.put(fileName, content);
+		}
+		if (contentByFileName.isEmpty()) {
+			return new LinkedHashMap<>();
+		}
 
-			try {
-				Optional<String> description = ollamaClient.describeImage(content);
-				if (description.isEmpty()) {
-					logger.warn("No alt text from Ollama for file {} image {}", context.getFileId(), fileName);
-					continue;
-				}
-				altByFileName.put(fileName, description.get());
-			} catch (Exception e) {
-				logger.warn("Ollama failed for file {} image {}: {}", context.getFileId(), fileName, e.getMessage());
+		// Pipeline the requests: up to maxConcurrentPerJob in flight, no thread blocked per request.
+		RequestWindow window = new RequestWindow(maxConcurrentPerJob);
+		Map<String, CompletableFuture<Optional<ImageDescription>>> pending = new LinkedHashMap<>();
+		try {
+			for (Map.Entry<String, byte[]> entry : contentByFileName.entrySet()) {
+				String fileName = entry.getKey();
+				byte[] content = entry.getValue();
+				pending.put(fileName, window.submit(() -> describeAsync(context, fileName, content, failures)));
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while requesting alt texts for file {}, keeping results received so far",
+					context.getFileId());
 		}
 
+		Map<String, ImageDescription> altByFileName = new LinkedHashMap<>();
+		boolean interrupted = Thread.currentThread().isInterrupted();
+		for (Map.Entry<String, CompletableFuture<Optional<ImageDescription>>> entry : pending.entrySet()) {
+			Optional<ImageDescription> description = interrupted
+					? entry.getValue().getNow(Optional.empty())
+					: entry.getValue().join();
+			description.ifPresent(alt -> altByFileName.put(entry.getKey(), alt));
+		}
 		return altByFileName;
 	}
 
-	private void mutateChapterNode(ChapterNode node, Map<String, String> altByFileName) {
-		if (node instanceof StoryNode story) {
-			for (ChapterNode child : story.children()) {
-				mutateChapterNode(child, altByFileName);
-			}
-		} else if (node instanceof ParagraphStyleRangeNode para) {
-			for (ChapterNode child : para.children()) {
-				mutateChapterNode(child, altByFileName);
-			}
-		} else if (node instanceof ImageNode img) {
-			String fileName = img.fileName();
-			if (fileName == null || fileName.isBlank()) {
-				return;
+	/**
+	 * Requests a description; the returned future never completes exceptionally. Failures are logged and counted.
+	 */
+	private CompletableFuture<Optional<ImageDescription>> describeAsync(ProcessingContext context, String fileName,
+			byte[] content, AtomicInteger failures) {
+		CompletableFuture<Optional<ImageDescription>> request;
+		try {
+			request = ollamaClient.describeImageDetailedAsync(content);
+		} catch (Exception e) {
+			request = CompletableFuture.failedFuture(e);
+		}
+		return request.handle((description, error) -> {
+			if (error != null) {
+				Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+				logger.warn("Ollama failed for file {} image {}: {}", context.getFileId(), fileName, cause.getMessage());
+				failures.incrementAndGet();
+				return Optional.<ImageDescription>empty();
 			}
-			if (img.alternateText() != null && !img.alternateText().isBlank()) {
-				return;
+			if (description == null || description.isEmpty() || description.get().text() == null) {
+				logger.warn("No alt text from Ollama for file {} image {}", context.getFileId(), fileName);
+				failures.incrementAndGet();
+				return Optional.<ImageDescription>empty();
 			}
-			String alt = altByFileName.get(fileName);
-			if (alt != null && !alt.isBlank()) {
-				img.setAlternateText(alt);
+			return description;
+		});
+	}
+
+	private void mutateChapterNodes(List<ChapterNode> chapters, Map<String, ImageDescription> altByFileName) {
+		ChapterNodeWalker.walk(chapters, new ChapterNodeVisitor() {
+			@Override
+			public Action enter(ChapterNode node, NodePath path) {
+				if (node instanceof ImageNode img) {
+					applyAltText(img, altByFileName);
+				}
+				return Action.CONTINUE;
 			}
+		});
+	}
+
+	private static void applyAltText(ImageNode img, Map<String, ImageDescription> altByFileName) {
+		String fileName = img.fileName();
+		if (fileName == null || fileName.isBlank()) {
+			return;
+		}
+		if (img.alternateText() != null && !img.alternateText().isBlank()) {
+			return;
+		}
+		ImageDescription alt = altByFileName.get(fileName);
+		if (alt != null && !alt.text().isBlank()) {
+			img.setAlternateText(alt.text());
+			img.setAltTextFromSimilarImage(alt.similarImage());
 		}
 	}
 }
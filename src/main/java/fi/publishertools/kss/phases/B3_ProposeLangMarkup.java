@@ -1,9 +1,18 @@
 package fi.publishertools.kss.phases;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -12,20 +21,34 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import fi.publishertools.kss.LangDetectionProperties;
 import fi.publishertools.kss.exception.AwaitingLangMarkupReviewException;
+import fi.publishertools.kss.exception.AwaitingOllamaRecoveryException;
 import fi.publishertools.kss.integration.ollama.OllamaClient;
+import fi.publishertools.kss.integration.ollama.OllamaModelRole;
+import fi.publishertools.kss.integration.ollama.OllamaUnavailablePolicy;
+import fi.publishertools.kss.integration.ollama.RequestWindow;
+import fi.publishertools.kss.langid.LanguagePrefilter;
+import fi.publishertools.kss.langid.PrefilterStats;
 import fi.publishertools.kss.model.ProcessingContext;
 import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ChapterNodeVisitor;
+import fi.publishertools.kss.model.content.ChapterNodeWalker;
 import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
 import fi.publishertools.kss.model.content.ImageNode;
+import fi.publishertools.kss.model.content.NodePath;
 import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
 import fi.publishertools.kss.model.content.StoryNode;
 import fi.publishertools.kss.processing.ProcessingPhase;
+import fi.publishertools.kss.service.LangPrefilterStatsStore;
 
 /**
  * Detects words/phrases not in the main language (default Finnish) in each CharacterStyleRangeNode
  * via Ollama text generation, and splits such nodes into multiple CharacterStyleRangeNodes so each
- * contains a single language segment.
+ * contains a single language segment. Detection requests for all text nodes are sent up front through
+ * the asynchronous client API, then the tree is rebuilt from the results. With batching enabled
+ * ({@link LangDetectionProperties}), many texts share one request. With the prefilter enabled, runs that a
+ * local {@link LanguagePrefilter} finds plainly in the main language are not sent at all.
  */
 public class B3_ProposeLangMarkup extends ProcessingPhase {
 
@@ -37,54 +60,411 @@ public class B3_ProposeLangMarkup extends ProcessingPhase {
 
 	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
+	/** Rough token estimate for batch packing. */
+	private static final int CHARS_PER_TOKEN = 4;
+	/** Estimated tokens for the id markup around each text in a batch prompt. */
+	private static final int TOKENS_PER_ID = 8;
+
 	/** Matches optional markdown code fence around JSON (e.g. ```json ... ```). */
 	private static final Pattern CODE_FENCE = Pattern.compile("^\\s*```(?:json)?\\s*\\n?(.*)\\n?```\\s*$", Pattern.DOTALL);
 
+	/** Detection requests one job keeps in flight when not configured. */
+	public static final int DEFAULT_MAX_CONCURRENT_PER_JOB = 2;
+
 	private final OllamaClient ollamaClient;
+	private final int maxConcurrentPerJob;
+	private final LangDetectionProperties langDetection;
+	private final LanguagePrefilter prefilter;
+	private final LangPrefilterStatsStore prefilterStatsStore;
+	private final OllamaUnavailablePolicy unavailablePolicy;
 
 	public B3_ProposeLangMarkup() {
 		this(new OllamaClient());
 	}
 
 	public B3_ProposeLangMarkup(OllamaClient ollamaClient) {
+		this(ollamaClient, DEFAULT_MAX_CONCURRENT_PER_JOB);
+	}
+
+	public B3_ProposeLangMarkup(OllamaClient ollamaClient, int maxConcurrentPerJob) {
+		this(ollamaClient, maxConcurrentPerJob, null);
+	}
+
+	public B3_ProposeLangMarkup(OllamaClient ollamaClient, int maxConcurrentPerJob, LangDetectionProperties langDetection) {
+		this(ollamaClient, maxConcurrentPerJob, langDetection, null);
+	}
+
+	/**
+	 * @param langDetection       batching and prefilter settings; null uses the defaults (one request per text node)
+	 * @param prefilterStatsStore where to record prefilter skip counts per file; null records nothing
+	 */
+	public B3_ProposeLangMarkup(OllamaClient ollamaClient, int maxConcurrentPerJob, LangDetectionProperties langDetection,
+			LangPrefilterStatsStore prefilterStatsStore) {
+		this(ollamaClient, maxConcurrentPerJob, langDetection, prefilterStatsStore, OllamaUnavailablePolicy.SKIP);
+	}
+
+	/**
+	 * @param unavailablePolicy whether to leave texts whose detection failed unsplit or park the book while
+	 *                          the client reports the backend unavailable; null skips
+	 */
+	public B3_ProposeLangMarkup(OllamaClient ollamaClient, int maxConcurrentPerJob, LangDetectionProperties langDetection,
+			LangPrefilterStatsStore prefilterStatsStore, OllamaUnavailablePolicy unavailablePolicy) {
 		this.ollamaClient = ollamaClient != null ? ollamaClient : new OllamaClient();
+		this.maxConcurrentPerJob = Math.max(1, maxConcurrentPerJob);
+		this.langDetection = langDetection != null ? langDetection : new LangDetectionProperties();
+		this.prefilter = this.langDetection.isPrefilterEnabled()
+				? new LanguagePrefilter(this.langDetection.getPrefilterThreshold())
+				: null;
+		this.prefilterStatsStore = prefilterStatsStore;
+		this.unavailablePolicy = unavailablePolicy != null ? unavailablePolicy : OllamaUnavailablePolicy.SKIP;
 	}
 
 	@Override
-	public void process(ProcessingContext context) throws Exception, AwaitingLangMarkupReviewException {
+	public void process(ProcessingContext context)
+			throws Exception, AwaitingLangMarkupReviewException, AwaitingOllamaRecoveryException {
 		List<ChapterNode> chapters = context.getChapters();
 		if (chapters == null || chapters.isEmpty()) {
 			return;
 		}
 		String mainLanguage = mainLanguageFromContext(context);
-		List<ChapterNode> updated = processNodes(chapters, mainLanguage, context.getFileId());
-		context.setChapters(updated);
-		if (hasAnyLangSegment(updated)) {
+		PrefilterTally tally = new PrefilterTally(mainLanguage);
+		AtomicInteger failures = new AtomicInteger();
+		// Collect and detect first, then rebuild the tree from the results.
+		Map<CharacterStyleRangeNode, CompletableFuture<List<String>>> detections = langDetection.isBatchingEnabled()
+				? detectBatched(chapters, mainLanguage, context.getFileId(), tally, failures)
+				: requestDetections(chapters, mainLanguage, context.getFileId(), tally, failures);
+		if (unavailablePolicy == OllamaUnavailablePolicy.PARK) {
+			// Settle the requests first: the last failures in flight may be what opens the breaker.
+			// The tree is still untouched.
+			detections.values().forEach(CompletableFuture::join);
+			if (failures.get() > 0 && !ollamaClient.isAvailable(OllamaModelRole.TEXT)) {
+				logger.warn("{} lang detection requests failed for file {} while Ollama is unavailable, parking",
+						failures.get(), context.getFileId());
+				throw new AwaitingOllamaRecoveryException(context, ollamaClient.retryAfter(OllamaModelRole.TEXT));
+			}
+		}
+		tally.report(context.getFileId());
+		LangMarkupTransform transform = new LangMarkupTransform(detections, context.getFileId());
+		ChapterNodeWalker.walk(chapters, transform);
+		context.setChapters(transform.result());
+		if (transform.hasAnyLangSegment()) {
 			throw new AwaitingLangMarkupReviewException(context);
 		}
 	}
 
-	/** Returns true if the tree contains any CharacterStyleRangeNode with non-null, non-blank language. */
-	private boolean hasAnyLangSegment(List<ChapterNode> nodes) {
-		if (nodes == null) {
-			return false;
+	/**
+	 * Sends a detection request for every distinct non-blank text, pipelined through the asynchronous client
+	 * with at most {@code maxConcurrentPerJob} in flight; nodes with the same text share one request.
+	 * Futures never complete exceptionally; failures complete with empty. If interrupted, the remaining
+	 * nodes get no request and stay unsplit.
+	 */
+	private Map<CharacterStyleRangeNode, CompletableFuture<List<String>>> requestDetections(
+			List<ChapterNode> chapters, String mainLanguage, String fileId, PrefilterTally tally, AtomicInteger failures) {
+		Map<CharacterStyleRangeNode, CompletableFuture<List<String>>> detections = new IdentityHashMap<>();
+		Map<String, CompletableFuture<List<String>>> byText = new HashMap<>();
+		RequestWindow window = new RequestWindow(maxConcurrentPerJob);
+		ChapterNodeWalker.walk(chapters, new ChapterNodeVisitor() {
+			@Override
+			public Action enter(ChapterNode node, NodePath path) {
+				if (node instanceof CharacterStyleRangeNode textNode && textNode.text() != null && !textNode.text().isBlank()
+						&& !detections.containsKey(textNode) && tally.needsDetection(textNode.text())) {
+					String text = textNode.text();
+					CompletableFuture<List<String>> detection = byText.get(text);
+					if (detection == null) {
+						try {
+							detection = window.submit(() -> detectAsync(text, mainLanguage, fileId, failures))
+									.thenApply(response -> response.map(B3_ProposeLangMarkup::parseWordsFromJson).orElse(List.of()));
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							logger.warn("Interrupted while requesting lang detection for file {}", fileId);
+							return Action.STOP;
+						}
+						byText.put(text, detection);
+					}
+					detections.put(textNode, detection);
+				}
+				return Action.CONTINUE;
+			}
+		});
+		logger.debug("Lang detection for file {}: {} text nodes, {} distinct texts", fileId, detections.size(), byText.size());
+		return detections;
+	}
+
+	private CompletableFuture<Optional<String>> detectAsync(String text, String mainLanguage, String fileId,
+			AtomicInteger failures) {
+		CompletableFuture<Optional<String>> request;
+		try {
+			request = ollamaClient.detectNonMainLanguageWordsAsync(text, mainLanguage);
+		} catch (Exception e) {
+			request = CompletableFuture.failedFuture(e);
 		}
-		for (ChapterNode node : nodes) {
-			if (node instanceof CharacterStyleRangeNode csr) {
-				if (csr.language() != null && !csr.language().isBlank()) {
-					return true;
+		return request.handle((response, error) -> {
+			if (error != null) {
+				Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+				logger.warn("Ollama lang detection failed for file {} text node: {}, leaving unsplit", fileId, cause.getMessage());
+				failures.incrementAndGet();
+				return Optional.<String>empty();
+			}
+			if (response == null || response.isEmpty()) {
+				logger.warn("Ollama lang detection failed for file {} text node, leaving unsplit", fileId);
+				failures.incrementAndGet();
+				return Optional.<String>empty();
+			}
+			return response;
+		});
+	}
+
+	/**
+	 * Batching mode: text nodes (split at sentence boundaries when longer than maxSegmentChars) are packed
+	 * into requests up to the token budget, each distinct text under a stable id. Batches of one round are pipelined
+	 * through the request window; texts whose id is missing from a batch reply, or whose batch failed, are
+	 * retried in the next round in halves of their batch, down to single texts. The words found for a
+	 * node's pieces are merged back onto the node.
+	 */
+	private Map<CharacterStyleRangeNode, CompletableFuture<List<String>>> detectBatched(
+			List<ChapterNode> chapters, String mainLanguage, String fileId, PrefilterTally tally, AtomicInteger failures) {
+		List<TextPiece> pieces = new ArrayList<>();
+		Map<String, TextPiece> pieceByText = new HashMap<>();
+		Map<CharacterStyleRangeNode, List<TextPiece>> piecesByNode = new IdentityHashMap<>();
+		ChapterNodeWalker.walk(chapters, new ChapterNodeVisitor() {
+			@Override
+			public Action enter(ChapterNode node, NodePath path) {
+				if (node instanceof CharacterStyleRangeNode textNode && textNode.text() != null
+						&& !textNode.text().isBlank() && !piecesByNode.containsKey(textNode)
+						&& tally.needsDetection(textNode.text())) {
+					List<TextPiece> nodePieces = new ArrayList<>();
+					for (String part : splitAtSentences(textNode.text(), langDetection.getMaxSegmentChars())) {
+						TextPiece piece = pieceByText.get(part);
+						if (piece == null) {
+							piece = new TextPiece("t" + (pieces.size() + 1), part);
+							pieces.add(piece);
+							pieceByText.put(part, piece);
+						}
+						nodePieces.add(piece);
+					}
+					piecesByNode.put(textNode, nodePieces);
+				}
+				return Action.CONTINUE;
+			}
+		});
+
+		Map<String, List<String>> wordsById = detectPieces(pieces, mainLanguage, fileId, failures);
+
+		Map<CharacterStyleRangeNode, CompletableFuture<List<String>>> detections = new IdentityHashMap<>();
+		piecesByNode.forEach((node, nodePieces) -> {
+			List<String> words = new ArrayList<>();
+			for (TextPiece piece : nodePieces) {
+				words.addAll(wordsById.getOrDefault(piece.id(), List.of()));
+			}
+			detections.put(node, CompletableFuture.completedFuture(words));
+		});
+		return detections;
+	}
+
+	private Map<String, List<String>> detectPieces(List<TextPiece> pieces, String mainLanguage, String fileId,
+			AtomicInteger failures) {
+		Map<String, List<String>> wordsById = new HashMap<>();
+		RequestWindow window = new RequestWindow(maxConcurrentPerJob);
+		List<List<TextPiece>> round = packBatches(pieces, langDetection.getBatchTokenBudget());
+		int requests = 0;
+		while (!round.isEmpty()) {
+			Map<List<TextPiece>, CompletableFuture<Optional<String>>> inFlight = new LinkedHashMap<>();
+			try {
+				for (List<TextPiece> batch : round) {
+					Map<String, String> textsById = new LinkedHashMap<>();
+					for (TextPiece piece : batch) {
+						textsById.put(piece.id(), piece.text());
+					}
+					inFlight.put(batch, window.submit(() -> detectBatchAsync(textsById, mainLanguage, fileId, failures)));
+					requests++;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("Interrupted while requesting lang detection for file {}", fileId);
+			}
+
+			List<List<TextPiece>> retry = new ArrayList<>();
+			for (Map.Entry<List<TextPiece>, CompletableFuture<Optional<String>>> entry : inFlight.entrySet()) {
+				List<TextPiece> batch = entry.getKey();
+				Map<String, List<String>> parsed = entry.getValue().join()
+						.map(raw -> parseBatchResponse(raw, batch))
+						.orElse(Map.of());
+				wordsById.putAll(parsed);
+				List<TextPiece> missing = new ArrayList<>();
+				for (TextPiece piece : batch) {
+					if (!parsed.containsKey(piece.id())) {
+						missing.add(piece);
+					}
 				}
-			} else if (node instanceof StoryNode story) {
-				if (hasAnyLangSegment(story.children())) {
-					return true;
+				if (missing.isEmpty()) {
+					continue;
 				}
-			} else if (node instanceof ParagraphStyleRangeNode para) {
-				if (hasAnyLangSegment(para.children())) {
-					return true;
+				if (batch.size() == 1) {
+					logger.warn("Ollama lang detection failed for file {} text {}, leaving unsplit", fileId, batch.get(0).id());
+				} else {
+					int half = (missing.size() + 1) / 2;
+					retry.add(missing.subList(0, half));
+					if (half < missing.size()) {
+						retry.add(missing.subList(half, missing.size()));
+					}
 				}
 			}
+			round = Thread.currentThread().isInterrupted() ? List.of() : retry;
+		}
+		logger.debug("Lang detection for file {}: {} texts in {} requests", fileId, pieces.size(), requests);
+		return wordsById;
+	}
+
+	private CompletableFuture<Optional<String>> detectBatchAsync(Map<String, String> textsById, String mainLanguage,
+			String fileId, AtomicInteger failures) {
+		CompletableFuture<Optional<String>> request;
+		try {
+			request = ollamaClient.detectNonMainLanguageWordsBatchAsync(textsById, mainLanguage);
+		} catch (Exception e) {
+			request = CompletableFuture.failedFuture(e);
+		}
+		return request.handle((response, error) -> {
+			if (error != null) {
+				Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+				logger.debug("Ollama batch lang detection failed for file {} ({} texts): {}", fileId, textsById.size(),
+						cause.getMessage());
+				failures.incrementAndGet();
+				return Optional.<String>empty();
+			}
+			if (response == null || response.isEmpty()) {
+				failures.incrementAndGet();
+				return Optional.<String>empty();
+			}
+			return response;
+		});
+	}
+
+	/**
+	 * Greedily packs pieces, in order, into batches whose estimated token count stays within the budget.
+	 * A piece larger than the budget gets a batch of its own.
+	 */
+	static List<List<TextPiece>> packBatches(List<TextPiece> pieces, int tokenBudget) {
+		List<List<TextPiece>> batches = new ArrayList<>();
+		List<TextPiece> current = new ArrayList<>();
+		int tokens = 0;
+		for (TextPiece piece : pieces) {
+			int pieceTokens = estimateTokens(piece);
+			if (!current.isEmpty() && tokens + pieceTokens > tokenBudget) {
+				batches.add(current);
+				current = new ArrayList<>();
+				tokens = 0;
+			}
+			current.add(piece);
+			tokens += pieceTokens;
+		}
+		if (!current.isEmpty()) {
+			batches.add(current);
+		}
+		return batches;
+	}
+
+	private static int estimateTokens(TextPiece piece) {
+		return (piece.text().length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN + TOKENS_PER_ID;
+	}
+
+	/**
+	 * Splits text longer than {@code maxChars} into consecutive pieces of at most {@code maxChars} characters,
+	 * ending each piece at the last sentence boundary that fits, else at the last whitespace, else hard.
+	 * Pieces are substrings of the text and together cover all of it.
+	 */
+	static List<String> splitAtSentences(String text, int maxChars) {
+		if (maxChars <= 0 || text.length() <= maxChars) {
+			return List.of(text);
+		}
+		List<String> pieces = new ArrayList<>();
+		int start = 0;
+		while (text.length() - start > maxChars) {
+			int limit = start + maxChars;
+			int end = -1;
+			int lastSpace = -1;
+			for (int i = start + 1; i < limit; i++) {
+				char c = text.charAt(i);
+				if (Character.isWhitespace(c)) {
+					lastSpace = i + 1;
+					char prev = text.charAt(i - 1);
+					if (prev == '.' || prev == '!' || prev == '?') {
+						end = i + 1;
+					}
+				}
+			}
+			if (end < 0) {
+				end = lastSpace > start ? lastSpace : limit;
+			}
+			pieces.add(text.substring(start, end));
+			start = end;
+		}
+		pieces.add(text.substring(start));
+		return pieces;
+	}
+
+	/**
+	 * Parses a batch reply {"t1": ["word"], "t2": []} into words per id. Only ids of the batch whose value
+	 * is an array are returned; an unparseable reply yields an empty map.
+	 */
+	static Map<String, List<String>> parseBatchResponse(String raw, List<TextPiece> batch) {
+		try {
+			JsonNode root = OBJECT_MAPPER.readTree(stripCodeFence(raw));
+			if (root == null || !root.isObject()) {
+				return Map.of();
+			}
+			Map<String, List<String>> result = new HashMap<>();
+			for (TextPiece piece : batch) {
+				JsonNode wordsNode = root.get(piece.id());
+				if (wordsNode != null && wordsNode.isArray()) {
+					result.put(piece.id(), textValues(wordsNode));
+				}
+			}
+			return result;
+		} catch (Exception e) {
+			logger.debug("Failed to parse Ollama batch JSON response: {}", e.getMessage());
+			return Map.of();
+		}
+	}
+
+	/**
+	 * Applies the prefilter to the text runs of one file and counts how many it lets skip detection.
+	 * Without a prefilter, or for a main language it has no profile for, every run needs detection.
+	 */
+	private final class PrefilterTally {
+
+		private final String mainLanguage;
+		private final boolean active;
+		private int textRuns;
+		private int skipped;
+
+		PrefilterTally(String mainLanguage) {
+			this.mainLanguage = mainLanguage;
+			this.active = prefilter != null && prefilter.supports(mainLanguage);
+			if (prefilter != null && !active) {
+				logger.debug("No language profile for main language '{}', lang prefilter not applied", mainLanguage);
+			}
+		}
+
+		boolean needsDetection(String text) {
+			textRuns++;
+			if (active && !prefilter.needsDetection(text, mainLanguage)) {
+				skipped++;
+				return false;
+			}
+			return true;
+		}
+
+		void report(String fileId) {
+			if (!active) {
+				return;
+			}
+			PrefilterStats stats = new PrefilterStats(textRuns, skipped);
+			logger.info("Lang prefilter for file {}: skipped {} of {} text runs ({}%)", fileId, skipped, textRuns,
+					Math.round(stats.skipRate() * 100));
+			if (prefilterStatsStore != null) {
+				prefilterStatsStore.store(fileId, stats);
+			}
 		}
-		return false;
 	}
 
 	private String mainLanguageFromContext(ProcessingContext context) {
@@ -92,48 +472,74 @@ public class B3_ProposeLangMarkup extends ProcessingPhase {
 		return lang != null && !lang.isBlank() ? lang : DEFAULT_MAIN_LANGUAGE;
 	}
 
-	private List<ChapterNode> processNodes(List<ChapterNode> input, String mainLanguage, String fileId) {
-		List<ChapterNode> output = new ArrayList<>();
-		for (ChapterNode node : input) {
-			if (node instanceof StoryNode story) {
-				List<ChapterNode> children = processNodes(story.children(), mainLanguage, fileId);
-				output.add(new StoryNode(children, story.appliedStyle()));
-			} else if (node instanceof ParagraphStyleRangeNode para) {
-				List<ChapterNode> children = processNodes(para.children(), mainLanguage, fileId);
-				output.add(new ParagraphStyleRangeNode(children, para.appliedStyle()));
+	/**
+	 * Rebuilds the tree in one walk: containers are recreated on leave with their processed children,
+	 * text nodes are replaced by their language segments. Also records whether any text node in the
+	 * result carries a language, so no second walk is needed to decide on review.
+	 */
+	private final class LangMarkupTransform implements ChapterNodeVisitor {
+
+		private final Map<CharacterStyleRangeNode, CompletableFuture<List<String>>> detections;
+		private final String fileId;
+		private final Deque<List<ChapterNode>> levels = new ArrayDeque<>();
+		private boolean anyLangSegment;
+
+		LangMarkupTransform(Map<CharacterStyleRangeNode, CompletableFuture<List<String>>> detections, String fileId) {
+			this.detections = detections;
+			this.fileId = fileId;
+			levels.push(new ArrayList<>());
+		}
+
+		@Override
+		public Action enter(ChapterNode node, NodePath path) {
+			if (node instanceof StoryNode || node instanceof ParagraphStyleRangeNode) {
+				levels.push(new ArrayList<>());
 			} else if (node instanceof CharacterStyleRangeNode textNode) {
-				List<ChapterNode> replacement = processTextNode(textNode, mainLanguage, fileId);
-				output.addAll(replacement);
+				for (ChapterNode segment : processTextNode(textNode, detections.get(textNode))) {
+					if (segment instanceof CharacterStyleRangeNode csr && csr.language() != null && !csr.language().isBlank()) {
+						anyLangSegment = true;
+					}
+					levels.peek().add(segment);
+				}
 			} else if (node instanceof ImageNode) {
-				output.add(node);
+				levels.peek().add(node);
 			}
+			return Action.CONTINUE;
+		}
+
+		@Override
+		public Action leave(ChapterNode node, NodePath path) {
+			if (node instanceof StoryNode story) {
+				List<ChapterNode> children = levels.pop();
+				levels.peek().add(new StoryNode(children, story.appliedStyle()));
+			} else if (node instanceof ParagraphStyleRangeNode para) {
+				List<ChapterNode> children = levels.pop();
+				levels.peek().add(new ParagraphStyleRangeNode(children, para.appliedStyle()));
+			}
+			return Action.CONTINUE;
+		}
+
+		List<ChapterNode> result() {
+			return levels.peekLast();
+		}
+
+		boolean hasAnyLangSegment() {
+			return anyLangSegment;
 		}
-		return output;
 	}
 
 	/**
 	 * Either returns a singleton list with the same node (no split) or a list of new
 	 * CharacterStyleRangeNodes for each language segment.
 	 */
-	private List<ChapterNode> processTextNode(CharacterStyleRangeNode node, String mainLanguage, String fileId) {
+	private List<ChapterNode> processTextNode(CharacterStyleRangeNode node,
+			CompletableFuture<List<String>> detection) {
 		String text = node.text();
-		if (text == null || text.isBlank()) {
-			return List.of(node);
-		}
-
-		Optional<String> responseOpt;
-		try {
-			responseOpt = ollamaClient.detectNonMainLanguageWords(text, mainLanguage);
-		} catch (Exception e) {
-			logger.warn("Ollama lang detection failed for file {} text node: {}, leaving unsplit", fileId, e.getMessage());
-			return List.of(node);
-		}
-		if (responseOpt.isEmpty()) {
-			logger.warn("Ollama lang detection failed for file {} text node, leaving unsplit", fileId);
+		if (text == null || text.isBlank() || detection == null) {
 			return List.of(node);
 		}
 
-		List<String> words = parseWordsFromJson(responseOpt.get());
+		List<String> words = detection.join();
 		if (words == null || words.isEmpty()) {
 			return List.of(node);
 		}
@@ -158,15 +564,9 @@ public class B3_ProposeLangMarkup extends ProcessingPhase {
 	 * Parse list of strings from Ollama response. Expects JSON like {"words": ["a", "b"]}.
 	 * Strips optional markdown code fences.
 	 */
-	List<String> parseWordsFromJson(String raw) {
-		String json = raw.trim();
-		// Strip ```json ... ``` if present
-		var matcher = CODE_FENCE.matcher(json);
-		if (matcher.matches()) {
-			json = matcher.group(1).trim();
-		}
+	static List<String> parseWordsFromJson(String raw) {
 		try {
-			JsonNode root = OBJECT_MAPPER.readTree(json);
+			JsonNode root = OBJECT_MAPPER.readTree(stripCodeFence(raw));
 			if (root == null || !root.isObject()) {
 				return Collections.emptyList();
 			}
@@ -178,22 +578,38 @@ public class B3_ProposeLangMarkup extends ProcessingPhase {
 			if (wordsNode == null || !wordsNode.isArray()) {
 				return Collections.emptyList();
 			}
-			List<String> list = new ArrayList<>();
-			for (JsonNode item : wordsNode) {
-				if (item != null && item.isTextual()) {
-					String s = item.asText();
-					if (s != null && !s.isBlank()) {
-						list.add(s.trim());
-					}
-				}
-			}
-			return list;
+			return textValues(wordsNode);
 		} catch (Exception e) {
 			logger.debug("Failed to parse Ollama JSON response: {}", e.getMessage());
 			return Collections.emptyList();
 		}
 	}
 
+	/**
+	 * Strips an optional markdown code fence (```json ... ```) around a JSON reply.
+	 */
+	private static String stripCodeFence(String raw) {
+		String json = raw.trim();
+		var matcher = CODE_FENCE.matcher(json);
+		if (matcher.matches()) {
+			json = matcher.group(1).trim();
+		}
+		return json;
+	}
+
+	private static List<String> textValues(JsonNode array) {
+		List<String> list = new ArrayList<>();
+		for (JsonNode item : array) {
+			if (item != null && item.isTextual()) {
+				String s = item.asText();
+				if (s != null && !s.isBlank()) {
+					list.add(s.trim());
+				}
+			}
+		}
+		return list;
+	}
+
 	/**
 	 * Split text into alternating main/other segments using the list of non-main-language
 	 * phrases. Finds all occurrences, merges overlapping ranges, then builds segments.
@@ -254,4 +670,7 @@ public class B3_ProposeLangMarkup extends ProcessingPhase {
 	}
 
 	private record Segment(String text, boolean mainLanguage) {}
+
+	/** A text node, or one sentence-aligned piece of a long one, under its id in batch requests. */
+	record TextPiece(String id, String text) {}
 }
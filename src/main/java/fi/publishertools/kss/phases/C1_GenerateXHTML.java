@@ -10,7 +10,10 @@ import org.slf4j.LoggerFactory;
 import fi.publishertools.kss.model.ProcessingContext;
 import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
 import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ChapterNodeVisitor;
+import fi.publishertools.kss.model.content.ChapterNodeWalker;
 import fi.publishertools.kss.model.content.ImageNode;
+import fi.publishertools.kss.model.content.NodePath;
 import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
 import fi.publishertools.kss.model.content.StoryNode;
 import fi.publishertools.kss.processing.ProcessingPhase;
@@ -37,70 +40,75 @@ public class C1_GenerateXHTML extends ProcessingPhase {
         }
 
         String title = context.getOriginalFilename() != null ? context.getOriginalFilename() : "";
-        String escapedTitle = XmlUtils.escapeXml(title);
-
-        StringBuilder body = new StringBuilder();
-        SectionIdCounter counter = new SectionIdCounter();
-        renderNodes(chapters, body, counter);
-
         String language = context.getMetadata("language", String.class);
         String langAttr = language != null ? language : "";
 
-        String xhtml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
-                + "<html xmlns=\"" + XHTML_NS + "\" lang=\"" + XmlUtils.escapeXml(langAttr) + "\" xml:lang=\"" + XmlUtils.escapeXml(langAttr) + "\">\n"
-                + "  <head>\n"
-                + "    <meta charset=\"UTF-8\"/>\n"
-                + "    <title>" + escapedTitle + "</title>\n"
-                + "  </head>\n"
-                + "  <body>\n"
-                + body.toString()
-                + "  </body>\n"
-                + "</html>";
-
-        context.setXhtmlContent(xhtml.getBytes(StandardCharsets.UTF_8));
+        StringBuilder xhtml = new StringBuilder(8192);
+        xhtml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xhtml.append("<html xmlns=\"").append(XHTML_NS).append("\" lang=\"");
+        XmlUtils.appendEscapedAttribute(xhtml, langAttr).append("\" xml:lang=\"");
+        XmlUtils.appendEscapedAttribute(xhtml, langAttr).append("\">\n");
+        xhtml.append("  <head>\n");
+        xhtml.append("    <meta charset=\"UTF-8\"/>\n");
+        XmlUtils.appendEscapedText(xhtml.append("    <title>"), title).append("</title>\n");
+        xhtml.append("  </head>\n");
+        xhtml.append("  <body>\n");
+        ChapterNodeWalker.walk(chapters, new XhtmlRenderer(xhtml));
+        xhtml.append("  </body>\n");
+        xhtml.append("</html>");
+
+        context.setXhtmlContent(xhtml.toString().getBytes(StandardCharsets.UTF_8));
         logger.debug("Generated XHTML with {} top-level chapter entries for file {}", chapters.size(), context.getFileId());
     }
 
-    private static void renderNodes(List<ChapterNode> nodes, StringBuilder out, SectionIdCounter counter) {
-        if (nodes == null) {
-            return;
-        }
-        for (ChapterNode node : nodes) {
-            renderNode(node, out, counter);
+    /**
+     * Renders the chapter tree in one walk. Every node gets a numbered section; a paragraph's children
+     * are rendered inline by {@link #renderParagraphContent} instead of as nested sections.
+     */
+    private static final class XhtmlRenderer implements ChapterNodeVisitor {
+
+        private final StringBuilder out;
+        private int nextSectionId = 1;
+
+        XhtmlRenderer(StringBuilder out) {
+            this.out = out;
         }
-    }
 
-    private static void renderNode(ChapterNode node, StringBuilder out, SectionIdCounter counter) {
-        if (node.isContainer()) {
-            String sectionId = "section-" + counter.next();
-            String dataAttrs = buildStyleDataAttributes(node);
-            out.append("    <section class=\"chapter\" id=\"").append(sectionId).append("\"").append(dataAttrs).append(">\n");
-            if (node.title() != null && !node.title().isEmpty()) {
-                out.append("      <h2>").append(XmlUtils.escapeXml(node.title())).append("</h2>\n");
-            }
-            if (node instanceof ParagraphStyleRangeNode) {
-                renderParagraphContent(node.children(), out);
-            } else {
-                renderNodes(node.children(), out, counter);
+        @Override
+        public Action enter(ChapterNode node, NodePath path) {
+            if (node.isContainer()) {
+                openSection(node).append(">\n");
+                if (node.title() != null && !node.title().isEmpty()) {
+                    XmlUtils.appendEscapedText(out.append("      <h2>"), node.title()).append("</h2>\n");
+                }
+                if (node instanceof ParagraphStyleRangeNode) {
+                    renderParagraphContent(node.children(), out);
+                    return Action.SKIP_CHILDREN;
+                }
+            } else if (node.isText()) {
+                openSection(node).append("><p>");
+                renderTextWithOptionalLang(node, out);
+                out.append("</p></section>\n");
+            } else if (node.isImage()) {
+                openSection(node).append("><figure>");
+                appendImage(node.imageRef(), node instanceof ImageNode img ? img.alternateText() : null, out);
+                out.append("</figure></section>\n");
             }
-            out.append("    </section>\n");
-        } else if (node.isText()) {
-            String sectionId = "section-" + counter.next();
-            String dataAttrs = buildStyleDataAttributes(node);
-            out.append("    <section class=\"chapter\" id=\"").append(sectionId).append("\"").append(dataAttrs).append(">")
-                    .append("<p>").append(renderTextWithOptionalLang(node)).append("</p>")
-                    .append("</section>\n");
-        } else if (node.isImage()) {
-            String sectionId = "section-" + counter.next();
-            String dataAttrs = buildStyleDataAttributes(node);
-            String src = IMAGES_PATH + XmlUtils.escapeXml(node.imageRef() != null ? node.imageRef() : "");
-            String alt = "";
-            if (node instanceof ImageNode img && img.alternateText() != null && !img.alternateText().isBlank()) {
-                alt = XmlUtils.escapeXml(img.alternateText());
+            return Action.CONTINUE;
+        }
+
+        @Override
+        public Action leave(ChapterNode node, NodePath path) {
+            if (node.isContainer()) {
+                out.append("    </section>\n");
             }
-            out.append("    <section class=\"chapter\" id=\"").append(sectionId).append("\"").append(dataAttrs).append(">")
-                    .append("<figure><img src=\"").append(src).append("\" alt=\"").append(alt).append("\"/></figure>")
-                    .append("</section>\n");
+            return Action.CONTINUE;
+        }
+
+        private StringBuilder openSection(ChapterNode node) {
+            out.append("    <section class=\"chapter\" id=\"section-").append(nextSectionId++).append("\"");
+            appendStyleDataAttributes(node, out);
+            return out;
         }
     }
 
@@ -112,81 +120,81 @@ public class C1_GenerateXHTML extends ProcessingPhase {
         if (children == null || children.isEmpty()) {
             return;
         }
-        List<CharacterStyleRangeNode> textRun = new java.util.ArrayList<>();
+        boolean inTextRun = false;
         for (ChapterNode node : children) {
             if (node instanceof CharacterStyleRangeNode csr) {
-                textRun.add(csr);
+                if (!inTextRun) {
+                    out.append("      <p>");
+                    inTextRun = true;
+                }
+                renderTextWithOptionalLang(csr, out);
             } else {
-                flushParagraphTextRun(textRun, out);
-                textRun.clear();
+                if (inTextRun) {
+                    out.append("</p>\n");
+                    inTextRun = false;
+                }
                 if (node instanceof ImageNode img) {
-                    String src = IMAGES_PATH + XmlUtils.escapeXml(img.fileName() != null ? img.fileName() : "");
-                    String alt = img.alternateText() != null && !img.alternateText().isBlank()
-                            ? XmlUtils.escapeXml(img.alternateText()) : "";
-                    out.append("      <figure><img src=\"").append(src).append("\" alt=\"").append(alt).append("\"/></figure>\n");
+                    out.append("      <figure>");
+                    appendImage(img.fileName(), img.alternateText(), out);
+                    out.append("</figure>\n");
                 }
             }
         }
-        flushParagraphTextRun(textRun, out);
+        if (inTextRun) {
+            out.append("</p>\n");
+        }
     }
 
-    private static void flushParagraphTextRun(List<CharacterStyleRangeNode> run, StringBuilder out) {
-        if (run.isEmpty()) {
-            return;
+    private static void appendImage(String fileName, String alternateText, StringBuilder out) {
+        out.append("<img src=\"").append(IMAGES_PATH);
+        XmlUtils.appendEscapedAttribute(out, fileName);
+        out.append("\" alt=\"");
+        if (alternateText != null && !alternateText.isBlank()) {
+            XmlUtils.appendEscapedAttribute(out, alternateText);
         }
-        out.append("      <p>");
-        for (CharacterStyleRangeNode node : run) {
-            out.append(renderTextWithOptionalLang(node));
-        }
-        out.append("</p>\n");
+        out.append("\"/>");
     }
 
-    private static String renderTextWithOptionalLang(ChapterNode node) {
+    private static void renderTextWithOptionalLang(ChapterNode node, StringBuilder out) {
         if (!(node instanceof CharacterStyleRangeNode csr)) {
-            return XmlUtils.escapeXml(node.text() != null ? node.text() : "");
+            XmlUtils.appendEscapedText(out, node.text());
+            return;
         }
-        String text = csr.text() != null ? csr.text() : "";
-        String escaped = XmlUtils.escapeXml(text);
         String lang = csr.language();
         String style = csr.appliedStyle();
-        boolean needSpan = (lang != null && !lang.isBlank()) || (style != null && !style.isEmpty());
-        if (needSpan) {
-            StringBuilder span = new StringBuilder("<span");
-            if (lang != null && !lang.isBlank()) {
-                String langEscaped = XmlUtils.escapeXml(lang);
-                span.append(" lang=\"").append(langEscaped).append("\" xml:lang=\"").append(langEscaped).append("\"");
+        boolean hasLang = lang != null && !lang.isBlank();
+        boolean hasStyle = style != null && !style.isEmpty();
+        if (hasLang || hasStyle) {
+            out.append("<span");
+            if (hasLang) {
+                XmlUtils.appendEscapedAttribute(out.append(" lang=\""), lang).append('"');
+                XmlUtils.appendEscapedAttribute(out.append(" xml:lang=\""), lang).append('"');
             }
-            if (style != null && !style.isEmpty()) {
-                span.append(" data-character-style=\"").append(XmlUtils.escapeXml(style)).append("\"");
+            if (hasStyle) {
+                XmlUtils.appendEscapedAttribute(out.append(" data-character-style=\""), style).append('"');
             }
-            span.append(">").append(escaped).append("</span>");
-            return span.toString();
+            out.append('>');
+            XmlUtils.appendEscapedText(out, csr.text());
+            out.append("</span>");
+            return;
         }
-        return escaped;
+        XmlUtils.appendEscapedText(out, csr.text());
     }
 
-    private static String buildStyleDataAttributes(ChapterNode node) {
-        StringBuilder sb = new StringBuilder();
+    private static void appendStyleDataAttributes(ChapterNode node, StringBuilder out) {
         String style = node.appliedStyle();
         if (style == null || style.isEmpty()) {
-            return sb.toString();
+            return;
         }
-        String escaped = XmlUtils.escapeXml(style);
         if (node instanceof StoryNode) {
-            sb.append(" data-toc-style=\"").append(escaped).append("\"");
+            out.append(" data-toc-style=\"");
         } else if (node instanceof ParagraphStyleRangeNode) {
-            sb.append(" data-paragraph-style=\"").append(escaped).append("\"");
+            out.append(" data-paragraph-style=\"");
         } else if (node instanceof CharacterStyleRangeNode || node instanceof ImageNode) {
-            sb.append(" data-character-style=\"").append(escaped).append("\"");
-        }
-        return sb.toString();
-    }
-
-    private static class SectionIdCounter {
-        private int next = 1;
-
-        int next() {
-            return next++;
+            out.append(" data-character-style=\"");
+        } else {
+            return;
         }
+        XmlUtils.appendEscapedAttribute(out, style).append('"');
     }
 }
@@ -1,14 +1,12 @@
 package fi.publishertools.kss.phases;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fi.publishertools.kss.model.ProcessingContext;
-import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ContentArena;
 import fi.publishertools.kss.processing.ProcessingPhase;
 import fi.publishertools.kss.util.XmlUtils;
 
@@ -16,6 +14,8 @@ import fi.publishertools.kss.util.XmlUtils;
  * Generates XHTML table-of-contents content for the EPUB.
  * Uses chapters from the context to build a nav element with epub:type="toc"
  * and links to each section in the main content. Supports nested structure.
+ * The tree is no longer edited after C1, so it is walked as the context's {@link ContentArena}, the form in
+ * which the final result keeps it.
  */
 public class C2_GenerateTableOfContents extends ProcessingPhase {
 
@@ -29,14 +29,12 @@ public class C2_GenerateTableOfContents extends ProcessingPhase {
     public void process(ProcessingContext context) throws Exception {
         logger.debug("Generating TOC for file {}", context.getFileId());
 
-        List<ChapterNode> chapters = context.getChapters();
-        if (chapters == null) {
-            chapters = Collections.emptyList();
-        }
-
         StringBuilder ol = new StringBuilder();
-        TocBuilder builder = new TocBuilder();
-        buildToc(chapters, ol, builder);
+        int entries = 0;
+        ContentArena arena = context.getContentArena();
+        if (arena != null) {
+            entries = appendEntries(arena, ol);
+        }
 
         String language = context.getMetadata("language", String.class);
         String langAttr = language != null ? language : "";
@@ -58,42 +56,44 @@ public class C2_GenerateTableOfContents extends ProcessingPhase {
                 + "</html>";
 
         context.setTocContent(xhtml.getBytes(StandardCharsets.UTF_8));
-        logger.debug("Generated TOC with {} entries for file {}", builder.count(), context.getFileId());
+        logger.debug("Generated TOC with {} entries for file {}", entries, context.getFileId());
     }
 
-    private static void buildToc(List<ChapterNode> nodes, StringBuilder out, TocBuilder builder) {
-        if (nodes == null) {
-            return;
-        }
-        for (ChapterNode node : nodes) {
-            int sectionNum = builder.next();
-            String label = (node.title() != null && !node.title().isEmpty())
-                    ? node.title()
-                    : "Chapter " + sectionNum;
-            String href = CONTENT_FILE + "#section-" + sectionNum;
-            if (node.isContainer()) {
-                out.append("        <li><a href=\"").append(XmlUtils.escapeXml(href)).append("\">")
-                        .append(XmlUtils.escapeXml(label)).append("</a>\n");
+    /**
+     * Emits one list item per node in document order, numbering sections in the same pre-order
+     * sequence as the arena; containers open a nested list that is closed after their subtree.
+     * Nodes carry no titles, so every entry is named by its number.
+     *
+     * @return the number of entries
+     */
+    private static int appendEntries(ContentArena arena, StringBuilder out) {
+        int[] openUntil = new int[arena.nodeCount()];
+        int open = 0;
+        for (int i = 0; i < arena.nodeCount(); i++) {
+            while (open > 0 && openUntil[open - 1] == i) {
+                open--;
+                closeList(out);
+            }
+            int sectionNum = i + 1;
+            out.append("        <li><a href=\"").append(CONTENT_FILE).append("#section-").append(sectionNum).append("\">");
+            out.append("Chapter ").append(sectionNum);
+            out.append("</a>");
+            if (arena.isContainer(i)) {
+                out.append("\n");
                 out.append("          <ol>\n");
-                buildToc(node.children(), out, builder);
-                out.append("          </ol>\n");
-                out.append("        </li>\n");
+                openUntil[open++] = arena.subtreeEnd(i);
             } else {
-                out.append("        <li><a href=\"").append(XmlUtils.escapeXml(href)).append("\">")
-                        .append(XmlUtils.escapeXml(label)).append("</a></li>\n");
+                out.append("</li>\n");
             }
         }
-    }
-
-    private static class TocBuilder {
-        private int next = 1;
-
-        int next() {
-            return next++;
+        while (open-- > 0) {
+            closeList(out);
         }
+        return arena.nodeCount();
+    }
 
-        int count() {
-            return next - 1;
-        }
+    private static void closeList(StringBuilder out) {
+        out.append("          </ol>\n");
+        out.append("        </li>\n");
     }
 }
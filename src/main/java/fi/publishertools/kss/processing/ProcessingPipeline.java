@@ -1,9 +1,13 @@
 package fi.publishertools.kss.processing;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
@@ -11,6 +15,7 @@ import org.slf4j.LoggerFactory;
 
 import fi.publishertools.kss.exception.AwaitingAltTextReviewException;
 import fi.publishertools.kss.exception.AwaitingLangMarkupReviewException;
+import fi.publishertools.kss.exception.AwaitingOllamaRecoveryException;
 import fi.publishertools.kss.exception.MandatoryMetadataMissingException;
 import fi.publishertools.kss.model.ProcessingContext;
 import fi.publishertools.kss.service.PendingAltTextStore;
@@ -21,11 +26,16 @@ import fi.publishertools.kss.service.ProcessingStatusStore;
 
 /**
  * Orchestrates multiple processing phases, each running on its own thread.
+ * Contexts parked by a phase while Ollama is unavailable are put back into that phase's buffer when
+ * the phase asked to be retried.
  */
 public class ProcessingPipeline {
 
     private static final Logger logger = LoggerFactory.getLogger(ProcessingPipeline.class);
 
+    /** A parked context is retried no sooner than this, so a misreported zero wait cannot spin. */
+    private static final Duration MIN_PARK = Duration.ofSeconds(1);
+
     private final List<ProcessingPhase> phases;
     private final List<BlockingQueue<ProcessingContext>> buffers;
     private final List<Thread> workerThreads;
@@ -36,6 +46,8 @@ public class ProcessingPipeline {
     private final PendingLangMarkupStore pendingLangMarkupStore;
     private final String threadPrefix;
     private final AtomicBoolean running = new AtomicBoolean(false);
+    private final ScheduledExecutorService parkTimer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("pipeline-park-timer").daemon().factory());
 
     public ProcessingPipeline(List<ProcessingPhase> phases,
                               ProcessingStatusStore statusStore,
@@ -110,6 +122,8 @@ public class ProcessingPipeline {
                             }
                         } catch (MandatoryMetadataMissingException e) {
                             statusStore.setStatus(e.getContext().getFileId(), ProcessingStatus.AWAITING_METADATA);
+                            // The metadata review does not read the tree; hold it compactly while the book waits.
+                            e.getContext().compactChapters();
                             pendingMetadataStore.store(e.getContext().getFileId(), e.getContext());
                             logger.info("File {} awaiting mandatory metadata", e.getContext().getFileId());
                         } catch (AwaitingAltTextReviewException e) {
@@ -120,6 +134,9 @@ public class ProcessingPipeline {
                             statusStore.setStatus(e.getContext().getFileId(), ProcessingStatus.AWAITING_LANG_MARKUP_REVIEW);
                             pendingLangMarkupStore.store(e.getContext().getFileId(), e.getContext());
                             logger.info("File {} awaiting lang markup review", e.getContext().getFileId());
+                        } catch (AwaitingOllamaRecoveryException e) {
+                            statusStore.setStatus(e.getContext().getFileId(), ProcessingStatus.AWAITING_OLLAMA);
+                            park(phaseIndex, e.getContext(), e.getRetryAfter());
                         } catch (Exception e) {
                             logger.error("Error in phase {} processing file {}", phase.getName(), context.getFileId(), e);
                             statusStore.setStatus(context.getFileId(), ProcessingStatus.ERROR);
@@ -153,6 +170,7 @@ public class ProcessingPipeline {
 
         logger.info("Stopping processing pipeline");
         running.set(false);
+        parkTimer.shutdownNow();
 
         // Interrupt all worker threads
         for (Thread thread : workerThreads) {
@@ -197,6 +215,23 @@ public class ProcessingPipeline {
         logger.debug("Submitted file {} to phase {}", context.getFileId(), phaseIndex);
     }
 
+    /**
+     * Puts the context back into the phase's buffer after the wait.
+     */
+    private void park(int phaseIndex, ProcessingContext context, Duration retryAfter) {
+        Duration wait = retryAfter != null && retryAfter.compareTo(MIN_PARK) > 0 ? retryAfter : MIN_PARK;
+        logger.info("File {} parked in phase {} until Ollama recovers, retrying in {}", context.getFileId(),
+                phases.get(phaseIndex).getName(), wait);
+        context.compactChapters();
+        parkTimer.schedule(() -> {
+            if (!running.get()) {
+                return;
+            }
+            statusStore.setStatus(context.getFileId(), ProcessingStatus.IN_PROGRESS);
+            buffers.get(phaseIndex).add(context);
+        }, wait.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
     private void storeFinalResult(ProcessingContext context) {
         // Convert context metadata to final payload
         java.util.Map<String, Object> payload = new java.util.HashMap<>(context.getMetadata());
@@ -205,7 +240,8 @@ public class ProcessingPipeline {
         payload.put("contentType", context.getContentType());
         payload.put("fileSize", context.getFileSize());
         payload.put("uploadTime", context.getUploadTime().toString());
-        payload.put("chapters", context.getChapters());
+        // Kept for the status endpoint as long as the result is; written out as nodes.
+        payload.put("chapters", context.getContentArena());
         payload.put("imageList", context.getImageList());
         payload.put("xhtml", context.getXhtmlContent());
 
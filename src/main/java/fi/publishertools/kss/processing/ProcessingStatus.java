@@ -5,6 +5,7 @@ public enum ProcessingStatus {
     AWAITING_METADATA,
     AWAITING_ALT_TEXTS,
     AWAITING_LANG_MARKUP_REVIEW,
+    AWAITING_OLLAMA,
     READY,
     ERROR
 }
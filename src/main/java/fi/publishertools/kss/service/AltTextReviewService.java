@@ -1,17 +1,18 @@
 package fi.publishertools.kss.service;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.springframework.stereotype.Service;
 
+import fi.publishertools.kss.dto.AltTextBatchUpdateItem;
+import fi.publishertools.kss.dto.AltTextOccurrenceSummary;
 import fi.publishertools.kss.model.ProcessingContext;
 import fi.publishertools.kss.model.content.ChapterNode;
-import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.ChapterNodeVisitor;
+import fi.publishertools.kss.model.content.ChapterNodeWalker;
 import fi.publishertools.kss.model.content.ImageNode;
-import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
-import fi.publishertools.kss.model.content.StoryNode;
+import fi.publishertools.kss.model.content.NodePath;
 
 /**
  * Helpers for alt text review: image nodes in document order, syncing alt text to the chapter tree,
@@ -22,6 +23,12 @@ public class AltTextReviewService {
 
     private static final int SURROUNDING_TEXT_MAX_LENGTH = 300;
 
+    private final PendingAltTextStore pendingAltTextStore;
+
+    public AltTextReviewService(PendingAltTextStore pendingAltTextStore) {
+        this.pendingAltTextStore = pendingAltTextStore;
+    }
+
     /**
      * Returns image nodes from the chapter tree in document order (depth-first).
      * Index i corresponds to context.getImageList().get(i) for the same occurrence.
@@ -36,18 +43,15 @@ public class AltTextReviewService {
     }
 
     private static void collectImageNodesInOrder(List<ChapterNode> nodes, List<ImageNode> out) {
-        if (nodes == null) {
-            return;
-        }
-        for (ChapterNode node : nodes) {
-            if (node instanceof ImageNode img) {
-                out.add(img);
-            } else if (node instanceof StoryNode story) {
-                collectImageNodesInOrder(story.children(), out);
-            } else if (node instanceof ParagraphStyleRangeNode para) {
-                collectImageNodesInOrder(para.children(), out);
+        ChapterNodeWalker.walk(nodes, new ChapterNodeVisitor() {
+            @Override
+            public Action enter(ChapterNode node, NodePath path) {
+                if (node instanceof ImageNode img) {
+                    out.add(img);
+                }
+                return Action.CONTINUE;
             }
-        }
+        });
     }
 
     /**
@@ -67,70 +71,63 @@ public class AltTextReviewService {
         treeImages.get(index).setAlternateText(alt);
     }
 
+    /**
+     * Applies alt text updates under the context lock: every index is validated first, then the flat image
+     * list and the chapter tree are updated, the latter in a single walk. Empty or null text clears the
+     * alt text. Reviewed text is no longer marked as reused from a similar image. Returns the updated summaries in request order.
+     *
+     * @throws IllegalArgumentException if any index is missing or out of range (nothing is changed)
+     */
+    public List<AltTextOccurrenceSummary> applyAltTextUpdates(ProcessingContext context, List<AltTextBatchUpdateItem> updates) {
+        synchronized (context) {
+            for (AltTextBatchUpdateItem update : updates) {
+                if (update == null || update.getIndex() == null || !isValidOccurrenceIndex(context, update.getIndex())) {
+                    throw new IllegalArgumentException("Invalid occurrence index: " + (update != null ? update.getIndex() : null));
+                }
+            }
+            List<ImageNode> imageList = context.getImageList();
+            List<ImageNode> treeImages = getImageNodesInDocumentOrder(context.getChapters());
+            List<AltTextOccurrenceSummary> summaries = new ArrayList<>(updates.size());
+            for (AltTextBatchUpdateItem update : updates) {
+                int index = update.getIndex();
+                String text = update.getAlternateText() != null ? update.getAlternateText() : "";
+                ImageNode node = imageList.get(index);
+                node.setAlternateText(text);
+                node.setAltTextFromSimilarImage(false);
+                if (index < treeImages.size()) {
+                    treeImages.get(index).setAlternateText(text);
+                    treeImages.get(index).setAltTextFromSimilarImage(false);
+                }
+                summaries.add(new AltTextOccurrenceSummary(
+                        index,
+                        node.fileName() != null ? node.fileName() : "",
+                        text,
+                        text
+                ));
+            }
+            return summaries;
+        }
+    }
+
     /**
      * Result of surrounding text for one image occurrence.
      */
     public record SurroundingText(String textBefore, String textAfter) {}
 
     /**
-     * Returns text before and after the i-th image in document order (from the chapter tree).
-     * Each side is limited to {@value #SURROUNDING_TEXT_MAX_LENGTH} characters.
+     * Returns the text immediately before and after the i-th image in document order (from the chapter tree).
+     * Each side is limited to {@value #SURROUNDING_TEXT_MAX_LENGTH} characters. Reads from the context's
+     * {@link SurroundingTextIndex}, so the cost does not grow with book size.
      */
-    public SurroundingText getSurroundingText(List<ChapterNode> chapters, int imageIndex) {
-        if (chapters == null || imageIndex < 0) {
-            return new SurroundingText("", "");
-        }
-        List<String> textChunks = new ArrayList<>();
-        List<Integer> imageIndices = new ArrayList<>();
-        flattenTextAndImageIndices(chapters, textChunks, imageIndices);
-        if (imageIndex >= imageIndices.size()) {
+    public SurroundingText getSurroundingText(ProcessingContext context, int imageIndex) {
+        if (context.getChapters() == null || imageIndex < 0) {
             return new SurroundingText("", "");
         }
-        int pos = imageIndices.get(imageIndex);
-        String before = concatenateWithLimit(textChunks, 0, pos, SURROUNDING_TEXT_MAX_LENGTH);
-        String after = concatenateWithLimit(textChunks, pos + 1, textChunks.size(), SURROUNDING_TEXT_MAX_LENGTH);
-        return new SurroundingText(before, after);
-    }
-
-    private static void flattenTextAndImageIndices(List<ChapterNode> nodes,
-                                                   List<String> textChunks,
-                                                   List<Integer> imageIndices) {
-        if (nodes == null) {
-            return;
-        }
-        for (ChapterNode node : nodes) {
-            if (node instanceof CharacterStyleRangeNode textNode) {
-                String t = textNode.text();
-                textChunks.add(t != null ? t : "");
-            } else if (node instanceof ImageNode) {
-                imageIndices.add(textChunks.size()); // number of text chunks before this image
-            } else if (node instanceof StoryNode story) {
-                flattenTextAndImageIndices(story.children(), textChunks, imageIndices);
-            } else if (node instanceof ParagraphStyleRangeNode para) {
-                flattenTextAndImageIndices(para.children(), textChunks, imageIndices);
-            }
-        }
-    }
-
-    private static String concatenateWithLimit(List<String> chunks, int from, int to, int maxLen) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = from; i < to && i < chunks.size(); i++) {
-            String s = chunks.get(i);
-            if (s != null && !s.isEmpty()) {
-                if (sb.length() > 0) {
-                    sb.append(' ');
-                }
-                sb.append(s.trim());
-                if (sb.length() >= maxLen) {
-                    break;
-                }
-            }
-        }
-        String result = sb.toString().trim();
-        if (result.length() > maxLen) {
-            result = result.substring(0, maxLen).trim();
+        synchronized (context) {
+            SurroundingTextIndex.Surrounding surrounding = pendingAltTextStore.surroundingTextIndex(context)
+                    .aroundImage(imageIndex, SURROUNDING_TEXT_MAX_LENGTH);
+            return new SurroundingText(surrounding.textBefore(), surrounding.textAfter());
         }
-        return result;
     }
 
     /**
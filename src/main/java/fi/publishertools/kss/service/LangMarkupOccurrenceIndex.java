@@ -0,0 +1,133 @@
+package fi.publishertools.kss.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ChapterNodeVisitor;
+import fi.publishertools.kss.model.content.ChapterNodeWalker;
+import fi.publishertools.kss.model.content.ChapterTrees;
+import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.NodePath;
+
+/**
+ * Language markup occurrences of one chapter tree in document order, with the index path of
+ * each occurrence. Built once per pending context and updated incrementally when a single
+ * container is replaced, so lookups by occurrence index are O(1) and an edit only rescans the
+ * edited container. Not thread-safe; callers synchronize on the owning context.
+ */
+public class LangMarkupOccurrenceIndex {
+
+    /**
+     * One occurrence: indices from the top-level list down to the lang node, and the node.
+     */
+    public record Occurrence(int[] path, CharacterStyleRangeNode node) {
+
+        public int[] parentPath() {
+            return Arrays.copyOf(path, path.length - 1);
+        }
+
+        public int indexInParent() {
+            return path[path.length - 1];
+        }
+    }
+
+    private List<ChapterNode> chapters;
+    private final List<Occurrence> occurrences;
+
+    private LangMarkupOccurrenceIndex(List<ChapterNode> chapters, List<Occurrence> occurrences) {
+        this.chapters = chapters;
+        this.occurrences = occurrences;
+    }
+
+    public static LangMarkupOccurrenceIndex build(List<ChapterNode> chapters) {
+        List<Occurrence> occurrences = new ArrayList<>();
+        collect(chapters, new int[0], occurrences);
+        return new LangMarkupOccurrenceIndex(chapters, occurrences);
+    }
+
+    /**
+     * True if this index was built for (or last updated to) exactly this chapter list instance.
+     */
+    public boolean isFor(List<ChapterNode> chapters) {
+        return this.chapters == chapters;
+    }
+
+    public int size() {
+        return occurrences.size();
+    }
+
+    public Occurrence get(int occurrenceIndex) {
+        return occurrences.get(occurrenceIndex);
+    }
+
+    public List<Occurrence> occurrences() {
+        return List.copyOf(occurrences);
+    }
+
+    /**
+     * Current index of an occurrence taken from this index earlier, or -1 if the node at its path has
+     * since been replaced or lost its markup. Found by binary search on the path, then checked by identity.
+     */
+    public int indexOf(Occurrence occurrence) {
+        int i = lowerBound(occurrence.path(), false);
+        return i < occurrences.size() && occurrences.get(i).node() == occurrence.node() ? i : -1;
+    }
+
+    /**
+     * Records that the container at {@code containerPath} was replaced by {@code newContainer}
+     * and that the resulting tree is {@code newChapters}. Only occurrences inside the container are
+     * recomputed; they are located by binary search on their paths.
+     */
+    public void replaceContainer(int[] containerPath, ChapterNode newContainer, List<ChapterNode> newChapters) {
+        int from = lowerBound(containerPath, false);
+        int to = lowerBound(containerPath, true);
+        List<Occurrence> replacement = new ArrayList<>();
+        collect(newContainer.children(), containerPath, replacement);
+        List<Occurrence> range = occurrences.subList(from, to);
+        range.clear();
+        range.addAll(replacement);
+        this.chapters = newChapters;
+    }
+
+    /**
+     * First position whose path is not before {@code prefix} (or, with {@code pastPrefix}, not
+     * inside the subtree at {@code prefix} either).
+     */
+    private int lowerBound(int[] prefix, boolean pastPrefix) {
+        int lo = 0;
+        int hi = occurrences.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = ChapterTrees.compareToPrefix(occurrences.get(mid).path(), prefix);
+            if (cmp < 0 || (pastPrefix && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static void collect(List<ChapterNode> nodes, int[] prefix, List<Occurrence> out) {
+        ChapterNodeWalker.walk(nodes, new ChapterNodeVisitor() {
+            @Override
+            public Action enter(ChapterNode node, NodePath path) {
+                if (node instanceof CharacterStyleRangeNode csr && csr.language() != null && !csr.language().isBlank()) {
+                    out.add(new Occurrence(concat(prefix, path.toIndexArray()), csr));
+                }
+                return Action.CONTINUE;
+            }
+        });
+    }
+
+    static int[] concat(int[] prefix, int[] path) {
+        if (prefix.length == 0) {
+            return path;
+        }
+        int[] result = Arrays.copyOf(prefix, prefix.length + path.length);
+        System.arraycopy(path, 0, result, prefix.length, path.length);
+        return result;
+    }
+}
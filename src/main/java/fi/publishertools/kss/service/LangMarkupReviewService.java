@@ -1,216 +1,252 @@
 package fi.publishertools.kss.service;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.springframework.stereotype.Service;
 
+import fi.publishertools.kss.dto.LangMarkupBatchUpdateItem;
 import fi.publishertools.kss.dto.LangMarkupOccurrenceDetail;
 import fi.publishertools.kss.dto.LangMarkupOccurrenceSummary;
 import fi.publishertools.kss.dto.LangMarkupUpdateRequest;
 import fi.publishertools.kss.model.ProcessingContext;
 import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ChapterTrees;
 import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
 import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
 import fi.publishertools.kss.model.content.StoryNode;
+import fi.publishertools.kss.service.LangMarkupOccurrenceIndex.Occurrence;
 
 /**
  * Lists language markup occurrences, provides surrounding text, and applies user updates
- * (change language, edit phrase/surrounding text, or dismiss markup).
+ * (change language, edit phrase/surrounding text, or dismiss markup). Occurrences are looked up
+ * in the {@link LangMarkupOccurrenceIndex} kept by {@link PendingLangMarkupStore}; calls synchronize
+ * on the context so the index and chapters change together.
  */
 @Service
 public class LangMarkupReviewService {
 
     private static final int SURROUNDING_TEXT_MAX_LENGTH = 300;
 
-    /**
-     * One occurrence: path from root to the lang node (indices), and the node.
-     */
-    private record Occurrence(List<Integer> path, CharacterStyleRangeNode node) {}
+    private final PendingLangMarkupStore pendingLangMarkupStore;
+
+    public LangMarkupReviewService(PendingLangMarkupStore pendingLangMarkupStore) {
+        this.pendingLangMarkupStore = pendingLangMarkupStore;
+    }
 
     /**
      * Returns occurrences (index, phraseText, proposedLanguage) in document order.
      */
-    public List<LangMarkupOccurrenceSummary> getOccurrenceSummaries(List<ChapterNode> chapters) {
-        List<Occurrence> occurrences = collectOccurrences(chapters);
-        List<LangMarkupOccurrenceSummary> result = new ArrayList<>();
-        for (int i = 0; i < occurrences.size(); i++) {
-            Occurrence occ = occurrences.get(i);
-            String lang = occ.node().language();
-            result.add(new LangMarkupOccurrenceSummary(
-                    i,
-                    occ.node().text() != null ? occ.node().text() : "",
-                    lang != null ? lang : ""
-            ));
+    public List<LangMarkupOccurrenceSummary> getOccurrenceSummaries(ProcessingContext context) {
+        synchronized (context) {
+            LangMarkupOccurrenceIndex index = occurrenceIndex(context);
+            List<LangMarkupOccurrenceSummary> result = new ArrayList<>(index.size());
+            for (int i = 0; i < index.size(); i++) {
+                result.add(toSummary(i, index.get(i)));
+            }
+            return result;
         }
-        return result;
     }
 
     /**
      * Returns detail for the occurrence at the given index: phraseText, proposedLanguage, textBefore, textAfter.
+     * Surrounding text is the text immediately before and after the phrase, read from the context's
+     * {@link SurroundingTextIndex}.
      */
-    public LangMarkupOccurrenceDetail getOccurrenceDetail(List<ChapterNode> chapters, int occurrenceIndex) {
-        List<Occurrence> occurrences = collectOccurrences(chapters);
-        if (occurrenceIndex < 0 || occurrenceIndex >= occurrences.size()) {
-            return null;
+    public LangMarkupOccurrenceDetail getOccurrenceDetail(ProcessingContext context, int occurrenceIndex) {
+        synchronized (context) {
+            LangMarkupOccurrenceIndex index = occurrenceIndex(context);
+            if (occurrenceIndex < 0 || occurrenceIndex >= index.size()) {
+                return null;
+            }
+            Occurrence occ = index.get(occurrenceIndex);
+            SurroundingTextIndex.Surrounding surrounding = pendingLangMarkupStore.surroundingTextIndex(context)
+                    .aroundLangOccurrence(occurrenceIndex, SURROUNDING_TEXT_MAX_LENGTH);
+            String lang = occ.node().language();
+            return new LangMarkupOccurrenceDetail(
+                    occurrenceIndex,
+                    occ.node().text() != null ? occ.node().text() : "",
+                    lang != null ? lang : "",
+                    surrounding.textBefore(),
+                    surrounding.textAfter()
+            );
         }
-        Occurrence occ = occurrences.get(occurrenceIndex);
-        Surrounding surrounding = getSurroundingForOccurrence(chapters, occurrenceIndex);
-        String lang = occ.node().language();
-        return new LangMarkupOccurrenceDetail(
-                occurrenceIndex,
-                occ.node().text() != null ? occ.node().text() : "",
-                lang != null ? lang : "",
-                surrounding.textBefore(),
-                surrounding.textAfter()
-        );
     }
 
     /**
      * Applies the update to the occurrence at the given index and updates context.getChapters().
+     * The edit is path-copying (see {@link ChapterTrees}): only the containers from the root to the
+     * occurrence's parent are rebuilt, and only that parent is re-indexed in the occurrence and
+     * surrounding text indexes.
      * Returns the updated occurrence summary, or null if occurrence index invalid.
      */
     public LangMarkupOccurrenceSummary applyUpdate(ProcessingContext context, int occurrenceIndex,
                                                    LangMarkupUpdateRequest request) {
-        List<ChapterNode> chapters = context.getChapters();
-        if (chapters == null) {
+        synchronized (context) {
+            if (!applyUpdateLocked(context, occurrenceIndex, request)) {
+                return null;
+            }
+            // Return updated summary for the same occurrence index (might be same or merged)
+            LangMarkupOccurrenceIndex index = occurrenceIndex(context);
+            if (occurrenceIndex < index.size()) {
+                return toSummary(occurrenceIndex, index.get(occurrenceIndex));
+            }
             return null;
         }
-        List<Occurrence> occurrences = collectOccurrences(chapters);
-        if (occurrenceIndex < 0 || occurrenceIndex >= occurrences.size()) {
-            return null;
+    }
+
+    /**
+     * Applies several updates under one lock on the context. Indices refer to the numbering before the
+     * batch. Every index is first resolved to its occurrence, and the text runs each update rewrites are
+     * checked not to overlap, before anything is changed. Updates are then applied from the highest index
+     * down, each to its resolved occurrence, so an edit never shifts the occurrences still to be edited.
+     * Returns summaries, with final indices, for the updated occurrences that still carry markup, in
+     * ascending index order; dismissed occurrences are omitted.
+     *
+     * @throws IllegalArgumentException if an index is missing, out of range or repeated, or two updates
+     *                                  rewrite the same text run (nothing is changed)
+     */
+    public List<LangMarkupOccurrenceSummary> applyUpdates(ProcessingContext context, List<LangMarkupBatchUpdateItem> updates) {
+        synchronized (context) {
+            List<ChapterNode> original = context.getChapters();
+            LangMarkupOccurrenceIndex index = occurrenceIndex(context);
+            Set<Integer> seen = new HashSet<>();
+            for (LangMarkupBatchUpdateItem update : updates) {
+                Integer i = update != null ? update.getIndex() : null;
+                if (i == null || i < 0 || i >= index.size() || !seen.add(i)) {
+                    throw new IllegalArgumentException("Invalid occurrence index: " + i);
+                }
+            }
+            List<LangMarkupBatchUpdateItem> ordered = new ArrayList<>(updates);
+            ordered.sort(Comparator.comparing(LangMarkupBatchUpdateItem::getIndex).reversed());
+            List<Occurrence> targets = new ArrayList<>(ordered.size());
+            Set<String> rewrittenRuns = new HashSet<>();
+            for (LangMarkupBatchUpdateItem update : ordered) {
+                Occurrence occ = index.get(update.getIndex());
+                ChapterNode parent = ChapterTrees.nodeAt(original, occ.parentPath());
+                if (!(parent instanceof StoryNode || parent instanceof ParagraphStyleRangeNode)) {
+                    throw new IllegalArgumentException("Occurrence cannot be edited: " + update.getIndex());
+                }
+                for (int run : touchedRuns(parent.children(), occ.indexInParent(), update)) {
+                    if (!rewrittenRuns.add(Arrays.toString(occ.parentPath()) + "/" + run)) {
+                        throw new IllegalArgumentException(
+                                "Occurrence " + update.getIndex() + " rewrites text another update in the batch also rewrites");
+                    }
+                }
+                targets.add(occ);
+            }
+            // removed[k] = occurrences that disappeared when the k-th (descending) update was applied
+            int[] removed = new int[ordered.size()];
+            for (int k = 0; k < ordered.size(); k++) {
+                int sizeBefore = occurrenceIndex(context).size();
+                int current = occurrenceIndex(context).indexOf(targets.get(k));
+                if (current < 0 || !applyUpdateLocked(context, current, ordered.get(k))) {
+                    // Not expected after the checks above; put the tree back so the batch stays all-or-nothing.
+                    context.setChapters(original);
+                    throw new IllegalArgumentException("Occurrence cannot be edited: " + ordered.get(k).getIndex());
+                }
+                removed[k] = sizeBefore - occurrenceIndex(context).size();
+            }
+            LangMarkupOccurrenceIndex after = occurrenceIndex(context);
+            List<LangMarkupOccurrenceSummary> summaries = new ArrayList<>();
+            for (int k = ordered.size() - 1; k >= 0; k--) {
+                if (removed[k] > 0) {
+                    continue;
+                }
+                int shift = 0;
+                for (int j = k + 1; j < ordered.size(); j++) {
+                    shift += removed[j];
+                }
+                int finalIndex = ordered.get(k).getIndex() - shift;
+                if (finalIndex >= 0 && finalIndex < after.size()) {
+                    summaries.add(toSummary(finalIndex, after.get(finalIndex)));
+                }
+            }
+            return summaries;
         }
-        Occurrence occ = occurrences.get(occurrenceIndex);
-        List<Integer> path = occ.path();
-        if (path.isEmpty()) {
-            return null;
+    }
+
+    /**
+     * Positions among the siblings whose runs the update replaces: the occurrence itself, the neighbours
+     * whose text it sets, and the run a dismissed phrase is merged into.
+     */
+    private static List<Integer> touchedRuns(List<ChapterNode> siblings, int index, LangMarkupUpdateRequest request) {
+        List<Integer> runs = new ArrayList<>(3);
+        runs.add(index);
+        if (Boolean.TRUE.equals(request.getDismiss())) {
+            int mergeTarget = dismissMergeTarget(siblings, index);
+            if (mergeTarget >= 0) {
+                runs.add(mergeTarget);
+            }
+            return runs;
+        }
+        if (request.getTextBefore() != null && index > 0 && siblings.get(index - 1) instanceof CharacterStyleRangeNode) {
+            runs.add(index - 1);
+        }
+        if (request.getTextAfter() != null && index < siblings.size() - 1
+                && siblings.get(index + 1) instanceof CharacterStyleRangeNode) {
+            runs.add(index + 1);
+        }
+        return runs;
+    }
+
+    /**
+     * Applies one update; caller holds the context lock. Returns false if the occurrence could not be edited.
+     */
+    private boolean applyUpdateLocked(ProcessingContext context, int occurrenceIndex, LangMarkupUpdateRequest request) {
+        List<ChapterNode> chapters = context.getChapters();
+        if (chapters == null) {
+            return false;
         }
-        List<Integer> parentPath = path.subList(0, path.size() - 1);
-        int indexInParent = path.get(path.size() - 1);
-        ChapterNode parent = getNodeAt(chapters, parentPath);
+        LangMarkupOccurrenceIndex index = occurrenceIndex(context);
+        if (occurrenceIndex < 0 || occurrenceIndex >= index.size()) {
+            return false;
+        }
+        SurroundingTextIndex surroundingIndex = pendingLangMarkupStore.surroundingTextIndex(context);
+        Occurrence occ = index.get(occurrenceIndex);
+        int[] parentPath = occ.parentPath();
+        int indexInParent = occ.indexInParent();
+        ChapterNode parent = ChapterTrees.nodeAt(chapters, parentPath);
         if (parent == null || !(parent instanceof StoryNode || parent instanceof ParagraphStyleRangeNode)) {
-            return null;
+            return false;
         }
         List<ChapterNode> siblingList = parent.children();
         if (indexInParent < 0 || indexInParent >= siblingList.size()) {
-            return null;
+            return false;
         }
 
         List<ChapterNode> newChildren = applyReplacement(siblingList, indexInParent, occ.node(), request);
         if (newChildren == null) {
-            return null;
-        }
-        ChapterNode newParent = cloneWithChildren(parent, newChildren);
-        List<ChapterNode> newChapters = replaceNodeAt(chapters, parentPath, 0, newParent);
-        context.setChapters(newChapters);
-
-        // Return updated summary for the same occurrence index (might be same or merged)
-        List<Occurrence> afterOccurrences = collectOccurrences(newChapters);
-        if (occurrenceIndex < afterOccurrences.size()) {
-            Occurrence updated = afterOccurrences.get(occurrenceIndex);
-            String lang = updated.node().language();
-            return new LangMarkupOccurrenceSummary(
-                    occurrenceIndex,
-                    updated.node().text() != null ? updated.node().text() : "",
-                    lang != null ? lang : ""
-            );
+            return false;
         }
-        return null;
+        ChapterTrees.Edit edit = ChapterTrees.replaceChildren(chapters, parentPath, newChildren);
+        context.setChapters(edit.roots());
+        index.replaceContainer(parentPath, edit.container(), edit.roots());
+        surroundingIndex.replaceContainer(parentPath, edit.container(), edit.roots());
+        return true;
     }
 
     public boolean isValidOccurrenceIndex(ProcessingContext context, int index) {
-        List<Occurrence> occurrences = collectOccurrences(context.getChapters());
-        return index >= 0 && index < occurrences.size();
-    }
-
-    private List<Occurrence> collectOccurrences(List<ChapterNode> chapters) {
-        List<Occurrence> out = new ArrayList<>();
-        collectOccurrences(chapters, new ArrayList<>(), out);
-        return out;
-    }
-
-    private void collectOccurrences(List<ChapterNode> nodes, List<Integer> path, List<Occurrence> out) {
-        if (nodes == null) {
-            return;
-        }
-        for (int i = 0; i < nodes.size(); i++) {
-            ChapterNode node = nodes.get(i);
-            List<Integer> nodePath = new ArrayList<>(path);
-            nodePath.add(i);
-            if (node instanceof CharacterStyleRangeNode csr) {
-                if (csr.language() != null && !csr.language().isBlank()) {
-                    out.add(new Occurrence(nodePath, csr));
-                }
-            } else if (node instanceof StoryNode story) {
-                collectOccurrences(story.children(), nodePath, out);
-            } else if (node instanceof ParagraphStyleRangeNode para) {
-                collectOccurrences(para.children(), nodePath, out);
-            }
+        synchronized (context) {
+            return index >= 0 && index < occurrenceIndex(context).size();
         }
     }
 
-    private record Surrounding(String textBefore, String textAfter) {}
-
-    private Surrounding getSurroundingForOccurrence(List<ChapterNode> chapters, int occurrenceIndex) {
-        List<String> textChunks = new ArrayList<>();
-        List<Boolean> isLangChunk = new ArrayList<>();
-        flattenTextAndLang(chapters, textChunks, isLangChunk);
-        int langCount = 0;
-        int pos = -1;
-        for (int i = 0; i < isLangChunk.size(); i++) {
-            if (Boolean.TRUE.equals(isLangChunk.get(i))) {
-                if (langCount == occurrenceIndex) {
-                    pos = i;
-                    break;
-                }
-                langCount++;
-            }
-        }
-        if (pos < 0) {
-            return new Surrounding("", "");
-        }
-        String before = concatenateWithLimit(textChunks, 0, pos, SURROUNDING_TEXT_MAX_LENGTH);
-        String after = concatenateWithLimit(textChunks, pos + 1, textChunks.size(), SURROUNDING_TEXT_MAX_LENGTH);
-        return new Surrounding(before, after);
-    }
-
-    private void flattenTextAndLang(List<ChapterNode> nodes, List<String> textChunks, List<Boolean> isLangChunk) {
-        if (nodes == null) {
-            return;
-        }
-        for (ChapterNode node : nodes) {
-            if (node instanceof CharacterStyleRangeNode csr) {
-                String t = csr.text();
-                textChunks.add(t != null ? t : "");
-                isLangChunk.add(csr.language() != null && !csr.language().isBlank());
-            } else if (node instanceof StoryNode story) {
-                flattenTextAndLang(story.children(), textChunks, isLangChunk);
-            } else if (node instanceof ParagraphStyleRangeNode para) {
-                flattenTextAndLang(para.children(), textChunks, isLangChunk);
-            }
-        }
+    private LangMarkupOccurrenceIndex occurrenceIndex(ProcessingContext context) {
+        return pendingLangMarkupStore.occurrenceIndex(context);
     }
 
-    private static String concatenateWithLimit(List<String> chunks, int from, int to, int maxLen) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = from; i < to && i < chunks.size(); i++) {
-            String s = chunks.get(i);
-            if (s != null && !s.isEmpty()) {
-                if (sb.length() > 0) {
-                    sb.append(' ');
-                }
-                sb.append(s.trim());
-                if (sb.length() >= maxLen) {
-                    break;
-                }
-            }
-        }
-        String result = sb.toString().trim();
-        if (result.length() > maxLen) {
-            result = result.substring(0, maxLen).trim();
-        }
-        return result;
+    private static LangMarkupOccurrenceSummary toSummary(int index, Occurrence occ) {
+        String lang = occ.node().language();
+        return new LangMarkupOccurrenceSummary(
+                index,
+                occ.node().text() != null ? occ.node().text() : "",
+                lang != null ? lang : ""
+        );
     }
 
     private List<ChapterNode> applyReplacement(List<ChapterNode> siblingList, int index,
@@ -240,12 +276,30 @@ public class LangMarkupReviewService {
         return result;
     }
 
+    /**
+     * Dismissing merges the phrase into the run before it, or else the run after it, when that run has
+     * no markup of its own; a neighbouring occurrence keeps its markup. Returns -1 if neither qualifies.
+     */
+    private static int dismissMergeTarget(List<ChapterNode> siblingList, int index) {
+        if (index > 0 && isPlainRun(siblingList.get(index - 1))) {
+            return index - 1;
+        }
+        if (index < siblingList.size() - 1 && isPlainRun(siblingList.get(index + 1))) {
+            return index + 1;
+        }
+        return -1;
+    }
+
+    private static boolean isPlainRun(ChapterNode node) {
+        return node instanceof CharacterStyleRangeNode csr && (csr.language() == null || csr.language().isBlank());
+    }
+
     private List<ChapterNode> applyDismiss(List<ChapterNode> siblingList, int index, CharacterStyleRangeNode langNode) {
-        CharacterStyleRangeNode prev = index > 0 && siblingList.get(index - 1) instanceof CharacterStyleRangeNode p ? p : null;
-        CharacterStyleRangeNode next = index < siblingList.size() - 1 && siblingList.get(index + 1) instanceof CharacterStyleRangeNode n ? n : null;
+        int mergeTarget = dismissMergeTarget(siblingList, index);
         String mergedText = langNode.text() != null ? langNode.text() : "";
         List<ChapterNode> result = new ArrayList<>();
-        if (prev != null) {
+        if (mergeTarget == index - 1) {
+            CharacterStyleRangeNode prev = (CharacterStyleRangeNode) siblingList.get(index - 1);
             for (int i = 0; i < index - 1; i++) {
                 result.add(siblingList.get(i));
             }
@@ -254,7 +308,8 @@ public class LangMarkupReviewService {
             for (int i = index + 1; i < siblingList.size(); i++) {
                 result.add(siblingList.get(i));
             }
-        } else if (next != null) {
+        } else if (mergeTarget == index + 1) {
+            CharacterStyleRangeNode next = (CharacterStyleRangeNode) siblingList.get(index + 1);
             for (int i = 0; i < index; i++) {
                 result.add(siblingList.get(i));
             }
@@ -269,57 +324,4 @@ public class LangMarkupReviewService {
         }
         return result;
     }
-
-    private ChapterNode getNodeAt(List<ChapterNode> chapters, List<Integer> path) {
-        if (path == null || path.isEmpty()) {
-            return null;
-        }
-        List<ChapterNode> current = chapters;
-        ChapterNode node = null;
-        for (int i = 0; i < path.size(); i++) {
-            int idx = path.get(i);
-            if (idx < 0 || idx >= current.size()) {
-                return null;
-            }
-            node = current.get(idx);
-            if (i == path.size() - 1) {
-                return node;
-            }
-            if (node instanceof StoryNode story) {
-                current = story.children();
-            } else if (node instanceof ParagraphStyleRangeNode para) {
-                current = para.children();
-            } else {
-                return null;
-            }
-        }
-        return node;
-    }
-
-    private ChapterNode cloneWithChildren(ChapterNode parent, List<ChapterNode> newChildren) {
-        List<ChapterNode> children = newChildren != null ? List.copyOf(newChildren) : Collections.emptyList();
-        if (parent instanceof StoryNode story) {
-            return new StoryNode(children, story.appliedStyle());
-        }
-        if (parent instanceof ParagraphStyleRangeNode para) {
-            return new ParagraphStyleRangeNode(children, para.appliedStyle());
-        }
-        return parent;
-    }
-
-    private List<ChapterNode> replaceNodeAt(List<ChapterNode> nodes, List<Integer> path, int depth, ChapterNode newNode) {
-        if (depth == path.size() - 1) {
-            int idx = path.get(depth);
-            List<ChapterNode> result = new ArrayList<>(nodes);
-            result.set(idx, newNode);
-            return result;
-        }
-        int idx = path.get(depth);
-        ChapterNode child = nodes.get(idx);
-        List<ChapterNode> newChildChildren = replaceNodeAt(child.children(), path, depth + 1, newNode);
-        ChapterNode newChild = cloneWithChildren(child, newChildChildren);
-        List<ChapterNode> result = new ArrayList<>(nodes);
-        result.set(idx, newChild);
-        return result;
-    }
 }
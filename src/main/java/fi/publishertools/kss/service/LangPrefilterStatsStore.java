@@ -0,0 +1,43 @@
+package fi.publishertools.kss.service;
+
+import java.util.Optional;
+
+import org.springframework.stereotype.Component;
+
+import fi.publishertools.kss.langid.PrefilterStats;
+
+/**
+ * Thread-safe store for language prefilter statistics recorded per file by B3 when the prefilter is enabled.
+ * Only the statistics of the last {@value #DEFAULT_MAX_FILES} files are kept.
+ */
+@Component
+public class LangPrefilterStatsStore {
+
+    public static final int DEFAULT_MAX_FILES = 1000;
+
+    private final RecentFileEntries<PrefilterStats> store;
+
+    public LangPrefilterStatsStore() {
+        this(DEFAULT_MAX_FILES);
+    }
+
+    LangPrefilterStatsStore(int maxFiles) {
+        this.store = new RecentFileEntries<>(maxFiles);
+    }
+
+    public void store(String fileId, PrefilterStats stats) {
+        store.put(fileId, stats);
+    }
+
+    public Optional<PrefilterStats> get(String fileId) {
+        return store.get(fileId);
+    }
+
+    public Optional<PrefilterStats> remove(String fileId) {
+        return store.remove(fileId);
+    }
+
+    public int size() {
+        return store.size();
+    }
+}
@@ -10,13 +10,16 @@ import fi.publishertools.kss.model.ProcessingContext;
 
 /**
  * Thread-safe store for ProcessingContexts awaiting user review of proposed image alt texts.
+ * Also keeps a {@link SurroundingTextIndex} per stored context, built on first use.
  */
 @Component
 public class PendingAltTextStore {
 
     private final ConcurrentHashMap<String, ProcessingContext> store = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SurroundingTextIndex> surroundingTextIndexes = new ConcurrentHashMap<>();
 
     public void store(String fileId, ProcessingContext context) {
+        surroundingTextIndexes.remove(fileId);
         store.put(fileId, context);
     }
 
@@ -25,10 +28,27 @@ public class PendingAltTextStore {
     }
 
     public Optional<ProcessingContext> remove(String fileId) {
+        surroundingTextIndexes.remove(fileId);
         return Optional.ofNullable(store.remove(fileId));
     }
 
     public List<String> listFileIds() {
         return List.copyOf(store.keySet());
     }
+
+    /**
+     * Returns the surrounding text index for the context's current chapters. Alt text review does not
+     * change text, so the index is built once per stored context; contexts not in the store get a fresh,
+     * uncached index.
+     */
+    public SurroundingTextIndex surroundingTextIndex(ProcessingContext context) {
+        String fileId = context.getFileId();
+        if (store.get(fileId) != context) {
+            return SurroundingTextIndex.build(context.getChapters());
+        }
+        return surroundingTextIndexes.compute(fileId, (id, existing) ->
+                existing != null && existing.isFor(context.getChapters())
+                        ? existing
+                        : SurroundingTextIndex.build(context.getChapters()));
+    }
 }
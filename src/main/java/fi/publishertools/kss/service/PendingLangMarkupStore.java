@@ -10,14 +10,26 @@ import fi.publishertools.kss.model.ProcessingContext;
 
 /**
  * Thread-safe store for ProcessingContexts awaiting user review of proposed language markup.
+ * Also keeps a {@link LangMarkupOccurrenceIndex} and a {@link SurroundingTextIndex} per stored context,
+ * built when the context is stored and kept current by {@link LangMarkupReviewService} edits.
  */
 @Component
 public class PendingLangMarkupStore {
 
     private final ConcurrentHashMap<String, ProcessingContext> store = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LangMarkupOccurrenceIndex> indexes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SurroundingTextIndex> surroundingTextIndexes = new ConcurrentHashMap<>();
 
     public void store(String fileId, ProcessingContext context) {
+        indexes.remove(fileId);
+        surroundingTextIndexes.remove(fileId);
         store.put(fileId, context);
+        synchronized (context) {
+            if (context.getChapters() != null) {
+                occurrenceIndex(context);
+                surroundingTextIndex(context);
+            }
+        }
     }
 
     public Optional<ProcessingContext> get(String fileId) {
@@ -25,10 +37,44 @@ public class PendingLangMarkupStore {
     }
 
     public Optional<ProcessingContext> remove(String fileId) {
+        indexes.remove(fileId);
+        surroundingTextIndexes.remove(fileId);
         return Optional.ofNullable(store.remove(fileId));
     }
 
     public List<String> listFileIds() {
         return List.copyOf(store.keySet());
     }
+
+    /**
+     * Returns the occurrence index for the context's current chapters. The index is kept for
+     * stored contexts and rebuilt only if the chapters were replaced outside the review service;
+     * contexts not in the store get a fresh, uncached index.
+     */
+    public LangMarkupOccurrenceIndex occurrenceIndex(ProcessingContext context) {
+        String fileId = context.getFileId();
+        if (store.get(fileId) != context) {
+            return LangMarkupOccurrenceIndex.build(context.getChapters());
+        }
+        return indexes.compute(fileId, (id, existing) ->
+                existing != null && existing.isFor(context.getChapters())
+                        ? existing
+                        : LangMarkupOccurrenceIndex.build(context.getChapters()));
+    }
+
+    /**
+     * Returns the surrounding text index for the context's current chapters. Like the occurrence index,
+     * it is updated in place by review edits and rebuilt only if the chapters were replaced outside the
+     * review service; contexts not in the store get a fresh, uncached index.
+     */
+    public SurroundingTextIndex surroundingTextIndex(ProcessingContext context) {
+        String fileId = context.getFileId();
+        if (store.get(fileId) != context) {
+            return SurroundingTextIndex.build(context.getChapters());
+        }
+        return surroundingTextIndexes.compute(fileId, (id, existing) ->
+                existing != null && existing.isFor(context.getChapters())
+                        ? existing
+                        : SurroundingTextIndex.build(context.getChapters()));
+    }
 }
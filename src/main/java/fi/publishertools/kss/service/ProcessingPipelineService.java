@@ -1,17 +1,28 @@
 package fi.publishertools.kss.service;
 
+import java.net.http.HttpClient;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import fi.publishertools.kss.DiagnosticsProperties;
+import fi.publishertools.kss.LangDetectionProperties;
 import fi.publishertools.kss.integration.ollama.CachingOllamaClient;
+import fi.publishertools.kss.integration.ollama.CircuitBreakerOllamaClient;
+import fi.publishertools.kss.integration.ollama.ConcurrencyLimitedOllamaClient;
+import fi.publishertools.kss.integration.ollama.LoadBalancedOllamaClient;
 import fi.publishertools.kss.integration.ollama.OllamaCacheProperties;
+import fi.publishertools.kss.integration.ollama.OllamaCacheStats;
 import fi.publishertools.kss.integration.ollama.OllamaClient;
+import fi.publishertools.kss.integration.ollama.OllamaClientProperties;
+import fi.publishertools.kss.integration.ollama.OllamaEndpoint;
+import fi.publishertools.kss.integration.ollama.OllamaUnavailablePolicy;
 import fi.publishertools.kss.model.ProcessingContext;
 import fi.publishertools.kss.model.StoredFile;
 import fi.publishertools.kss.phases.C4_AssembleEPUB;
@@ -30,6 +41,7 @@ import fi.publishertools.kss.phases.C1_GenerateXHTML;
 import fi.publishertools.kss.processing.ProcessingPhase;
 import fi.publishertools.kss.processing.ProcessingPipeline;
 import fi.publishertools.kss.processing.ProcessingStatus;
+import fi.publishertools.kss.style.StyleMapCache;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 
@@ -53,20 +65,38 @@ public class ProcessingPipelineService {
     private final PendingAltTextStore pendingAltTextStore;
     private final PendingLangMarkupStore pendingLangMarkupStore;
     private final OllamaCacheProperties ollamaCacheProperties;
+    private final OllamaClientProperties ollamaClientProperties;
+    private final DiagnosticsProperties diagnosticsProperties;
+    private final LangDetectionProperties langDetectionProperties;
+    private final StyleTransitionStore styleTransitionStore;
+    private final LangPrefilterStatsStore langPrefilterStatsStore;
     private ProcessingPipeline pipeline;
+    private CachingOllamaClient cachingOllamaClient;
+    private LoadBalancedOllamaClient loadBalancedOllamaClient;
+    private A1_ExtractStories extractStories;
 
     public ProcessingPipelineService(ProcessingStatusStore statusStore,
                                      ProcessedResultStore resultStore,
                                      PendingMetadataStore pendingMetadataStore,
                                      PendingAltTextStore pendingAltTextStore,
                                      PendingLangMarkupStore pendingLangMarkupStore,
-                                     OllamaCacheProperties ollamaCacheProperties) {
+                                     OllamaCacheProperties ollamaCacheProperties,
+                                     OllamaClientProperties ollamaClientProperties,
+                                     DiagnosticsProperties diagnosticsProperties,
+                                     LangDetectionProperties langDetectionProperties,
+                                     StyleTransitionStore styleTransitionStore,
+                                     LangPrefilterStatsStore langPrefilterStatsStore) {
         this.statusStore = statusStore;
         this.resultStore = resultStore;
         this.pendingMetadataStore = pendingMetadataStore;
         this.pendingAltTextStore = pendingAltTextStore;
         this.pendingLangMarkupStore = pendingLangMarkupStore;
         this.ollamaCacheProperties = ollamaCacheProperties;
+        this.ollamaClientProperties = ollamaClientProperties;
+        this.diagnosticsProperties = diagnosticsProperties;
+        this.langDetectionProperties = langDetectionProperties;
+        this.styleTransitionStore = styleTransitionStore;
+        this.langPrefilterStatsStore = langPrefilterStatsStore;
     }
 
     @PostConstruct
@@ -92,6 +122,15 @@ public class ProcessingPipelineService {
         if (pipeline != null) {
             pipeline.stop();
         }
+        if (cachingOllamaClient != null) {
+            cachingOllamaClient.close();
+        }
+        if (loadBalancedOllamaClient != null) {
+            loadBalancedOllamaClient.close();
+        }
+        if (extractStories != null) {
+            extractStories.close();
+        }
         logger.info("Processing pipeline service shut down");
     }
 
@@ -115,6 +154,13 @@ public class ProcessingPipelineService {
         }
     }
 
+    /**
+     * Counters of the Ollama result cache, or empty if the cache is not enabled.
+     */
+    public Optional<OllamaCacheStats> ollamaCacheStats() {
+        return Optional.ofNullable(cachingOllamaClient).map(CachingOllamaClient::stats);
+    }
+
     /**
      * Re-queue a ProcessingContext for CheckMandatoryInformationPhase (e.g. after user has filled metadata).
      */
@@ -177,16 +223,31 @@ public class ProcessingPipelineService {
         }
     }
 
-    private List<ProcessingPhase> createPhases() {
+    /**
+     * The phases in pipeline order, sharing one Ollama client. Package-private for the load harness, which
+     * runs them on a pipeline of its own.
+     */
+    List<ProcessingPhase> createPhases() {
         OllamaClient ollamaClient = createOllamaClient();
         List<ProcessingPhase> phases = new ArrayList<>();
-        phases.add(new A1_ExtractStories());
+        extractStories = new A1_ExtractStories();
+        phases.add(extractStories);
         phases.add(new A2_ExtractChapters());
         phases.add(new A3_ExtractImageInfo());
-        phases.add(new A4_ResolveContentHierarchy());
+        boolean recordStyleTransitions = diagnosticsProperties != null && diagnosticsProperties.isStyleTransitionsEnabled();
+        phases.add(new A4_ResolveContentHierarchy(new StyleMapCache(),
+                recordStyleTransitions ? styleTransitionStore : null));
         phases.add(new B1_CheckMandatoryInformation());
-        phases.add(new B2_ProposeImageAltTexts(ollamaClient));
-        phases.add(new B3_ProposeLangMarkup(ollamaClient));
+        int maxConcurrentPerJob = ollamaClientProperties != null
+                ? ollamaClientProperties.getMaxConcurrentPerJob()
+                : B2_ProposeImageAltTexts.DEFAULT_MAX_CONCURRENT_PER_JOB;
+        // Without bound properties the policies fall back to the property defaults, which match application.yaml.
+        OllamaClientProperties policies = ollamaClientProperties != null ? ollamaClientProperties : new OllamaClientProperties();
+        OllamaUnavailablePolicy altTextPolicy = policies.getAltTextUnavailablePolicy();
+        OllamaUnavailablePolicy langMarkupPolicy = policies.getLangMarkupUnavailablePolicy();
+        phases.add(new B2_ProposeImageAltTexts(ollamaClient, maxConcurrentPerJob, altTextPolicy));
+        phases.add(new B3_ProposeLangMarkup(ollamaClient, maxConcurrentPerJob, langDetectionProperties,
+                langPrefilterStatsStore, langMarkupPolicy));
         phases.add(new C1_GenerateXHTML());
         phases.add(new C2_GenerateTableOfContents());
         phases.add(new C3_CreatePackageOpf());
@@ -196,16 +257,52 @@ public class ProcessingPipelineService {
         return phases;
     }
 
+    /**
+     * Ollama client shared by B2 and B3, on one HttpClient built from kss.ollama.client. Requests to the
+     * server are capped globally; cache hits do not take a permit. The circuit breaker sits below the cap,
+     * so queued requests fail fast as soon as it opens. With several endpoints configured, requests are
+     * balanced over them with a cap per endpoint, and the breaker sees only outages of all of them.
+     */
     private OllamaClient createOllamaClient() {
+        OllamaClient client = new OllamaClient();
+        if (ollamaClientProperties != null) {
+            HttpClient httpClient = OllamaClient.newHttpClient(ollamaClientProperties);
+            List<OllamaEndpoint> endpoints = ollamaClientProperties.endpointList();
+            if (endpoints.isEmpty()) {
+                client = clientFor(ollamaClientProperties.getBaseUrl(), httpClient);
+                if (ollamaClientProperties.isCircuitBreakerEnabled()) {
+                    client = new CircuitBreakerOllamaClient(client, ollamaClientProperties.circuitBreaker());
+                }
+                client = new ConcurrencyLimitedOllamaClient(client, ollamaClientProperties.getMaxConcurrentRequests());
+            } else {
+                loadBalancedOllamaClient = new LoadBalancedOllamaClient(endpoints,
+                        endpoint -> clientFor(endpoint.baseUrl(), httpClient), httpClient,
+                        ollamaClientProperties.getHealthCheckInterval(),
+                        ollamaClientProperties.getEndpointFailureThreshold()).start();
+                logger.info("Balancing Ollama requests over {} endpoints", endpoints.size());
+                client = loadBalancedOllamaClient;
+                if (ollamaClientProperties.isCircuitBreakerEnabled()) {
+                    client = new CircuitBreakerOllamaClient(client, ollamaClientProperties.circuitBreaker());
+                }
+            }
+        }
         if (ollamaCacheProperties == null || !ollamaCacheProperties.isCacheEnabled()) {
-            return new OllamaClient();
+            return client;
         }
         String rawPath = ollamaCacheProperties.getCachePath();
         if (rawPath == null || rawPath.isBlank()) {
-            return new OllamaClient();
+            return client;
         }
         String resolved = rawPath.trim().replace("~", System.getProperty("user.home", ""));
         Path cacheFile = Paths.get(resolved).normalize();
-        return new CachingOllamaClient(new OllamaClient(), cacheFile);
+        cachingOllamaClient = new CachingOllamaClient(client, cacheFile, ollamaCacheProperties.getCacheMemoryMaxEntries(),
+                ollamaCacheProperties.getCacheDiskMaxEntries(), ollamaCacheProperties.getCacheTtl(),
+                ollamaCacheProperties.getCacheSimilarImageMaxDistance());
+        return cachingOllamaClient;
+    }
+
+    private OllamaClient clientFor(String baseUrl, HttpClient httpClient) {
+        return new OllamaClient(baseUrl, httpClient, ollamaClientProperties.getRequestTimeout(),
+                ollamaClientProperties.altTextLimits(), ollamaClientProperties.imageDownscale());
     }
 }
@@ -0,0 +1,47 @@
+package fi.publishertools.kss.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Values per file id for the most recently stored files only: once more files than the limit are held, the
+ * one stored longest ago is dropped. For diagnostics, which are read after processing has ended and so are
+ * never removed by the pipeline. Thread-safe.
+ */
+final class RecentFileEntries<V> {
+
+    private final Map<String, V> entries;
+
+    RecentFileEntries(int maxFiles) {
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("maxFiles must be positive");
+        }
+        this.entries = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxFiles;
+            }
+        };
+    }
+
+    /**
+     * Stores the value as the newest entry, also when the file already had one.
+     */
+    synchronized void put(String fileId, V value) {
+        entries.remove(fileId);
+        entries.put(fileId, value);
+    }
+
+    synchronized Optional<V> get(String fileId) {
+        return Optional.ofNullable(entries.get(fileId));
+    }
+
+    synchronized Optional<V> remove(String fileId) {
+        return Optional.ofNullable(entries.remove(fileId));
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,43 @@
+package fi.publishertools.kss.service;
+
+import java.util.Optional;
+
+import org.springframework.stereotype.Component;
+
+import fi.publishertools.kss.style.StyleTransitions;
+
+/**
+ * Thread-safe store for style transition statistics recorded per file when diagnostics are enabled.
+ * Only the statistics of the last {@value #DEFAULT_MAX_FILES} files are kept.
+ */
+@Component
+public class StyleTransitionStore {
+
+    public static final int DEFAULT_MAX_FILES = 1000;
+
+    private final RecentFileEntries<StyleTransitions> store;
+
+    public StyleTransitionStore() {
+        this(DEFAULT_MAX_FILES);
+    }
+
+    StyleTransitionStore(int maxFiles) {
+        this.store = new RecentFileEntries<>(maxFiles);
+    }
+
+    public void store(String fileId, StyleTransitions transitions) {
+        store.put(fileId, transitions);
+    }
+
+    public Optional<StyleTransitions> get(String fileId) {
+        return store.get(fileId);
+    }
+
+    public Optional<StyleTransitions> remove(String fileId) {
+        return store.remove(fileId);
+    }
+
+    public int size() {
+        return store.size();
+    }
+}
@@ -0,0 +1,242 @@
+package fi.publishertools.kss.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ChapterNodeVisitor;
+import fi.publishertools.kss.model.content.ChapterNodeWalker;
+import fi.publishertools.kss.model.content.ChapterTrees;
+import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.ImageNode;
+import fi.publishertools.kss.model.content.NodePath;
+
+/**
+ * Text chunks of one chapter tree in document order, with the chunk position of every image and
+ * every language markup occurrence. Built once per pending context; surrounding text for an
+ * occurrence is then read by visiting only the chunks next to it until the length limit is reached,
+ * independent of book size. When a review edit replaces a single container, {@link #replaceContainer}
+ * rescans only that container. Not thread-safe; callers synchronize on the owning context.
+ */
+public final class SurroundingTextIndex {
+
+    /**
+     * Text immediately before and after one occurrence.
+     */
+    public record Surrounding(String textBefore, String textAfter) {
+        static final Surrounding EMPTY = new Surrounding("", "");
+    }
+
+    private List<ChapterNode> chapters;
+    /** Trimmed text of every text leaf; empty chunks are kept so positions stay aligned. */
+    private final List<String> chunks;
+    /** Index path of every text leaf, to find the chunks of a container by binary search. */
+    private final List<int[]> chunkPaths;
+    /** For image k: number of text chunks before it. */
+    private final List<Integer> imagePositions;
+    /** Index path of image k. */
+    private final List<int[]> imagePaths;
+    /** For language markup occurrence k: its own chunk position. */
+    private final List<Integer> langPositions;
+
+    private SurroundingTextIndex(List<ChapterNode> chapters, Entries entries) {
+        this.chapters = chapters;
+        this.chunks = entries.chunks;
+        this.chunkPaths = entries.chunkPaths;
+        this.imagePositions = entries.imagePositions;
+        this.imagePaths = entries.imagePaths;
+        this.langPositions = entries.langPositions;
+    }
+
+    public static SurroundingTextIndex build(List<ChapterNode> chapters) {
+        return new SurroundingTextIndex(chapters, Entries.collect(chapters, new int[0]));
+    }
+
+    /**
+     * True if this index was built for (or last updated to) exactly this chapter list instance.
+     */
+    public boolean isFor(List<ChapterNode> chapters) {
+        return this.chapters == chapters;
+    }
+
+    /**
+     * Records that the container at {@code containerPath} was replaced by {@code newContainer} and that
+     * the resulting tree is {@code newChapters}. Only the container is rescanned; positions after it are
+     * shifted by the change in its chunk count.
+     */
+    public void replaceContainer(int[] containerPath, ChapterNode newContainer, List<ChapterNode> newChapters) {
+        int chunkFrom = lowerBound(chunkPaths, containerPath, false);
+        int chunkTo = lowerBound(chunkPaths, containerPath, true);
+        int imageFrom = lowerBound(imagePaths, containerPath, false);
+        int imageTo = lowerBound(imagePaths, containerPath, true);
+        int langFrom = lowerBound(langPositions, chunkFrom);
+        int langTo = lowerBound(langPositions, chunkTo);
+        Entries replacement = Entries.collect(newContainer.children(), containerPath);
+        int delta = replacement.chunks.size() - (chunkTo - chunkFrom);
+
+        replace(chunks, chunkFrom, chunkTo, replacement.chunks);
+        replace(chunkPaths, chunkFrom, chunkTo, replacement.chunkPaths);
+        replace(imagePaths, imageFrom, imageTo, replacement.imagePaths);
+        replace(imagePositions, imageFrom, imageTo, offset(replacement.imagePositions, chunkFrom));
+        shift(imagePositions, imageFrom + replacement.imagePositions.size(), delta);
+        replace(langPositions, langFrom, langTo, offset(replacement.langPositions, chunkFrom));
+        shift(langPositions, langFrom + replacement.langPositions.size(), delta);
+        this.chapters = newChapters;
+    }
+
+    /**
+     * Text before and after the image at {@code imageIndex} (document order), each at most {@code maxLen} characters.
+     */
+    public Surrounding aroundImage(int imageIndex, int maxLen) {
+        if (imageIndex < 0 || imageIndex >= imagePositions.size()) {
+            return Surrounding.EMPTY;
+        }
+        int pos = imagePositions.get(imageIndex);
+        return new Surrounding(textBefore(pos, maxLen), textAfter(pos, maxLen));
+    }
+
+    /**
+     * Text before and after the language markup occurrence at {@code occurrenceIndex}, each at most {@code maxLen} characters.
+     */
+    public Surrounding aroundLangOccurrence(int occurrenceIndex, int maxLen) {
+        if (occurrenceIndex < 0 || occurrenceIndex >= langPositions.size()) {
+            return Surrounding.EMPTY;
+        }
+        int pos = langPositions.get(occurrenceIndex);
+        return new Surrounding(textBefore(pos, maxLen), textAfter(pos + 1, maxLen));
+    }
+
+    /**
+     * Joins the non-empty chunks just before {@code end}, nearest last, keeping the last {@code maxLen} characters.
+     */
+    private String textBefore(int end, int maxLen) {
+        int length = 0;
+        int start = end;
+        while (start > 0 && length < maxLen) {
+            start--;
+            if (!chunks.get(start).isEmpty()) {
+                length += (length > 0 ? 1 : 0) + chunks.get(start).length();
+            }
+        }
+        String joined = join(start, end);
+        return joined.length() > maxLen ? joined.substring(joined.length() - maxLen).trim() : joined;
+    }
+
+    /**
+     * Joins the non-empty chunks from {@code start} on, keeping the first {@code maxLen} characters.
+     */
+    private String textAfter(int start, int maxLen) {
+        int length = 0;
+        int end = start;
+        while (end < chunks.size() && length < maxLen) {
+            if (!chunks.get(end).isEmpty()) {
+                length += (length > 0 ? 1 : 0) + chunks.get(end).length();
+            }
+            end++;
+        }
+        String joined = join(start, end);
+        return joined.length() > maxLen ? joined.substring(0, maxLen).trim() : joined;
+    }
+
+    private String join(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (!chunks.get(i).isEmpty()) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(chunks.get(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * First position whose path is not before {@code prefix} (or, with {@code pastPrefix}, not
+     * inside the subtree at {@code prefix} either).
+     */
+    private static int lowerBound(List<int[]> paths, int[] prefix, boolean pastPrefix) {
+        int lo = 0;
+        int hi = paths.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = ChapterTrees.compareToPrefix(paths.get(mid), prefix);
+            if (cmp < 0 || (pastPrefix && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * First position whose value is at least {@code value}; {@code positions} is ascending.
+     */
+    private static int lowerBound(List<Integer> positions, int value) {
+        int lo = 0;
+        int hi = positions.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (positions.get(mid) < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static <T> void replace(List<T> list, int from, int to, List<T> replacement) {
+        List<T> range = list.subList(from, to);
+        range.clear();
+        range.addAll(replacement);
+    }
+
+    private static List<Integer> offset(List<Integer> positions, int offset) {
+        List<Integer> result = new ArrayList<>(positions.size());
+        for (int position : positions) {
+            result.add(position + offset);
+        }
+        return result;
+    }
+
+    private static void shift(List<Integer> positions, int from, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        for (int i = from; i < positions.size(); i++) {
+            positions.set(i, positions.get(i) + delta);
+        }
+    }
+
+    /**
+     * Chunks, images and occurrences of a node list, with positions relative to its first chunk.
+     */
+    private record Entries(List<String> chunks, List<int[]> chunkPaths, List<Integer> imagePositions,
+                           List<int[]> imagePaths, List<Integer> langPositions) {
+
+        static Entries collect(List<ChapterNode> nodes, int[] prefix) {
+            Entries entries = new Entries(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(),
+                    new ArrayList<>(), new ArrayList<>());
+            ChapterNodeWalker.walk(nodes, new ChapterNodeVisitor() {
+                @Override
+                public Action enter(ChapterNode node, NodePath path) {
+                    if (node instanceof CharacterStyleRangeNode csr) {
+                        if (csr.language() != null && !csr.language().isBlank()) {
+                            entries.langPositions.add(entries.chunks.size());
+                        }
+                        String t = csr.text();
+                        entries.chunks.add(t != null ? t.trim() : "");
+                        entries.chunkPaths.add(LangMarkupOccurrenceIndex.concat(prefix, path.toIndexArray()));
+                    } else if (node instanceof ImageNode) {
+                        entries.imagePositions.add(entries.chunks.size());
+                        entries.imagePaths.add(LangMarkupOccurrenceIndex.concat(prefix, path.toIndexArray()));
+                    }
+                    return Action.CONTINUE;
+                }
+            });
+            return entries;
+        }
+    }
+}
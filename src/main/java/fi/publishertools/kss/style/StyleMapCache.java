@@ -0,0 +1,71 @@
+package fi.publishertools.kss.style;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fi.publishertools.kss.util.HashUtils;
+
+/**
+ * Bounded LRU cache of resolved {@link StyleMaps} keyed by the SHA-256 of the Styles.xml content.
+ * Publishers reuse the same InDesign templates across a series, so repeat uploads skip
+ * parsing and BasedOn resolution entirely. Thread-safe; parsing happens outside the lock.
+ */
+public class StyleMapCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+
+    private final Map<String, StyleMaps> entries;
+    private long hits;
+    private long misses;
+
+    public StyleMapCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public StyleMapCache(int maxEntries) {
+        int capacity = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StyleMaps> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the resolved style maps for the given Styles.xml content, parsing it only on a cache miss.
+     *
+     * @throws Exception if the content is not parseable XML (failures are not cached)
+     */
+    public StyleMaps get(byte[] stylesXml) throws Exception {
+        if (stylesXml == null || stylesXml.length == 0) {
+            return StyleMaps.EMPTY;
+        }
+        String key = HashUtils.sha256Hex(stylesXml);
+        synchronized (this) {
+            StyleMaps cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        StyleMaps parsed = StyleMaps.parse(stylesXml);
+        synchronized (this) {
+            StyleMaps raced = entries.putIfAbsent(key, parsed);
+            return raced != null ? raced : parsed;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    public synchronized long missCount() {
+        return misses;
+    }
+}
@@ -0,0 +1,186 @@
+package fi.publishertools.kss.style;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import fi.publishertools.kss.util.XmlUtils;
+
+/**
+ * Resolved style simplification map parsed from IDML Resources/Styles.xml.
+ * CharacterStyles map to the root of their BasedOn chain; ParagraphStyles map to their
+ * StyleExportTagMap exportType="EPUB" exportTag, or to the first tag / root found along the BasedOn chain.
+ * Keys and values are last path segments of the IDML style references. Instances are immutable
+ * and safe to share between jobs.
+ */
+public final class StyleMaps {
+
+    public static final StyleMaps EMPTY = new StyleMaps(Collections.emptyMap());
+
+    private static final String ATTR_SELF = "Self";
+    private static final String ATTR_EXPORT_TYPE = "ExportType";
+    private static final String ATTR_EXPORT_TAG = "ExportTag";
+    private static final String EXPORT_TYPE_EPUB = "EPUB";
+
+    private final Map<String, String> styleMap;
+
+    private StyleMaps(Map<String, String> styleMap) {
+        this.styleMap = styleMap;
+    }
+
+    /**
+     * Returns the simplified style for the given IDML style reference, or the reference's
+     * last segment when no mapping exists. Null stays null.
+     */
+    public String simplify(String style) {
+        style = lastSegment(style);
+        if (style == null) {
+            return null;
+        }
+        String mapped = styleMap.get(style);
+        return mapped != null ? mapped : style;
+    }
+
+    /**
+     * Number of styles with a mapping.
+     */
+    public int size() {
+        return styleMap.size();
+    }
+
+    /**
+     * Parses Styles.xml and resolves every BasedOn chain once.
+     */
+    public static StyleMaps parse(byte[] stylesXml) throws Exception {
+        if (stylesXml == null || stylesXml.length == 0) {
+            return EMPTY;
+        }
+        Document stylesDoc = XmlUtils.parseXml(stylesXml);
+        Element root = stylesDoc.getDocumentElement();
+        if (root == null) {
+            return EMPTY;
+        }
+
+        Map<String, String> basedOn = new HashMap<>();
+        Map<String, String> exportTags = new HashMap<>();
+        List<Element> styles = new ArrayList<>(XmlUtils.findElementsByLocalName(root, "CharacterStyle"));
+        int characterStyleCount = styles.size();
+        styles.addAll(XmlUtils.findElementsByLocalName(root, "ParagraphStyle"));
+        for (int i = 0; i < styles.size(); i++) {
+            Element el = styles.get(i);
+            String self = lastSegment(getAttribute(el, ATTR_SELF));
+            if (self == null) {
+                continue;
+            }
+            String parent = lastSegment(findBasedOn(el));
+            if (parent != null && !parent.isEmpty()) {
+                basedOn.put(self, parent);
+            }
+            if (i >= characterStyleCount) {
+                String exportTag = findEpubExportTag(el);
+                if (exportTag != null) {
+                    exportTags.put(self, exportTag);
+                }
+            }
+        }
+        return new StyleMaps(resolve(basedOn, exportTags));
+    }
+
+    /**
+     * Resolves each style to its export tag or BasedOn root. Every chain is walked once:
+     * all styles visited on the way are assigned the final result (path compression), so
+     * later lookups that reach them stop immediately. Cycles resolve to the style where
+     * the cycle was detected.
+     */
+    static Map<String, String> resolve(Map<String, String> basedOn, Map<String, String> exportTags) {
+        Map<String, String> resolved = new HashMap<>(exportTags);
+        List<String> path = new ArrayList<>();
+        for (String start : basedOn.keySet()) {
+            if (resolved.containsKey(start)) {
+                continue;
+            }
+            path.clear();
+            String current = start;
+            String result;
+            while (true) {
+                String known = resolved.get(current);
+                if (known != null) {
+                    result = known;
+                    break;
+                }
+                String parent = basedOn.get(current);
+                if (parent == null || path.contains(current)) {
+                    result = current;
+                    break;
+                }
+                path.add(current);
+                current = parent;
+            }
+            for (String style : path) {
+                resolved.put(style, result);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns the last '/'-separated segment of an IDML style reference without using a regex.
+     * Trailing separators are ignored; a reference consisting only of separators is returned as is.
+     */
+    public static String lastSegment(String style) {
+        if (style == null) {
+            return null;
+        }
+        int end = style.length();
+        while (end > 0 && style.charAt(end - 1) == '/') {
+            end--;
+        }
+        if (end == 0) {
+            return style;
+        }
+        int start = style.lastIndexOf('/', end - 1) + 1;
+        return start == 0 && end == style.length() ? style : style.substring(start, end);
+    }
+
+    /**
+     * Finds BasedOn from a style element. In IDML, BasedOn is a child of Properties, not an attribute.
+     * Structure: CharacterStyle -> Properties -> BasedOn (text content is the parent style Self).
+     */
+    private static String findBasedOn(Element style) {
+        for (Element props : XmlUtils.findElementsByLocalName(style, "Properties")) {
+            for (Element basedOn : XmlUtils.findElementsByLocalName(props, "BasedOn")) {
+                String value = basedOn.getTextContent();
+                if (value != null && !value.trim().isEmpty()) {
+                    return value.trim();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String findEpubExportTag(Element paragraphStyle) {
+        for (Element child : XmlUtils.findElementsByLocalName(paragraphStyle, "StyleExportTagMap")) {
+            String exportType = getAttribute(child, ATTR_EXPORT_TYPE);
+            if (EXPORT_TYPE_EPUB.equals(exportType)) {
+                String exportTag = getAttribute(child, ATTR_EXPORT_TAG);
+                if (exportTag != null && !exportTag.isEmpty()) {
+                    return exportTag;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getAttribute(Element el, String name) {
+        String val = el.getAttribute(name);
+        if (val != null && !val.isEmpty()) {
+            return val;
+        }
+        return el.getAttributeNS(null, name);
+    }
+}
@@ -0,0 +1,51 @@
+package fi.publishertools.kss.style;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-job table of canonical style name instances. A book typically uses a few dozen distinct
+ * styles across hundreds of thousands of nodes; interning lets every node reference the same
+ * String instance instead of carrying its own copy, and caches the last path segment of each
+ * IDML style reference so it is computed (and allocated) once per distinct style.
+ * Not thread-safe; phases of one job run sequentially.
+ */
+public class StyleSymbolTable {
+
+    private final Map<String, String> symbols = new HashMap<>();
+    private final Map<String, String> lastSegments = new HashMap<>();
+
+    /**
+     * Returns the canonical instance equal to the given style name. Null stays null.
+     */
+    public String intern(String style) {
+        if (style == null) {
+            return null;
+        }
+        String canonical = symbols.putIfAbsent(style, style);
+        return canonical != null ? canonical : style;
+    }
+
+    /**
+     * Returns the canonical last '/'-separated segment of the given style reference
+     * (see {@link StyleMaps#lastSegment(String)}), computed once per distinct reference.
+     */
+    public String lastSegment(String style) {
+        if (style == null) {
+            return null;
+        }
+        String segment = lastSegments.get(style);
+        if (segment == null) {
+            segment = intern(StyleMaps.lastSegment(style));
+            lastSegments.put(intern(style), segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Number of distinct style names seen.
+     */
+    public int size() {
+        return symbols.size();
+    }
+}
@@ -0,0 +1,69 @@
+package fi.publishertools.kss.style;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse counts of style-to-style transitions in document order. Only observed
+ * (previous, next) pairs are stored, so memory grows with the number of distinct transitions
+ * rather than with the square of the number of styles. Entering a nested level starts a new
+ * "level-N" pseudo style; leaving it restores the previous style of the enclosing level.
+ * Not thread-safe; one instance is filled by a single phase run and read afterwards.
+ */
+public class StyleTransitions {
+
+    private static final String LEVEL_PREFIX = "level-";
+
+    private final Map<String, Map<String, long[]>> counts = new HashMap<>();
+    private final Deque<String> stack = new ArrayDeque<>();
+    private String previous = LEVEL_PREFIX + 0;
+    private long total;
+
+    public void add(String next) {
+        counts.computeIfAbsent(previous, k -> new HashMap<>())
+                .computeIfAbsent(next, k -> new long[1])[0]++;
+        total++;
+        previous = next;
+    }
+
+    public void push() {
+        stack.push(previous);
+        previous = LEVEL_PREFIX + stack.size();
+    }
+
+    public void pop() {
+        previous = stack.pop();
+    }
+
+    public long count(String from, String to) {
+        Map<String, long[]> row = counts.get(from);
+        long[] count = row != null ? row.get(to) : null;
+        return count != null ? count[0] : 0L;
+    }
+
+    public long totalTransitions() {
+        return total;
+    }
+
+    /**
+     * Returns the observed transitions sorted by source and target style.
+     */
+    public List<Transition> transitions() {
+        List<Transition> result = new ArrayList<>();
+        for (Map.Entry<String, Map<String, long[]>> row : counts.entrySet()) {
+            for (Map.Entry<String, long[]> cell : row.getValue().entrySet()) {
+                result.add(new Transition(row.getKey(), cell.getKey(), cell.getValue()[0]));
+            }
+        }
+        result.sort(Comparator.comparing(Transition::from).thenComparing(Transition::to));
+        return result;
+    }
+
+    public record Transition(String from, String to, long count) {
+    }
+}
@@ -0,0 +1,33 @@
+package fi.publishertools.kss.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utilities for content hashing used as cache keys.
+ */
+public final class HashUtils {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private HashUtils() {
+    }
+
+    /**
+     * Returns the lowercase hex SHA-256 digest of the given bytes.
+     */
+    public static String sha256Hex(byte[] input) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(input);
+            char[] out = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                out[i * 2] = HEX[(digest[i] >> 4) & 0x0f];
+                out[i * 2 + 1] = HEX[digest[i] & 0x0f];
+            }
+            return new String(out);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
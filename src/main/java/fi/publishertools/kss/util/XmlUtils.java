@@ -20,6 +20,11 @@ import org.xml.sax.SAXException;
  */
 public final class XmlUtils {
 
+    /** Bit i is set when character i (below 64) must be escaped in attribute values. */
+    private static final long ATTRIBUTE_ESCAPE_MASK = (1L << '&') | (1L << '<') | (1L << '>') | (1L << '"') | (1L << '\'');
+    /** Bit i is set when character i (below 64) must be escaped in text content. */
+    private static final long TEXT_ESCAPE_MASK = (1L << '&') | (1L << '<') | (1L << '>');
+
     private XmlUtils() {
     }
 
@@ -37,16 +42,170 @@ public final class XmlUtils {
 
     /**
      * Escapes a string for safe use in XML attribute or text content.
+     * Returns the input instance unchanged when it contains nothing to escape.
      */
     public static String escapeXml(String s) {
+        return escapeXmlAttribute(s);
+    }
+
+    /**
+     * Escapes a string for use inside a double- or single-quoted attribute value
+     * ({@code & < > " '}). Returns the input instance unchanged when it contains nothing to escape.
+     */
+    public static String escapeXmlAttribute(String s) {
+        return escape(s, true);
+    }
+
+    /**
+     * Escapes a string for use as element text content ({@code & < >}); quotes are left as is.
+     * Returns the input instance unchanged when it contains nothing to escape.
+     */
+    public static String escapeXmlText(String s) {
+        return escape(s, false);
+    }
+
+    /**
+     * Writes the attribute-escaped form of s to out in a single pass without intermediate strings.
+     * A null value writes nothing.
+     */
+    public static StringBuilder appendEscapedAttribute(StringBuilder out, CharSequence s) {
+        if (s != null) {
+            appendEscaped(out, s, true);
+        }
+        return out;
+    }
+
+    /**
+     * Writes the text-escaped form of s to out in a single pass without intermediate strings.
+     * A null value writes nothing.
+     */
+    public static StringBuilder appendEscapedText(StringBuilder out, CharSequence s) {
+        if (s != null) {
+            appendEscaped(out, s, false);
+        }
+        return out;
+    }
+
+    /**
+     * Appendable variant of {@link #appendEscapedAttribute(StringBuilder, CharSequence)} for writers and streams.
+     */
+    public static <A extends Appendable> A appendEscapedAttribute(A out, CharSequence s) throws java.io.IOException {
+        if (s != null) {
+            appendEscaped(out, s, true);
+        }
+        return out;
+    }
+
+    /**
+     * Appendable variant of {@link #appendEscapedText(StringBuilder, CharSequence)} for writers and streams.
+     */
+    public static <A extends Appendable> A appendEscapedText(A out, CharSequence s) throws java.io.IOException {
+        if (s != null) {
+            appendEscaped(out, s, false);
+        }
+        return out;
+    }
+
+    /**
+     * Scans once to size the output exactly, then copies unescaped runs in bulk with entities in between.
+     */
+    private static String escape(String s, boolean attribute) {
         if (s == null) {
             return "";
         }
-        return s.replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;")
-                .replace("\"", "&quot;")
-                .replace("'", "&apos;");
+        int n = s.length();
+        int first = indexOfEscapable(s, 0, n, attribute);
+        if (first < 0) {
+            return s;
+        }
+        int size = n;
+        for (int i = first; i < n; i++) {
+            char c = s.charAt(i);
+            if (needsEscape(c, attribute)) {
+                size += replacementFor(c, attribute).length() - 1;
+            }
+        }
+        char[] buf = new char[size];
+        s.getChars(0, first, buf, 0);
+        int pos = first;
+        int runStart = first;
+        for (int i = first; i < n; i++) {
+            char c = s.charAt(i);
+            if (needsEscape(c, attribute)) {
+                s.getChars(runStart, i, buf, pos);
+                pos += i - runStart;
+                String replacement = replacementFor(c, attribute);
+                replacement.getChars(0, replacement.length(), buf, pos);
+                pos += replacement.length();
+                runStart = i + 1;
+            }
+        }
+        s.getChars(runStart, n, buf, pos);
+        return new String(buf);
+    }
+
+    private static int indexOfEscapable(CharSequence s, int from, int to, boolean attribute) {
+        for (int i = from; i < to; i++) {
+            if (needsEscape(s.charAt(i), attribute)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies s to out, copying unescaped runs in bulk and replacing special characters.
+     */
+    private static void appendEscaped(StringBuilder out, CharSequence s, boolean attribute) {
+        int n = s.length();
+        int runStart = 0;
+        int i = indexOfEscapable(s, 0, n, attribute);
+        if (i < 0 && s instanceof String str) {
+            out.append(str);
+            return;
+        }
+        while (i >= 0) {
+            out.append(s, runStart, i).append(replacementFor(s.charAt(i), attribute));
+            runStart = i + 1;
+            i = indexOfEscapable(s, runStart, n, attribute);
+        }
+        out.append(s, runStart, n);
+    }
+
+    private static void appendEscaped(Appendable out, CharSequence s, boolean attribute) throws java.io.IOException {
+        int n = s.length();
+        int runStart = 0;
+        int i = indexOfEscapable(s, 0, n, attribute);
+        while (i >= 0) {
+            out.append(s, runStart, i).append(replacementFor(s.charAt(i), attribute));
+            runStart = i + 1;
+            i = indexOfEscapable(s, runStart, n, attribute);
+        }
+        out.append(s, runStart, n);
+    }
+
+    private static boolean needsEscape(char c, boolean attribute) {
+        return c < 64 && ((attribute ? ATTRIBUTE_ESCAPE_MASK : TEXT_ESCAPE_MASK) & (1L << c)) != 0;
+    }
+
+    private static String replacementFor(char c, boolean attribute) {
+        if (c > '>') {
+            return null;
+        }
+        switch (c) {
+            case '&':
+                return "&amp;";
+            case '<':
+                return "&lt;";
+            case '>':
+                return "&gt;";
+            case '"':
+                return attribute ? "&quot;" : null;
+            case '\'':
+                return attribute ? "&apos;" : null;
+            default:
+                return null;
+        }
     }
 
     /**
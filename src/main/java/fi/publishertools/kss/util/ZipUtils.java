@@ -5,6 +5,11 @@ import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.text.Normalizer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -41,6 +46,34 @@ public final class ZipUtils {
         return null;
     }
 
+    /**
+     * Extracts several entries from a ZIP archive in a single pass. Names are normalized like in
+     * {@link #extractEntry}; the result maps each normalized name that was found to its content.
+     * Null or empty names are ignored.
+     */
+    public static Map<String, byte[]> extractEntries(byte[] zipBytes, Collection<String> entryNames) throws IOException {
+        Set<String> wanted = new HashSet<>();
+        for (String entryName : entryNames) {
+            if (entryName != null && !entryName.isEmpty()) {
+                wanted.add(entryName.replace('\\', '/'));
+            }
+        }
+        Map<String, byte[]> result = new HashMap<>();
+        if (wanted.isEmpty()) {
+            return result;
+        }
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipBytes))) {
+            ZipEntry entry;
+            while (result.size() < wanted.size() && (entry = zis.getNextEntry()) != null) {
+                String name = entry.getName().replace('\\', '/');
+                if (wanted.contains(name) && !result.containsKey(name)) {
+                    result.put(name, zis.readAllBytes());
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Decodes percent-encoded characters in a URI (e.g. %20 -> space, %C3%A4 -> ä)
      * and normalizes to NFC form.
@@ -0,0 +1,57 @@
+package fi.publishertools.kss.integration.ollama;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class BoundedCacheTest {
+
+    @Test
+    @DisplayName("size stays bounded and frequently used entries survive a scan of one-off keys")
+    void frequentEntriesSurviveScan() {
+        BoundedCache<String, String> cache = new BoundedCache<>(100, null, new MutableClock());
+        for (int i = 0; i < 50; i++) {
+            cache.put("hot" + i, "value", 0);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                cache.get("hot" + i);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, "value", 0);
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(100);
+        int hotLeft = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("hot" + i) != null) {
+                hotLeft++;
+            }
+        }
+        assertThat(hotLeft).isGreaterThanOrEqualTo(45);
+        assertThat(cache.stats().evictions()).isGreaterThanOrEqualTo(950);
+    }
+
+    @Test
+    @DisplayName("entries expire after the time to live, counted from when they were written")
+    void entriesExpire() {
+        MutableClock clock = new MutableClock();
+        BoundedCache<String, String> cache = new BoundedCache<>(10, Duration.ofMinutes(10), clock);
+        cache.put("fresh", "A", clock.millis());
+        cache.put("loaded", "B", clock.millis() - Duration.ofMinutes(9).toMillis());
+
+        clock.advance(Duration.ofMinutes(2));
+
+        assertThat(cache.get("fresh")).isEqualTo("A");
+        assertThat(cache.get("loaded")).isNull();
+        BoundedCache.Stats stats = cache.stats();
+        assertThat(stats.hits()).isEqualTo(1);
+        assertThat(stats.misses()).isEqualTo(1);
+        assertThat(stats.expirations()).isEqualTo(1);
+        assertThat(stats.size()).isEqualTo(1);
+    }
+}
@@ -2,15 +2,26 @@ package fi.publishertools.kss.integration.ollama;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import javax.imageio.ImageIO;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 class CachingOllamaClientTest {
 
     @TempDir
@@ -108,9 +119,190 @@ class CachingOllamaClientTest {
         assertThat(Files.exists(nonExistent)).isTrue();
     }
 
+    @Test
+    @DisplayName("language detections are cached per text, main language and detection version and reused across instances")
+    void langDetectionCached() {
+        stub.setResult(Optional.of("{\"words\": [\"hello\"]}"));
+        CachingOllamaClient client = new CachingOllamaClient(stub, cacheFile);
+
+        assertThat(client.detectNonMainLanguageWords("Sano hello", "finnish")).hasValue("{\"words\": [\"hello\"]}");
+        assertThat(client.detectNonMainLanguageWords("Sano hello", "finnish")).hasValue("{\"words\": [\"hello\"]}");
+        assertThat(stub.invocationCount()).isEqualTo(1);
+        client.detectNonMainLanguageWords("Sano hello", "swedish");
+        assertThat(stub.invocationCount()).isEqualTo(2);
+
+        CountingStubOllamaClient stub2 = new CountingStubOllamaClient();
+        CachingOllamaClient client2 = new CachingOllamaClient(stub2, cacheFile);
+        assertThat(client2.detectNonMainLanguageWords("Sano hello", "finnish")).hasValue("{\"words\": [\"hello\"]}");
+        assertThat(stub2.invocationCount()).isZero();
+
+        CountingStubOllamaClient otherModel = new CountingStubOllamaClient("other-model/p1");
+        new CachingOllamaClient(otherModel, cacheFile).detectNonMainLanguageWords("Sano hello", "finnish");
+        assertThat(otherModel.invocationCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("batch detection answers cached texts itself and sends only the misses")
+    void batchDetectionSendsOnlyMisses() throws Exception {
+        stub.setResult(Optional.of("{\"a\": [\"hello\"], \"b\": []}"));
+        CachingOllamaClient client = new CachingOllamaClient(stub, cacheFile);
+        client.detectNonMainLanguageWordsBatch(orderedMap("a", "Sano hello", "b", "Hyvää päivää"), "finnish");
+        assertThat(stub.lastBatch()).containsOnlyKeys("a", "b");
+
+        stub.setResult(Optional.of("{\"t3\": [\"merci\"]}"));
+        Optional<String> reply = client.detectNonMainLanguageWordsBatch(
+                orderedMap("t1", "Hyvää päivää", "t2", "Sano hello", "t3", "Kiitos ja merci"), "finnish");
+
+        assertThat(stub.lastBatch()).containsOnlyKeys("t3");
+        JsonNode json = new ObjectMapper().readTree(reply.orElseThrow());
+        assertThat(json.get("t1")).isEmpty();
+        assertThat(json.get("t2").get(0).asText()).isEqualTo("hello");
+        assertThat(json.get("t3").get(0).asText()).isEqualTo("merci");
+
+        int calls = stub.invocationCount();
+        client.detectNonMainLanguageWordsBatch(orderedMap("x", "Kiitos ja merci", "y", "Sano hello"), "finnish");
+        assertThat(stub.invocationCount()).isEqualTo(calls);
+    }
+
+    @Test
+    @DisplayName("a new model or prompt version does not reuse descriptions of the old one")
+    void newVersionMisses() {
+        byte[] imageBytes = new byte[] { 3, 1, 4 };
+        stub.setResult(Optional.of("Old model"));
+        new CachingOllamaClient(stub, cacheFile).describeImage(imageBytes);
+
+        CountingStubOllamaClient upgraded = new CountingStubOllamaClient("stub-model/p2");
+        upgraded.setResult(Optional.of("New model"));
+        CachingOllamaClient client = new CachingOllamaClient(upgraded, cacheFile);
+
+        assertThat(client.describeImage(imageBytes)).hasValue("New model");
+        assertThat(upgraded.invocationCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("expired descriptions are requested again and hits are counted per tier")
+    void expiryAndStats() {
+        MutableClock clock = new MutableClock();
+        byte[] imageBytes = new byte[] { 2, 7, 1 };
+        stub.setResult(Optional.of("Description"));
+        CachingOllamaClient client = new CachingOllamaClient(stub, cacheFile, 10, 0, Duration.ofDays(1), -1, clock);
+
+        client.describeImage(imageBytes);
+        client.describeImage(imageBytes);
+        assertThat(stub.invocationCount()).isEqualTo(1);
+
+        clock.advance(Duration.ofDays(2));
+        client.describeImage(imageBytes);
+        assertThat(stub.invocationCount()).isEqualTo(2);
+
+        OllamaCacheStats stats = client.stats();
+        assertThat(stats.memoryHits()).isEqualTo(1);
+        assertThat(stats.misses()).isEqualTo(2);
+        assertThat(stats.expirations()).isGreaterThanOrEqualTo(1);
+        assertThat(stats.memoryEntries()).isEqualTo(1);
+        client.close();
+    }
+
+    @Test
+    @DisplayName("entries evicted from memory are still served from the cache file")
+    void memoryEvictionFallsBackToDisk() {
+        stub.setResult(Optional.of("Kept on disk"));
+        CachingOllamaClient client = new CachingOllamaClient(stub, cacheFile, 2, 0, null);
+        for (byte i = 0; i < 20; i++) {
+            client.describeImage(new byte[] { i });
+        }
+        assertThat(client.stats().memoryEntries()).isLessThanOrEqualTo(2);
+        assertThat(client.stats().memoryEvictions()).isGreaterThan(0);
+
+        int calls = stub.invocationCount();
+        assertThat(client.describeImage(new byte[] { 0 })).hasValue("Kept on disk");
+        assertThat(stub.invocationCount()).isEqualTo(calls);
+        assertThat(client.stats().diskHits()).isEqualTo(1);
+        client.close();
+    }
+
+    @Test
+    @DisplayName("a near-identical image reuses the description, marked as a similar match also on later exact hits; a different image does not")
+    void similarImageReusesDescription() throws Exception {
+        stub.setResult(Optional.of("Lighthouse at dusk"));
+        CachingOllamaClient client = new CachingOllamaClient(stub, cacheFile);
+        client.describeImage(encode(picture(800, 600, false), "png"));
+
+        ImageDescription reused = client.describeImageDetailedAsync(encode(picture(400, 300, false), "jpeg")).join()
+                .orElseThrow();
+        assertThat(reused.text()).isEqualTo("Lighthouse at dusk");
+        assertThat(reused.similarImage()).isTrue();
+        assertThat(stub.invocationCount()).isEqualTo(1);
+        assertThat(client.stats().similarHits()).isEqualTo(1);
+
+        // The reused description is now stored under that image's own key: an exact hit, still marked.
+        ImageDescription again = client.describeImageDetailedAsync(encode(picture(400, 300, false), "jpeg")).join()
+                .orElseThrow();
+        assertThat(again).isEqualTo(reused);
+        assertThat(client.stats().similarHits()).isEqualTo(1);
+        assertThat(client.stats().memoryHits()).isEqualTo(1);
+
+        stub.setResult(Optional.of("Something else"));
+        ImageDescription other = client.describeImageDetailedAsync(encode(picture(800, 600, true), "png")).join()
+                .orElseThrow();
+        assertThat(other.similarImage()).isFalse();
+        assertThat(stub.invocationCount()).isEqualTo(2);
+
+        CountingStubOllamaClient stub2 = new CountingStubOllamaClient();
+        CachingOllamaClient reopened = new CachingOllamaClient(stub2, cacheFile);
+        assertThat(reopened.describeImageDetailedAsync(encode(picture(640, 480, false), "jpeg")).join())
+                .hasValueSatisfying(d -> assertThat(d.similarImage()).isTrue());
+        assertThat(stub2.invocationCount()).isZero();
+
+        CachingOllamaClient exactOnly = new CachingOllamaClient(stub2, cacheFile, 10, 0, null, -1);
+        exactOnly.describeImage(encode(picture(720, 540, false), "jpeg"));
+        assertThat(stub2.invocationCount()).isEqualTo(1);
+    }
+
+    /**
+     * A gradient with a bright disc; mirrored puts the disc on the other side.
+     */
+    private static BufferedImage picture(int width, int height, boolean mirrored) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double u = mirrored ? 1 - (double) x / width : (double) x / width;
+                double v = (double) y / height;
+                boolean disc = Math.hypot(u - 0.3, v - 0.4) < 0.2;
+                int level = disc ? 240 : (int) (40 + 120 * v + 60 * Math.sin(u * 7));
+                image.setRGB(x, y, (level << 16) | (level << 8) | (level / 2));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, format, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, String> orderedMap(String... idsAndTexts) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < idsAndTexts.length; i += 2) {
+            map.put(idsAndTexts[i], idsAndTexts[i + 1]);
+        }
+        return map;
+    }
+
     private static final class CountingStubOllamaClient extends OllamaClient {
+        private final String version;
         private Optional<String> result = Optional.empty();
         private int invocationCount;
+        private Map<String, String> lastBatch;
+
+        CountingStubOllamaClient() {
+            this("stub-model/p1");
+        }
+
+        CountingStubOllamaClient(String version) {
+            this.version = version;
+        }
 
         void setResult(Optional<String> result) {
             this.result = result;
@@ -120,10 +312,38 @@ class CachingOllamaClientTest {
             return invocationCount;
         }
 
+        Map<String, String> lastBatch() {
+            return lastBatch;
+        }
+
+        @Override
+        public CompletableFuture<Optional<String>> describeImageAsync(byte[] imageContent) {
+            invocationCount++;
+            return CompletableFuture.completedFuture(result);
+        }
+
         @Override
-        public Optional<String> describeImage(byte[] imageContent) {
+        public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
             invocationCount++;
-            return result;
+            return CompletableFuture.completedFuture(result);
+        }
+
+        @Override
+        public CompletableFuture<Optional<String>> detectNonMainLanguageWordsBatchAsync(Map<String, String> textsById,
+                String mainLanguage) {
+            invocationCount++;
+            lastBatch = new LinkedHashMap<>(textsById);
+            return CompletableFuture.completedFuture(result);
+        }
+
+        @Override
+        public String describeImageVersion() {
+            return version;
+        }
+
+        @Override
+        public String langDetectionVersion() {
+            return version;
         }
     }
 }
@@ -0,0 +1,153 @@
+package fi.publishertools.kss.integration.ollama;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerOllamaClientTest {
+
+    private static final CircuitBreakerSettings SETTINGS =
+            new CircuitBreakerSettings(4, 4, 0.5, Duration.ofSeconds(30), 1);
+
+    private StubOllamaClient stub;
+    private MutableClock clock;
+    private CircuitBreakerOllamaClient client;
+
+    @BeforeEach
+    void setUp() {
+        stub = new StubOllamaClient();
+        clock = new MutableClock();
+        client = new CircuitBreakerOllamaClient(stub, SETTINGS, clock);
+    }
+
+    @Test
+    @DisplayName("circuit stays closed below the minimum number of calls")
+    void staysClosedBelowMinimumCalls() {
+        stub.failing = true;
+        for (int i = 0; i < 3; i++) {
+            client.describeImageAsync(new byte[] { 1 }).join();
+        }
+
+        assertThat(client.state()).isEqualTo(CircuitBreakerOllamaClient.State.CLOSED);
+        assertThat(client.isAvailable()).isTrue();
+    }
+
+    @Test
+    @DisplayName("circuit opens at the failure rate and then fails fast without calling the backend")
+    void opensAndFailsFast() {
+        stub.failing = true;
+        client.describeImageAsync(new byte[] { 1 }).join();
+        client.describeImageAsync(new byte[] { 1 }).join();
+        stub.failing = false;
+        client.describeImageAsync(new byte[] { 1 }).join();
+        client.describeImageAsync(new byte[] { 1 }).join();
+
+        assertThat(client.state()).isEqualTo(CircuitBreakerOllamaClient.State.OPEN);
+        assertThat(client.isAvailable()).isFalse();
+        assertThat(client.retryAfter()).isEqualTo(Duration.ofSeconds(30));
+
+        int calls = stub.calls;
+        assertThat(client.detectNonMainLanguageWordsAsync("teksti", "fi").join()).isEmpty();
+        assertThat(stub.calls).isEqualTo(calls);
+
+        clock.advance(Duration.ofSeconds(10));
+        assertThat(client.retryAfter()).isEqualTo(Duration.ofSeconds(20));
+    }
+
+    @Test
+    @DisplayName("a successful probe after the open duration closes the circuit")
+    void probeClosesCircuit() {
+        openCircuit();
+        stub.failing = false;
+        clock.advance(Duration.ofSeconds(30));
+
+        assertThat(client.describeImageAsync(new byte[] { 1 }).join()).contains("Kuvaus");
+        assertThat(client.state()).isEqualTo(CircuitBreakerOllamaClient.State.CLOSED);
+        assertThat(client.isAvailable()).isTrue();
+    }
+
+    @Test
+    @DisplayName("only the configured number of probes is let through while half-open")
+    void limitsProbes() {
+        openCircuit();
+        clock.advance(Duration.ofSeconds(30));
+        CompletableFuture<Optional<String>> pending = new CompletableFuture<>();
+        stub.next = pending;
+
+        CompletableFuture<Optional<String>> probe = client.describeImageAsync(new byte[] { 1 });
+        int calls = stub.calls;
+        assertThat(client.describeImageAsync(new byte[] { 2 }).join()).isEmpty();
+        assertThat(stub.calls).isEqualTo(calls);
+        assertThat(client.state()).isEqualTo(CircuitBreakerOllamaClient.State.HALF_OPEN);
+
+        pending.complete(Optional.of("Kuvaus"));
+        assertThat(probe.join()).contains("Kuvaus");
+        assertThat(client.state()).isEqualTo(CircuitBreakerOllamaClient.State.CLOSED);
+    }
+
+    @Test
+    @DisplayName("a failed probe opens the circuit for another open duration")
+    void failedProbeReopens() {
+        openCircuit();
+        clock.advance(Duration.ofSeconds(30));
+
+        assertThat(client.describeImageAsync(new byte[] { 1 }).join()).isEmpty();
+        assertThat(client.state()).isEqualTo(CircuitBreakerOllamaClient.State.OPEN);
+        assertThat(client.retryAfter()).isEqualTo(Duration.ofSeconds(30));
+    }
+
+    @Test
+    @DisplayName("exceptions from the backend count as failures and are passed on")
+    void exceptionsCountAsFailures() {
+        stub.throwing = true;
+        for (int i = 0; i < 4; i++) {
+            assertThat(client.describeImageAsync(new byte[] { 1 })).isCompletedExceptionally();
+        }
+
+        assertThat(client.state()).isEqualTo(CircuitBreakerOllamaClient.State.OPEN);
+    }
+
+    private void openCircuit() {
+        stub.failing = true;
+        for (int i = 0; i < 4; i++) {
+            client.describeImageAsync(new byte[] { 1 }).join();
+        }
+        assertThat(client.state()).isEqualTo(CircuitBreakerOllamaClient.State.OPEN);
+    }
+
+    private static final class StubOllamaClient extends OllamaClient {
+        boolean failing;
+        boolean throwing;
+        int calls;
+        CompletableFuture<Optional<String>> next;
+
+        @Override
+        public CompletableFuture<Optional<String>> describeImageAsync(byte[] imageContent) {
+            return answer(Optional.of("Kuvaus"));
+        }
+
+        @Override
+        public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
+            return answer(Optional.of("[]"));
+        }
+
+        private CompletableFuture<Optional<String>> answer(Optional<String> success) {
+            calls++;
+            if (throwing) {
+                throw new IllegalStateException("simulated failure");
+            }
+            if (next != null) {
+                CompletableFuture<Optional<String>> pending = next;
+                next = null;
+                return pending;
+            }
+            return CompletableFuture.completedFuture(failing ? Optional.empty() : success);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package fi.publishertools.kss.integration.ollama;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Ollama /api/generate endpoint, for tests and load runs without a model server.
+ * Requests are told apart by what {@link OllamaClient} sends: image descriptions carry {@code images},
+ * batched language detections ask for {@code format: json}, the rest are single detections. Each kind has
+ * its own latency distribution and canned response; a share of requests can be made to fail with HTTP 500.
+ * Streamed requests are answered with one NDJSON line per word, like Ollama does. /api/tags lists the
+ * configured models, by default those {@link OllamaClient} uses; a server set {@link #setDown down} answers
+ * everything with HTTP 503.
+ */
+public final class FakeOllamaServer implements AutoCloseable {
+
+    public enum Kind { DESCRIBE, DETECT, DETECT_BATCH }
+
+    /**
+     * Time to answer one request, drawn per request.
+     */
+    @FunctionalInterface
+    public interface Latency {
+
+        long sampleMillis(SplittableRandom random);
+
+        static Latency none() {
+            return random -> 0;
+        }
+
+        static Latency fixed(long millis) {
+            return random -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return random -> minMillis >= maxMillis ? minMillis : random.nextLong(minMillis, maxMillis + 1);
+        }
+
+        /**
+         * Log-normal around {@code medianMillis}; {@code sigma} 0.5 puts p99 at about 3.2 times the median,
+         * close to what model servers show under load.
+         */
+        static Latency logNormal(long medianMillis, double sigma) {
+            return random -> {
+                // Box-Muller; 1 - nextDouble() keeps the logarithm finite.
+                double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble()))
+                        * Math.cos(2 * Math.PI * random.nextDouble());
+                return Math.round(medianMillis * Math.exp(sigma * gaussian));
+            };
+        }
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Pattern BATCH_TEXT_ID = Pattern.compile("<text id=\"([^\"]+)\">");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<Kind, Latency> latencies;
+    private final Map<Kind, Function<String, String>> responses;
+    private final double errorRate;
+    private final List<String> models;
+    private final AtomicLong seed;
+    private final Map<Kind, AtomicInteger> requestCounts = new EnumMap<>(Kind.class);
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile boolean down;
+
+    private FakeOllamaServer(Builder builder) throws IOException {
+        this.latencies = new EnumMap<>(builder.latencies);
+        this.responses = new EnumMap<>(builder.responses);
+        this.errorRate = builder.errorRate;
+        this.models = List.copyOf(builder.models);
+        this.seed = new AtomicLong(builder.seed);
+        for (Kind kind : Kind.values()) {
+            requestCounts.put(kind, new AtomicInteger());
+        }
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/generate", this::handle);
+        server.createContext("/api/tags", this::handleTags);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int requestCount(Kind kind) {
+        return requestCounts.get(kind).get();
+    }
+
+    public int requestCount() {
+        return requestCounts.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    /**
+     * Requests answered with an injected error.
+     */
+    public int errorCount() {
+        return errorCount.get();
+    }
+
+    public int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * Simulates an outage: while down, every request is answered with HTTP 503 at once.
+     */
+    public void setDown(boolean down) {
+        this.down = down;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (down) {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+            Kind kind = request.has("images") ? Kind.DESCRIBE
+                    : "json".equals(request.path("format").asText()) ? Kind.DETECT_BATCH
+                    : Kind.DETECT;
+            requestCounts.get(kind).incrementAndGet();
+            // Each request draws from its own generator so concurrent requests stay independent.
+            SplittableRandom random = new SplittableRandom(seed.getAndIncrement());
+            Thread.sleep(Math.max(0, latencies.get(kind).sampleMillis(random)));
+            if (random.nextDouble() < errorRate) {
+                errorCount.incrementAndGet();
+                send(exchange, 500, "{\"error\":\"injected failure\"}", "application/json");
+                return;
+            }
+            String response = responses.get(kind).apply(request.path("prompt").asText());
+            if (request.path("stream").asBoolean(true)) {
+                send(exchange, 200, streamed(request, response), "application/x-ndjson");
+            } else {
+                send(exchange, 200, line(request, response, true), "application/json");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } catch (IOException e) {
+            exchange.sendResponseHeaders(400, -1);
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private void handleTags(HttpExchange exchange) throws IOException {
+        try {
+            if (down) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            ObjectNode tags = MAPPER.createObjectNode();
+            ArrayNode list = tags.putArray("models");
+            for (String model : models) {
+                list.addObject().put("name", model).put("model", model);
+            }
+            send(exchange, 200, tags.toString(), "application/json");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String streamed(JsonNode request, String response) {
+        StringBuilder body = new StringBuilder();
+        for (String word : response.split("(?<= )")) {
+            body.append(line(request, word, false)).append('\n');
+        }
+        return body.append(line(request, "", true)).append('\n').toString();
+    }
+
+    private static String line(JsonNode request, String response, boolean done) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("model", request.path("model").asText());
+        node.put("response", response);
+        node.put("done", done);
+        return node.toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String body, String contentType) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Answer for a batched detection: every text id in the prompt with an empty word list.
+     */
+    static String emptyBatchAnswer(String prompt) {
+        ObjectNode answer = MAPPER.createObjectNode();
+        Matcher matcher = BATCH_TEXT_ID.matcher(prompt);
+        while (matcher.find()) {
+            answer.putArray(matcher.group(1));
+        }
+        return answer.toString();
+    }
+
+    public static final class Builder {
+
+        private final Map<Kind, Latency> latencies = new EnumMap<>(Kind.class);
+        private final Map<Kind, Function<String, String>> responses = new EnumMap<>(Kind.class);
+        private double errorRate;
+        private long seed = 42;
+        private List<String> models = List.of(OllamaClient.MODEL, OllamaClient.LANG_DETECTION_MODEL);
+
+        private Builder() {
+            for (Kind kind : Kind.values()) {
+                latencies.put(kind, Latency.none());
+            }
+            responses.put(Kind.DESCRIBE, prompt -> "Kuva, jossa on järvi ja laituri.");
+            responses.put(Kind.DETECT, prompt -> "[]");
+            responses.put(Kind.DETECT_BATCH, FakeOllamaServer::emptyBatchAnswer);
+        }
+
+        /**
+         * Same latency for every kind of request.
+         */
+        public Builder latency(Latency latency) {
+            for (Kind kind : Kind.values()) {
+                latencies.put(kind, latency);
+            }
+            return this;
+        }
+
+        public Builder latency(Kind kind, Latency latency) {
+            latencies.put(kind, latency);
+            return this;
+        }
+
+        /**
+         * Canned response text by prompt.
+         */
+        public Builder response(Kind kind, Function<String, String> response) {
+            responses.put(kind, response);
+            return this;
+        }
+
+        public Builder response(Kind kind, String response) {
+            return response(kind, prompt -> response);
+        }
+
+        /**
+         * Share (0-1) of requests answered with HTTP 500 after their latency.
+         */
+        public Builder errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * Models listed by /api/tags.
+         */
+        public Builder models(String... models) {
+            this.models = List.of(models);
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public FakeOllamaServer start() throws IOException {
+            return new FakeOllamaServer(this);
+        }
+    }
+}
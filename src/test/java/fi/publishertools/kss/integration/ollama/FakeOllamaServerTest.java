@@ -0,0 +1,77 @@
+package fi.publishertools.kss.integration.ollama;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class FakeOllamaServerTest {
+
+    @Test
+    @DisplayName("each kind of request gets its canned response, streamed or not")
+    void answersByKind() throws Exception {
+        try (FakeOllamaServer server = FakeOllamaServer.builder()
+                .response(FakeOllamaServer.Kind.DETECT, prompt -> prompt.contains("hello") ? "[\"hello\"]" : "[]")
+                .start()) {
+            OllamaClient client = new OllamaClient(server.baseUrl(), HttpClient.newHttpClient(), Duration.ofSeconds(5),
+                    new GenerationLimits(120, 300, true));
+            Map<String, String> texts = new LinkedHashMap<>();
+            texts.put("t1", "Hyvää huomenta");
+            texts.put("t2", "Sano hello");
+
+            assertThat(client.describeImage(new byte[] { 1, 2, 3 })).contains("Kuva, jossa on järvi ja laituri.");
+            assertThat(client.detectNonMainLanguageWords("Sano hello", "finnish")).contains("[\"hello\"]");
+            assertThat(client.detectNonMainLanguageWordsBatch(texts, "finnish")).contains("{\"t1\":[],\"t2\":[]}");
+            assertThat(server.requestCount(FakeOllamaServer.Kind.DESCRIBE)).isEqualTo(1);
+            assertThat(server.requestCount(FakeOllamaServer.Kind.DETECT)).isEqualTo(1);
+            assertThat(server.requestCount(FakeOllamaServer.Kind.DETECT_BATCH)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("injected errors reach the client as empty results")
+    void injectsErrors() throws Exception {
+        try (FakeOllamaServer server = FakeOllamaServer.builder().errorRate(1.0).start()) {
+            OllamaClient client = new OllamaClient(server.baseUrl());
+
+            assertThat(client.detectNonMainLanguageWords("Sano hello", "finnish")).isEmpty();
+            assertThat(server.errorCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("requests are answered after the configured latency")
+    void appliesLatency() throws Exception {
+        try (FakeOllamaServer server = FakeOllamaServer.builder()
+                .latency(FakeOllamaServer.Latency.fixed(200))
+                .start()) {
+            OllamaClient client = new OllamaClient(server.baseUrl());
+
+            long start = System.nanoTime();
+            assertThat(client.detectNonMainLanguageWords("Hyvää huomenta", "finnish")).contains("[]");
+            assertThat((System.nanoTime() - start) / 1_000_000).isGreaterThanOrEqualTo(200);
+        }
+    }
+
+    @Test
+    @DisplayName("log-normal latency is centred on its median with a long upper tail")
+    void logNormalLatency() {
+        FakeOllamaServer.Latency latency = FakeOllamaServer.Latency.logNormal(100, 0.5);
+        SplittableRandom random = new SplittableRandom(7);
+        long[] samples = new long[10_001];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = latency.sampleMillis(random);
+        }
+        Arrays.sort(samples);
+
+        assertThat(samples[samples.length / 2]).isBetween(90L, 110L);
+        assertThat(samples[samples.length * 99 / 100]).isBetween(250L, 400L);
+    }
+}
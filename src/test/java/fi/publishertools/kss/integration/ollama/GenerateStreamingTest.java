@@ -0,0 +1,231 @@
+package fi.publishertools.kss.integration.ollama;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+
+class GenerateStreamingTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    @DisplayName("streamed image body is the same JSON as a fully serialized one and has an exact Content-Length")
+    void imageBodyMatchesSerializedJson() throws Exception {
+        Random random = new Random(42);
+        for (int size : new int[] { 1, 2, 3, 4, GenerateRequestBodies.SOURCE_CHUNK, GenerateRequestBodies.SOURCE_CHUNK + 1, 100_000 }) {
+            byte[] image = new byte[size];
+            random.nextBytes(image);
+            ObjectNode fields = MAPPER.createObjectNode();
+            fields.put("model", "qwen3-vl:4b");
+            fields.put("prompt", "Kuvaile \"kuva\"");
+            fields.put("stream", false);
+
+            HttpRequest.BodyPublisher publisher = GenerateRequestBodies.withImage(MAPPER, fields, image);
+            byte[] body = collect(publisher);
+
+            assertThat(publisher.contentLength()).isEqualTo(body.length);
+            JsonNode parsed = MAPPER.readTree(body);
+            assertThat(parsed.get("prompt").asText()).isEqualTo("Kuvaile \"kuva\"");
+            assertThat(parsed.get("stream").asBoolean()).isFalse();
+            assertThat(parsed.get("images")).hasSize(1);
+            assertThat(parsed.get("images").get(0).asText()).isEqualTo(Base64.getEncoder().encodeToString(image));
+        }
+    }
+
+    @Test
+    @DisplayName("response text is read across arbitrary buffer boundaries; nested fields are ignored")
+    void responseParsedIncrementally() throws Exception {
+        String json = "{\"model\":\"m\",\"meta\":{\"response\":\"ei tämä\"},\"response\":\"  Järvi ja \\\"laituri\\\"  \","
+                + "\"done\":true,\"context\":[1,2,3,4,5]}";
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        GenerateResponseSubscriber subscriber = new GenerateResponseSubscriber();
+        subscriber.onSubscribe(new NoOpSubscription());
+        for (int i = 0; i < bytes.length; i += 3) {
+            subscriber.onNext(List.of(ByteBuffer.wrap(bytes, i, Math.min(3, bytes.length - i))));
+        }
+        subscriber.onComplete();
+
+        assertThat(subscriber.getBody().toCompletableFuture().get(1, TimeUnit.SECONDS))
+                .hasValue("Järvi ja \"laituri\"");
+    }
+
+    @Test
+    @DisplayName("malformed or empty response completes without text")
+    void malformedResponse() throws Exception {
+        GenerateResponseSubscriber empty = new GenerateResponseSubscriber();
+        empty.onSubscribe(new NoOpSubscription());
+        empty.onNext(List.of(ByteBuffer.wrap("{\"response\":\"  \"}".getBytes(StandardCharsets.UTF_8))));
+        empty.onComplete();
+        assertThat(empty.getBody().toCompletableFuture().get(1, TimeUnit.SECONDS)).isEmpty();
+
+        GenerateResponseSubscriber broken = new GenerateResponseSubscriber();
+        broken.onSubscribe(new NoOpSubscription());
+        broken.onNext(List.of(ByteBuffer.wrap("{\"response\":".getBytes(StandardCharsets.UTF_8))));
+        broken.onComplete();
+        assertThat(broken.getBody().toCompletableFuture()).isCompletedExceptionally();
+    }
+
+    @Test
+    @DisplayName("streamed reply stops after the first complete sentence and cancels the request")
+    void streamedReplyStopsAtSentenceEnd() throws Exception {
+        List<String> lines = List.of(
+                "{\"response\":\"Järvimaisema, jossa\",\"done\":false}\n",
+                "{\"response\":\" on laituri.\",\"done\":false}\n",
+                "{\"response\":\" Taustalla\",\"done\":false}\n",
+                "{\"response\":\" metsää.\",\"done\":false}\n");
+        CountingSubscription subscription = new CountingSubscription();
+        GenerateResponseSubscriber subscriber = new GenerateResponseSubscriber(new GenerationLimits(120, 300, true));
+        subscriber.onSubscribe(subscription);
+        for (String line : lines) {
+            if (subscription.cancelled) {
+                break;
+            }
+            subscriber.onNext(List.of(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8))));
+        }
+
+        assertThat(subscriber.getBody().toCompletableFuture().get(1, TimeUnit.SECONDS))
+                .hasValue("Järvimaisema, jossa on laituri.");
+        assertThat(subscription.cancelled).isTrue();
+        assertThat(subscription.requested).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("streamed reply without sentence limit is concatenated and cut at a word boundary within the budget")
+    void streamedReplyRespectsCharacterBudget() throws Exception {
+        GenerateResponseSubscriber subscriber = new GenerateResponseSubscriber(new GenerationLimits(0, 20, false));
+        subscriber.onSubscribe(new NoOpSubscription());
+        subscriber.onNext(List.of(ByteBuffer.wrap(
+                "{\"response\":\"Punainen omena \"}\n{\"response\":\"pöydällä ja\"}\n".getBytes(StandardCharsets.UTF_8))));
+
+        assertThat(subscriber.getBody().toCompletableFuture().get(1, TimeUnit.SECONDS)).hasValue("Punainen omena");
+    }
+
+    @Test
+    @DisplayName("streamed reply that stalls after its first fragment completes empty at the request deadline")
+    void stalledStreamHitsDeadline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/generate", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("{\"response\":\"Järvi\",\"done\":false}\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        try {
+            OllamaClient client = new OllamaClient("http://127.0.0.1:" + server.getAddress().getPort(), null,
+                    Duration.ofMillis(500));
+
+            long started = System.nanoTime();
+            Optional<String> description = client.describeImageAsync(new byte[] { 1, 2, 3 }).get(5, TimeUnit.SECONDS);
+
+            assertThat(description).isEmpty();
+            assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(3));
+        } finally {
+            release.countDown();
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("sentence cutoff ignores early abbreviations and waits for the whitespace after the terminator")
+    void cutoffRules() {
+        GenerationLimits limits = new GenerationLimits(0, 0, true);
+        assertThat(limits.cutoff("Esim. kuva", 0)).isEqualTo(-1);
+        assertThat(limits.cutoff("Kuvassa on kaksi lasta.", 0)).isEqualTo(-1);
+        assertThat(limits.cutoff("Kuvassa on kaksi lasta. Ja", 0)).isEqualTo(23);
+        assertThat(limits.cutoff("Hinta on 3.50 euroa tänään", 0)).isEqualTo(-1);
+        assertThat(GenerationLimits.UNLIMITED.cutoff("Mitä tahansa. Pitkää tekstiä.", 0)).isEqualTo(-1);
+    }
+
+    private static byte[] collect(HttpRequest.BodyPublisher publisher) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] chunk = new byte[item.remaining()];
+                item.get(chunk);
+                out.write(chunk, 0, chunk.length);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.get(5, TimeUnit.SECONDS);
+        return out.toByteArray();
+    }
+
+    private static final class CountingSubscription implements Flow.Subscription {
+        long requested;
+        boolean cancelled;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static final class NoOpSubscription implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
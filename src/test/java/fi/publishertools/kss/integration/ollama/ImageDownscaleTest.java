@@ -0,0 +1,55 @@
+package fi.publishertools.kss.integration.ollama;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ImageDownscaleTest {
+
+    @Test
+    @DisplayName("a large PNG is sent as a much smaller JPEG within the maximum edge, keeping its aspect ratio")
+    void largeImageDownscaled() throws Exception {
+        byte[] png = png(3000, 2000, BufferedImage.TYPE_INT_ARGB);
+
+        byte[] sent = ImageDownscale.DEFAULT.apply(png);
+
+        assertThat(sent.length).isLessThan(png.length / 4);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(sent));
+        assertThat(decoded.getWidth()).isEqualTo(1024);
+        assertThat(decoded.getHeight()).isEqualTo(683);
+        assertThat(sent[0] & 0xff).isEqualTo(0xFF);
+        assertThat(sent[1] & 0xff).isEqualTo(0xD8);
+    }
+
+    @Test
+    @DisplayName("undecodable bytes and disabled downscaling send the original")
+    void originalsKept() throws Exception {
+        byte[] notAnImage = "%!PS-Adobe-3.0 EPSF-3.0".getBytes();
+        assertThat(ImageDownscale.DEFAULT.apply(notAnImage)).isSameAs(notAnImage);
+
+        byte[] png = png(300, 200, BufferedImage.TYPE_INT_RGB);
+        assertThat(ImageDownscale.NONE.apply(png)).isSameAs(png);
+    }
+
+    private static byte[] png(int width, int height, int type) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(7);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                image.setRGB(x, y, 0xFF000000 | ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | noise);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return bytes.toByteArray();
+    }
+}
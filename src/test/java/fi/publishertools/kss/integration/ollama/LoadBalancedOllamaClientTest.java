@@ -0,0 +1,176 @@
+package fi.publishertools.kss.integration.ollama;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class LoadBalancedOllamaClientTest {
+
+    private static final String A = "http://a:11434";
+    private static final String B = "http://b:11434";
+
+    @Test
+    @DisplayName("requests go to the endpoint with the fewest outstanding and queue when all are at their cap")
+    void leastOutstandingWithinCaps() {
+        Map<String, StubOllamaClient> stubs = Map.of(A, new StubOllamaClient(), B, new StubOllamaClient());
+        LoadBalancedOllamaClient client = balancer(stubs, new OllamaEndpoint(A, 2, null), new OllamaEndpoint(B, 2, null));
+
+        List<CompletableFuture<Optional<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(client.describeImageAsync(new byte[] { (byte) i }));
+        }
+
+        assertThat(client.outstanding(A)).isEqualTo(2);
+        assertThat(client.outstanding(B)).isEqualTo(2);
+        assertThat(results.get(4)).isNotDone();
+
+        stubs.get(B).completeNext("Kuvaus");
+        assertThat(client.outstanding(B)).isEqualTo(2);
+        assertThat(stubs.get(B).calls).isEqualTo(3);
+        assertThat(results.stream().filter(CompletableFuture::isDone)).hasSize(1);
+
+        stubs.get(A).completeNext("Kuvaus");
+        stubs.get(A).completeNext("Kuvaus");
+        // A now has none outstanding, B two: the next request goes to A.
+        client.describeImageAsync(new byte[] { 9 });
+        assertThat(stubs.get(A).calls).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("endpoints limited to a model role only get requests of that role")
+    void routesByModelRole() {
+        Map<String, StubOllamaClient> stubs = Map.of(A, new StubOllamaClient(), B, new StubOllamaClient());
+        LoadBalancedOllamaClient client = balancer(stubs,
+                new OllamaEndpoint(A, 4, Set.of(OllamaModelRole.VISION)),
+                new OllamaEndpoint(B, 4, Set.of(OllamaModelRole.TEXT)));
+
+        client.describeImageAsync(new byte[] { 1 });
+        client.describeImageAsync(new byte[] { 2 });
+        client.detectNonMainLanguageWordsAsync("teksti", "finnish");
+        client.detectNonMainLanguageWordsBatchAsync(Map.of("t1", "teksti"), "finnish");
+
+        assertThat(stubs.get(A).calls).isEqualTo(2);
+        assertThat(stubs.get(B).calls).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("an endpoint failing requests in a row leaves rotation; without any endpoint requests fail fast")
+    void ejectsFailingEndpoint() {
+        Map<String, StubOllamaClient> stubs = Map.of(A, new StubOllamaClient(), B, new StubOllamaClient());
+        LoadBalancedOllamaClient client = balancer(stubs, new OllamaEndpoint(A, 1, null), new OllamaEndpoint(B, 1, null));
+
+        for (int i = 0; i < 3; i++) {
+            client.describeImageAsync(new byte[] { 1 });
+            client.describeImageAsync(new byte[] { 2 });
+            stubs.get(A).completeNext(null);
+            stubs.get(B).completeNext("Kuvaus");
+        }
+        assertThat(stubs.get(A).calls).isEqualTo(3);
+
+        for (int i = 0; i < 3; i++) {
+            client.describeImageAsync(new byte[] { (byte) i });
+        }
+        assertThat(stubs.get(A).calls).isEqualTo(3);
+        assertThat(stubs.get(B).calls).isEqualTo(4);
+        assertThat(client.isAvailable()).isTrue();
+
+        for (int i = 0; i < 3; i++) {
+            stubs.get(B).completeNext(null);
+        }
+        assertThat(client.isAvailable()).isFalse();
+        assertThat(client.retryAfter()).isEqualTo(Duration.ofSeconds(10));
+        assertThat(client.detectNonMainLanguageWordsAsync("teksti", "finnish").join()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("health checks take unreachable endpoints out, bring them back and route by the models they list")
+    void healthChecks() throws Exception {
+        try (FakeOllamaServer visionAndText = FakeOllamaServer.builder().start();
+                FakeOllamaServer textOnly = FakeOllamaServer.builder().models(OllamaClient.LANG_DETECTION_MODEL).start()) {
+            LoadBalancedOllamaClient client = new LoadBalancedOllamaClient(
+                    List.of(new OllamaEndpoint(visionAndText.baseUrl(), 2, null), new OllamaEndpoint(textOnly.baseUrl(), 2, null)),
+                    endpoint -> new OllamaClient(endpoint.baseUrl()), HttpClient.newHttpClient(),
+                    Duration.ofSeconds(10), 3);
+            client.checkHealth().join();
+
+            for (int i = 0; i < 4; i++) {
+                assertThat(client.describeImageAsync(new byte[] { (byte) i }).join()).isPresent();
+            }
+            assertThat(visionAndText.requestCount(FakeOllamaServer.Kind.DESCRIBE)).isEqualTo(4);
+            assertThat(textOnly.requestCount(FakeOllamaServer.Kind.DESCRIBE)).isZero();
+
+            visionAndText.setDown(true);
+            client.checkHealth().join();
+            assertThat(client.isAvailable()).isFalse();
+            assertThat(client.isAvailable(OllamaModelRole.VISION)).isFalse();
+            assertThat(client.retryAfter(OllamaModelRole.VISION)).isEqualTo(Duration.ofSeconds(10));
+            assertThat(client.isAvailable(OllamaModelRole.TEXT)).isTrue();
+            assertThat(client.retryAfter(OllamaModelRole.TEXT)).isZero();
+            assertThat(client.describeImageAsync(new byte[] { 1 }).join()).isEmpty();
+            assertThat(client.detectNonMainLanguageWordsAsync("teksti", "finnish").join()).contains("[]");
+
+            visionAndText.setDown(false);
+            client.checkHealth().join();
+            assertThat(client.isAvailable()).isTrue();
+            assertThat(client.describeImageAsync(new byte[] { 1 }).join()).isPresent();
+        }
+    }
+
+    @Test
+    @DisplayName("at least one endpoint is required")
+    void requiresEndpoints() {
+        assertThatThrownBy(() -> new LoadBalancedOllamaClient(List.of(), endpoint -> new OllamaClient(), null,
+                Duration.ZERO, 3)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static LoadBalancedOllamaClient balancer(Map<String, StubOllamaClient> stubs, OllamaEndpoint... endpoints) {
+        return new LoadBalancedOllamaClient(List.of(endpoints), endpoint -> stubs.get(endpoint.baseUrl()), null,
+                Duration.ofSeconds(10), 3);
+    }
+
+    /**
+     * Answers each request when the test completes it, in order.
+     */
+    private static final class StubOllamaClient extends OllamaClient {
+        private final List<CompletableFuture<Optional<String>>> pending = new ArrayList<>();
+        int calls;
+
+        void completeNext(String response) {
+            pending.remove(0).complete(Optional.ofNullable(response));
+        }
+
+        @Override
+        public CompletableFuture<Optional<String>> describeImageAsync(byte[] imageContent) {
+            return answer();
+        }
+
+        @Override
+        public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
+            return answer();
+        }
+
+        @Override
+        public CompletableFuture<Optional<String>> detectNonMainLanguageWordsBatchAsync(Map<String, String> textsById,
+                String mainLanguage) {
+            return answer();
+        }
+
+        private CompletableFuture<Optional<String>> answer() {
+            calls++;
+            CompletableFuture<Optional<String>> response = new CompletableFuture<>();
+            pending.add(response);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package fi.publishertools.kss.integration.ollama;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OllamaCacheStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("entries are appended as log records and read back after reopening")
+    void entriesSurviveReopen() throws Exception {
+        Path file = tempDir.resolve("cache.json");
+        try (OllamaCacheStore store = OllamaCacheStore.open(file)) {
+            store.put("a", "Järvi");
+            store.put("b", "Metsä \"ja\" polku");
+            assertThat(store.get("a").value()).isEqualTo("Järvi");
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertThat(lines).first().isEqualTo(OllamaCacheStore.HEADER);
+        assertThat(lines).hasSize(3);
+        try (OllamaCacheStore reopened = OllamaCacheStore.open(file)) {
+            assertThat(reopened.get("b").value()).isEqualTo("Metsä \"ja\" polku");
+            assertThat(reopened.size()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    @DisplayName("opening the same file twice shares one store")
+    void sameFileSharesStore() {
+        Path file = tempDir.resolve("shared.log");
+        try (OllamaCacheStore first = OllamaCacheStore.open(file);
+                OllamaCacheStore second = OllamaCacheStore.open(tempDir.resolve(".").resolve("shared.log"))) {
+            assertThat(second).isSameAs(first);
+        }
+    }
+
+    @Test
+    @DisplayName("an old single-object JSON cache is migrated to the log format")
+    void legacyJsonMigrated() throws Exception {
+        Path file = tempDir.resolve("legacy.json");
+        Files.writeString(file, "{\n  \"h1\" : \"Kuvaus yksi\",\n  \"h2\" : \"Kuvaus kaksi\"\n}", StandardCharsets.UTF_8);
+
+        try (OllamaCacheStore store = OllamaCacheStore.open(file)) {
+            assertThat(store.get("h1").value()).isEqualTo("Kuvaus yksi");
+            assertThat(store.get("h2").value()).isEqualTo("Kuvaus kaksi");
+        }
+        assertThat(Files.readAllLines(file, StandardCharsets.UTF_8)).first().isEqualTo(OllamaCacheStore.HEADER);
+    }
+
+    @Test
+    @DisplayName("a torn last record is skipped and later records start on a new line")
+    void tornRecordSkipped() throws Exception {
+        Path file = tempDir.resolve("torn.log");
+        Files.writeString(file, OllamaCacheStore.HEADER + "\n{\"k\":\"a\",\"v\":\"A\"}\n{\"k\":\"b\",\"v\":\"B",
+                StandardCharsets.UTF_8);
+
+        try (OllamaCacheStore store = OllamaCacheStore.open(file)) {
+            assertThat(store.get("a").value()).isEqualTo("A");
+            assertThat(store.get("b")).isNull();
+            store.put("c", "C");
+        }
+        try (OllamaCacheStore store = OllamaCacheStore.open(file)) {
+            assertThat(store.get("a").value()).isEqualTo("A");
+            assertThat(store.get("c").value()).isEqualTo("C");
+        }
+    }
+
+    @Test
+    @DisplayName("a log of mostly superseded records is compacted to the live entries")
+    void staleLogCompacted() throws Exception {
+        Path file = tempDir.resolve("compact.log");
+        try (OllamaCacheStore store = OllamaCacheStore.open(file)) {
+            for (int i = 0; i < OllamaCacheStore.COMPACT_MIN_RECORDS + 10; i++) {
+                store.put("same", "value " + i);
+            }
+            store.put("other", "kept");
+            store.tick();
+
+            assertThat(Files.readAllLines(file)).hasSize(3);
+            store.put("after", "appended");
+        }
+        try (OllamaCacheStore store = OllamaCacheStore.open(file)) {
+            assertThat(store.get("same").value()).isEqualTo("value " + (OllamaCacheStore.COMPACT_MIN_RECORDS + 9));
+            assertThat(store.get("other").value()).isEqualTo("kept");
+            assertThat(store.get("after").value()).isEqualTo("appended");
+        }
+    }
+
+    @Test
+    @DisplayName("entries older than the time to live are misses, also after reopening")
+    void expiredEntriesMiss() {
+        Path file = tempDir.resolve("ttl.log");
+        MutableClock clock = new MutableClock();
+        try (OllamaCacheStore store = OllamaCacheStore.open(file, 0, Duration.ofDays(1), clock)) {
+            store.put("old", "Vanha");
+            clock.advance(Duration.ofHours(12));
+            store.put("new", "Uusi");
+            store.flush();
+            clock.advance(Duration.ofHours(13));
+
+            assertThat(store.get("old")).isNull();
+            assertThat(store.get("new").value()).isEqualTo("Uusi");
+            assertThat(store.expirations()).isEqualTo(1);
+        }
+        try (OllamaCacheStore store = OllamaCacheStore.open(file, 0, Duration.ofDays(1), clock)) {
+            assertThat(store.get("old")).isNull();
+            assertThat(store.size()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("beyond the entry limit the oldest entries are dropped")
+    void oldestDroppedBeyondLimit() {
+        Path file = tempDir.resolve("bounded.log");
+        MutableClock clock = new MutableClock();
+        try (OllamaCacheStore store = OllamaCacheStore.open(file, 2, null, clock)) {
+            for (String key : List.of("a", "b", "c")) {
+                store.put(key, key.toUpperCase());
+                clock.advance(Duration.ofSeconds(1));
+            }
+            store.tick();
+
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(store.get("a")).isNull();
+            assertThat(store.get("c").value()).isEqualTo("C");
+            assertThat(store.evictions()).isEqualTo(1);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package fi.publishertools.kss.langid;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class LanguagePrefilterTest {
+
+    private final LanguagePrefilter prefilter = new LanguagePrefilter(LanguagePrefilter.DEFAULT_THRESHOLD);
+
+    @Test
+    @DisplayName("plain Finnish sentences outside the bundled sample need no detection")
+    void plainFinnishSkipped() {
+        assertThat(prefilter.needsDetection("Kesäkuun alussa perheemme muutti uuteen asuntoon lähelle keskustaa.", "finnish")).isFalse();
+        assertThat(prefilter.needsDetection("Hänen veljensä työskenteli pitkään sairaalassa ja myöhemmin yliopistolla tutkijana.", "fi")).isFalse();
+        assertThat(prefilter.needsDetection("Tietokoneohjelmisto päivitettiin viikonloppuna, eikä käyttäjien tarvinnut tehdä mitään.", "fi-FI")).isFalse();
+        assertThat(prefilter.needsDetection("Kuinka monta kertaa olen sanonut, että ovi pitää sulkea?", "suomi")).isFalse();
+    }
+
+    @Test
+    @DisplayName("runs with foreign words, foreign letters or other scripts need detection")
+    void foreignContentDetected() {
+        assertThat(prefilter.needsDetection("Hän sanoi thank you ja lähti.", "finnish")).isTrue();
+        assertThat(prefilter.needsDetection("Kokouksessa puhuttiin ohjelmasta nimeltä Sehnsucht.", "finnish")).isTrue();
+        assertThat(prefilter.needsDetection("Ravintolan nimi oli Café Déjà.", "finnish")).isTrue();
+        assertThat(prefilter.needsDetection("Hän kirjoitti sanan Москва taululle.", "finnish")).isTrue();
+    }
+
+    @Test
+    @DisplayName("runs without letters are skipped; unknown main languages always need detection")
+    void edgeCases() {
+        assertThat(prefilter.needsDetection("12.3.2024 – 45 %", "finnish")).isFalse();
+        assertThat(prefilter.supports("estonian")).isFalse();
+        assertThat(prefilter.needsDetection("Tere hommikust", "estonian")).isTrue();
+        assertThat(LanguagePrefilter.words("Hän's ÄITI-kulta")).containsExactly("hän", "s", "äiti", "kulta");
+    }
+
+    @Test
+    @DisplayName("a higher threshold lets more borderline words pass as main language")
+    void thresholdIsTunable() {
+        String text = "Hän sanoi danke ja lähti.";
+        assertThat(new LanguagePrefilter(0.5).needsDetection(text, "finnish")).isTrue();
+        assertThat(new LanguagePrefilter(5.0).needsDetection(text, "finnish")).isFalse();
+    }
+}
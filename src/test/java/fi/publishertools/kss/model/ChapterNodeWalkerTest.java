@@ -0,0 +1,93 @@
+package fi.publishertools.kss.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ChapterNodeVisitor;
+import fi.publishertools.kss.model.content.ChapterNodeWalker;
+import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.ImageNode;
+import fi.publishertools.kss.model.content.NodePath;
+import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
+import fi.publishertools.kss.model.content.StoryNode;
+
+class ChapterNodeWalkerTest {
+
+    private static List<ChapterNode> tree() {
+        return List.of(
+                new StoryNode(List.of(
+                        new ParagraphStyleRangeNode(List.of(
+                                new CharacterStyleRangeNode("a", null, null),
+                                new ImageNode(null, "b.jpg", null, null, null)), "p"),
+                        new CharacterStyleRangeNode("c", null, null)), "h1"),
+                new CharacterStyleRangeNode("d", null, null));
+    }
+
+    private static String label(ChapterNode node) {
+        if (node instanceof CharacterStyleRangeNode csr) {
+            return csr.text();
+        }
+        if (node instanceof ImageNode img) {
+            return img.fileName();
+        }
+        return node.appliedStyle();
+    }
+
+    @Test
+    @DisplayName("enter is pre-order, leave is post-order, and paths track indices and parents")
+    void preAndPostOrderWithPaths() {
+        List<String> events = new ArrayList<>();
+        boolean completed = ChapterNodeWalker.walk(tree(), new ChapterNodeVisitor() {
+            @Override
+            public Action enter(ChapterNode node, NodePath path) {
+                String parent = path.parent() != null ? label(path.parent()) : "-";
+                events.add("+" + label(node) + path + parent);
+                return Action.CONTINUE;
+            }
+
+            @Override
+            public Action leave(ChapterNode node, NodePath path) {
+                events.add("/" + label(node));
+                return Action.CONTINUE;
+            }
+        });
+
+        assertThat(completed).isTrue();
+        assertThat(events).containsExactly(
+                "+h1[0]-", "+p[0, 0]h1", "+a[0, 0, 0]p", "/a", "+b.jpg[0, 0, 1]p", "/b.jpg", "/p",
+                "+c[0, 1]h1", "/c", "/h1", "+d[1]-", "/d");
+    }
+
+    @Test
+    @DisplayName("SKIP_CHILDREN skips the subtree but still leaves the node; STOP ends the walk")
+    void skipAndStop() {
+        List<String> entered = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        boolean completed = ChapterNodeWalker.walk(tree(), new ChapterNodeVisitor() {
+            @Override
+            public Action enter(ChapterNode node, NodePath path) {
+                entered.add(label(node));
+                if (node instanceof ParagraphStyleRangeNode) {
+                    return Action.SKIP_CHILDREN;
+                }
+                return "c".equals(label(node)) ? Action.STOP : Action.CONTINUE;
+            }
+
+            @Override
+            public Action leave(ChapterNode node, NodePath path) {
+                left.add(label(node));
+                return Action.CONTINUE;
+            }
+        });
+
+        assertThat(completed).isFalse();
+        assertThat(entered).containsExactly("h1", "p", "c");
+        assertThat(left).containsExactly("p");
+    }
+}
@@ -0,0 +1,61 @@
+package fi.publishertools.kss.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.ChapterTrees;
+import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
+import fi.publishertools.kss.model.content.StoryNode;
+
+class ChapterTreesTest {
+
+    private static List<ChapterNode> tree() {
+        return List.of(
+                new StoryNode(List.of(
+                        new ParagraphStyleRangeNode(List.of(new CharacterStyleRangeNode("a", null, null)), "p"),
+                        new ParagraphStyleRangeNode(List.of(new CharacterStyleRangeNode("b", null, "en")), "p")), "h1"),
+                new StoryNode(List.of(
+                        new ParagraphStyleRangeNode(List.of(new CharacterStyleRangeNode("c", null, null)), "p")), "h1"));
+    }
+
+    @Test
+    @DisplayName("container children are stored once and not copied on access")
+    void childrenAreNotCopied() {
+        ChapterNode story = tree().get(0);
+        assertThat(story.children()).isSameAs(story.children());
+    }
+
+    @Test
+    @DisplayName("replaceChildren copies only the path to the edited container")
+    void pathCopyingSharesUntouchedSubtrees() {
+        List<ChapterNode> before = tree();
+        ChapterTrees.Edit edit = ChapterTrees.replaceChildren(before, new int[] { 0, 1 },
+                List.of(new CharacterStyleRangeNode("b", null, null)));
+
+        List<ChapterNode> after = edit.roots();
+        assertThat(after).isNotSameAs(before);
+        assertThat(after.get(1)).isSameAs(before.get(1));
+        assertThat(after.get(0)).isNotSameAs(before.get(0));
+        assertThat(after.get(0).children().get(0)).isSameAs(before.get(0).children().get(0));
+        assertThat(after.get(0).children().get(1)).isSameAs(edit.container());
+        assertThat(edit.container().appliedStyle()).isEqualTo("p");
+        assertThat(((CharacterStyleRangeNode) edit.container().children().get(0)).language()).isNull();
+        assertThat(((CharacterStyleRangeNode) ChapterTrees.nodeAt(before, new int[] { 0, 1, 0 })).language()).isEqualTo("en");
+    }
+
+    @Test
+    @DisplayName("invalid paths are rejected")
+    void invalidPaths() {
+        assertThat(ChapterTrees.nodeAt(tree(), new int[] { 5 })).isNull();
+        assertThat(ChapterTrees.nodeAt(tree(), new int[] { 0, 0, 0, 0 })).isNull();
+        assertThatThrownBy(() -> ChapterTrees.replaceChildren(tree(), new int[] { 0, 0, 0 }, List.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
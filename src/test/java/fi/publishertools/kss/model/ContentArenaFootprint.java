@@ -0,0 +1,99 @@
+package fi.publishertools.kss.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.ContentArena;
+import fi.publishertools.kss.model.content.ImageNode;
+import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
+import fi.publishertools.kss.model.content.StoryNode;
+
+/**
+ * Measures the heap a text-heavy book's content tree retains as ChapterNode objects and as a
+ * {@link ContentArena}: builds several copies of a generated book in each form, and compares heap in use
+ * after full collections.
+ * <p>
+ * Run from the project root after {@code mvn test-compile}:
+ * <pre>
+ * java -Xmx2g -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" \
+ *     fi.publishertools.kss.model.ContentArenaFootprint [copies] [stories] [paragraphs per story]
+ * </pre>
+ */
+public final class ContentArenaFootprint {
+
+    private static final String[] RUNS = {
+            "Suomen kielessä on viisitoista sijamuotoa, ja sanojen taivutus tapahtuu päätteiden avulla. ",
+            "Kirjan ensimmäinen luku kertoo, miten järvimaisema muuttui jääkauden jälkeen. ",
+            "joie de vivre",
+            " – sanoi hän ja jatkoi matkaa kohti rantaa.",
+    };
+
+    private ContentArenaFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int copies = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int stories = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int paragraphs = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        long base = usedAfterGc();
+        List<List<ChapterNode>> trees = new ArrayList<>();
+        for (int i = 0; i < copies; i++) {
+            trees.add(book(stories, paragraphs));
+        }
+        long nodeBytes = (usedAfterGc() - base) / copies;
+        int nodeCount = ContentArena.fromNodes(trees.get(0)).nodeCount();
+        int chars = ContentArena.fromNodes(trees.get(0)).textCharCount();
+        trees = null;
+
+        base = usedAfterGc();
+        List<ContentArena> arenas = new ArrayList<>();
+        for (int i = 0; i < copies; i++) {
+            arenas.add(ContentArena.fromNodes(book(stories, paragraphs)));
+        }
+        long arenaBytes = (usedAfterGc() - base) / arenas.size();
+
+        System.out.printf(Locale.ROOT, "book: %d nodes, %d text characters%n", nodeCount, chars);
+        System.out.printf(Locale.ROOT, "ChapterNode tree: %,d bytes (%.1f per node)%n", nodeBytes,
+                (double) nodeBytes / nodeCount);
+        System.out.printf(Locale.ROOT, "ContentArena:     %,d bytes (%.1f per node), %.0f%% of the tree%n", arenaBytes,
+                (double) arenaBytes / nodeCount, 100.0 * arenaBytes / nodeBytes);
+    }
+
+    /**
+     * Stories of paragraphs of four text runs, one in French, and an image every tenth paragraph. Every
+     * text is its own String, as when parsed from IDML.
+     */
+    static List<ChapterNode> book(int stories, int paragraphs) {
+        List<ChapterNode> book = new ArrayList<>();
+        for (int s = 0; s < stories; s++) {
+            List<ChapterNode> story = new ArrayList<>();
+            for (int p = 0; p < paragraphs; p++) {
+                List<ChapterNode> runs = new ArrayList<>();
+                for (int r = 0; r < RUNS.length; r++) {
+                    runs.add(new CharacterStyleRangeNode(new String(RUNS[r] + p), "CharacterStyle/Body",
+                            r == 2 ? "fr" : null));
+                }
+                if (p % 10 == 9) {
+                    runs.add(new ImageNode("Links/kuva" + p + ".jpg", "kuva" + p + ".jpg", "jpg", null, null));
+                }
+                story.add(new ParagraphStyleRangeNode(runs, "ParagraphStyle/Body"));
+            }
+            book.add(new StoryNode(story, "TOCStyle/Chapter"));
+        }
+        return book;
+    }
+
+    private static long usedAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
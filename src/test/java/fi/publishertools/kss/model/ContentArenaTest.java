@@ -0,0 +1,117 @@
+package fi.publishertools.kss.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.ContentArena;
+import fi.publishertools.kss.model.content.ImageNode;
+import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
+import fi.publishertools.kss.model.content.StoryNode;
+
+class ContentArenaTest {
+
+    private static final ImageNode IMAGE = new ImageNode(null, "kuva.jpg", "jpg", "Figure", "Järvi");
+
+    private static List<ChapterNode> sampleTree() {
+        return List.of(
+                new StoryNode(List.of(
+                        new ParagraphStyleRangeNode(List.of(
+                                new CharacterStyleRangeNode("Hyvää ", "Body", null),
+                                new CharacterStyleRangeNode("bonjour", "Body", "fr"),
+                                new CharacterStyleRangeNode(" – ”lainaus”", "Body", null)), "p"),
+                        new ParagraphStyleRangeNode(List.of(IMAGE), "p")), "h1"),
+                new StoryNode(List.of(), null));
+    }
+
+    @Test
+    @DisplayName("pre-order layout exposes parent, child and sibling navigation")
+    void navigation() {
+        ContentArena arena = ContentArena.fromNodes(sampleTree());
+
+        assertThat(arena.nodeCount()).isEqualTo(8);
+        assertThat(arena.firstRoot()).isZero();
+        assertThat(arena.kind(0)).isEqualTo(ContentArena.KIND_STORY);
+        assertThat(arena.subtreeSize(0)).isEqualTo(7);
+        assertThat(arena.childCount(0)).isEqualTo(2);
+        assertThat(arena.firstChild(0)).isEqualTo(1);
+        assertThat(arena.nextSibling(1)).isEqualTo(5);
+        assertThat(arena.nextSibling(5)).isEqualTo(ContentArena.NONE);
+        assertThat(arena.nextSibling(0)).isEqualTo(7);
+        assertThat(arena.firstChild(7)).isEqualTo(ContentArena.NONE);
+        assertThat(arena.parent(3)).isEqualTo(1);
+        assertThat(arena.parent(0)).isEqualTo(ContentArena.NONE);
+    }
+
+    @Test
+    @DisplayName("text, styles and languages are read from the shared buffers and symbol table")
+    void payloads() {
+        ContentArena arena = ContentArena.fromNodes(sampleTree());
+
+        assertThat(arena.text(2)).isEqualTo("Hyvää ");
+        assertThat(arena.textView(3).toString()).isEqualTo("bonjour");
+        assertThat(arena.appendText(2, new StringBuilder()).append('|')).hasToString("Hyvää |");
+        assertThat(arena.language(3)).isEqualTo("fr");
+        assertThat(arena.language(2)).isNull();
+        assertThat(arena.appliedStyle(2)).isSameAs(arena.appliedStyle(3));
+        assertThat(arena.appliedStyle(7)).isNull();
+        assertThat(arena.text(1)).isNull();
+        assertThat(arena.image(6)).isSameAs(IMAGE);
+        assertThat(arena.textCharCount()).isEqualTo("Hyvää bonjour – ”lainaus”".length());
+        // Outside Latin-1: kept in the two-byte buffer.
+        assertThat(arena.text(4)).isEqualTo(" – ”lainaus”");
+        assertThat(arena.textView(4).toString()).isEqualTo(" – ”lainaus”");
+        assertThat(arena.appendText(4, new StringBuilder("x"))).hasToString("x – ”lainaus”");
+        assertThat(arena.textView(2).subSequence(1, 5).toString()).isEqualTo("yvää");
+    }
+
+    @Test
+    @DisplayName("round trip back to ChapterNode preserves the tree")
+    void roundTrip() {
+        List<ChapterNode> original = sampleTree();
+        List<ChapterNode> restored = ContentArena.fromNodes(original).toNodes();
+
+        assertThat(restored).isEqualTo(original);
+        assertThat(restored.get(0).children().get(1).children().get(0)).isSameAs(IMAGE);
+        assertThat(ContentArena.fromNodes(null).toNodes()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("a context holds a compacted tree until it is asked for nodes again")
+    void contextStoredForm() {
+        ProcessingContext context = new ProcessingContext(
+                new StoredFile("f1", "kirja.idml", "application/zip", 0L, Instant.now(), new byte[0]));
+        List<ChapterNode> original = sampleTree();
+        context.setChapters(original);
+
+        context.compactChapters();
+        ContentArena arena = context.getContentArena();
+        assertThat(arena.nodeCount()).isEqualTo(8);
+        assertThat(context.getContentArena()).isSameAs(arena);
+
+        List<ChapterNode> restored = context.getChapters();
+        assertThat(restored).isEqualTo(original).isNotSameAs(original);
+        assertThat(context.getChapters()).isSameAs(restored);
+
+        context.setChapters(null);
+        assertThat(context.getContentArena()).isNull();
+    }
+
+    @Test
+    @DisplayName("JSON of an arena is the JSON of its nodes")
+    void serializesAsNodes() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+
+        assertThat(mapper.writeValueAsString(ContentArena.fromNodes(sampleTree())))
+                .isEqualTo(mapper.writerFor(mapper.getTypeFactory().constructCollectionType(List.class, ChapterNode.class))
+                        .writeValueAsString(sampleTree()));
+    }
+}
@@ -0,0 +1,126 @@
+package fi.publishertools.kss.processing.phases;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import fi.publishertools.kss.model.ProcessingContext;
+import fi.publishertools.kss.model.StoredFile;
+import fi.publishertools.kss.phases.A1_ExtractStories;
+
+class A1_ExtractStoriesTest {
+
+    private static final String CONTAINER_XML = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <container xmlns="urn:oasis:names:tc:opendocument:xmlns:container" version="1.0">
+              <rootfiles>
+                <rootfile full-path="designmap.xml" media-type="text/xml"/>
+              </rootfiles>
+            </container>
+            """;
+
+    @Test
+    @DisplayName("stories parsed in parallel keep designmap order")
+    void keepsDesignmapOrder() throws Exception {
+        List<String> storyNames = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            storyNames.add("Stories/Story_u" + i + ".xml");
+        }
+        ProcessingContext context = createContext(createIdml(storyNames, storyNames));
+
+        try (A1_ExtractStories phase = new A1_ExtractStories(4)) {
+            phase.process(context);
+        }
+
+        List<Document> stories = context.getStoriesList();
+        assertThat(stories).hasSize(40);
+        for (int i = 0; i < stories.size(); i++) {
+            assertThat(stories.get(i).getDocumentElement().getAttribute("Self")).isEqualTo("u" + i);
+        }
+    }
+
+    @Test
+    @DisplayName("missing or malformed story entries are skipped without failing the phase")
+    void skipsMissingAndMalformedStories() throws Exception {
+        List<String> referenced = List.of("Stories/Story_u0.xml", "Stories/Story_missing.xml",
+                "Stories/Story_broken.xml", "Stories/Story_u3.xml");
+        List<String> present = List.of("Stories/Story_u0.xml", "Stories/Story_broken.xml", "Stories/Story_u3.xml");
+        ProcessingContext context = createContext(createIdml(referenced, present));
+
+        try (A1_ExtractStories phase = new A1_ExtractStories(2)) {
+            phase.process(context);
+        }
+
+        List<Document> stories = context.getStoriesList();
+        assertThat(stories).hasSize(2);
+        assertThat(stories.get(0).getDocumentElement().getAttribute("Self")).isEqualTo("u0");
+        assertThat(stories.get(1).getDocumentElement().getAttribute("Self")).isEqualTo("u3");
+    }
+
+    @Test
+    @DisplayName("story paths with backslashes or repeated in the designmap resolve from the single ZIP pass")
+    void resolvesNormalizedAndRepeatedPaths() throws Exception {
+        List<String> referenced = List.of("Stories\\Story_u0.xml", "Stories/Story_u1.xml", "Stories/Story_u0.xml");
+        List<String> present = List.of("Stories/Story_u0.xml", "Stories/Story_u1.xml");
+        ProcessingContext context = createContext(createIdml(referenced, present));
+
+        try (A1_ExtractStories phase = new A1_ExtractStories(2)) {
+            phase.process(context);
+        }
+
+        assertThat(context.getStoriesList())
+                .extracting(doc -> doc.getDocumentElement().getAttribute("Self"))
+                .containsExactly("u0", "u1", "u0");
+    }
+
+    private static byte[] createIdml(List<String> referencedStories, List<String> presentStories) throws Exception {
+        StringBuilder designmap = new StringBuilder();
+        designmap.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        designmap.append("<Document xmlns:idPkg=\"http://ns.adobe.com/AdobeInDesign/idml/1.0/packaging\">\n");
+        for (String story : referencedStories) {
+            designmap.append("  <idPkg:Story src=\"").append(story).append("\"/>\n");
+        }
+        designmap.append("</Document>\n");
+
+        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(baos, StandardCharsets.UTF_8)) {
+            putEntry(zos, "META-INF/container.xml", CONTAINER_XML);
+            putEntry(zos, "designmap.xml", designmap.toString());
+            for (String story : presentStories) {
+                if (story.contains("broken")) {
+                    putEntry(zos, story, "<Story Self=\"broken\"><unclosed>");
+                } else {
+                    String self = story.substring(story.indexOf('_') + 1, story.lastIndexOf('.'));
+                    putEntry(zos, story, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Story Self=\"" + self + "\"/>");
+                }
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private static void putEntry(ZipOutputStream zos, String name, String content) throws Exception {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(content.getBytes(StandardCharsets.UTF_8));
+        zos.closeEntry();
+    }
+
+    private static ProcessingContext createContext(byte[] zipBytes) {
+        StoredFile storedFile = new StoredFile(
+                "test-id",
+                "test.idml",
+                "application/zip",
+                (long) zipBytes.length,
+                java.time.Instant.now(),
+                zipBytes
+        );
+        return new ProcessingContext(storedFile);
+    }
+}
@@ -3,15 +3,24 @@ package fi.publishertools.kss.processing.phases;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import fi.publishertools.kss.exception.AwaitingAltTextReviewException;
+import fi.publishertools.kss.exception.AwaitingOllamaRecoveryException;
+import fi.publishertools.kss.integration.ollama.ConcurrencyLimitedOllamaClient;
+import fi.publishertools.kss.integration.ollama.FakeOllamaServer;
+import fi.publishertools.kss.integration.ollama.ImageDescription;
 import fi.publishertools.kss.integration.ollama.OllamaClient;
+import fi.publishertools.kss.integration.ollama.OllamaModelRole;
+import fi.publishertools.kss.integration.ollama.OllamaUnavailablePolicy;
 import fi.publishertools.kss.model.ProcessingContext;
 import fi.publishertools.kss.model.StoredFile;
 import fi.publishertools.kss.model.content.ChapterNode;
@@ -49,6 +58,27 @@ class B2_ProposeImageAltTextsTest {
         assertThat(list.get(0).alternateText()).isEqualTo("A red apple");
     }
 
+    @Test
+    @DisplayName("a description reused from a near-identical image is marked on the node for review")
+    void marksSimilarImageDescriptions() {
+        ProcessingContext context = contextWithImageList(
+                new ImageNode("uri", "img.png", "PNG", null, null));
+        context.addImageContent("img.png", new byte[] { 1, 2, 3 });
+        OllamaClient similarClient = new OllamaClient() {
+            @Override
+            public CompletableFuture<Optional<ImageDescription>> describeImageDetailedAsync(byte[] imageContent) {
+                return CompletableFuture.completedFuture(Optional.of(new ImageDescription("A red apple", true)));
+            }
+        };
+
+        assertThatThrownBy(() -> new B2_ProposeImageAltTexts(similarClient).process(context))
+                .isInstanceOf(AwaitingAltTextReviewException.class);
+
+        ImageNode node = context.getImageList().get(0);
+        assertThat(node.alternateText()).isEqualTo("A red apple");
+        assertThat(node.altTextFromSimilarImage()).isTrue();
+    }
+
     @Test
     @DisplayName("image with existing alt text is left unchanged")
     void keepsExistingAltText() throws Exception {
@@ -94,6 +124,52 @@ class B2_ProposeImageAltTextsTest {
         assertThat(list.get(0).alternateText()).isNull();
     }
 
+    @Test
+    @DisplayName("with the park policy, failures while Ollama is unavailable park the book untouched")
+    void parksWhenOllamaUnavailable() {
+        ProcessingContext context = contextWithImageList(
+                new ImageNode("uri", "img.png", "PNG", null, null));
+        context.addImageContent("img.png", new byte[] { 1, 2, 3 });
+        stubClient.setAvailable(false);
+        B2_ProposeImageAltTexts parkingPhase = new B2_ProposeImageAltTexts(stubClient, 2, OllamaUnavailablePolicy.PARK);
+
+        assertThatThrownBy(() -> parkingPhase.process(context))
+                .isInstanceOf(AwaitingOllamaRecoveryException.class)
+                .satisfies(ex -> {
+                    AwaitingOllamaRecoveryException parked = (AwaitingOllamaRecoveryException) ex;
+                    assertThat(parked.getContext()).isSameAs(context);
+                    assertThat(parked.getRetryAfter()).isEqualTo(Duration.ofSeconds(30));
+                });
+        assertThat(context.getImageList().get(0).alternateText()).isNull();
+    }
+
+    @Test
+    @DisplayName("with the park policy, failures while Ollama is still available are skipped")
+    void skipsFailuresWhileOllamaAvailable() throws Exception {
+        ProcessingContext context = contextWithImageList(
+                new ImageNode("uri", "img.png", "PNG", null, null));
+        context.addImageContent("img.png", new byte[] { 1, 2, 3 });
+        B2_ProposeImageAltTexts parkingPhase = new B2_ProposeImageAltTexts(stubClient, 2, OllamaUnavailablePolicy.PARK);
+
+        parkingPhase.process(context);
+
+        assertThat(context.getImageList().get(0).alternateText()).isNull();
+    }
+
+    @Test
+    @DisplayName("with the park policy, failures are skipped while only the text model is unavailable")
+    void skipsFailuresWhileOnlyTextModelUnavailable() throws Exception {
+        ProcessingContext context = contextWithImageList(
+                new ImageNode("uri", "img.png", "PNG", null, null));
+        context.addImageContent("img.png", new byte[] { 1, 2, 3 });
+        stubClient.setUnavailableRole(OllamaModelRole.TEXT);
+        B2_ProposeImageAltTexts parkingPhase = new B2_ProposeImageAltTexts(stubClient, 2, OllamaUnavailablePolicy.PARK);
+
+        parkingPhase.process(context);
+
+        assertThat(context.getImageList().get(0).alternateText()).isNull();
+    }
+
     @Test
     @DisplayName("empty image list does nothing")
     void emptyListNoOp() throws Exception {
@@ -139,6 +215,40 @@ class B2_ProposeImageAltTextsTest {
         assertThat(((ImageNode) chapterImage).alternateText()).isEqualTo("Alt from Ollama");
     }
 
+    @Test
+    @DisplayName("images are described concurrently against an Ollama server within the global limit")
+    void describesConcurrentlyWithinGlobalLimit() throws Exception {
+        int imageCount = 8;
+        long latencyMillis = 300;
+        try (FakeOllamaServer server = FakeOllamaServer.builder()
+                .latency(FakeOllamaServer.Latency.fixed(latencyMillis))
+                .response(FakeOllamaServer.Kind.DESCRIBE, "Kuvaus")
+                .start()) {
+            List<ImageNode> images = new ArrayList<>();
+            for (int i = 0; i < imageCount; i++) {
+                images.add(new ImageNode("uri", "img" + i + ".png", "PNG", null, null));
+            }
+            ProcessingContext context = contextWithImageList(images);
+            for (int i = 0; i < imageCount; i++) {
+                context.addImageContent("img" + i + ".png", new byte[] { (byte) i });
+            }
+            OllamaClient client = new ConcurrencyLimitedOllamaClient(new OllamaClient(server.baseUrl()), 3);
+            B2_ProposeImageAltTexts concurrentPhase = new B2_ProposeImageAltTexts(client, 4);
+
+            long start = System.nanoTime();
+            assertThatThrownBy(() -> concurrentPhase.process(context))
+                    .isInstanceOf(AwaitingAltTextReviewException.class);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertThat(context.getImageList()).allSatisfy(
+                    image -> assertThat(image.alternateText()).isEqualTo("Kuvaus"));
+            assertThat(server.requestCount(FakeOllamaServer.Kind.DESCRIBE)).isEqualTo(imageCount);
+            assertThat(server.maxInFlight()).isBetween(2, 3);
+            // Sequential requests would take imageCount * latency (2.4 s); three at a time take about 0.9 s.
+            assertThat(elapsedMillis).isLessThan(imageCount * latencyMillis * 2 / 3);
+        }
+    }
+
     private static ProcessingContext contextWithImageList(ImageNode... nodes) {
         return contextWithImageList(List.of(nodes));
     }
@@ -154,6 +264,16 @@ class B2_ProposeImageAltTextsTest {
         private Optional<String> result = Optional.empty();
         private boolean throwOnInvocation;
         private int invocationCount;
+        private boolean available = true;
+        private OllamaModelRole unavailableRole;
+
+        void setAvailable(boolean available) {
+            this.available = available;
+        }
+
+        void setUnavailableRole(OllamaModelRole role) {
+            this.unavailableRole = role;
+        }
 
         void setResult(String description) {
             this.result = Optional.of(description);
@@ -168,12 +288,32 @@ class B2_ProposeImageAltTextsTest {
         }
 
         @Override
-        public Optional<String> describeImage(byte[] imageContent) {
+        public CompletableFuture<Optional<String>> describeImageAsync(byte[] imageContent) {
             invocationCount++;
             if (throwOnInvocation) {
                 throw new RuntimeException("simulated Ollama failure");
             }
-            return result;
+            return CompletableFuture.completedFuture(result);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return available;
+        }
+
+        @Override
+        public Duration retryAfter() {
+            return available ? Duration.ZERO : Duration.ofSeconds(30);
+        }
+
+        @Override
+        public boolean isAvailable(OllamaModelRole role) {
+            return available && role != unavailableRole;
+        }
+
+        @Override
+        public Duration retryAfter(OllamaModelRole role) {
+            return isAvailable(role) ? Duration.ZERO : Duration.ofSeconds(30);
         }
     }
 }
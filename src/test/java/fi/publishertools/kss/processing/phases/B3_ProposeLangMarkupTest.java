@@ -3,14 +3,26 @@ package fi.publishertools.kss.processing.phases;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import fi.publishertools.kss.LangDetectionProperties;
+import fi.publishertools.kss.exception.AwaitingOllamaRecoveryException;
 import fi.publishertools.kss.integration.ollama.OllamaClient;
+import fi.publishertools.kss.integration.ollama.OllamaUnavailablePolicy;
+import fi.publishertools.kss.langid.PrefilterStats;
 import fi.publishertools.kss.model.ProcessingContext;
 import fi.publishertools.kss.model.StoredFile;
 import fi.publishertools.kss.model.content.ChapterNode;
@@ -19,6 +31,7 @@ import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
 import fi.publishertools.kss.exception.AwaitingLangMarkupReviewException;
 import fi.publishertools.kss.model.content.StoryNode;
 import fi.publishertools.kss.phases.B3_ProposeLangMarkup;
+import fi.publishertools.kss.service.LangPrefilterStatsStore;
 
 class B3_ProposeLangMarkupTest {
 
@@ -148,6 +161,159 @@ class B3_ProposeLangMarkupTest {
 				});
 	}
 
+	@Test
+	@DisplayName("batching mode packs many text nodes into few requests and maps words back by id")
+	void batchingPacksNodesIntoFewRequests() throws Exception {
+		BatchStubOllamaClient batchClient = new BatchStubOllamaClient(List.of("hello"), Integer.MAX_VALUE);
+		B3_ProposeLangMarkup batchingPhase = new B3_ProposeLangMarkup(batchClient, 2, batching(100, 1000));
+		List<ChapterNode> paragraphs = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			String text = i % 3 == 0 ? "Hän sanoi hello " + i + "." : "Tavallinen lause " + i + ".";
+			paragraphs.add(new ParagraphStyleRangeNode(List.of(new CharacterStyleRangeNode(text, null, null)), "p"));
+		}
+		ProcessingContext context = contextWithChapters(List.of(new StoryNode(paragraphs, null)));
+
+		assertThatThrownBy(() -> batchingPhase.process(context))
+				.isInstanceOf(AwaitingLangMarkupReviewException.class);
+
+		assertThat(batchClient.batches()).hasSizeBetween(2, 10);
+		assertThat(batchClient.batches().stream().mapToInt(Map::size).sum()).isEqualTo(30);
+		List<ChapterNode> outParagraphs = context.getChapters().get(0).children();
+		for (int i = 0; i < 30; i++) {
+			List<ChapterNode> runs = outParagraphs.get(i).children();
+			if (i % 3 == 0) {
+				assertThat(runs).hasSize(3);
+				assertThat(((CharacterStyleRangeNode) runs.get(1)).text()).isEqualTo("hello");
+				assertThat(((CharacterStyleRangeNode) runs.get(1)).language()).isEqualTo("und");
+			} else {
+				assertThat(runs).hasSize(1);
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("failed batches are retried in halves until they succeed")
+	void failedBatchFallsBackToSmallerBatches() throws Exception {
+		BatchStubOllamaClient batchClient = new BatchStubOllamaClient(List.of("hello"), 2);
+		B3_ProposeLangMarkup batchingPhase = new B3_ProposeLangMarkup(batchClient, 2, batching(10_000, 1000));
+		List<ChapterNode> runs = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			runs.add(new CharacterStyleRangeNode("Sana hello numero " + i + ". ", null, null));
+		}
+		ProcessingContext context = contextWithChapters(List.of(new ParagraphStyleRangeNode(runs, "p")));
+
+		assertThatThrownBy(() -> batchingPhase.process(context))
+				.isInstanceOf(AwaitingLangMarkupReviewException.class);
+
+		assertThat(batchClient.batches().get(0)).hasSize(7);
+		assertThat(context.getChapters().get(0).children())
+				.filteredOn(node -> "und".equals(((CharacterStyleRangeNode) node).language()))
+				.hasSize(7);
+	}
+
+	@Test
+	@DisplayName("long text nodes are sent as sentence-aligned pieces and their words merged back onto the node")
+	void longNodeSplitAtSentences() throws Exception {
+		BatchStubOllamaClient batchClient = new BatchStubOllamaClient(List.of("bonjour", "merci"), Integer.MAX_VALUE);
+		B3_ProposeLangMarkup batchingPhase = new B3_ProposeLangMarkup(batchClient, 1, batching(10_000, 40));
+		String text = "Ensin hän sanoi bonjour ovella. Sitten istuimme alas pöytään. Lopuksi kuului merci kiitokseksi.";
+		ProcessingContext context = contextWithChapters(List.of(new ParagraphStyleRangeNode(
+				List.of(new CharacterStyleRangeNode(text, null, null)), "p")));
+
+		assertThatThrownBy(() -> batchingPhase.process(context))
+				.isInstanceOf(AwaitingLangMarkupReviewException.class);
+
+		assertThat(batchClient.batches()).hasSize(1);
+		assertThat(batchClient.batches().get(0).values()).containsExactly(
+				"Ensin hän sanoi bonjour ovella. ", "Sitten istuimme alas pöytään. ", "Lopuksi kuului merci kiitokseksi.");
+		assertThat(context.getChapters().get(0).children())
+				.extracting(node -> ((CharacterStyleRangeNode) node).text())
+				.containsExactly("Ensin hän sanoi ", "bonjour", " ovella. Sitten istuimme alas pöytään. Lopuksi kuului ",
+						"merci", " kiitokseksi.");
+	}
+
+	@Test
+	@DisplayName("identical texts are detected once per run in both modes")
+	void identicalTextsDetectedOnce() throws Exception {
+		stubClient.setResponse("{\"words\": [\"hello\"]}");
+		List<ChapterNode> runs = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			runs.add(new CharacterStyleRangeNode("Luku yksi hello", null, null));
+		}
+		ProcessingContext context = contextWithChapters(List.of(new ParagraphStyleRangeNode(runs, "p")));
+		assertThatThrownBy(() -> phase.process(context)).isInstanceOf(AwaitingLangMarkupReviewException.class);
+		assertThat(stubClient.invocationCount()).isEqualTo(1);
+		assertThat(context.getChapters().get(0).children())
+				.filteredOn(node -> "und".equals(((CharacterStyleRangeNode) node).language()))
+				.hasSize(5);
+
+		BatchStubOllamaClient batchClient = new BatchStubOllamaClient(List.of("hello"), Integer.MAX_VALUE);
+		B3_ProposeLangMarkup batchingPhase = new B3_ProposeLangMarkup(batchClient, 2, batching(10_000, 1000));
+		ProcessingContext batchContext = contextWithChapters(List.of(new ParagraphStyleRangeNode(runs, "p")));
+		assertThatThrownBy(() -> batchingPhase.process(batchContext)).isInstanceOf(AwaitingLangMarkupReviewException.class);
+		assertThat(batchClient.batches()).hasSize(1);
+		assertThat(batchClient.batches().get(0)).hasSize(1);
+		assertThat(batchContext.getChapters().get(0).children())
+				.filteredOn(node -> "und".equals(((CharacterStyleRangeNode) node).language()))
+				.hasSize(5);
+	}
+
+	@Test
+	@DisplayName("prefilter sends only runs with signs of another language and records the skip rate")
+	void prefilterSkipsPlainMainLanguageRuns() throws Exception {
+		BatchStubOllamaClient batchClient = new BatchStubOllamaClient(List.of("good morning"), Integer.MAX_VALUE);
+		LangDetectionProperties properties = batching(10_000, 1000);
+		properties.setPrefilterEnabled(true);
+		LangPrefilterStatsStore statsStore = new LangPrefilterStatsStore();
+		B3_ProposeLangMarkup prefilterPhase = new B3_ProposeLangMarkup(batchClient, 2, properties, statsStore);
+		List<ChapterNode> runs = List.of(
+				new CharacterStyleRangeNode("Kirjoittaja pohtii teoksessaan ihmisen suhdetta luontoon. ", null, null),
+				new CharacterStyleRangeNode("Hän sanoi good morning ystävälleen. ", null, null),
+				new CharacterStyleRangeNode("Pöydällä oli kynttilöitä ja kukkia.", null, null),
+				new CharacterStyleRangeNode("2024 ", null, null));
+		ProcessingContext context = contextWithChapters(List.of(new ParagraphStyleRangeNode(runs, "p")));
+
+		assertThatThrownBy(() -> prefilterPhase.process(context))
+				.isInstanceOf(AwaitingLangMarkupReviewException.class);
+
+		assertThat(batchClient.batches()).hasSize(1);
+		assertThat(batchClient.batches().get(0).values()).containsExactly("Hän sanoi good morning ystävälleen. ");
+		assertThat(context.getChapters().get(0).children())
+				.extracting(node -> ((CharacterStyleRangeNode) node).text())
+				.contains("good morning", "Pöydällä oli kynttilöitä ja kukkia.");
+		PrefilterStats stats = statsStore.get("f1").orElseThrow();
+		assertThat(stats.textRuns()).isEqualTo(4);
+		assertThat(stats.skipped()).isEqualTo(3);
+		assertThat(stats.skipRate()).isEqualTo(0.75);
+	}
+
+	@Test
+	@DisplayName("with the park policy, a breaker opened by the last failures in flight parks the book")
+	void parksWhenBreakerOpensOnLastFailures() {
+		BreakerOpeningClient breakerClient = new BreakerOpeningClient();
+		LangPrefilterStatsStore statsStore = new LangPrefilterStatsStore();
+		LangDetectionProperties properties = new LangDetectionProperties();
+		properties.setPrefilterEnabled(true);
+		B3_ProposeLangMarkup parkingPhase = new B3_ProposeLangMarkup(breakerClient, 2, properties, statsStore,
+				OllamaUnavailablePolicy.PARK);
+		List<ChapterNode> chapters = List.of(new ParagraphStyleRangeNode(List.of(
+				new CharacterStyleRangeNode("Hän sanoi good morning ystävälleen.", null, null)), "p"));
+		ProcessingContext context = contextWithChapters(chapters);
+
+		assertThatThrownBy(() -> parkingPhase.process(context))
+				.isInstanceOf(AwaitingOllamaRecoveryException.class);
+		assertThat(context.getChapters()).isSameAs(chapters);
+		assertThat(statsStore.get("f1")).isEmpty();
+	}
+
+	private static LangDetectionProperties batching(int tokenBudget, int maxSegmentChars) {
+		LangDetectionProperties properties = new LangDetectionProperties();
+		properties.setBatchingEnabled(true);
+		properties.setBatchTokenBudget(tokenBudget);
+		properties.setMaxSegmentChars(maxSegmentChars);
+		return properties;
+	}
+
 	private static ProcessingContext contextWithChapters(List<ChapterNode> chapters) {
 		ProcessingContext context = new ProcessingContext(
 				new StoredFile("f1", "x.idml", "application/zip", 0L, java.time.Instant.EPOCH, new byte[0]));
@@ -173,12 +339,77 @@ class B3_ProposeLangMarkupTest {
 		}
 
 		@Override
-		public Optional<String> detectNonMainLanguageWords(String text, String mainLanguage) {
+		public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
 			invocationCount++;
 			if (throwOnInvocation) {
 				throw new RuntimeException("simulated Ollama failure");
 			}
-			return response;
+			return CompletableFuture.completedFuture(response);
+		}
+	}
+
+	/**
+	 * Answers batch requests by looking up known foreign words in each text; batches larger than
+	 * {@code maxBatchSize} fail as an overlong model reply would.
+	 */
+	private static final class BatchStubOllamaClient extends OllamaClient {
+		private final List<String> foreignWords;
+		private final int maxBatchSize;
+		private final List<Map<String, String>> batches = new CopyOnWriteArrayList<>();
+
+		BatchStubOllamaClient(List<String> foreignWords, int maxBatchSize) {
+			this.foreignWords = foreignWords;
+			this.maxBatchSize = maxBatchSize;
+		}
+
+		List<Map<String, String>> batches() {
+			return batches;
+		}
+
+		@Override
+		public CompletableFuture<Optional<String>> detectNonMainLanguageWordsBatchAsync(Map<String, String> textsById,
+				String mainLanguage) {
+			batches.add(new LinkedHashMap<>(textsById));
+			if (textsById.size() > maxBatchSize) {
+				return CompletableFuture.completedFuture(Optional.empty());
+			}
+			StringBuilder json = new StringBuilder("{");
+			textsById.forEach((id, text) -> {
+				if (json.length() > 1) {
+					json.append(',');
+				}
+				json.append('"').append(id).append("\":[");
+				String words = foreignWords.stream().filter(text::contains)
+						.map(word -> "\"" + word + "\"").collect(Collectors.joining(","));
+				json.append(words).append(']');
+			});
+			return CompletableFuture.completedFuture(Optional.of(json.append('}').toString()));
+		}
+	}
+
+	/**
+	 * Fails every detection a little later, reporting itself unavailable from the moment the failure lands,
+	 * like a circuit breaker opened by that failure.
+	 */
+	private static final class BreakerOpeningClient extends OllamaClient {
+		private volatile boolean available = true;
+
+		@Override
+		public CompletableFuture<Optional<String>> detectNonMainLanguageWordsAsync(String text, String mainLanguage) {
+			return CompletableFuture.supplyAsync(() -> {
+				available = false;
+				return Optional.<String>empty();
+			}, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return available;
+		}
+
+		@Override
+		public Duration retryAfter() {
+			return available ? Duration.ZERO : Duration.ofSeconds(30);
 		}
 	}
 }
@@ -74,6 +74,36 @@ class GenerateTOCPhaseTest {
         assertThat(toc).contains("section-3");
     }
 
+    @Test
+    @DisplayName("GenerateTOCPhase closes each nested list after the last node of its container")
+    void closesNestedListsInOrder() throws Exception {
+        ProcessingContext context = createContext();
+        context.setChapters(List.of(
+                ChapterNode.sectionWithTOCStyle(null, List.of(
+                        ChapterNode.sectionWithParagraphStyle(null, List.of(ChapterNode.text("A")), "p"),
+                        ChapterNode.image("kuva.jpg")), "h1"),
+                ChapterNode.text("B")));
+
+        new C2_GenerateTableOfContents().process(context);
+
+        String toc = new String(context.getTocContent(), StandardCharsets.UTF_8);
+        assertThat(toc).contains("""
+                        <li><a href="Koottu-1.xhtml#section-1">Chapter 1</a>
+                          <ol>
+                        <li><a href="Koottu-1.xhtml#section-2">Chapter 2</a>
+                          <ol>
+                        <li><a href="Koottu-1.xhtml#section-3">Chapter 3</a></li>
+                          </ol>
+                        </li>
+                        <li><a href="Koottu-1.xhtml#section-4">Chapter 4</a></li>
+                          </ol>
+                        </li>
+                        <li><a href="Koottu-1.xhtml#section-5">Chapter 5</a></li>
+                      </ol>
+                """);
+        assertThat(context.getContentArena().nodeCount()).isEqualTo(5);
+    }
+
     @Test
     @DisplayName("GenerateTOCPhase handles empty chapters")
     void handlesEmptyChapters() throws Exception {
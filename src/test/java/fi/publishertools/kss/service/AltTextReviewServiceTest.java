@@ -0,0 +1,78 @@
+package fi.publishertools.kss.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import fi.publishertools.kss.dto.AltTextBatchUpdateItem;
+import fi.publishertools.kss.dto.AltTextOccurrenceSummary;
+import fi.publishertools.kss.model.ProcessingContext;
+import fi.publishertools.kss.model.StoredFile;
+import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.ImageNode;
+import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
+import fi.publishertools.kss.model.content.StoryNode;
+
+class AltTextReviewServiceTest {
+
+    private final AltTextReviewService service = new AltTextReviewService(new PendingAltTextStore());
+    private ProcessingContext context;
+    private List<ImageNode> treeImages;
+
+    @BeforeEach
+    void setUp() {
+        context = new ProcessingContext(
+                new StoredFile("f1", "kirja.idml", "application/zip", 0L, Instant.EPOCH, new byte[0]));
+        treeImages = new ArrayList<>();
+        List<ImageNode> flatImages = new ArrayList<>();
+        List<ChapterNode> paragraphs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ImageNode image = new ImageNode(null, "kuva" + i + ".jpg", "jpg", null, null);
+            treeImages.add(image);
+            flatImages.add(new ImageNode(null, "kuva" + i + ".jpg", "jpg", null, null));
+            paragraphs.add(new ParagraphStyleRangeNode(List.of(
+                    new CharacterStyleRangeNode("Kappale " + i + ".", null, null), image), "p"));
+        }
+        context.setChapters(List.of(new StoryNode(paragraphs, "h1")));
+        context.setImageList(flatImages);
+    }
+
+    private static AltTextBatchUpdateItem item(Integer index, String text) {
+        AltTextBatchUpdateItem item = new AltTextBatchUpdateItem();
+        item.setIndex(index);
+        item.setAlternateText(text);
+        return item;
+    }
+
+    @Test
+    @DisplayName("batch update sets alt text on the image list and the tree and returns summaries in request order")
+    void batchUpdatesListAndTree() {
+        List<AltTextOccurrenceSummary> result = service.applyAltTextUpdates(context,
+                List.of(item(2, "Järvi"), item(0, null)));
+
+        assertThat(result).extracting(AltTextOccurrenceSummary::getIndex).containsExactly(2, 0);
+        assertThat(result).extracting(AltTextOccurrenceSummary::getAlternateText).containsExactly("Järvi", "");
+        assertThat(context.getImageList().get(2).alternateText()).isEqualTo("Järvi");
+        assertThat(treeImages.get(2).alternateText()).isEqualTo("Järvi");
+        assertThat(treeImages.get(0).alternateText()).isEmpty();
+        assertThat(treeImages.get(1).alternateText()).isNull();
+    }
+
+    @Test
+    @DisplayName("batch with an invalid index changes nothing")
+    void batchValidatesFirst() {
+        assertThatThrownBy(() -> service.applyAltTextUpdates(context, List.of(item(0, "x"), item(3, "y"))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.applyAltTextUpdates(context, List.of(item(null, "x"))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(context.getImageList().get(0).alternateText()).isNull();
+    }
+}
@@ -0,0 +1,195 @@
+package fi.publishertools.kss.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import fi.publishertools.kss.dto.LangMarkupBatchUpdateItem;
+import fi.publishertools.kss.dto.LangMarkupOccurrenceSummary;
+import fi.publishertools.kss.dto.LangMarkupUpdateRequest;
+import fi.publishertools.kss.model.ProcessingContext;
+import fi.publishertools.kss.model.StoredFile;
+import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
+import fi.publishertools.kss.model.content.StoryNode;
+
+class LangMarkupReviewServiceTest {
+
+    private PendingLangMarkupStore store;
+    private LangMarkupReviewService service;
+    private ProcessingContext context;
+
+    @BeforeEach
+    void setUp() {
+        store = new PendingLangMarkupStore();
+        service = new LangMarkupReviewService(store);
+        context = new ProcessingContext(
+                new StoredFile("f1", "kirja.idml", "application/zip", 0L, Instant.EPOCH, new byte[0]));
+        List<ChapterNode> stories = new ArrayList<>();
+        for (int s = 0; s < 3; s++) {
+            List<ChapterNode> paragraphs = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                paragraphs.add(new ParagraphStyleRangeNode(List.of(
+                        new CharacterStyleRangeNode("Hän sanoi ", null, null),
+                        new CharacterStyleRangeNode("bonjour " + s + p, null, "fr"),
+                        new CharacterStyleRangeNode(" ja lähti.", null, null),
+                        new CharacterStyleRangeNode("merci " + s + p, null, "fr")), "p"));
+            }
+            stories.add(new StoryNode(paragraphs, "h1"));
+        }
+        context.setChapters(stories);
+        store.store(context.getFileId(), context);
+    }
+
+    private List<String> phrases() {
+        return service.getOccurrenceSummaries(context).stream()
+                .map(LangMarkupOccurrenceSummary::getPhraseText)
+                .toList();
+    }
+
+    @Test
+    @DisplayName("index is built once per stored context and reused between calls")
+    void indexIsReused() {
+        LangMarkupOccurrenceIndex first = store.occurrenceIndex(context);
+        assertThat(phrases()).hasSize(24).startsWith("bonjour 00", "merci 00", "bonjour 01");
+        assertThat(store.occurrenceIndex(context)).isSameAs(first);
+    }
+
+    @Test
+    @DisplayName("incremental updates keep the index identical to a full rebuild")
+    void incrementalUpdatesMatchRebuild() {
+        LangMarkupOccurrenceIndex index = store.occurrenceIndex(context);
+
+        LangMarkupUpdateRequest dismiss = new LangMarkupUpdateRequest();
+        dismiss.setDismiss(true);
+        LangMarkupOccurrenceSummary after = service.applyUpdate(context, 5, dismiss);
+        assertThat(after.getPhraseText()).isEqualTo("bonjour 03");
+
+        LangMarkupUpdateRequest relabel = new LangMarkupUpdateRequest();
+        relabel.setLanguage("en");
+        relabel.setPhraseText("thank you");
+        LangMarkupOccurrenceSummary relabeled = service.applyUpdate(context, 20, relabel);
+        assertThat(relabeled.getProposedLanguage()).isEqualTo("en");
+        assertThat(relabeled.getPhraseText()).isEqualTo("thank you");
+
+        assertThat(store.occurrenceIndex(context)).isSameAs(index);
+        LangMarkupOccurrenceIndex rebuilt = LangMarkupOccurrenceIndex.build(context.getChapters());
+        assertThat(index.size()).isEqualTo(23).isEqualTo(rebuilt.size());
+        for (int i = 0; i < rebuilt.size(); i++) {
+            assertThat(index.get(i).path()).containsExactly(rebuilt.get(i).path());
+            assertThat(index.get(i).node()).isEqualTo(rebuilt.get(i).node());
+        }
+    }
+
+    @Test
+    @DisplayName("index is rebuilt when chapters are replaced outside the service")
+    void rebuiltWhenChaptersReplaced() {
+        LangMarkupOccurrenceIndex first = store.occurrenceIndex(context);
+        context.setChapters(List.of(new ParagraphStyleRangeNode(List.of(
+                new CharacterStyleRangeNode("hello", null, "en")), "p")));
+
+        assertThat(store.occurrenceIndex(context)).isNotSameAs(first);
+        assertThat(phrases()).containsExactly("hello");
+    }
+
+    @Test
+    @DisplayName("batch updates apply against pre-batch indices and report final indices")
+    void batchUpdates() {
+        LangMarkupBatchUpdateItem relabelFirst = new LangMarkupBatchUpdateItem();
+        relabelFirst.setIndex(0);
+        relabelFirst.setLanguage("de");
+        LangMarkupBatchUpdateItem dismissSecond = new LangMarkupBatchUpdateItem();
+        dismissSecond.setIndex(1);
+        dismissSecond.setDismiss(true);
+        LangMarkupBatchUpdateItem relabelFifth = new LangMarkupBatchUpdateItem();
+        relabelFifth.setIndex(4);
+        relabelFifth.setLanguage("en");
+
+        List<LangMarkupOccurrenceSummary> result = service.applyUpdates(context,
+                List.of(relabelFifth, dismissSecond, relabelFirst));
+
+        assertThat(result).extracting(LangMarkupOccurrenceSummary::getIndex).containsExactly(0, 3);
+        assertThat(result).extracting(LangMarkupOccurrenceSummary::getProposedLanguage).containsExactly("de", "en");
+        assertThat(result.get(1).getPhraseText()).isEqualTo("bonjour 02");
+        assertThat(phrases()).hasSize(23);
+    }
+
+    @Test
+    @DisplayName("batch with an invalid or repeated index changes nothing")
+    void batchValidatesFirst() {
+        LangMarkupBatchUpdateItem valid = new LangMarkupBatchUpdateItem();
+        valid.setIndex(0);
+        valid.setDismiss(true);
+        LangMarkupBatchUpdateItem invalid = new LangMarkupBatchUpdateItem();
+        invalid.setIndex(99);
+        List<ChapterNode> before = context.getChapters();
+
+        assertThatThrownBy(() -> service.applyUpdates(context, List.of(valid, invalid)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.applyUpdates(context, List.of(valid, valid)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(context.getChapters()).isSameAs(before);
+    }
+
+    @Test
+    @DisplayName("adjacent occurrences can both be dismissed or edited in one batch")
+    void batchWithAdjacentOccurrences() {
+        context.setChapters(List.of(new StoryNode(List.of(new ParagraphStyleRangeNode(List.of(
+                new CharacterStyleRangeNode("Hän sanoi ", null, null),
+                new CharacterStyleRangeNode("bonjour", null, "fr"),
+                new CharacterStyleRangeNode("hello", null, "en"),
+                new CharacterStyleRangeNode(" ja lähti ", null, null),
+                new CharacterStyleRangeNode("ciao", null, "it"),
+                new CharacterStyleRangeNode("merci", null, "fr")), "p")), "h1")));
+
+        LangMarkupBatchUpdateItem dismissFirst = new LangMarkupBatchUpdateItem();
+        dismissFirst.setIndex(0);
+        dismissFirst.setDismiss(true);
+        LangMarkupBatchUpdateItem dismissSecond = new LangMarkupBatchUpdateItem();
+        dismissSecond.setIndex(1);
+        dismissSecond.setDismiss(true);
+        LangMarkupBatchUpdateItem relabelThird = new LangMarkupBatchUpdateItem();
+        relabelThird.setIndex(2);
+        relabelThird.setLanguage("es");
+        LangMarkupBatchUpdateItem rephraseFourth = new LangMarkupBatchUpdateItem();
+        rephraseFourth.setIndex(3);
+        rephraseFourth.setPhraseText("gracias");
+
+        List<LangMarkupOccurrenceSummary> result = service.applyUpdates(context,
+                List.of(dismissFirst, dismissSecond, relabelThird, rephraseFourth));
+
+        assertThat(result).extracting(LangMarkupOccurrenceSummary::getIndex).containsExactly(0, 1);
+        assertThat(result).extracting(LangMarkupOccurrenceSummary::getProposedLanguage).containsExactly("es", "fr");
+        assertThat(result).extracting(LangMarkupOccurrenceSummary::getPhraseText).containsExactly("ciao", "gracias");
+        assertThat(phrases()).containsExactly("ciao", "gracias");
+        assertThat(context.getChapters().get(0).children().get(0).children())
+                .extracting(node -> ((CharacterStyleRangeNode) node).text())
+                .containsExactly("Hän sanoi bonjour", "hello ja lähti ", "ciao", "gracias");
+    }
+
+    @Test
+    @DisplayName("batch where two updates rewrite the same run is rejected and changes nothing")
+    void batchRejectsOverlappingRewrites() {
+        LangMarkupBatchUpdateItem editAfterFirst = new LangMarkupBatchUpdateItem();
+        editAfterFirst.setIndex(0);
+        editAfterFirst.setTextAfter(" ja jäi.");
+        LangMarkupBatchUpdateItem dismissSecond = new LangMarkupBatchUpdateItem();
+        dismissSecond.setIndex(1);
+        dismissSecond.setDismiss(true);
+        List<ChapterNode> before = context.getChapters();
+
+        // The second phrase would be merged into the very run the first update rewrites.
+        assertThatThrownBy(() -> service.applyUpdates(context, List.of(editAfterFirst, dismissSecond)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(context.getChapters()).isSameAs(before);
+        assertThat(phrases()).hasSize(24);
+    }
+}
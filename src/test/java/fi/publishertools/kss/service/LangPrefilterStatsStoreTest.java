@@ -0,0 +1,27 @@
+package fi.publishertools.kss.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import fi.publishertools.kss.langid.PrefilterStats;
+
+class LangPrefilterStatsStoreTest {
+
+    @Test
+    @DisplayName("only the statistics of the most recently stored files are kept")
+    void keepsMostRecentFiles() {
+        LangPrefilterStatsStore store = new LangPrefilterStatsStore(2);
+
+        store.store("f1", new PrefilterStats(10, 1));
+        store.store("f2", new PrefilterStats(10, 2));
+        store.store("f1", new PrefilterStats(10, 3));
+        store.store("f3", new PrefilterStats(10, 4));
+
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.get("f2")).isEmpty();
+        assertThat(store.get("f1")).contains(new PrefilterStats(10, 3));
+        assertThat(store.get("f3")).contains(new PrefilterStats(10, 4));
+    }
+}
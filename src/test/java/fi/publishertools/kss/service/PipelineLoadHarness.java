@@ -0,0 +1,415 @@
+package fi.publishertools.kss.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.io.ClassPathResource;
+
+import fi.publishertools.kss.DiagnosticsProperties;
+import fi.publishertools.kss.LangDetectionProperties;
+import fi.publishertools.kss.integration.ollama.FakeOllamaServer;
+import fi.publishertools.kss.integration.ollama.OllamaCacheProperties;
+import fi.publishertools.kss.integration.ollama.OllamaClientProperties;
+import fi.publishertools.kss.model.ProcessingContext;
+import fi.publishertools.kss.model.StoredFile;
+import fi.publishertools.kss.phases.B1_CheckMandatoryInformation;
+import fi.publishertools.kss.phases.B3_ProposeLangMarkup;
+import fi.publishertools.kss.phases.C1_GenerateXHTML;
+import fi.publishertools.kss.processing.ProcessingPhase;
+import fi.publishertools.kss.processing.ProcessingPipeline;
+import fi.publishertools.kss.processing.ProcessingStatus;
+
+/**
+ * Load harness for the processing pipeline: drives many uploads of a generated IDML book concurrently
+ * through the phases {@link ProcessingPipelineService} builds, with their Ollama client pointed at one or more
+ * Ollama servers (normally {@link FakeOllamaServer}s with injected latency and errors; several are balanced
+ * over as configured endpoints), and reports throughput with
+ * p50/p95/p99 latency end to end and per phase. Each upload is a closed loop: a fixed number of clients submit
+ * a book, wait for it to be READY, in ERROR or parked AWAITING_OLLAMA, and submit the next. Reviews are answered at once — metadata is
+ * filled in and proposed alt texts and lang markup are accepted as they are — so end-to-end time is pipeline
+ * time only. The Ollama client is configured as in application.yaml, unavailable policies included, apart from
+ * the server URLs; the Ollama result cache is off so every book reaches the server.
+ * <p>
+ * Run from the project root after {@code mvn test-compile}:
+ * <pre>
+ * java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" \
+ *     fi.publishertools.kss.service.PipelineLoadHarness [uploads] [concurrency] [median latency ms] [error rate] \
+ *     [servers]
+ * </pre>
+ */
+public class PipelineLoadHarness {
+
+    private static final Duration UPLOAD_TIMEOUT = Duration.ofMinutes(5);
+
+    private static final String[] PARAGRAPHS = {
+            "Järven rannalla oli vanha laituri, jonka lankut olivat harmaantuneet vuosien saatossa.",
+            "Isoäiti sanoi aina, että kesä alkaa vasta kun käki on kukkunut ensimmäisen kerran.",
+            "Matkalla kaupunkiin he pysähtyivät huoltoasemalle, jonka kyltissä luki Welcome to Finland.",
+            "Kirjaston hyllyt notkuivat romaaneja, runokokoelmia ja vanhoja sanomalehtiä.",
+            "Hän tilasi kahvin ja pullan, ja tarjoilija vastasi hymyillen: of course, right away.",
+            "Syksyn ensimmäiset pakkasyöt värjäsivät koivujen lehdet keltaisiksi ja punaisiksi.",
+    };
+
+    /**
+     * @param uploads           books to process
+     * @param concurrency       books in flight at once
+     * @param imagesPerBook     distinct images per book, each described once
+     * @param paragraphsPerBook paragraphs of text per book
+     */
+    public record Settings(int uploads, int concurrency, int imagesPerBook, int paragraphsPerBook) {}
+
+    /**
+     * Latency percentiles (nearest rank) in milliseconds.
+     */
+    public record Latencies(int count, double p50, double p95, double p99, double max) {
+
+        static Latencies of(Collection<Long> nanos) {
+            long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+            if (sorted.length == 0) {
+                return new Latencies(0, 0, 0, 0, 0);
+            }
+            return new Latencies(sorted.length, millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.95)),
+                    millis(percentile(sorted, 0.99)), millis(sorted[sorted.length - 1]));
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            int rank = (int) Math.ceil(p * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Outcome of a run. Phase latencies count every time a phase processed a book, including runs that
+     * ended in a review or a park.
+     */
+    public record Report(int uploads, int completed, int parked, int failed, Duration wallTime,
+            double throughputPerSecond, Latencies endToEnd, Map<String, Latencies> phases) {
+
+        public String format() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format(Locale.ROOT,
+                    "%d uploads: %d READY, %d AWAITING_OLLAMA, %d failed in %.1f s, %.2f books/s%n",
+                    uploads, completed, parked, failed, wallTime.toMillis() / 1000.0, throughputPerSecond));
+            out.append(String.format(Locale.ROOT, "%-36s %6s %10s %10s %10s %10s%n",
+                    "latency (ms)", "n", "p50", "p95", "p99", "max"));
+            appendRow(out, "end to end", endToEnd);
+            phases.forEach((name, latencies) -> appendRow(out, name, latencies));
+            return out.toString();
+        }
+
+        private static void appendRow(StringBuilder out, String name, Latencies l) {
+            out.append(String.format(Locale.ROOT, "%-36s %6d %10.1f %10.1f %10.1f %10.1f%n",
+                    name, l.count(), l.p50(), l.p95(), l.p99(), l.max()));
+        }
+    }
+
+    private final Settings settings;
+    private final List<String> ollamaBaseUrls;
+    private final Map<String, Queue<Long>> phaseNanos = new LinkedHashMap<>();
+    private final Map<String, CompletableFuture<ProcessingStatus>> outcomes = new ConcurrentHashMap<>();
+    private ProcessingPipeline pipeline;
+    private int checkMandatoryPhaseIndex;
+    private int resumeAfterAltTextPhaseIndex;
+    private int resumeAfterLangMarkupPhaseIndex;
+
+    public PipelineLoadHarness(Settings settings, List<String> ollamaBaseUrls) {
+        this.settings = settings;
+        this.ollamaBaseUrls = List.copyOf(ollamaBaseUrls);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int uploads = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long medianMillis = args.length > 2 ? Long.parseLong(args[2]) : 400;
+        double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.0;
+        int serverCount = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        List<FakeOllamaServer> servers = new ArrayList<>();
+        try {
+            for (int i = 0; i < serverCount; i++) {
+                servers.add(FakeOllamaServer.builder()
+                        .latency(FakeOllamaServer.Latency.logNormal(medianMillis, 0.5))
+                        .latency(FakeOllamaServer.Kind.DETECT, FakeOllamaServer.Latency.logNormal(medianMillis / 4, 0.5))
+                        .errorRate(errorRate)
+                        .seed(42 + i * 1_000_003L)
+                        .start());
+            }
+            List<String> baseUrls = servers.stream().map(FakeOllamaServer::baseUrl).toList();
+            Report report = new PipelineLoadHarness(new Settings(uploads, concurrency, 4, 40), baseUrls).run();
+            System.out.print(report.format());
+            for (FakeOllamaServer server : servers) {
+                System.out.printf(Locale.ROOT, "Ollama %s: %d requests, %d injected errors, at most %d in flight%n",
+                        server.baseUrl(), server.requestCount(), server.errorCount(), server.maxInFlight());
+            }
+        } finally {
+            servers.forEach(FakeOllamaServer::close);
+        }
+    }
+
+    public Report run() throws Exception {
+        ProcessingStatusStore statusStore = new CompletionTrackingStatusStore();
+        ProcessedResultStore resultStore = new ProcessedResultStore();
+        ProcessingPipelineService service = new ProcessingPipelineService(statusStore, resultStore,
+                new PendingMetadataStore(), new PendingAltTextStore(), new PendingLangMarkupStore(),
+                new OllamaCacheProperties(), clientProperties(), new DiagnosticsProperties(),
+                new LangDetectionProperties(), new StyleTransitionStore(), new LangPrefilterStatsStore());
+        List<ProcessingPhase> phases = new ArrayList<>();
+        for (ProcessingPhase phase : service.createPhases()) {
+            if (phase instanceof B1_CheckMandatoryInformation) {
+                checkMandatoryPhaseIndex = phases.size();
+            } else if (phase instanceof B3_ProposeLangMarkup) {
+                resumeAfterAltTextPhaseIndex = phases.size();
+            } else if (phase instanceof C1_GenerateXHTML) {
+                resumeAfterLangMarkupPhaseIndex = phases.size();
+            }
+            phaseNanos.put(phase.getName(), new ConcurrentLinkedQueue<>());
+            phases.add(new TimedPhase(phase));
+        }
+        pipeline = new ProcessingPipeline(phases, statusStore, resultStore, new MetadataReviewer(),
+                new AltTextReviewer(), new LangMarkupReviewer(), "load-phase-");
+        byte[] book = createIdml(settings.imagesPerBook(), settings.paragraphsPerBook());
+
+        Queue<Long> endToEndNanos = new ConcurrentLinkedQueue<>();
+        ExecutorService clients = Executors.newFixedThreadPool(Math.max(1, settings.concurrency()));
+        pipeline.start();
+        long start = System.nanoTime();
+        try {
+            List<Future<ProcessingStatus>> results = new ArrayList<>();
+            for (int i = 0; i < settings.uploads(); i++) {
+                results.add(clients.submit(() -> upload(book, endToEndNanos)));
+            }
+            int completed = 0;
+            int parked = 0;
+            for (Future<ProcessingStatus> result : results) {
+                ProcessingStatus status = result.get();
+                completed += status == ProcessingStatus.READY ? 1 : 0;
+                parked += status == ProcessingStatus.AWAITING_OLLAMA ? 1 : 0;
+            }
+            Duration wallTime = Duration.ofNanos(System.nanoTime() - start);
+            Map<String, Latencies> phaseLatencies = new LinkedHashMap<>();
+            phaseNanos.forEach((name, nanos) -> phaseLatencies.put(name, Latencies.of(nanos)));
+            return new Report(settings.uploads(), completed, parked, settings.uploads() - completed - parked, wallTime,
+                    completed / Math.max(1e-9, wallTime.toNanos() / 1e9), Latencies.of(endToEndNanos), phaseLatencies);
+        } finally {
+            clients.shutdownNow();
+            pipeline.stop();
+            service.shutdown();
+        }
+    }
+
+    private ProcessingStatus upload(byte[] book, Queue<Long> endToEndNanos) throws Exception {
+        String fileId = UUID.randomUUID().toString();
+        CompletableFuture<ProcessingStatus> outcome = new CompletableFuture<>();
+        outcomes.put(fileId, outcome);
+        long start = System.nanoTime();
+        pipeline.submit(new ProcessingContext(new StoredFile(fileId, "load.idml", "application/zip",
+                (long) book.length, Instant.now(), book)));
+        ProcessingStatus status = outcome.get(UPLOAD_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        endToEndNanos.add(System.nanoTime() - start);
+        outcomes.remove(fileId);
+        return status;
+    }
+
+    private OllamaClientProperties clientProperties() throws Exception {
+        Binder binder = new Binder(ConfigurationPropertySources.from(
+                new YamlPropertySourceLoader().load("application", new ClassPathResource("application.yaml"))));
+        OllamaClientProperties properties = binder.bind("kss.ollama.client", OllamaClientProperties.class)
+                .orElseGet(OllamaClientProperties::new);
+        properties.setEndpoints(new ArrayList<>());
+        properties.setBaseUrl(ollamaBaseUrls.get(0));
+        if (ollamaBaseUrls.size() > 1) {
+            for (String baseUrl : ollamaBaseUrls) {
+                OllamaClientProperties.Endpoint endpoint = new OllamaClientProperties.Endpoint();
+                endpoint.setUrl(baseUrl);
+                properties.getEndpoints().add(endpoint);
+            }
+        }
+        return properties;
+    }
+
+    private void resubmit(int phaseIndex, ProcessingContext context) {
+        try {
+            pipeline.submitToPhase(phaseIndex, context);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A book with one story of the given paragraphs, an image after every few of them, and the images as
+     * PNG files under Links/.
+     */
+    static byte[] createIdml(int images, int paragraphs) throws Exception {
+        StringBuilder story = new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<idPkg:Story xmlns:idPkg=\"http://ns.adobe.com/AdobeInDesign/idml/1.0/packaging\">\n")
+                .append("<Story Self=\"u1\" AppliedTOCStyle=\"TOCStyle/Chapter\">\n");
+        int imageEvery = images > 0 ? Math.max(1, paragraphs / images) : Integer.MAX_VALUE;
+        int image = 0;
+        for (int i = 0; i < paragraphs; i++) {
+            story.append("<ParagraphStyleRange AppliedParagraphStyle=\"ParagraphStyle/Body\">")
+                    .append("<CharacterStyleRange AppliedCharacterStyle=\"CharacterStyle/$ID/[No character style]\">")
+                    .append("<Content>").append(PARAGRAPHS[i % PARAGRAPHS.length]).append(" (").append(i + 1)
+                    .append(")</Content></CharacterStyleRange></ParagraphStyleRange>\n");
+            if (image < images && (i + 1) % imageEvery == 0) {
+                story.append("<ParagraphStyleRange AppliedParagraphStyle=\"ParagraphStyle/Body\">")
+                        .append("<CharacterStyleRange><Rectangle><Image><Link LinkResourceURI=\"Links/kuva")
+                        .append(++image).append(".png\" LinkResourceFormat=\"$ID/Portable Network Graphics (PNG)\"/>")
+                        .append("</Image></Rectangle></CharacterStyleRange></ParagraphStyleRange>\n");
+            }
+        }
+        story.append("</Story>\n</idPkg:Story>\n");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes, StandardCharsets.UTF_8)) {
+            putEntry(zip, "META-INF/container.xml", """
+                    <?xml version="1.0" encoding="UTF-8"?>
+                    <container xmlns="urn:oasis:names:tc:opendocument:xmlns:container" version="1.0">
+                      <rootfiles>
+                        <rootfile full-path="designmap.xml" media-type="text/xml"/>
+                      </rootfiles>
+                    </container>
+                    """.getBytes(StandardCharsets.UTF_8));
+            putEntry(zip, "designmap.xml", """
+                    <?xml version="1.0" encoding="UTF-8"?>
+                    <Document xmlns:idPkg="http://ns.adobe.com/AdobeInDesign/idml/1.0/packaging">
+                      <idPkg:Story src="Stories/Story_u1.xml"/>
+                    </Document>
+                    """.getBytes(StandardCharsets.UTF_8));
+            putEntry(zip, "Stories/Story_u1.xml", story.toString().getBytes(StandardCharsets.UTF_8));
+            for (int i = 1; i <= image; i++) {
+                putEntry(zip, "Links/kuva" + i + ".png", createPng(i));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] createPng(int seed) throws Exception {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.getHSBColor(seed * 0.13f, 0.5f, 0.9f));
+            g.fillRect(0, 0, 640, 480);
+            g.setColor(Color.DARK_GRAY);
+            g.fillOval(80 + seed * 37 % 300, 60 + seed * 53 % 200, 200, 160);
+        } finally {
+            g.dispose();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static void putEntry(ZipOutputStream zip, String name, byte[] content) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    /**
+     * Records how long each run of the wrapped phase takes, however it ends.
+     */
+    private final class TimedPhase extends ProcessingPhase {
+
+        private final ProcessingPhase phase;
+        private final Queue<Long> nanos;
+
+        TimedPhase(ProcessingPhase phase) {
+            this.phase = phase;
+            this.nanos = phaseNanos.get(phase.getName());
+        }
+
+        @Override
+        public void process(ProcessingContext context) throws Exception {
+            long start = System.nanoTime();
+            try {
+                phase.process(context);
+            } finally {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return phase.getName();
+        }
+    }
+
+    private final class CompletionTrackingStatusStore extends ProcessingStatusStore {
+
+        @Override
+        public void setStatus(String fileId, ProcessingStatus status) {
+            super.setStatus(fileId, status);
+            // A parked book would only rerun once the breaker closes again; for the run it has ended.
+            if (status == ProcessingStatus.READY || status == ProcessingStatus.ERROR
+                    || status == ProcessingStatus.AWAITING_OLLAMA) {
+                CompletableFuture<ProcessingStatus> outcome = outcomes.get(fileId);
+                if (outcome != null) {
+                    outcome.complete(status);
+                }
+            }
+        }
+    }
+
+    private final class MetadataReviewer extends PendingMetadataStore {
+
+        @Override
+        public void store(String fileId, ProcessingContext context) {
+            for (String key : B1_CheckMandatoryInformation.getMissingFields(context)) {
+                context.addMetadata(key, "language".equals(key) ? "fi" : "Load " + key);
+            }
+            if (!B1_CheckMandatoryInformation.getMissingImages(context).isEmpty()) {
+                // Nothing a reviewer could fill in here; fail the upload rather than loop.
+                outcomes.getOrDefault(fileId, new CompletableFuture<>()).complete(ProcessingStatus.ERROR);
+                return;
+            }
+            resubmit(checkMandatoryPhaseIndex, context);
+        }
+    }
+
+    private final class AltTextReviewer extends PendingAltTextStore {
+
+        @Override
+        public void store(String fileId, ProcessingContext context) {
+            resubmit(resumeAfterAltTextPhaseIndex, context);
+        }
+    }
+
+    private final class LangMarkupReviewer extends PendingLangMarkupStore {
+
+        @Override
+        public void store(String fileId, ProcessingContext context) {
+            resubmit(resumeAfterLangMarkupPhaseIndex, context);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package fi.publishertools.kss.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import fi.publishertools.kss.integration.ollama.FakeOllamaServer;
+
+class PipelineLoadHarnessTest {
+
+    @Test
+    @DisplayName("a small load run brings every upload through all phases and reports their latencies")
+    void smallRunCompletes() throws Exception {
+        try (FakeOllamaServer server = FakeOllamaServer.builder()
+                .latency(FakeOllamaServer.Latency.uniform(5, 20))
+                .start()) {
+            PipelineLoadHarness.Report report = new PipelineLoadHarness(
+                    new PipelineLoadHarness.Settings(6, 3, 2, 12), List.of(server.baseUrl())).run();
+
+            assertThat(report.completed()).isEqualTo(6);
+            assertThat(report.parked()).isZero();
+            assertThat(report.failed()).isZero();
+            assertThat(report.throughputPerSecond()).isPositive();
+            assertThat(report.endToEnd().count()).isEqualTo(6);
+            assertThat(report.endToEnd().p50()).isLessThanOrEqualTo(report.endToEnd().p99());
+            assertThat(report.phases()).containsKeys("A1_ExtractStories", "B2_ProposeImageAltTexts",
+                    "B3_ProposeLangMarkup", "C5_Finalization");
+            assertThat(report.phases().get("C5_Finalization").count()).isEqualTo(6);
+            assertThat(server.requestCount(FakeOllamaServer.Kind.DESCRIBE)).isEqualTo(12);
+            assertThat(report.format()).contains("end to end", "B2_ProposeImageAltTexts");
+        }
+    }
+
+    @Test
+    @DisplayName("with the shipped policies uploads park AWAITING_OLLAMA once the breaker opens on a failing server")
+    void parksWhenOllamaFails() throws Exception {
+        try (FakeOllamaServer server = FakeOllamaServer.builder().errorRate(1.0).start()) {
+            PipelineLoadHarness.Report report = new PipelineLoadHarness(
+                    new PipelineLoadHarness.Settings(4, 2, 2, 12), List.of(server.baseUrl())).run();
+
+            // Books whose failures came before the breaker opened skip their proposals and complete.
+            assertThat(report.parked()).isPositive();
+            assertThat(report.completed() + report.parked()).isEqualTo(4);
+            assertThat(report.failed()).isZero();
+            assertThat(server.errorCount()).isPositive();
+        }
+    }
+
+    @Test
+    @DisplayName("with several servers the uploads are spread over all of them")
+    void spreadsOverServers() throws Exception {
+        try (FakeOllamaServer first = FakeOllamaServer.builder().latency(FakeOllamaServer.Latency.fixed(20)).start();
+                FakeOllamaServer second = FakeOllamaServer.builder().latency(FakeOllamaServer.Latency.fixed(20)).start()) {
+            PipelineLoadHarness.Report report = new PipelineLoadHarness(
+                    new PipelineLoadHarness.Settings(4, 2, 4, 12), List.of(first.baseUrl(), second.baseUrl())).run();
+
+            assertThat(report.completed()).isEqualTo(4);
+            assertThat(first.requestCount(FakeOllamaServer.Kind.DESCRIBE)).isPositive();
+            assertThat(second.requestCount(FakeOllamaServer.Kind.DESCRIBE)).isPositive();
+            assertThat(first.requestCount(FakeOllamaServer.Kind.DESCRIBE)
+                    + second.requestCount(FakeOllamaServer.Kind.DESCRIBE)).isEqualTo(16);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package fi.publishertools.kss.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import fi.publishertools.kss.dto.LangMarkupOccurrenceDetail;
+import fi.publishertools.kss.dto.LangMarkupUpdateRequest;
+import fi.publishertools.kss.model.ProcessingContext;
+import fi.publishertools.kss.model.StoredFile;
+import fi.publishertools.kss.model.content.ChapterNode;
+import fi.publishertools.kss.model.content.CharacterStyleRangeNode;
+import fi.publishertools.kss.model.content.ImageNode;
+import fi.publishertools.kss.model.content.ParagraphStyleRangeNode;
+import fi.publishertools.kss.model.content.StoryNode;
+
+class SurroundingTextIndexTest {
+
+    private static CharacterStyleRangeNode text(String value) {
+        return new CharacterStyleRangeNode(value, null, null);
+    }
+
+    @Test
+    @DisplayName("text before is the text immediately preceding the occurrence, capped from the left")
+    void textBeforeIsNearestText() {
+        List<ChapterNode> paragraphs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            paragraphs.add(new ParagraphStyleRangeNode(List.of(text("Kappale numero " + i + ".")), "p"));
+        }
+        paragraphs.add(new ParagraphStyleRangeNode(List.of(
+                new ImageNode(null, "kuva.jpg", "jpg", null, null),
+                text("Kuvateksti."),
+                new CharacterStyleRangeNode("bonjour", null, "fr"),
+                text("Loppu.")), "p"));
+        SurroundingTextIndex index = SurroundingTextIndex.build(List.of(new StoryNode(paragraphs, "h1")));
+
+        SurroundingTextIndex.Surrounding image = index.aroundImage(0, 40);
+        assertThat(image.textBefore()).endsWith("Kappale numero 49.").hasSizeLessThanOrEqualTo(40);
+        assertThat(image.textAfter()).startsWith("Kuvateksti. bonjour");
+
+        SurroundingTextIndex.Surrounding lang = index.aroundLangOccurrence(0, 300);
+        assertThat(lang.textBefore()).endsWith("Kappale numero 49. Kuvateksti.").hasSizeLessThanOrEqualTo(300);
+        assertThat(lang.textAfter()).isEqualTo("Loppu.");
+
+        assertThat(index.aroundImage(1, 300)).isEqualTo(new SurroundingTextIndex.Surrounding("", ""));
+    }
+
+    @Test
+    @DisplayName("lang-markup detail follows edits without rebuilding the index")
+    void langDetailFollowsEdits() {
+        PendingLangMarkupStore store = new PendingLangMarkupStore();
+        LangMarkupReviewService service = new LangMarkupReviewService(store);
+        ProcessingContext context = new ProcessingContext(
+                new StoredFile("f1", "kirja.idml", "application/zip", 0L, Instant.EPOCH, new byte[0]));
+        context.setChapters(List.of(new ParagraphStyleRangeNode(List.of(
+                text("Alku."),
+                new CharacterStyleRangeNode("bonjour", null, "fr"),
+                text("Keski."),
+                new CharacterStyleRangeNode("merci", null, "fr"),
+                text("Loppu.")), "p")));
+        store.store(context.getFileId(), context);
+
+        SurroundingTextIndex before = store.surroundingTextIndex(context);
+        assertThat(store.surroundingTextIndex(context)).isSameAs(before);
+        assertThat(service.getOccurrenceDetail(context, 1).getTextBefore()).isEqualTo("Alku. bonjour Keski.");
+
+        LangMarkupUpdateRequest dismiss = new LangMarkupUpdateRequest();
+        dismiss.setDismiss(true);
+        service.applyUpdate(context, 0, dismiss);
+
+        LangMarkupOccurrenceDetail detail = service.getOccurrenceDetail(context, 0);
+        assertThat(detail.getPhraseText()).isEqualTo("merci");
+        assertThat(detail.getTextAfter()).isEqualTo("Loppu.");
+        assertThat(store.surroundingTextIndex(context)).isSameAs(before);
+    }
+
+    @Test
+    @DisplayName("container edits keep the index identical to a full rebuild")
+    void incrementalUpdatesMatchRebuild() {
+        PendingLangMarkupStore store = new PendingLangMarkupStore();
+        LangMarkupReviewService service = new LangMarkupReviewService(store);
+        ProcessingContext context = new ProcessingContext(
+                new StoredFile("f1", "kirja.idml", "application/zip", 0L, Instant.EPOCH, new byte[0]));
+        List<ChapterNode> paragraphs = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            paragraphs.add(new ParagraphStyleRangeNode(List.of(
+                    text("Kappale " + i + "."),
+                    new CharacterStyleRangeNode("bonjour " + i, null, "fr"),
+                    text("ja"),
+                    new CharacterStyleRangeNode("merci " + i, null, "fr")), "p"));
+            paragraphs.add(new ImageNode(null, "kuva" + i + ".jpg", "jpg", null, null));
+        }
+        context.setChapters(List.of(new StoryNode(paragraphs, "h1")));
+        store.store(context.getFileId(), context);
+        SurroundingTextIndex index = store.surroundingTextIndex(context);
+
+        LangMarkupUpdateRequest dismiss = new LangMarkupUpdateRequest();
+        dismiss.setDismiss(true);
+        service.applyUpdate(context, 3, dismiss);
+        LangMarkupUpdateRequest rewrite = new LangMarkupUpdateRequest();
+        rewrite.setPhraseText("salut tout le monde");
+        rewrite.setTextBefore("Uusi alku.");
+        service.applyUpdate(context, 6, rewrite);
+        service.applyUpdate(context, 0, dismiss);
+
+        assertThat(store.surroundingTextIndex(context)).isSameAs(index);
+        SurroundingTextIndex rebuilt = SurroundingTextIndex.build(context.getChapters());
+        for (int i = 0; i < 12; i++) {
+            assertThat(index.aroundLangOccurrence(i, 30)).isEqualTo(rebuilt.aroundLangOccurrence(i, 30));
+        }
+        for (int i = 0; i < 6; i++) {
+            assertThat(index.aroundImage(i, 30)).isEqualTo(rebuilt.aroundImage(i, 30));
+        }
+        assertThat(index.aroundLangOccurrence(6, 300).textBefore()).endsWith("bonjour 3 Uusi alku. salut tout le monde Kappale 4.");
+    }
+}
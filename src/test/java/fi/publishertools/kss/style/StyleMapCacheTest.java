@@ -0,0 +1,98 @@
+package fi.publishertools.kss.style;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class StyleMapCacheTest {
+
+    private static final String STYLES_XML = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <Root>
+              <CharacterStyle Self="CharacterStyle/Emphasis">
+                <Properties><BasedOn type="object">CharacterStyle/Bold</BasedOn></Properties>
+              </CharacterStyle>
+              <CharacterStyle Self="CharacterStyle/Bold">
+                <Properties><BasedOn type="object">CharacterStyle/Strong</BasedOn></Properties>
+              </CharacterStyle>
+              <ParagraphStyle Self="ParagraphStyle/Heading1">
+                <StyleExportTagMap ExportType="EPUB" ExportTag="h1"/>
+              </ParagraphStyle>
+              <ParagraphStyle Self="ParagraphStyle/Heading1 Numbered">
+                <Properties><BasedOn type="object">ParagraphStyle/Heading1</BasedOn></Properties>
+              </ParagraphStyle>
+              <ParagraphStyle Self="ParagraphStyle/Loop A">
+                <Properties><BasedOn type="object">ParagraphStyle/Loop B</BasedOn></Properties>
+              </ParagraphStyle>
+              <ParagraphStyle Self="ParagraphStyle/Loop B">
+                <Properties><BasedOn type="object">ParagraphStyle/Loop A</BasedOn></Properties>
+              </ParagraphStyle>
+            </Root>
+            """;
+
+    @Test
+    @DisplayName("BasedOn chains resolve to their root regardless of declaration order")
+    void resolvesChainsIndependentOfOrder() throws Exception {
+        StyleMaps maps = StyleMaps.parse(STYLES_XML.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(maps.simplify("CharacterStyle/Emphasis")).isEqualTo("Strong");
+        assertThat(maps.simplify("CharacterStyle/Bold")).isEqualTo("Strong");
+        assertThat(maps.simplify("CharacterStyle/Unknown")).isEqualTo("Unknown");
+        assertThat(maps.simplify(null)).isNull();
+    }
+
+    @Test
+    @DisplayName("EPUB export tags apply to the style and to styles based on it")
+    void exportTagsPropagateAlongChain() throws Exception {
+        StyleMaps maps = StyleMaps.parse(STYLES_XML.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(maps.simplify("ParagraphStyle/Heading1")).isEqualTo("h1");
+        assertThat(maps.simplify("ParagraphStyle/Heading1 Numbered")).isEqualTo("h1");
+    }
+
+    @Test
+    @DisplayName("BasedOn cycles terminate")
+    void cyclesTerminate() throws Exception {
+        StyleMaps maps = StyleMaps.parse(STYLES_XML.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(maps.simplify("ParagraphStyle/Loop A")).isIn("Loop A", "Loop B");
+        assertThat(maps.simplify("ParagraphStyle/Loop B")).isIn("Loop A", "Loop B");
+    }
+
+    @Test
+    @DisplayName("identical Styles.xml content is parsed once and served from the cache")
+    void identicalContentHitsCache() throws Exception {
+        StyleMapCache cache = new StyleMapCache(4);
+
+        StyleMaps first = cache.get(STYLES_XML.getBytes(StandardCharsets.UTF_8));
+        StyleMaps second = cache.get(STYLES_XML.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(second).isSameAs(first);
+        assertThat(cache.missCount()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("cache is bounded and evicts least recently used templates")
+    void evictsLeastRecentlyUsed() throws Exception {
+        StyleMapCache cache = new StyleMapCache(2);
+        for (int i = 0; i < 5; i++) {
+            cache.get(("<Root id=\"" + i + "\"/>").getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("lastSegment matches split-based fallback without allocating for plain names")
+    void lastSegment() {
+        String plain = "Body";
+        assertThat(StyleMaps.lastSegment(plain)).isSameAs(plain);
+        assertThat(StyleMaps.lastSegment("ParagraphStyle/Body")).isEqualTo("Body");
+        assertThat(StyleMaps.lastSegment("a/b/")).isEqualTo("b");
+        assertThat(StyleMaps.lastSegment("/")).isEqualTo("/");
+        assertThat(StyleMaps.lastSegment("")).isEmpty();
+    }
+}
@@ -0,0 +1,35 @@
+package fi.publishertools.kss.style;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class StyleSymbolTableTest {
+
+    @Test
+    @DisplayName("equal style names resolve to one canonical instance")
+    void internReturnsCanonicalInstance() {
+        StyleSymbolTable symbols = new StyleSymbolTable();
+        String first = symbols.intern(new String("ParagraphStyle/Body"));
+        String second = symbols.intern(new String("ParagraphStyle/Body"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(symbols.intern(null)).isNull();
+        assertThat(symbols.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("last segment is computed once per distinct reference and shared")
+    void lastSegmentIsCachedAndCanonical() {
+        StyleSymbolTable symbols = new StyleSymbolTable();
+        String first = symbols.lastSegment(new String("CharacterStyle/Emphasis"));
+        String second = symbols.lastSegment(new String("CharacterStyle/Emphasis"));
+        String plain = symbols.lastSegment(new String("Emphasis"));
+
+        assertThat(first).isEqualTo("Emphasis");
+        assertThat(second).isSameAs(first);
+        assertThat(plain).isSameAs(first);
+        assertThat(symbols.lastSegment(null)).isNull();
+    }
+}
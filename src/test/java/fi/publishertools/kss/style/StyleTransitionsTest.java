@@ -0,0 +1,31 @@
+package fi.publishertools.kss.style;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class StyleTransitionsTest {
+
+    @Test
+    @DisplayName("counts only observed transitions and restores the enclosing style on pop")
+    void countsObservedTransitionsPerLevel() {
+        StyleTransitions transitions = new StyleTransitions();
+        transitions.add("h1");
+        transitions.push();
+        transitions.add("Body");
+        transitions.add("Body");
+        transitions.pop();
+        transitions.add("p");
+
+        assertThat(transitions.count("level-0", "h1")).isEqualTo(1);
+        assertThat(transitions.count("level-1", "Body")).isEqualTo(1);
+        assertThat(transitions.count("Body", "Body")).isEqualTo(1);
+        assertThat(transitions.count("h1", "p")).isEqualTo(1);
+        assertThat(transitions.count("h1", "Body")).isZero();
+        assertThat(transitions.totalTransitions()).isEqualTo(4);
+        assertThat(transitions.transitions())
+                .extracting(StyleTransitions.Transition::from)
+                .containsExactly("Body", "h1", "level-0", "level-1");
+    }
+}
@@ -0,0 +1,87 @@
+package fi.publishertools.kss.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark comparing the former five-pass String.replace escaper with the single-pass
+ * {@link XmlUtils} escapers on Finnish paragraph text.
+ * <p>
+ * Run from the project root after {@code mvn test-compile}:
+ * <pre>
+ * java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" \
+ *     fi.publishertools.kss.util.XmlEscapeBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlEscapeBenchmark {
+
+    private static final String PLAIN = "Suomen kielessä on viisitoista sijamuotoa, ja sanojen taivutus "
+            + "tapahtuu pääasiassa päätteiden avulla. Kirjan ensimmäinen luku kertoo, miten "
+            + "järvimaisema muuttui hitaasti jääkauden jälkeen ja miten ihmiset asettuivat rannoille.";
+
+    private static final String WITH_MARKUP = "Hän sanoi: \"Tämä on Mäkelä & Pöyhönen Oy:n kirja\" – "
+            + "ja lisäsi, että sivuja on <noin> 300. Lukijan 'muistiinpanot' löytyvät liitteestä.";
+
+    @Param({ "plain", "markup" })
+    public String kind;
+
+    private String text;
+    private StringBuilder out;
+
+    @Setup
+    public void setUp() {
+        text = "plain".equals(kind) ? PLAIN : WITH_MARKUP;
+        out = new StringBuilder(1024);
+    }
+
+    @Benchmark
+    public String legacyReplaceChain() {
+        return text.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;")
+                .replace("'", "&apos;");
+    }
+
+    @Benchmark
+    public String singlePassAttribute() {
+        return XmlUtils.escapeXmlAttribute(text);
+    }
+
+    @Benchmark
+    public String singlePassText() {
+        return XmlUtils.escapeXmlText(text);
+    }
+
+    @Benchmark
+    public int appendToBuilder() {
+        out.setLength(0);
+        XmlUtils.appendEscapedText(out, text);
+        return out.length();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(XmlEscapeBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
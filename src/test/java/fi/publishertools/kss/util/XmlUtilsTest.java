@@ -0,0 +1,48 @@
+package fi.publishertools.kss.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class XmlUtilsTest {
+
+    @Test
+    @DisplayName("escapeXml returns the same instance when nothing needs escaping")
+    void returnsInputWhenNothingToEscape() {
+        String text = "Järvimaisema muuttui hitaasti.";
+        assertThat(XmlUtils.escapeXml(text)).isSameAs(text);
+        assertThat(XmlUtils.escapeXmlText(text)).isSameAs(text);
+        assertThat(XmlUtils.escapeXml(null)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("attribute variant escapes all five special characters like the former replace chain")
+    void attributeVariantEscapesAll() {
+        String text = "Mäkelä & \"Pöyhönen\" <b> 'x'";
+        String expected = text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\"", "&quot;").replace("'", "&apos;");
+        assertThat(XmlUtils.escapeXmlAttribute(text)).isEqualTo(expected);
+        assertThat(XmlUtils.escapeXml(text)).isEqualTo(expected);
+    }
+
+    @Test
+    @DisplayName("text variant leaves quotes unescaped")
+    void textVariantKeepsQuotes() {
+        assertThat(XmlUtils.escapeXmlText("a < \"b\" & 'c'")).isEqualTo("a &lt; \"b\" &amp; 'c'");
+    }
+
+    @Test
+    @DisplayName("append variants write into StringBuilder and Appendable")
+    void appendVariants() throws Exception {
+        StringBuilder sb = new StringBuilder("x=");
+        XmlUtils.appendEscapedAttribute(sb, "1 < 2");
+        assertThat(sb).hasToString("x=1 &lt; 2");
+
+        StringWriter writer = new StringWriter();
+        XmlUtils.appendEscapedText(writer, "A & B");
+        assertThat(writer).hasToString("A &amp; B");
+    }
+}